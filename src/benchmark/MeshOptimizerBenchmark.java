@@ -0,0 +1,199 @@
+/**
+ * 
+ */
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import loader.MeshData;
+import loader.MeshOptimizer;
+import loader.OBJLoader;
+
+/**
+ * Reports the vertex cache efficiency of meshes before and after the mesh optimizer,
+ * as ACMR (transformed vertices per triangle) and ATVR (transforms per vertex) for a
+ * few cache sizes, and checks the optimized mesh still holds exactly the same
+ * triangles. Runs without an OpenGL context. Pass the paths of OBJ files as
+ * arguments, otherwise a generated grid is used, once in file order and once with its
+ * triangles shuffled like an unordered export.
+ * 
+ * @author Bert
+ */
+public class MeshOptimizerBenchmark {
+	
+	/**
+	 * The simulated FIFO cache sizes
+	 */
+	private final static int[] CACHE_SIZES = { 16, 32 };
+	
+	/**
+	 * The amount of optimizations before measuring, lets the JIT compile the code
+	 */
+	private final static int WARMUP_RUNS = 5;
+	
+	/**
+	 * The amount of measured optimizations
+	 */
+	private final static int MEASURED_RUNS = 10;
+	
+	/**
+	 * The amount of quads along each side of the generated grid
+	 */
+	private final static int GRID_SIZE = 300;
+	
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main( String[] args ) throws IOException
+	{
+		if ( args.length > 0 )
+		{
+			for (String file : args)
+			{
+				run(file, OBJLoader.parseObjModel(Files.newInputStream(Paths.get(file))));
+			}
+			return;
+		}
+		
+		MeshData grid = OBJLoader.parseObjModel(new ByteArrayInputStream(
+				OBJParserBenchmark.generateGrid(GRID_SIZE)));
+		run("grid", grid);
+		run("shuffled grid", shuffleTriangles(grid));
+	}
+	
+	/**
+	 * Optimize one mesh and print the results
+	 * 
+	 * @param name
+	 * @param mesh
+	 */
+	private static void run( String name, MeshData mesh )
+	{
+		System.out.println(name + ": " + mesh.getVertexCount() + " vertices, "
+				+ mesh.getIndices().length / 3 + " triangles");
+		
+		MeshData cacheOnly = MeshOptimizer.optimize(mesh, false);
+		MeshData withOverdraw = MeshOptimizer.optimize(mesh, true);
+		report("original", mesh);
+		report("vertex cache", cacheOnly);
+		report("vertex cache+overdraw", withOverdraw);
+		System.out.println(String.format("  same triangles: %b", sameTriangles(mesh,
+				cacheOnly) && sameTriangles(mesh, withOverdraw)));
+		
+		// The time the optimization adds to loading
+		for (int i = 0; i < WARMUP_RUNS; i++)
+		{
+			MeshOptimizer.optimize(mesh, true);
+		}
+		long timeBefore = System.nanoTime();
+		for (int i = 0; i < MEASURED_RUNS; i++)
+		{
+			MeshOptimizer.optimize(mesh, true);
+		}
+		long time = System.nanoTime() - timeBefore;
+		System.out.println(String.format("  %.2f ms/optimize", time / 1e6 / MEASURED_RUNS));
+	}
+	
+	/**
+	 * Print the cache metrics of one mesh
+	 * 
+	 * @param name
+	 * @param mesh
+	 */
+	private static void report( String name, MeshData mesh )
+	{
+		StringBuilder line = new StringBuilder(String.format("  %-22s", name));
+		for (int cacheSize : CACHE_SIZES)
+		{
+			line.append(String.format(" cache %2d: ACMR %.3f ATVR %.3f", cacheSize,
+					MeshOptimizer.computeACMR(mesh.getIndices(), mesh.getVertexCount(),
+							cacheSize), MeshOptimizer.computeATVR(mesh.getIndices(), mesh
+							.getVertexCount(), cacheSize)));
+		}
+		System.out.println(line);
+	}
+	
+	/**
+	 * @param mesh
+	 * @return the mesh with its triangles in a random order
+	 */
+	private static MeshData shuffleTriangles( MeshData mesh )
+	{
+		int[] indices = mesh.getIndices();
+		List<Integer> order = new ArrayList<>();
+		for (int t = 0; t < indices.length / 3; t++)
+		{
+			order.add(t);
+		}
+		Collections.shuffle(order, new Random(42));
+		
+		int[] shuffled = new int[indices.length];
+		for (int t = 0; t < order.size(); t++)
+		{
+			System.arraycopy(indices, order.get(t) * 3, shuffled, t * 3, 3);
+		}
+		return new MeshData(mesh.getPositions(), mesh.getTextureCoords(), mesh
+				.getNormals(), shuffled);
+	}
+	
+	/**
+	 * Compare the triangles of two meshes regardless of their order and vertex
+	 * numbering. The winding of every triangle has to stay the same.
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static boolean sameTriangles( MeshData a, MeshData b )
+	{
+		return describeTriangles(a).equals(describeTriangles(b));
+	}
+	
+	/**
+	 * @param mesh
+	 * @return a sorted description of every triangle, starting at its smallest corner
+	 */
+	private static List<String> describeTriangles( MeshData mesh )
+	{
+		int[] indices = mesh.getIndices();
+		List<String> triangles = new ArrayList<>(indices.length / 3);
+		String[] corners = new String[3];
+		for (int t = 0; t < indices.length / 3; t++)
+		{
+			for (int corner = 0; corner < 3; corner++)
+			{
+				int v = indices[t * 3 + corner];
+				corners[corner] = Arrays.toString(Arrays.copyOfRange(mesh.getPositions(),
+						v * 3, v * 3 + 3))
+						+ Arrays.toString(Arrays.copyOfRange(mesh.getTextureCoords(), v * 2,
+								v * 2 + 2))
+						+ Arrays.toString(Arrays.copyOfRange(mesh.getNormals(), v * 3,
+								v * 3 + 3));
+			}
+			
+			// Rotating the corners keeps the winding
+			int first = 0;
+			for (int corner = 1; corner < 3; corner++)
+			{
+				if ( corners[corner].compareTo(corners[first]) < 0 )
+				{
+					first = corner;
+				}
+			}
+			triangles.add(corners[first] + corners[(first + 1) % 3]
+					+ corners[(first + 2) % 3]);
+		}
+		Collections.sort(triangles);
+		return triangles;
+	}
+	
+}
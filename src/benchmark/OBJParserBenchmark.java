@@ -0,0 +1,375 @@
+/**
+ * 
+ */
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import loader.MeshData;
+import loader.OBJLoader;
+import math.vector.Vector2f;
+import math.vector.Vector3f;
+
+/**
+ * Measures the parse throughput in MB/s and the heap allocations of the streaming
+ * OBJ parser against the previous String.split based implementation.
+ * Runs without an OpenGL context. Pass the path of an OBJ file as argument, otherwise
+ * a generated grid mesh with positions, texture coords and normals is used.
+ * 
+ * @author Bert
+ */
+public class OBJParserBenchmark {
+	
+	/**
+	 * The amount of parses before measuring, lets the JIT compile the code
+	 */
+	private final static int WARMUP_RUNS = 10;
+	
+	/**
+	 * The amount of measured parses
+	 */
+	private final static int MEASURED_RUNS = 20;
+	
+	/**
+	 * The amount of quads along each side of the generated grid
+	 */
+	private final static int GRID_SIZE = 400;
+	
+	/**
+	 * Keeps the results alive so the JIT can't remove the calls
+	 */
+	private static long sink;
+	
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main( String[] args ) throws IOException
+	{
+		// The HotSpot bean can report the allocated bytes of a thread
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long threadID = Thread.currentThread().getId();
+		
+		byte[] content = args.length > 0 ? Files.readAllBytes(Paths.get(args[0]))
+				: generateGrid(GRID_SIZE);
+		System.out.println(String.format("Input: %.2f MB", content.length / 1e6));
+		
+		// Both parsers have to produce the same triangles
+		MeshData expected = tryParseWithSplit(content);
+		MeshData actual = OBJLoader.parseObjModel(new ByteArrayInputStream(content));
+		if ( expected != null )
+		{
+			System.out.println("Identical triangles: " + isIdentical(expected, actual));
+			System.out.println("Vertices: " + expected.getVertexCount() + " -> "
+					+ actual.getVertexCount() + " (" + actual.getWeldedCount()
+					+ " welded)");
+		}
+		else
+		{
+			// The old parser only reads faces with a texture coord and normal per corner
+			System.out.println("The String.split parser can't read this file, only the "
+					+ "streaming parser is measured");
+			System.out.println("Vertices: " + actual.getVertexCount() + " ("
+					+ actual.getWeldedCount() + " welded)");
+		}
+		
+		// Warm up both variants
+		for (int i = 0; i < WARMUP_RUNS; i++)
+		{
+			if ( expected != null )
+			{
+				sink += parseWithSplit(new ByteArrayInputStream(content)).getIndices().length;
+			}
+			sink += OBJLoader.parseObjModel(new ByteArrayInputStream(content))
+					.getIndices().length;
+		}
+		
+		/* String.split variant */
+		long bytesBefore;
+		long timeBefore;
+		long time;
+		long bytes;
+		if ( expected != null )
+		{
+			bytesBefore = threadBean.getThreadAllocatedBytes(threadID);
+			timeBefore = System.nanoTime();
+			for (int i = 0; i < MEASURED_RUNS; i++)
+			{
+				sink += parseWithSplit(new ByteArrayInputStream(content)).getIndices().length;
+			}
+			time = System.nanoTime() - timeBefore;
+			bytes = threadBean.getThreadAllocatedBytes(threadID) - bytesBefore;
+			report("String.split parser", content.length, time, bytes);
+		}
+		
+		/* Streaming variant */
+		bytesBefore = threadBean.getThreadAllocatedBytes(threadID);
+		timeBefore = System.nanoTime();
+		for (int i = 0; i < MEASURED_RUNS; i++)
+		{
+			sink += OBJLoader.parseObjModel(new ByteArrayInputStream(content))
+					.getIndices().length;
+		}
+		time = System.nanoTime() - timeBefore;
+		bytes = threadBean.getThreadAllocatedBytes(threadID) - bytesBefore;
+		report("Streaming parser", content.length, time, bytes);
+		
+		System.out.println("(sink " + sink + ")");
+	}
+	
+	/**
+	 * Print the results of one variant
+	 * 
+	 * @param name
+	 * @param size
+	 * @param nanos
+	 * @param bytes
+	 */
+	private static void report( String name, int size, long nanos, long bytes )
+	{
+		double seconds = nanos / 1e9;
+		System.out.println(String.format("%-22s %8.1f MB/s %8.2f ms/parse %10.2f MB allocated/parse",
+				name, (double) size * MEASURED_RUNS / 1e6 / seconds, nanos / 1e6
+						/ MEASURED_RUNS, bytes / 1e6 / MEASURED_RUNS));
+	}
+	
+	/**
+	 * Compare the data of every triangle corner, the vertex numbering may differ
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static boolean isIdentical( MeshData a, MeshData b )
+	{
+		if ( a.getIndices().length != b.getIndices().length )
+		{
+			return false;
+		}
+		
+		for (int i = 0; i < a.getIndices().length; i++)
+		{
+			int vertexA = a.getIndices()[i];
+			int vertexB = b.getIndices()[i];
+			if ( !sameValues(a.getPositions(), vertexA, b.getPositions(), vertexB, 3)
+					|| !sameValues(a.getTextureCoords(), vertexA, b.getTextureCoords(),
+							vertexB, 2)
+					|| !sameValues(a.getNormals(), vertexA, b.getNormals(), vertexB, 3) )
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Compare one attribute of two vertices
+	 * 
+	 * @param a
+	 * @param vertexA
+	 * @param b
+	 * @param vertexB
+	 * @param size The amount of floats per vertex
+	 * @return
+	 */
+	private static boolean sameValues( float[] a, int vertexA, float[] b, int vertexB,
+			int size )
+	{
+		for (int i = 0; i < size; i++)
+		{
+			if ( a[vertexA * size + i] != b[vertexB * size + i] )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Generate a flat grid in OBJ format with positions, texture coords and normals
+	 * 
+	 * @param size The amount of quads along each side
+	 * @return
+	 */
+	static byte[] generateGrid( int size )
+	{
+		StringBuilder builder = new StringBuilder();
+		int side = size + 1;
+		
+		// One position and texture coord per grid point
+		for (int z = 0; z < side; z++)
+		{
+			for (int x = 0; x < side; x++)
+			{
+				builder.append(String.format(Locale.ROOT, "v %f %f %f\n", x * 0.5f,
+						(float) Math.sin(x * 0.1) * (float) Math.cos(z * 0.1), z * -0.5f));
+			}
+		}
+		for (int z = 0; z < side; z++)
+		{
+			for (int x = 0; x < side; x++)
+			{
+				builder.append(String.format(Locale.ROOT, "vt %f %f\n", (float) x / size,
+						(float) z / size));
+			}
+		}
+		builder.append("vn 0.000000 1.000000 0.000000\n");
+		
+		// Two triangles per quad
+		for (int z = 0; z < size; z++)
+		{
+			for (int x = 0; x < size; x++)
+			{
+				int topLeft = z * side + x + 1;
+				int topRight = topLeft + 1;
+				int bottomLeft = topLeft + side;
+				int bottomRight = bottomLeft + 1;
+				appendFace(builder, topLeft, bottomLeft, topRight);
+				appendFace(builder, topRight, bottomLeft, bottomRight);
+			}
+		}
+		
+		return builder.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+	
+	/**
+	 * Append a face where the texture coord index equals the position index
+	 * 
+	 * @param builder
+	 * @param a
+	 * @param b
+	 * @param c
+	 */
+	private static void appendFace( StringBuilder builder, int a, int b, int c )
+	{
+		builder.append("f ").append(a).append('/').append(a).append("/1 ");
+		builder.append(b).append('/').append(b).append("/1 ");
+		builder.append(c).append('/').append(c).append("/1\n");
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Parse with the previous implementation, which only reads the files it was written
+	 * for
+	 * 
+	 * @param content
+	 * @return the mesh, null when the file can't be read by the previous implementation
+	 * @throws IOException
+	 */
+	private static MeshData tryParseWithSplit( byte[] content ) throws IOException
+	{
+		try
+		{
+			return parseWithSplit(new ByteArrayInputStream(content));
+		}
+		catch (RuntimeException e)
+		{
+			// Faces without texture coords or normals, or polygons it doesn't expect
+			return null;
+		}
+	}
+	
+	/**
+	 * The previous OBJLoader implementation, kept as the baseline
+	 * 
+	 * @param input
+	 * @return
+	 * @throws IOException
+	 */
+	private static MeshData parseWithSplit( InputStream input ) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+		
+		String line;
+		List<Vector3f> vertices = new ArrayList<Vector3f>();
+		List<Vector2f> textures = new ArrayList<Vector2f>();
+		List<Vector3f> normals = new ArrayList<Vector3f>();
+		List<Integer> indices = new ArrayList<Integer>();
+		float[] normalsArray = null;
+		float[] textureArray = null;
+		
+		while (true)
+		{
+			line = reader.readLine();
+			String[] currentLine = line.split(" ");
+			if ( line.startsWith("v ") )
+			{
+				vertices.add(new Vector3f(Float.parseFloat(currentLine[1]), Float
+						.parseFloat(currentLine[2]), Float.parseFloat(currentLine[3])));
+			}
+			else if ( line.startsWith("vt ") )
+			{
+				textures.add(new Vector2f(Float.parseFloat(currentLine[1]), Float
+						.parseFloat(currentLine[2])));
+			}
+			else if ( line.startsWith("vn ") )
+			{
+				normals.add(new Vector3f(Float.parseFloat(currentLine[1]), Float
+						.parseFloat(currentLine[2]), Float.parseFloat(currentLine[3])));
+			}
+			else if ( line.startsWith("f ") )
+			{
+				textureArray = new float[vertices.size() * 2];
+				normalsArray = new float[vertices.size() * 3];
+				break;
+			}
+		}
+		
+		while (line != null)
+		{
+			if ( !line.startsWith("f ") )
+			{
+				line = reader.readLine();
+				continue;
+			}
+			String[] currentLine = line.split(" ");
+			for (int i = 1; i <= 3; i++)
+			{
+				String[] vertexData = currentLine[i].split("/");
+				int currentVertexPointer = Integer.parseInt(vertexData[0]) - 1;
+				indices.add(currentVertexPointer);
+				Vector2f currentTex = textures.get(Integer.parseInt(vertexData[1]) - 1);
+				textureArray[currentVertexPointer * 2] = currentTex.x;
+				textureArray[currentVertexPointer * 2 + 1] = 1 - currentTex.y;
+				Vector3f currentNorm = normals.get(Integer.parseInt(vertexData[2]) - 1);
+				normalsArray[currentVertexPointer * 3] = currentNorm.x;
+				normalsArray[currentVertexPointer * 3 + 1] = currentNorm.y;
+				normalsArray[currentVertexPointer * 3 + 2] = currentNorm.z;
+			}
+			line = reader.readLine();
+		}
+		reader.close();
+		
+		float[] verticesArray = new float[vertices.size() * 3];
+		int vertexPointer = 0;
+		for (Vector3f vertex : vertices)
+		{
+			verticesArray[vertexPointer++] = vertex.x;
+			verticesArray[vertexPointer++] = vertex.y;
+			verticesArray[vertexPointer++] = vertex.z;
+		}
+		
+		int[] indicesArray = new int[indices.size()];
+		for (int i = 0; i < indices.size(); i++)
+		{
+			indicesArray[i] = indices.get(i);
+		}
+		
+		return new MeshData(verticesArray, textureArray, normalsArray, indicesArray);
+	}
+	
+}
@@ -0,0 +1,198 @@
+/**
+ * 
+ */
+package benchmark;
+
+import java.util.Random;
+
+import math.matrix.Matrix4f;
+import math.vector.Vector3f;
+import occlusion.Occluder;
+import occlusion.OcclusionCuller;
+
+/**
+ * Measures the occlusion culler without an OpenGL context. A row of walls stands in
+ * front of the camera with a field of spheres behind and between them. First a few
+ * spheres with a known answer are checked, then the time of a frame is measured: the
+ * rasterization of the walls and the test of every sphere, for a few thread counts.
+ * 
+ * @author Bert
+ */
+public class OcclusionCullingBenchmark {
+	
+	/**
+	 * The size of the depth buffer, like the renderer uses for a 16:9 window
+	 */
+	private final static int WIDTH = 256, HEIGHT = 144;
+	
+	/**
+	 * The amount of spheres tested every frame
+	 */
+	private final static int SPHERE_COUNT = 20000;
+	
+	/**
+	 * The amount of walls, each is a box of 12 triangles
+	 */
+	private final static int WALL_COUNT = 16;
+	
+	/**
+	 * The amount of frames before measuring, lets the JIT compile the code
+	 */
+	private final static int WARMUP_FRAMES = 200;
+	
+	/**
+	 * The amount of measured frames
+	 */
+	private final static int MEASURED_FRAMES = 500;
+	
+	/**
+	 * @param args
+	 */
+	public static void main( String[] args )
+	{
+		Matrix4f viewProjection = createViewProjection();
+		
+		// The spheres, scattered in front of the camera
+		Random random = new Random(42);
+		float[] spheres = new float[SPHERE_COUNT * 4];
+		for (int i = 0; i < SPHERE_COUNT; i++)
+		{
+			spheres[i * 4] = random.nextFloat() * 400 - 200;
+			spheres[i * 4 + 1] = random.nextFloat() * 20;
+			spheres[i * 4 + 2] = -random.nextFloat() * 400 - 10;
+			spheres[i * 4 + 3] = 0.5f + random.nextFloat() * 2;
+		}
+		
+		int[] threadCounts = { 1, 2, Runtime.getRuntime().availableProcessors() };
+		for (int threads : threadCounts)
+		{
+			OcclusionCuller culler = new OcclusionCuller(WIDTH, HEIGHT, threads);
+			addWalls(culler);
+			
+			if ( threads == 1 )
+			{
+				System.out.println("correct: " + check(culler, viewProjection));
+			}
+			
+			for (int i = 0; i < WARMUP_FRAMES; i++)
+			{
+				frame(culler, viewProjection, spheres);
+			}
+			long timeBefore = System.nanoTime();
+			for (int i = 0; i < MEASURED_FRAMES; i++)
+			{
+				frame(culler, viewProjection, spheres);
+			}
+			long time = System.nanoTime() - timeBefore;
+			
+			System.out.println(String.format(
+					"%2d threads: %.3f ms/frame, %d triangles, %d occluded, %d drawn",
+					threads, time / 1e6 / MEASURED_FRAMES, culler.getRasterizedTriangles(),
+					culler.getOccludedCount(), culler.getVisibleCount()));
+			culler.cleanUp();
+		}
+	}
+	
+	/**
+	 * Cull every sphere for one frame
+	 * 
+	 * @param culler
+	 * @param viewProjection
+	 * @param spheres
+	 */
+	private static void frame( OcclusionCuller culler,
+			Matrix4f viewProjection,
+			float[] spheres )
+	{
+		culler.renderOccluders(viewProjection);
+		for (int i = 0; i < SPHERE_COUNT; i++)
+		{
+			culler.isSphereVisible(spheres[i * 4], spheres[i * 4 + 1], spheres[i * 4 + 2],
+					spheres[i * 4 + 3]);
+		}
+	}
+	
+	/**
+	 * Test spheres in front of, behind and next to the first wall
+	 * 
+	 * @param culler
+	 * @param viewProjection
+	 * @return true when every sphere got the expected answer
+	 */
+	private static boolean check( OcclusionCuller culler, Matrix4f viewProjection )
+	{
+		culler.renderOccluders(viewProjection);
+		
+		// The first wall covers x -60..-35 and y 0..30 at z -50..-48
+		boolean inFront = culler.isSphereVisible(-47, 10, -30, 2);
+		boolean behind = culler.isSphereVisible(-47, 10, -150, 2);
+		boolean above = culler.isSphereVisible(-47, 80, -150, 2);
+		boolean crossing = culler.isSphereVisible(-47, 10, -49, 4);
+		return inFront == true && behind == false && above == true && crossing == true;
+	}
+	
+	/**
+	 * Add a row of walls at 50 units from the camera
+	 * 
+	 * @param culler
+	 */
+	private static void addWalls( OcclusionCuller culler )
+	{
+		for (int i = 0; i < WALL_COUNT; i++)
+		{
+			Matrix4f transformation = new Matrix4f();
+			transformation.translate(new Vector3f(-60 + i * 40, 0, -50));
+			culler.addOccluder(createBox(25, 30, 2, transformation));
+		}
+	}
+	
+	/**
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param transformation
+	 * @return a box from the origin to the given size
+	 */
+	private static Occluder createBox( float width,
+			float height,
+			float depth,
+			Matrix4f transformation )
+	{
+		float[] positions = new float[8 * 3];
+		for (int corner = 0; corner < 8; corner++)
+		{
+			positions[corner * 3] = (corner & 1) == 0 ? 0 : width;
+			positions[corner * 3 + 1] = (corner & 2) == 0 ? 0 : height;
+			positions[corner * 3 + 2] = (corner & 4) == 0 ? 0 : depth;
+		}
+		int[] indices = { 0, 1, 3, 0, 3, 2, 4, 6, 7, 4, 7, 5, 0, 4, 5, 0, 5, 1, 2, 3, 7, 2,
+				7, 6, 0, 2, 6, 0, 6, 4, 1, 5, 7, 1, 7, 3 };
+		return new Occluder(positions, indices, transformation);
+	}
+	
+	/**
+	 * @return the projection of the renderer multiplied by a camera at the origin
+	 *         looking down the negative z axis
+	 */
+	private static Matrix4f createViewProjection()
+	{
+		float near = 0.1f, far = 1000, fov = 70;
+		float aspectRatio = (float) WIDTH / HEIGHT;
+		float yScale = (float) (1f / Math.tan(Math.toRadians(fov / 2f)));
+		float length = far - near;
+		
+		Matrix4f projection = new Matrix4f();
+		projection.m00 = yScale / aspectRatio;
+		projection.m11 = yScale;
+		projection.m22 = -((far + near) / length);
+		projection.m23 = -1;
+		projection.m32 = -((2 * near * far) / length);
+		projection.m33 = 0;
+		
+		// Lift the camera a little above the ground
+		Matrix4f view = new Matrix4f();
+		view.translate(new Vector3f(0, -5, 0));
+		return Matrix4f.mul(projection, view, null);
+	}
+	
+}
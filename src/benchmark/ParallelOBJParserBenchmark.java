@@ -0,0 +1,114 @@
+/**
+ * 
+ */
+package benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import loader.MeshData;
+import loader.OBJLoader;
+
+/**
+ * Measures how the parallel OBJ parser scales from 1 to all available cores, and
+ * checks that every run gives exactly the same mesh as the sequential parser.
+ * Runs without an OpenGL context. Pass the path of an OBJ file as argument, otherwise
+ * a generated grid mesh is written to a temporary file.
+ * 
+ * @author Bert
+ */
+public class ParallelOBJParserBenchmark {
+	
+	/**
+	 * The amount of parses before measuring, lets the JIT compile the code
+	 */
+	private final static int WARMUP_RUNS = 5;
+	
+	/**
+	 * The amount of measured parses per thread count
+	 */
+	private final static int MEASURED_RUNS = 10;
+	
+	/**
+	 * The amount of quads along each side of the generated grid
+	 */
+	private final static int GRID_SIZE = 700;
+	
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main( String[] args ) throws IOException
+	{
+		Path file;
+		if ( args.length > 0 )
+		{
+			file = Paths.get(args[0]);
+		}
+		else
+		{
+			file = Files.createTempFile("grid", ".obj");
+			file.toFile().deleteOnExit();
+			Files.write(file, OBJParserBenchmark.generateGrid(GRID_SIZE));
+		}
+		long size = Files.size(file);
+		System.out.println(String.format("Input: %.2f MB", size / 1e6));
+		
+		// The reference result
+		MeshData expected = OBJLoader.parseObjModel(Files.newInputStream(file));
+		
+		double singleThreaded = 0;
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= cores; threads++)
+		{
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			
+			// Warm up, and check the result
+			MeshData actual = null;
+			for (int i = 0; i < WARMUP_RUNS; i++)
+			{
+				actual = OBJLoader.parseObjModel(file, pool);
+			}
+			
+			long timeBefore = System.nanoTime();
+			for (int i = 0; i < MEASURED_RUNS; i++)
+			{
+				OBJLoader.parseObjModel(file, pool);
+			}
+			long time = System.nanoTime() - timeBefore;
+			pool.shutdown();
+			
+			double throughput = (double) size * MEASURED_RUNS / 1e6 / (time / 1e9);
+			if ( threads == 1 )
+			{
+				singleThreaded = throughput;
+			}
+			
+			System.out.println(String.format(
+					"%2d threads %8.1f MB/s %8.2f ms/parse %5.2fx identical: %b", threads,
+					throughput, time / 1e6 / MEASURED_RUNS, throughput / singleThreaded,
+					isIdentical(expected, actual)));
+		}
+	}
+	
+	/**
+	 * Compare two meshes value by value
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static boolean isIdentical( MeshData a, MeshData b )
+	{
+		return Arrays.equals(a.getPositions(), b.getPositions())
+				&& Arrays.equals(a.getTextureCoords(), b.getTextureCoords())
+				&& Arrays.equals(a.getNormals(), b.getNormals())
+				&& Arrays.equals(a.getIndices(), b.getIndices())
+				&& a.getWeldedCount() == b.getWeldedCount();
+	}
+	
+}
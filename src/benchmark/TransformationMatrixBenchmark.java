@@ -0,0 +1,116 @@
+/**
+ * 
+ */
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import math.Maths;
+import math.matrix.Matrix4f;
+import math.vector.Vector3f;
+
+/**
+ * Measures the time and the heap allocations per call of both
+ * Maths.createTransformationMatrix variants.
+ * Runs without an OpenGL context.
+ * 
+ * @author Bert
+ */
+public class TransformationMatrixBenchmark {
+	
+	/**
+	 * The amount of calls before measuring, lets the JIT compile the code
+	 */
+	private final static int WARMUP_CALLS = 2000000;
+	
+	/**
+	 * The amount of measured calls
+	 */
+	private final static int MEASURED_CALLS = 10000000;
+	
+	/**
+	 * Keeps the results alive so the JIT can't remove the calls
+	 */
+	private static float sink;
+	
+	/**
+	 * @param args
+	 */
+	public static void main( String[] args )
+	{
+		// The HotSpot bean can report the allocated bytes of a thread
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long threadID = Thread.currentThread().getId();
+		
+		Vector3f position = new Vector3f(10, 2, -15);
+		Matrix4f dest = new Matrix4f();
+		
+		// Warm up both variants
+		runAllocating(position, WARMUP_CALLS);
+		runInPlace(position, dest, WARMUP_CALLS);
+		
+		/* Allocating variant */
+		long bytesBefore = threadBean.getThreadAllocatedBytes(threadID);
+		long timeBefore = System.nanoTime();
+		runAllocating(position, MEASURED_CALLS);
+		long time = System.nanoTime() - timeBefore;
+		long bytes = threadBean.getThreadAllocatedBytes(threadID) - bytesBefore;
+		report("createTransformationMatrix", time, bytes);
+		
+		/* In place variant */
+		bytesBefore = threadBean.getThreadAllocatedBytes(threadID);
+		timeBefore = System.nanoTime();
+		runInPlace(position, dest, MEASURED_CALLS);
+		time = System.nanoTime() - timeBefore;
+		bytes = threadBean.getThreadAllocatedBytes(threadID) - bytesBefore;
+		report("createTransformationMatrix(dest)", time, bytes);
+		
+		System.out.println("(sink " + sink + ")");
+	}
+	
+	/**
+	 * Call the variant that returns a new matrix
+	 * 
+	 * @param position
+	 * @param calls
+	 */
+	private static void runAllocating( Vector3f position, int calls )
+	{
+		for (int i = 0; i < calls; i++)
+		{
+			Matrix4f m = Maths.createTransformationMatrix(position, i, 2 * i, 30, 1.5f);
+			sink += m.m00;
+		}
+	}
+	
+	/**
+	 * Call the variant that fills the given matrix
+	 * 
+	 * @param position
+	 * @param dest
+	 * @param calls
+	 */
+	private static void runInPlace( Vector3f position, Matrix4f dest, int calls )
+	{
+		for (int i = 0; i < calls; i++)
+		{
+			Maths.createTransformationMatrix(position, i, 2 * i, 30, 1.5f, dest);
+			sink += dest.m00;
+		}
+	}
+	
+	/**
+	 * Print the results of one run
+	 * 
+	 * @param name
+	 * @param nanos
+	 * @param bytes
+	 */
+	private static void report( String name, long nanos, long bytes )
+	{
+		System.out.println(String.format("%-34s %8.2f ns/op %8.2f bytes/op", name,
+				(double) nanos / MEASURED_CALLS, (double) bytes / MEASURED_CALLS));
+	}
+	
+}
@@ -0,0 +1,19 @@
+/**
+ * 
+ */
+package callbacks;
+
+/**
+ * @author Bert
+ */
+public interface EvictionCallback {
+	
+	/**
+	 * Asks to free GPU memory, because the allocated memory went over the budget. The
+	 * callback deletes what it can do without, through the GPU resource manager.
+	 * 
+	 * @param bytesOverBudget The amount of bytes that need to be freed
+	 */
+	public void evict( long bytesOverBudget );
+	
+}
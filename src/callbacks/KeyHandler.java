@@ -35,6 +35,16 @@ public class KeyHandler extends GLFWKeyCallback {
 	 */
 	private boolean flatModeEnabled;
 	
+	/**
+	 * The flag for instanced rendering
+	 */
+	private boolean instancingEnabled;
+	
+	/**
+	 * The flag for multi-draw indirect rendering
+	 */
+	private boolean indirectEnabled;
+	
 	/**
 	 * Constructor
 	 * 
@@ -45,6 +55,8 @@ public class KeyHandler extends GLFWKeyCallback {
 		this.res = res;
 		wireframeModeEnabled = false;
 		flatModeEnabled = false;
+		instancingEnabled = true;
+		indirectEnabled = true;
 	}
 	
 	/*
@@ -160,7 +172,37 @@ public class KeyHandler extends GLFWKeyCallback {
 					Render.enableSmoothShading();
 				}
 				
-				break;			
+				break;
+			case GLFW.GLFW_KEY_F6:
+				// Switch flag
+				instancingEnabled = !instancingEnabled;
+				
+				// Toggle instanced rendering
+				if ( instancingEnabled == true )
+				{
+					Render.enableInstancing();
+				}
+				else
+				{
+					Render.disableInstancing();
+				}
+				
+				break;
+			case GLFW.GLFW_KEY_F7:
+				// Switch flag
+				indirectEnabled = !indirectEnabled;
+				
+				// Toggle multi-draw indirect rendering
+				if ( indirectEnabled == true )
+				{
+					Render.enableIndirectDrawing();
+				}
+				else
+				{
+					Render.disableIndirectDrawing();
+				}
+				
+				break;
 			}
 		}
 	}
@@ -0,0 +1,19 @@
+/**
+ * 
+ */
+package callbacks;
+
+/**
+ * @author Bert
+ */
+public interface MeshUnloadCallback {
+	
+	/**
+	 * Tells that the GPU data of a mesh is deleted, the ID of its instance VBO can be
+	 * handed out again for another mesh.
+	 * 
+	 * @param instanceVboID The instance VBO of the mesh
+	 */
+	public void meshUnloaded( int instanceVboID );
+	
+}
@@ -4,14 +4,9 @@
 package callbacks;
 
 import entity.Entity;
-import entity.model.TexturedModel;
 import glStart.RenderResources;
 
 import java.nio.DoubleBuffer;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 
 import math.vector.Vector2f;
 import math.vector.Vector3f;
@@ -27,7 +22,7 @@ import camera.Camera;
 /**
  * @author Bert
  */
-public class MouseButtonCallback extends GLFWMouseButtonCallback {
+public class MouseButtonCallback extends GLFWMouseButtonCallback implements PickCallback {
 	
 	private RenderResources res;
 	
@@ -59,20 +54,9 @@ public class MouseButtonCallback extends GLFWMouseButtonCallback {
 				
 				// Get the mouse position on the screen
 				getMousePosition(window, vectorBuffer);
-				PickedPixel pick = PickingEngine.readPixel((int) vectorBuffer.getX(),
-						(int) vectorBuffer.getY());
-				
-				///System.out.println("Clicked on entity with ID: " + pick.getObjectID());
-				
-				// Fetch the entity with the gotten ID
-				Entity e = getEntityByID(pick);
-				
-				// Do action on clicked entity
-				if ( e != null )
-				{
-					e.doAction();
-				}
-				
+				// Ask for the pixel, the result arrives a few frames later
+				PickingEngine.requestPick((int) vectorBuffer.getX(),
+						(int) vectorBuffer.getY(), this);
 			}
 			
 			break;
@@ -80,6 +64,30 @@ public class MouseButtonCallback extends GLFWMouseButtonCallback {
 		
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see callbacks.PickCallback#pickResolved(picking.PickedPixel)
+	 */
+	@Override
+	public void pickResolved( PickedPixel pick )
+	{
+		if ( pick == null )
+		{
+			return;
+		}
+		
+		///System.out.println("Clicked on entity with ID: " + pick.getObjectID());
+		
+		// Fetch the entity with the gotten ID
+		Entity e = getEntityByID(pick);
+		
+		// Do action on clicked entity
+		if ( e != null )
+		{
+			e.doAction();
+		}
+	}
+	
 	/**
 	 * Gets the position of the mouse inside the window
 	 * The origin is in the top left corner
@@ -105,61 +113,15 @@ public class MouseButtonCallback extends GLFWMouseButtonCallback {
 	}
 	
 	/**
-	 * Reads the previously used entitymap to find the entity with the given id
+	 * Looks up the entity with the picking ID of the given pixel
 	 * 
 	 * @param pick
 	 * @return
 	 */
 	private Entity getEntityByID( PickedPixel pick )
 	{
-		Entity eTarget = null;
-		
-		// Get the object id
-		int objID = pick.getObjectID();
-		// If we got 0 back from the shader, nothing was clicked
-		if ( objID == 0 )
-		{
-			return null;
-		}
-		// Decrease the id counter, because the lists are 0-indexed
-		objID--;
-		
-		// Get the previously used entity map
-		Map<TexturedModel, List<Entity>> entityMap = res.getLastUsedEntityBuffer();
-		// Fetch all entities
-		Collection<List<Entity>> valCollection = entityMap.values();
-		
-		// Iterate the valuesCollection
-		Iterator<List<Entity>> it = valCollection.iterator();
-		// Loop all lists
-		// Break when the objID gets below 0
-		while (it.hasNext() && objID >= 0)
-		{
-			List<Entity> l = it.next();
-			// Get the size of this list
-			int size = l.size();
-			
-			/* DEBUG */
-			//System.out.println("Exploring list with size: " + size);
-			
-			// Check if the ID is bigger than the size of this list
-			if ( objID < size )
-			{
-				// The object is inside this list
-				eTarget = l.get(objID);
-				// Break because we got our target
-				break;
-			}
-			else
-			{
-				// The obj is in the next list
-				// Decrease the id with the size of this list
-				objID -= size;
-			}
-			
-		}
-		
-		return eTarget;
+		// The registry returns null for 0, nothing was clicked
+		return res.getEntityRegistry().getEntity(pick.getObjectID());
 	}
 	
 }
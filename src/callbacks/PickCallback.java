@@ -0,0 +1,21 @@
+/**
+ * 
+ */
+package callbacks;
+
+import picking.PickedPixel;
+
+/**
+ * @author Bert
+ */
+public interface PickCallback {
+	
+	/**
+	 * Receives the result of a pick request, once the picking pass that contains the
+	 * requested pixel has been rendered and read back.
+	 * 
+	 * @param pixel The picked pixel, null if the pixel couldn't be read
+	 */
+	public void pickResolved( PickedPixel pixel );
+	
+}
@@ -5,6 +5,8 @@ package entity;
 
 import callbacks.EntityActionCallback;
 import entity.model.TexturedModel;
+import math.Maths;
+import math.matrix.Matrix4f;
 import math.vector.Vector3f;
 
 /**
@@ -52,6 +54,33 @@ public class Entity {
 	 */
 	private EntityActionCallback callback;
 	
+	/**
+	 * The cached transformation matrix, built from the position, rotations and scale
+	 */
+	private Matrix4f transformationMatrix;
+	
+	/**
+	 * Flag indicating that the transformation matrix doesn't match the current position,
+	 * rotations or scale anymore
+	 */
+	private boolean transformationDirty;
+	
+	/**
+	 * Counter that increases every time the transformation or the texture of this entity
+	 * changes. Renderers can compare it with a stored value to detect changes.
+	 */
+	private int version;
+	
+	/**
+	 * The ID of this entity inside the picking texture, given by the EntityRegistry
+	 */
+	private int pickingID;
+	
+	/**
+	 * The level of detail the entity was drawn with last, 0 is the full model
+	 */
+	private int lodLevel;
+	
 	/**
 	 * @param model
 	 * @param position
@@ -76,6 +105,9 @@ public class Entity {
 		this.rotationY = rotationY;
 		this.rotationZ = rotationZ;
 		this.scale = scale;
+		
+		this.transformationMatrix = new Matrix4f();
+		this.transformationDirty = true;
 	}
 	
 	/**
@@ -102,6 +134,9 @@ public class Entity {
 		this.rotationZ = rotationZ;
 		this.scale = scale;
 		
+		this.transformationMatrix = new Matrix4f();
+		this.transformationDirty = true;
+		
 		setTextureIndex(textureIndex);
 	}
 	
@@ -115,6 +150,8 @@ public class Entity {
 		this.position.x += dx;
 		this.position.y += dy;
 		this.position.z += dz;
+		
+		markTransformationDirty();
 	}
 	
 	/**
@@ -127,6 +164,83 @@ public class Entity {
 		this.rotationX += dx;
 		this.rotationY += dy;
 		this.rotationZ += dz;
+		
+		markTransformationDirty();
+	}
+	
+	/**
+	 * Returns the transformation matrix of this entity.
+	 * The matrix is only rebuilt when the position, rotations or scale have changed since
+	 * the last call. The returned matrix must not be changed.
+	 * 
+	 * @return
+	 */
+	public Matrix4f getTransformationMatrix()
+	{
+		if ( transformationDirty == true )
+		{
+			// Rebuild the matrix in place
+			Maths.createTransformationMatrix(position, rotationX, rotationY, rotationZ,
+					scale, transformationMatrix);
+			transformationDirty = false;
+		}
+		
+		return this.transformationMatrix;
+	}
+	
+	/**
+	 * Mark the transformation matrix as outdated, it will be rebuilt on the next request
+	 */
+	public void markTransformationDirty()
+	{
+		this.transformationDirty = true;
+		version++;
+	}
+	
+	/**
+	 * Returns the counter that increases every time the transformation or texture of this
+	 * entity changes
+	 * 
+	 * @return the version
+	 */
+	public int getVersion()
+	{
+		return this.version;
+	}
+	
+	/**
+	 * @return the pickingID, EntityRegistry.NO_ENTITY if the entity isn't registered
+	 */
+	public int getPickingID()
+	{
+		return this.pickingID;
+	}
+	
+	/**
+	 * @param pickingID the pickingID to set
+	 */
+	void setPickingID( int pickingID )
+	{
+		this.pickingID = pickingID;
+		
+		// The ID is part of the instance data
+		version++;
+	}
+	
+	/**
+	 * @return the lodLevel
+	 */
+	public int getLodLevel()
+	{
+		return this.lodLevel;
+	}
+	
+	/**
+	 * @param lodLevel the lodLevel to set
+	 */
+	public void setLodLevel( int lodLevel )
+	{
+		this.lodLevel = lodLevel;
 	}
 	
 	/**
@@ -143,9 +257,15 @@ public class Entity {
 	public void setModel( TexturedModel model )
 	{
 		this.model = model;
+		
+		// The texture offsets depend on the texture of the model
+		version++;
 	}
 	
 	/**
+	 * Returns the position of this entity.
+	 * Call markTransformationDirty() after changing the returned vector directly.
+	 * 
 	 * @return the position
 	 */
 	public Vector3f getPosition()
@@ -159,6 +279,8 @@ public class Entity {
 	public void setPosition( Vector3f position )
 	{
 		this.position = position;
+		
+		markTransformationDirty();
 	}
 	
 	/**
@@ -175,6 +297,8 @@ public class Entity {
 	public void setRotationX( float rotationX )
 	{
 		this.rotationX = rotationX;
+		
+		markTransformationDirty();
 	}
 	
 	/**
@@ -191,6 +315,8 @@ public class Entity {
 	public void setRotationY( float rotationY )
 	{
 		this.rotationY = rotationY;
+		
+		markTransformationDirty();
 	}
 	
 	/**
@@ -207,6 +333,8 @@ public class Entity {
 	public void setRotationZ( float rotationZ )
 	{
 		this.rotationZ = rotationZ;
+		
+		markTransformationDirty();
 	}
 	
 	/**
@@ -223,6 +351,8 @@ public class Entity {
 	public void setScale( float scale )
 	{
 		this.scale = scale;
+		
+		markTransformationDirty();
 	}
 	
 	/**
@@ -277,6 +407,8 @@ public class Entity {
 		}
 		
 		this.textureIndex = textureIndex;
+		
+		version++;
 	}
 	
 	/**
@@ -296,6 +428,8 @@ public class Entity {
 		{
 			textureIndex++;
 		}
+		
+		version++;
 	}
 	
 	/**
@@ -0,0 +1,218 @@
+/**
+ * 
+ */
+package entity;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * Hands out stable IDs to entities and maps them back in constant time.
+ * The IDs are written into the picking texture, 0 means no entity.
+ * Released IDs are reused by later registrations. The entities are held weakly, an
+ * entity that is no longer referenced anywhere else releases its ID once it has been
+ * garbage collected.
+ * 
+ * @author Bert
+ */
+public class EntityRegistry {
+	
+	/**
+	 * The ID that never belongs to an entity
+	 */
+	public final static int NO_ENTITY = 0;
+	
+	/**
+	 * The registered entities, indexed by their ID
+	 */
+	private EntityReference[] entities;
+	
+	/**
+	 * Receives the references of the collected entities
+	 */
+	private ReferenceQueue<Entity> collected;
+	
+	/**
+	 * IDs that have been released and can be handed out again
+	 */
+	private int[] freeIDs;
+	
+	/**
+	 * The amount of IDs inside freeIDs
+	 */
+	private int freeCount;
+	
+	/**
+	 * The next never used ID
+	 */
+	private int nextID;
+	
+	/**
+	 * The amount of registered entities
+	 */
+	private int size;
+	
+	/**
+	 * Constructor
+	 */
+	public EntityRegistry()
+	{
+		this.entities = new EntityReference[64];
+		this.collected = new ReferenceQueue<>();
+		this.freeIDs = new int[16];
+		this.freeCount = 0;
+		this.nextID = NO_ENTITY + 1;
+		this.size = 0;
+	}
+	
+	/**
+	 * Give the entity an ID, unless it already has one
+	 * 
+	 * @param entity
+	 * @return the ID of the entity
+	 */
+	public int register( Entity entity )
+	{
+		if ( entity.getPickingID() != NO_ENTITY )
+		{
+			return entity.getPickingID();
+		}
+		
+		// Take back the IDs of the collected entities first
+		releaseCollected();
+		
+		// Prefer a released ID
+		int id;
+		if ( freeCount > 0 )
+		{
+			id = freeIDs[--freeCount];
+		}
+		else
+		{
+			id = nextID++;
+			// Grow the table when needed
+			if ( id >= entities.length )
+			{
+				entities = Arrays.copyOf(entities, entities.length * 2);
+			}
+		}
+		
+		entities[id] = new EntityReference(entity, id, collected);
+		entity.setPickingID(id);
+		size++;
+		
+		return id;
+	}
+	
+	/**
+	 * Release the ID of the entity
+	 * 
+	 * @param entity
+	 */
+	public void unregister( Entity entity )
+	{
+		int id = entity.getPickingID();
+		if ( id == NO_ENTITY || id >= nextID || entities[id] == null
+				|| entities[id].get() != entity )
+		{
+			return;
+		}
+		
+		// A cleared reference is never queued, the ID is released here
+		entities[id].clear();
+		entity.setPickingID(NO_ENTITY);
+		release(id);
+	}
+	
+	/**
+	 * Returns the entity with the given ID
+	 * 
+	 * @param id
+	 * @return the entity, null if no entity has this ID
+	 */
+	public Entity getEntity( int id )
+	{
+		if ( id <= NO_ENTITY || id >= nextID || entities[id] == null )
+		{
+			return null;
+		}
+		
+		return entities[id].get();
+	}
+	
+	/**
+	 * @return the amount of registered entities
+	 */
+	public int size()
+	{
+		releaseCollected();
+		return this.size;
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Release the IDs of the entities that were garbage collected
+	 */
+	private void releaseCollected()
+	{
+		Reference<? extends Entity> reference;
+		while ((reference = collected.poll()) != null)
+		{
+			int id = ((EntityReference) reference).id;
+			// The slot may hold a newer entity when the ID was released before
+			if ( entities[id] == reference )
+			{
+				release(id);
+			}
+		}
+	}
+	
+	/**
+	 * Empty the slot of an ID and keep the ID for reuse
+	 * 
+	 * @param id
+	 */
+	private void release( int id )
+	{
+		entities[id] = null;
+		size--;
+		
+		if ( freeCount == freeIDs.length )
+		{
+			freeIDs = Arrays.copyOf(freeIDs, freeIDs.length * 2);
+		}
+		freeIDs[freeCount++] = id;
+	}
+	
+	/**
+	 * A weak reference to a registered entity, remembering its ID for when the entity is
+	 * collected
+	 * 
+	 * @author Bert
+	 */
+	private static class EntityReference extends WeakReference<Entity> {
+		
+		/**
+		 * The ID of the entity
+		 */
+		private final int id;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param entity
+		 * @param id
+		 * @param queue
+		 */
+		EntityReference( Entity entity, int id, ReferenceQueue<Entity> queue )
+		{
+			super(entity, queue);
+			this.id = id;
+		}
+		
+	}
+	
+}
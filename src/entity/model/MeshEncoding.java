@@ -0,0 +1,106 @@
+/**
+ * 
+ */
+package entity.model;
+
+import org.lwjgl.opengl.GL11;
+
+import math.vector.Vector3f;
+
+/**
+ * Tells the renderer and the shaders how the data of a model is encoded: the type of
+ * its indices, and how to turn its stored positions and normals back into the
+ * original ones.
+ * 
+ * @author Bert
+ */
+public class MeshEncoding {
+	
+	/**
+	 * Unsigned int indices and float positions and normals, the data needs no decoding
+	 */
+	public final static MeshEncoding DEFAULT = new MeshEncoding(GL11.GL_UNSIGNED_INT,
+			new Vector3f(0, 0, 0), new Vector3f(1, 1, 1), false);
+	
+	/**
+	 * The OpenGL type of the indices, GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+	 */
+	private int indexType;
+	
+	/**
+	 * Added to the stored positions, the minimum of the mesh bounds when the positions
+	 * are quantized
+	 */
+	private Vector3f positionOffset;
+	
+	/**
+	 * Multiplied with the stored positions, the size of the mesh bounds when the
+	 * positions are quantized
+	 */
+	private Vector3f positionScale;
+	
+	/**
+	 * The normals are stored as 2 octahedral coordinates
+	 */
+	private boolean octahedralNormals;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param indexType
+	 * @param positionOffset
+	 * @param positionScale
+	 * @param octahedralNormals
+	 */
+	public MeshEncoding( int indexType,
+			Vector3f positionOffset,
+			Vector3f positionScale,
+			boolean octahedralNormals )
+	{
+		this.indexType = indexType;
+		this.positionOffset = positionOffset;
+		this.positionScale = positionScale;
+		this.octahedralNormals = octahedralNormals;
+	}
+	
+	/**
+	 * @return the indexType
+	 */
+	public int getIndexType()
+	{
+		return this.indexType;
+	}
+	
+	/**
+	 * @return the size of one index in bytes
+	 */
+	public int getIndexSize()
+	{
+		return this.indexType == GL11.GL_UNSIGNED_SHORT ? 2 : 4;
+	}
+	
+	/**
+	 * @return the positionOffset
+	 */
+	public Vector3f getPositionOffset()
+	{
+		return this.positionOffset;
+	}
+	
+	/**
+	 * @return the positionScale
+	 */
+	public Vector3f getPositionScale()
+	{
+		return this.positionScale;
+	}
+	
+	/**
+	 * @return the octahedralNormals
+	 */
+	public boolean isOctahedralNormals()
+	{
+		return this.octahedralNormals;
+	}
+	
+}
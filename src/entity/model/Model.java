@@ -3,6 +3,11 @@
  */
 package entity.model;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import math.vector.Vector3f;
+
 /**
  * @author Bert
  */
@@ -18,15 +23,85 @@ public class Model {
 	 * Tells us how much vertices this model contains
 	 */
 	private int vertexCount;
+	
+	/**
+	 * Identifier for the VBO holding the per-instance data of this model, 0 if the model
+	 * can't be drawn instanced
+	 */
+	private int instanceVboID;
+	
+	/**
+	 * How the indices and vertex data of this model are stored
+	 */
+	private MeshEncoding encoding;
+	
+	/**
+	 * The distance from the origin of the model to its furthest vertex
+	 */
+	private float boundingRadius;
+	
+	/**
+	 * The smallest coordinates of the vertices, in model space
+	 */
+	private Vector3f boundsMin;
+	
+	/**
+	 * The largest coordinates of the vertices, in model space
+	 */
+	private Vector3f boundsMax;
+	
+	/**
+	 * Simplified versions of this model, each with less detail than the previous one
+	 */
+	private List<Model> lowerDetails;
+	
+	/**
+	 * The first vertex of the mesh inside the buffers of its VAO, added to every index
+	 */
+	private int baseVertex;
+	
+	/**
+	 * The first index of the mesh inside the index buffer of its VAO
+	 */
+	private int firstIndex;
+	
+	/**
+	 * True when the mesh is a range inside the shared VAO of the geometry arena
+	 */
+	private boolean inGeometryArena;
 
 	/**
 	 * @param voaID
 	 * @param vertexCount
 	 */
 	public Model( int voaID, int vertexCount )
+	{
+		this(voaID, vertexCount, 0);
+	}
+	
+	/**
+	 * @param voaID
+	 * @param vertexCount
+	 * @param instanceVboID
+	 */
+	public Model( int voaID, int vertexCount, int instanceVboID )
+	{
+		this(voaID, vertexCount, instanceVboID, MeshEncoding.DEFAULT);
+	}
+	
+	/**
+	 * @param voaID
+	 * @param vertexCount
+	 * @param instanceVboID
+	 * @param encoding
+	 */
+	public Model( int voaID, int vertexCount, int instanceVboID, MeshEncoding encoding )
 	{
 		this.voaID = voaID;
 		this.vertexCount = vertexCount;
+		this.instanceVboID = instanceVboID;
+		this.encoding = encoding;
+		this.lowerDetails = new ArrayList<>();
 	}
 
 	/**
@@ -45,6 +120,166 @@ public class Model {
 		return this.vertexCount;
 	}
 	
+	/**
+	 * @return the instanceVboID
+	 */
+	public int getInstanceVboID()
+	{
+		return this.instanceVboID;
+	}
+	
+	/**
+	 * @return the encoding
+	 */
+	public MeshEncoding getEncoding()
+	{
+		return this.encoding;
+	}
+	
+	/**
+	 * @return the boundingRadius
+	 */
+	public float getBoundingRadius()
+	{
+		return this.boundingRadius;
+	}
+	
+	/**
+	 * @param boundingRadius the boundingRadius to set
+	 */
+	public void setBoundingRadius( float boundingRadius )
+	{
+		this.boundingRadius = boundingRadius;
+	}
+	
+	/**
+	 * @return the smallest coordinates of the vertices
+	 */
+	public Vector3f getBoundsMin()
+	{
+		return this.boundsMin;
+	}
+	
+	/**
+	 * @return the largest coordinates of the vertices
+	 */
+	public Vector3f getBoundsMax()
+	{
+		return this.boundsMax;
+	}
+	
+	/**
+	 * Set the axis aligned box around the vertices, in model space
+	 * 
+	 * @param min
+	 * @param max
+	 */
+	public void setBoundingBox( Vector3f min, Vector3f max )
+	{
+		this.boundsMin = min;
+		this.boundsMax = max;
+	}
+	
+	/**
+	 * Place the mesh inside the shared VAO of the geometry arena
+	 * 
+	 * @param baseVertex
+	 * @param firstIndex
+	 */
+	public void setGeometryRange( int baseVertex, int firstIndex )
+	{
+		this.baseVertex = baseVertex;
+		this.firstIndex = firstIndex;
+		this.inGeometryArena = true;
+	}
+	
+	/**
+	 * @return the baseVertex
+	 */
+	public int getBaseVertex()
+	{
+		return this.baseVertex;
+	}
+	
+	/**
+	 * @return the firstIndex
+	 */
+	public int getFirstIndex()
+	{
+		return this.firstIndex;
+	}
+	
+	/**
+	 * @return the offset of the first index inside the index buffer, in bytes
+	 */
+	public long getIndexOffset()
+	{
+		return (long) getFirstIndex() * getEncoding().getIndexSize();
+	}
+	
+	/**
+	 * @return the inGeometryArena
+	 */
+	public boolean isInGeometryArena()
+	{
+		return this.inGeometryArena;
+	}
+	
+	/**
+	 * Add a simplified version, with less detail than the previously added one
+	 * 
+	 * @param lod
+	 */
+	public void addLOD( Model lod )
+	{
+		this.lowerDetails.add(lod);
+	}
+	
+	/**
+	 * @return the amount of levels of detail, including this model itself
+	 */
+	public int getLODCount()
+	{
+		return 1 + this.lowerDetails.size();
+	}
+	
+	/**
+	 * @param level 0 for the full detail
+	 * @return the model for the level of detail
+	 */
+	public Model getLOD( int level )
+	{
+		return level == 0 ? this : this.lowerDetails.get(level - 1);
+	}
+	
+	/**
+	 * @return false while the model is a placeholder for a model that is still loading
+	 */
+	public boolean isLoaded()
+	{
+		return this.getVoaID() != 0;
+	}
+	
+	/**
+	 * Turn a placeholder into the given, loaded, model
+	 * 
+	 * @param loaded
+	 */
+	public void setLoadedModel( Model loaded )
+	{
+		this.voaID = loaded.getVoaID();
+		this.vertexCount = loaded.getVertexCount();
+		this.instanceVboID = loaded.getInstanceVboID();
+		this.encoding = loaded.getEncoding();
+		this.boundingRadius = loaded.getBoundingRadius();
+		this.boundsMin = loaded.getBoundsMin();
+		this.boundsMax = loaded.getBoundsMax();
+		this.lowerDetails = loaded.lowerDetails;
+		this.baseVertex = loaded.getBaseVertex();
+		this.firstIndex = loaded.getFirstIndex();
+		this.inGeometryArena = loaded.isInGeometryArena();
+	}
+	
 	
 	
 	
@@ -3,7 +3,11 @@
  */
 package entity.model;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import entity.texture.ModelTexture;
+import math.vector.Vector3f;
 
 /**
  * @author Bert
@@ -15,6 +19,18 @@ public class TexturedModel extends Model {
 	 */
 	private ModelTexture texture;
 	
+	/**
+	 * The model this textured model was made of, null when made from IDs. Followed
+	 * so a placeholder model that finishes loading shows up here as well.
+	 */
+	private Model model;
+	
+	/**
+	 * The textured versions of the levels of detail of the model, created when first
+	 * used. Index 0 is this model itself.
+	 */
+	private List<TexturedModel> texturedLODs;
+	
 	/**
 	 * Constructor
 	 * 
@@ -39,9 +55,148 @@ public class TexturedModel extends Model {
 	public TexturedModel( Model model, ModelTexture texture )
 	{
 		// Let super handle the model itself
-		super(model.getVoaID(), model.getVertexCount());
+		super(model.getVoaID(), model.getVertexCount(), model.getInstanceVboID(), model
+				.getEncoding());
 		// We keep track of the linked texture
 		this.texture = texture;
+		// And of the model
+		this.model = model;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see entity.model.Model#getVoaID()
+	 */
+	@Override
+	public int getVoaID()
+	{
+		return model != null ? model.getVoaID() : super.getVoaID();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see entity.model.Model#getVertexCount()
+	 */
+	@Override
+	public int getVertexCount()
+	{
+		return model != null ? model.getVertexCount() : super.getVertexCount();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see entity.model.Model#getInstanceVboID()
+	 */
+	@Override
+	public int getInstanceVboID()
+	{
+		return model != null ? model.getInstanceVboID() : super.getInstanceVboID();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see entity.model.Model#getEncoding()
+	 */
+	@Override
+	public MeshEncoding getEncoding()
+	{
+		return model != null ? model.getEncoding() : super.getEncoding();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see entity.model.Model#getBaseVertex()
+	 */
+	@Override
+	public int getBaseVertex()
+	{
+		return model != null ? model.getBaseVertex() : super.getBaseVertex();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see entity.model.Model#getFirstIndex()
+	 */
+	@Override
+	public int getFirstIndex()
+	{
+		return model != null ? model.getFirstIndex() : super.getFirstIndex();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see entity.model.Model#isInGeometryArena()
+	 */
+	@Override
+	public boolean isInGeometryArena()
+	{
+		return model != null ? model.isInGeometryArena() : super.isInGeometryArena();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see entity.model.Model#getBoundingRadius()
+	 */
+	@Override
+	public float getBoundingRadius()
+	{
+		return model != null ? model.getBoundingRadius() : super.getBoundingRadius();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see entity.model.Model#getBoundsMin()
+	 */
+	@Override
+	public Vector3f getBoundsMin()
+	{
+		return model != null ? model.getBoundsMin() : super.getBoundsMin();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see entity.model.Model#getBoundsMax()
+	 */
+	@Override
+	public Vector3f getBoundsMax()
+	{
+		return model != null ? model.getBoundsMax() : super.getBoundsMax();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see entity.model.Model#getLODCount()
+	 */
+	@Override
+	public int getLODCount()
+	{
+		return model != null ? model.getLODCount() : super.getLODCount();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see entity.model.Model#getLOD(int)
+	 */
+	@Override
+	public TexturedModel getLOD( int level )
+	{
+		if ( level == 0 || model == null )
+		{
+			return this;
+		}
+		
+		// Give each level the texture of this model, once
+		if ( texturedLODs == null )
+		{
+			texturedLODs = new ArrayList<>();
+			texturedLODs.add(this);
+		}
+		while (texturedLODs.size() <= level)
+		{
+			texturedLODs.add(new TexturedModel(model.getLOD(texturedLODs.size()), texture));
+		}
+		
+		return texturedLODs.get(level);
 	}
 	
 	/**
@@ -38,6 +38,11 @@ public class ModelTexture {
 	 * The amount of rows defined in the textureAtlas
 	 */
 	private int numberOfTextureRows;
+	
+	/**
+	 * The texture whose image is used instead of the own ID, null when there is none
+	 */
+	private ModelTexture image;
 
 	/**
 	 * @param textureID
@@ -74,14 +79,39 @@ public class ModelTexture {
 		this.useFakeLighting = false;
 		
 	}
+	
+	/**
+	 * Shares the image of another texture, with its own material settings. The image
+	 * is followed when it is loaded later.
+	 * 
+	 * @param image
+	 * @param numberOfTextureRows
+	 */
+	public ModelTexture( ModelTexture image, int numberOfTextureRows )
+	{
+		this(0, numberOfTextureRows);
+		this.image = image;
+	}
 
 	/**
 	 * @return the textureID
 	 */
 	public int getTextureID()
 	{
+		if ( image != null )
+		{
+			return image.getTextureID();
+		}
 		return this.textureID;
 	}
+	
+	/**
+	 * @param textureID the textureID to set, used when a loading texture is ready
+	 */
+	public void setTextureID( int textureID )
+	{
+		this.textureID = textureID;
+	}
 
 	/**
 	 * @return the shineDamper
@@ -14,8 +14,12 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import gpu.GLStateCache;
+import gpu.GPUResourceManager;
+import loader.AssetRegistry;
+import loader.AsyncLoader;
 import loader.Loader;
-import loader.OBJLoader;
+import loader.VertexFormat;
 import math.vector.Vector3f;
 
 import org.lwjgl.glfw.GLFW;
@@ -30,6 +34,7 @@ import org.lwjgl.opengl.GLContext;
 
 import picking.PickingEngine;
 import render.Render;
+import shader.ShaderProgram;
 import terrain.Terrain;
 import callbacks.CharHandler;
 import callbacks.EntityActionCallback;
@@ -50,6 +55,17 @@ import entity.texture.ModelTexture;
  */
 public class OpenGLStart {
 	
+	/**
+	 * The time per frame that can be spent uploading loaded assets, in milliseconds
+	 */
+	private final static float UPLOAD_BUDGET_MILLIS = 4;
+	
+	/**
+	 * The GPU memory the application may use before the eviction callbacks are asked to
+	 * free some, in bytes
+	 */
+	private final static long VRAM_BUDGET_BYTES = 512L * 1024 * 1024;
+	
 	/**
 	 * Window handle
 	 */
@@ -179,6 +195,9 @@ public class OpenGLStart {
 		
 		// Create a new Loader
 		this.loader = new Loader();
+		// One VBO per mesh, with quantized positions, half float texture coords and
+		// octahedral normals
+		this.loader.setVertexFormat(VertexFormat.INTERLEAVED_QUANTIZED);
 		
 		// Generate render resources
 		res = new RenderResources();
@@ -187,6 +206,10 @@ public class OpenGLStart {
 		int windowWidth = (int) winDim.getWidth();
 		int windowHeight = (int) winDim.getHeight();
 		
+		// Limit the GPU memory, the renderer gives up the instance data it drew the least
+		// recently when it runs out
+		GPUResourceManager.setBudget(VRAM_BUDGET_BYTES);
+		
 		// The picker engine
 		pickEngine = new PickingEngine(windowWidth, windowHeight);
 		// Save the pickengine into the resource system
@@ -218,6 +241,9 @@ public class OpenGLStart {
 		// Destroy the pickengine
 		pickEngine.cleanup();
 		
+		// Everything is cleaned up, what is still alive has leaked
+		GPUResourceManager.reportLeaks();
+		
 		// Release all resources
 		glfwDestroyWindow(windowHelper.getHandle());
 		releaseInputHandlers();
@@ -280,6 +306,11 @@ public class OpenGLStart {
 		// EntityRenderer renderer = new EntityRenderer(windowHelper, res.getStShader());
 		Render renderer = new Render(windowHelper, loader, res);
 		
+		// Load the models and textures in the background, the first frames show what's ready
+		AsyncLoader assetLoader = new AsyncLoader(loader, UPLOAD_BUDGET_MILLIS);
+		// Files used more than once are only loaded once
+		AssetRegistry assets = new AssetRegistry(assetLoader, loader);
+		
 		// Generate an entitylist to render
 		List<Entity> entityList = new ArrayList<>();
 		List<Terrain> terrainList = new ArrayList<>();
@@ -287,10 +318,10 @@ public class OpenGLStart {
 		/* OBJECT MODELS */
 		
 		/* Dragon model */
-		Model dragonModel = OBJLoader.loadObjModel("res/dragon.obj", loader);
+		Model dragonModel = assets.acquireModel("res/dragon.obj");
 		// Load the texture
-		ModelTexture dragonTexture = new ModelTexture(
-				loader.loadTexture("res/squareTexture_flatColour.png"), 2); // trans_test.png
+		ModelTexture dragonTexture = assets.acquireTexture(
+				"res/squareTexture_flatColour.png", 2); // trans_test.png
 		// Link model and texture
 		TexturedModel dragonTexturedModel = new TexturedModel(dragonModel, dragonTexture);
 		
@@ -358,10 +389,9 @@ public class OpenGLStart {
 		
 		/* Rectangle model */
 		// Create the model
-		Model boxModel = OBJLoader.loadObjModel("res/rectangle.obj", loader);
+		Model boxModel = assets.acquireModel("res/rectangle.obj");
 		// Load the texture
-		ModelTexture boxTexture = new ModelTexture(
-				loader.loadTexture("res/trans_test.png")); // trans_test.png
+		ModelTexture boxTexture = assets.acquireTexture("res/trans_test.png", 1); // trans_test.png
 		// ModelTexture boxTexture = new
 		// ModelTexture(PickingEngine.getPickingTextureID());
 		boxTexture.setHasTransparency(true);
@@ -384,8 +414,8 @@ public class OpenGLStart {
 		
 		/* TERRAINS */
 		// Load grass terrain texture
-		ModelTexture terrainTexture = new ModelTexture(
-				loader.loadTexture("res/squareTexture_flatColour.png"), 2);
+		ModelTexture terrainTexture = assets.acquireTexture(
+				"res/squareTexture_flatColour.png", 2);
 		// Generate new terrain
 		Terrain terrain = new Terrain(-1, -1, loader, terrainTexture);
 		Terrain terrain2 = new Terrain(0, -1, loader, terrainTexture);
@@ -398,6 +428,12 @@ public class OpenGLStart {
 		terrainList.add(terrain3);
 		terrainList.add(terrain4);
 		
+		// The terrain hides what is below it
+		for (Terrain t : terrainList)
+		{
+			renderer.addOccluder(t.createOccluder());
+		}
+		
 		// Set sky colour
 		Vector3f sky = new Vector3f(0.4f, 0.1f, 0.2f);
 		res.setSkyColour(sky);
@@ -420,12 +456,36 @@ public class OpenGLStart {
 				double frametime = DisplayHelper.getFrameTimeInSeconds();
 				
 				// Set the title with frameTime, every second
-				GLFW.glfwSetWindowTitle(windowHandle, String.format("FrameTime: %.4f",
-						frametime));
+				GLFW.glfwSetWindowTitle(windowHandle, String.format(
+						"FrameTime: %.4f, entities %d (%d culled, %d occluded), terrain %d (%d culled), state calls %d (%d elided), uniforms %d (%d skipped)",
+						frametime, renderer.getVisibleEntityCount()
+								- renderer.getOccludedEntityCount(), renderer
+								.getCulledEntityCount(), renderer.getOccludedEntityCount(),
+						renderer.getVisibleTerrainCount(), renderer.getCulledTerrainCount(),
+						GLStateCache.getIssuedCalls(), GLStateCache.getElidedCalls(),
+						ShaderProgram.getIssuedUniformUploads(), ShaderProgram
+								.getSkippedUniformUploads()));
 				
 				// Save this time
 				lastTime = GLFW.glfwGetTime();
 			}
+			// Count the state changes and uniform uploads of this frame only
+			GLStateCache.resetCounters();
+			ShaderProgram.resetUniformCounters();
+			
+			// Upload the assets that finished loading, within the frame budget
+			if ( assetLoader.isLoading() == true )
+			{
+				assetLoader.processUploads();
+				
+				// Show the memory used by the meshes once everything is uploaded
+				if ( assetLoader.isLoading() == false )
+				{
+					loader.printFootprintReport();
+					System.out.println(assets);
+					GPUResourceManager.printReport();
+				}
+			}
 			
 			// Fetch the active entity buffer
 			Map<TexturedModel, List<Entity>> entityBuffer = res.getActiveEntityBuffer();
@@ -455,6 +515,9 @@ public class OpenGLStart {
 			// Swap the entitybuffer
 			res.swapEntityBuffer();
 			
+			// Hand the finished pick readbacks to their callbacks, never waits on the GPU
+			PickingEngine.resolvePickRequests();
+			
 			// Swap the buffer / show the rendered stuff
 			glfwSwapBuffers(windowHandle);
 			
@@ -463,6 +526,7 @@ public class OpenGLStart {
 		}
 		
 		/* CLEANUP */
+		assetLoader.cleanUp();
 		renderer.cleanUp();
 		
 		// Cleanup buffers (VAO/VBO)
@@ -15,6 +15,7 @@ import camera.Camera;
 import math.vector.Vector3f;
 import shader.ShaderProgram;
 import entity.Entity;
+import entity.EntityRegistry;
 import entity.light.Light;
 import entity.model.TexturedModel;
 
@@ -29,6 +30,11 @@ public class RenderResources {
 	// Pick engine
 	private PickingEngine pickEngine;
 	
+	/**
+	 * The registry that gives every rendered entity its picking ID
+	 */
+	private EntityRegistry entityRegistry;
+	
 	/* SHADERS */	
 	/**
 	 * The static shader
@@ -76,6 +82,9 @@ public class RenderResources {
 		cameraList = new ArrayList<>();
 		lightList = new ArrayList<>();
 		
+		// Generate the entity registry
+		entityRegistry = new EntityRegistry();
+		
 		// Generate entity buffers
 		entityBuffers = new ArrayDeque<>();
 		entityBuffers.add(new HashMap<TexturedModel, List<Entity>>());
@@ -106,6 +115,14 @@ public class RenderResources {
 		return entityBuffers.peekLast();
 	}
 	
+	/**
+	 * @return the registry that maps picking IDs to entities
+	 */
+	public EntityRegistry getEntityRegistry()
+	{
+		return this.entityRegistry;
+	}
+	
 	/**
 	 * Add a camera to the list
 	 * 
@@ -0,0 +1,376 @@
+/**
+ * 
+ */
+package gpu;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * Shadows the OpenGL state the renderers change, and skips every call that would set
+ * what is already set: the bound program, the bound VAO with its enabled attribute
+ * arrays, the texture of every texture unit, the enabled capabilities, the culled face
+ * and the polygon mode. State that was never set through the cache is unknown, the
+ * first call always goes through. Everything that changes this state has to go
+ * through here, or the shadow copy no longer matches OpenGL.
+ * Counts the issued and the elided calls. Only used on the render thread.
+ * 
+ * @author Bert
+ */
+public class GLStateCache {
+	
+	/**
+	 * The value of a binding that was never set through the cache
+	 */
+	private final static int UNKNOWN = -1;
+	
+	/**
+	 * The amount of texture units that are shadowed
+	 */
+	private final static int TEXTURE_UNITS = 16;
+	
+	/**
+	 * The program in use
+	 */
+	private static int program = UNKNOWN;
+	
+	/**
+	 * The bound VAO
+	 */
+	private static int vertexArray = UNKNOWN;
+	
+	/**
+	 * The enabled attribute arrays of every VAO, one bit per attribute index. New VAOs
+	 * start with every array disabled.
+	 */
+	private static Map<Integer, Integer> enabledAttributes = new HashMap<>();
+	
+	/**
+	 * The active texture unit, counted from 0
+	 */
+	private static int activeTextureUnit = UNKNOWN;
+	
+	/**
+	 * The 2D texture bound to every texture unit
+	 */
+	private static int[] textures = createUnknownTextures();
+	
+	/**
+	 * The enabled state of every capability set through the cache
+	 */
+	private static Map<Integer, Boolean> capabilities = new HashMap<>();
+	
+	/**
+	 * The face that gets culled
+	 */
+	private static int cullFace = UNKNOWN;
+	
+	/**
+	 * The polygon mode of the front and back faces
+	 */
+	private static int polygonMode = UNKNOWN;
+	
+	/**
+	 * The amount of calls that went to OpenGL
+	 */
+	private static long issuedCalls;
+	
+	/**
+	 * The amount of calls that were skipped
+	 */
+	private static long elidedCalls;
+	
+	/**
+	 * @param programID The program to use, 0 for none
+	 */
+	public static void useProgram( int programID )
+	{
+		if ( isElided(program == programID) == false )
+		{
+			GL20.glUseProgram(programID);
+			program = programID;
+		}
+	}
+	
+	/**
+	 * @param vaoID The VAO to bind, 0 for none
+	 */
+	public static void bindVertexArray( int vaoID )
+	{
+		if ( isElided(vertexArray == vaoID) == false )
+		{
+			GL30.glBindVertexArray(vaoID);
+			vertexArray = vaoID;
+		}
+	}
+	
+	/**
+	 * Enable an attribute array of the bound VAO
+	 * 
+	 * @param index
+	 */
+	public static void enableVertexAttribArray( int index )
+	{
+		int enabled = getEnabledAttributes();
+		boolean alreadySet = isVertexArrayKnown() == true && (enabled & (1 << index)) != 0;
+		if ( isElided(alreadySet) == false )
+		{
+			GL20.glEnableVertexAttribArray(index);
+			setEnabledAttributes(enabled | (1 << index));
+		}
+	}
+	
+	/**
+	 * Disable an attribute array of the bound VAO
+	 * 
+	 * @param index
+	 */
+	public static void disableVertexAttribArray( int index )
+	{
+		int enabled = getEnabledAttributes();
+		boolean alreadySet = isVertexArrayKnown() == true && (enabled & (1 << index)) == 0;
+		if ( isElided(alreadySet) == false )
+		{
+			GL20.glDisableVertexAttribArray(index);
+			setEnabledAttributes(enabled & ~(1 << index));
+		}
+	}
+	
+	/**
+	 * Bind a 2D texture to a texture unit, the unit only becomes active when the
+	 * binding changes
+	 * 
+	 * @param unit The texture unit, counted from 0
+	 * @param textureID
+	 */
+	public static void bindTexture( int unit, int textureID )
+	{
+		if ( isElided(textures[unit] == textureID) == false )
+		{
+			activeTexture(unit);
+			GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+			textures[unit] = textureID;
+		}
+	}
+	
+	/**
+	 * Bind a 2D texture to the active texture unit, to change or read the texture
+	 * 
+	 * @param textureID
+	 */
+	public static void bindTexture( int textureID )
+	{
+		if ( activeTextureUnit == UNKNOWN )
+		{
+			activeTexture(0);
+		}
+		bindTexture(activeTextureUnit, textureID);
+	}
+	
+	/**
+	 * @param unit The texture unit to make active, counted from 0
+	 */
+	public static void activeTexture( int unit )
+	{
+		if ( isElided(activeTextureUnit == unit) == false )
+		{
+			GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+			activeTextureUnit = unit;
+		}
+	}
+	
+	/**
+	 * Enable or disable a capability like GL_CULL_FACE or GL_DEPTH_TEST
+	 * 
+	 * @param capability
+	 * @param enabled
+	 */
+	public static void setEnabled( int capability, boolean enabled )
+	{
+		Boolean current = capabilities.get(capability);
+		if ( isElided(current != null && current == enabled) == false )
+		{
+			if ( enabled == true )
+			{
+				GL11.glEnable(capability);
+			}
+			else
+			{
+				GL11.glDisable(capability);
+			}
+			capabilities.put(capability, enabled);
+		}
+	}
+	
+	/**
+	 * @param face GL_FRONT, GL_BACK or GL_FRONT_AND_BACK
+	 */
+	public static void cullFace( int face )
+	{
+		if ( isElided(cullFace == face) == false )
+		{
+			GL11.glCullFace(face);
+			cullFace = face;
+		}
+	}
+	
+	/**
+	 * Set the polygon mode of the front and back faces
+	 * 
+	 * @param mode GL_FILL, GL_LINE or GL_POINT
+	 */
+	public static void polygonMode( int mode )
+	{
+		if ( isElided(polygonMode == mode) == false )
+		{
+			GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, mode);
+			polygonMode = mode;
+		}
+	}
+	
+	/**
+	 * Forget the state of an object that is deleted, OpenGL unbinds it
+	 * 
+	 * @param type
+	 * @param id
+	 */
+	static void forget( GPUResourceType type, int id )
+	{
+		switch (type)
+		{
+		case VERTEX_ARRAY:
+			enabledAttributes.remove(id);
+			if ( vertexArray == id )
+			{
+				vertexArray = 0;
+			}
+			break;
+		case TEXTURE:
+			for (int unit = 0; unit < TEXTURE_UNITS; unit++)
+			{
+				if ( textures[unit] == id )
+				{
+					textures[unit] = 0;
+				}
+			}
+			break;
+		default:
+			// A program stays in use until another one is used
+			break;
+		}
+	}
+	
+	/**
+	 * Forget everything, for when the state was changed around the cache
+	 */
+	public static void invalidate()
+	{
+		program = UNKNOWN;
+		vertexArray = UNKNOWN;
+		enabledAttributes.clear();
+		activeTextureUnit = UNKNOWN;
+		textures = createUnknownTextures();
+		capabilities.clear();
+		cullFace = UNKNOWN;
+		polygonMode = UNKNOWN;
+	}
+	
+	/**
+	 * @return the amount of calls that went to OpenGL since the last reset
+	 */
+	public static long getIssuedCalls()
+	{
+		return issuedCalls;
+	}
+	
+	/**
+	 * @return the amount of calls that were skipped since the last reset
+	 */
+	public static long getElidedCalls()
+	{
+		return elidedCalls;
+	}
+	
+	/**
+	 * Start counting from 0, at the start of every frame
+	 */
+	public static void resetCounters()
+	{
+		issuedCalls = 0;
+		elidedCalls = 0;
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Count a call
+	 * 
+	 * @param alreadySet True when the call would set what is already set
+	 * @return alreadySet
+	 */
+	private static boolean isElided( boolean alreadySet )
+	{
+		if ( alreadySet == true )
+		{
+			elidedCalls++;
+		}
+		else
+		{
+			issuedCalls++;
+		}
+		return alreadySet;
+	}
+	
+	/**
+	 * @return false when the bound VAO is unknown, its attribute arrays are then never
+	 *         skipped
+	 */
+	private static boolean isVertexArrayKnown()
+	{
+		return vertexArray != UNKNOWN;
+	}
+	
+	/**
+	 * @return the enabled attribute arrays of the bound VAO, 0 when the VAO is unknown
+	 */
+	private static int getEnabledAttributes()
+	{
+		if ( vertexArray == UNKNOWN )
+		{
+			// Nothing is remembered for it either
+			return 0;
+		}
+		Integer enabled = enabledAttributes.get(vertexArray);
+		return enabled != null ? enabled : 0;
+	}
+	
+	/**
+	 * @param enabled the enabled attribute arrays of the bound VAO
+	 */
+	private static void setEnabledAttributes( int enabled )
+	{
+		if ( vertexArray != UNKNOWN )
+		{
+			enabledAttributes.put(vertexArray, enabled);
+		}
+	}
+	
+	/**
+	 * @return a texture binding for every unit, all unknown
+	 */
+	private static int[] createUnknownTextures()
+	{
+		int[] unknown = new int[TEXTURE_UNITS];
+		for (int unit = 0; unit < TEXTURE_UNITS; unit++)
+		{
+			unknown[unit] = UNKNOWN;
+		}
+		return unknown;
+	}
+	
+}
@@ -0,0 +1,97 @@
+/**
+ * 
+ */
+package gpu;
+
+/**
+ * An OpenGL object that is alive, with who created it and the memory it takes
+ * 
+ * @author Bert
+ */
+public class GPUResource {
+	
+	/**
+	 * The kind of object
+	 */
+	private GPUResourceType type;
+	
+	/**
+	 * The OpenGL name of the object
+	 */
+	private int id;
+	
+	/**
+	 * Who created the object, for the reports
+	 */
+	private String owner;
+	
+	/**
+	 * The GPU memory of the object in bytes, as far as it is known
+	 */
+	private long bytes;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param type
+	 * @param id
+	 * @param owner
+	 */
+	GPUResource( GPUResourceType type, int id, String owner )
+	{
+		this.type = type;
+		this.id = id;
+		this.owner = owner;
+	}
+	
+	/**
+	 * @return the type
+	 */
+	public GPUResourceType getType()
+	{
+		return this.type;
+	}
+	
+	/**
+	 * @return the id
+	 */
+	public int getId()
+	{
+		return this.id;
+	}
+	
+	/**
+	 * @return the owner
+	 */
+	public String getOwner()
+	{
+		return this.owner;
+	}
+	
+	/**
+	 * @return the bytes
+	 */
+	public long getBytes()
+	{
+		return this.bytes;
+	}
+	
+	/**
+	 * @param bytes the bytes to set
+	 */
+	void setBytes( long bytes )
+	{
+		this.bytes = bytes;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return String.format("%s %d of %s, %d bytes", type, id, owner, bytes);
+	}
+	
+}
@@ -0,0 +1,330 @@
+/**
+ * 
+ */
+package gpu;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+import callbacks.EvictionCallback;
+
+/**
+ * Creates and deletes every OpenGL object, so there is one place that knows what is
+ * alive, who created it and how much GPU memory it takes. When the memory goes over
+ * the budget the eviction callbacks are asked to free some. Whatever is still alive at
+ * shutdown has leaked.
+ * Only used on the render thread.
+ * 
+ * @author Bert
+ */
+public class GPUResourceManager {
+	
+	/**
+	 * The living objects, by type and ID, in creation order
+	 */
+	private static Map<Long, GPUResource> resources = new LinkedHashMap<>();
+	
+	/**
+	 * The allocated bytes of each type
+	 */
+	private static long[] allocatedBytes = new long[GPUResourceType.values().length];
+	
+	/**
+	 * The allocated bytes of all types together
+	 */
+	private static long totalBytes;
+	
+	/**
+	 * The amount of bytes that may be allocated before evicting
+	 */
+	private static long budget = Long.MAX_VALUE;
+	
+	/**
+	 * Asked in order to free memory when the budget is exceeded
+	 */
+	private static List<EvictionCallback> evictionCallbacks = new ArrayList<>();
+	
+	/**
+	 * True while the eviction callbacks are running
+	 */
+	private static boolean evicting;
+	
+	/**
+	 * True after warning about the budget, until the memory is below it again
+	 */
+	private static boolean overBudgetReported;
+	
+	/**
+	 * @param owner Who creates the buffer
+	 * @return the ID of a new buffer
+	 */
+	public static int createBuffer( String owner )
+	{
+		return register(GPUResourceType.BUFFER, GL15.glGenBuffers(), owner);
+	}
+	
+	/**
+	 * @param owner Who creates the VAO
+	 * @return the ID of a new VAO
+	 */
+	public static int createVertexArray( String owner )
+	{
+		return register(GPUResourceType.VERTEX_ARRAY, GL30.glGenVertexArrays(), owner);
+	}
+	
+	/**
+	 * @param owner Who creates the texture
+	 * @return the ID of a new texture
+	 */
+	public static int createTexture( String owner )
+	{
+		return register(GPUResourceType.TEXTURE, GL11.glGenTextures(), owner);
+	}
+	
+	/**
+	 * @param owner Who creates the FBO
+	 * @return the ID of a new FBO
+	 */
+	public static int createFramebuffer( String owner )
+	{
+		return register(GPUResourceType.FRAMEBUFFER, GL30.glGenFramebuffers(), owner);
+	}
+	
+	/**
+	 * @param shaderType GL_VERTEX_SHADER or GL_FRAGMENT_SHADER
+	 * @param owner Who creates the shader
+	 * @return the ID of a new shader
+	 */
+	public static int createShader( int shaderType, String owner )
+	{
+		return register(GPUResourceType.SHADER, GL20.glCreateShader(shaderType), owner);
+	}
+	
+	/**
+	 * @param owner Who creates the program
+	 * @return the ID of a new shader program
+	 */
+	public static int createProgram( String owner )
+	{
+		return register(GPUResourceType.PROGRAM, GL20.glCreateProgram(), owner);
+	}
+	
+	/**
+	 * Store the GPU memory an object takes after its storage was (re)allocated
+	 * 
+	 * @param type
+	 * @param id
+	 * @param bytes
+	 */
+	public static void setSize( GPUResourceType type, int id, long bytes )
+	{
+		GPUResource resource = resources.get(key(type, id));
+		if ( resource == null )
+		{
+			System.err.println("Sized " + type + " " + id + " which isn't managed");
+			return;
+		}
+		
+		// Replace the old size in the totals
+		long difference = bytes - resource.getBytes();
+		resource.setBytes(bytes);
+		allocatedBytes[type.ordinal()] += difference;
+		totalBytes += difference;
+		
+		if ( difference > 0 )
+		{
+			enforceBudget();
+		}
+	}
+	
+	/**
+	 * Delete an object and stop accounting its memory
+	 * 
+	 * @param type
+	 * @param id
+	 */
+	public static void delete( GPUResourceType type, int id )
+	{
+		GPUResource resource = resources.remove(key(type, id));
+		if ( resource == null )
+		{
+			// Never created here, or already deleted
+			System.err.println("Deleted " + type + " " + id + " which isn't managed");
+			return;
+		}
+		
+		type.delete(id);
+		// OpenGL unbinds deleted objects, the state cache has to follow
+		GLStateCache.forget(type, id);
+		allocatedBytes[type.ordinal()] -= resource.getBytes();
+		totalBytes -= resource.getBytes();
+	}
+	
+	/**
+	 * @param type
+	 * @return the allocated bytes of one type
+	 */
+	public static long getAllocatedBytes( GPUResourceType type )
+	{
+		return allocatedBytes[type.ordinal()];
+	}
+	
+	/**
+	 * @return the allocated bytes of all types together
+	 */
+	public static long getTotalAllocatedBytes()
+	{
+		return totalBytes;
+	}
+	
+	/**
+	 * @return the living objects, in creation order
+	 */
+	public static Collection<GPUResource> getResources()
+	{
+		return Collections.unmodifiableCollection(resources.values());
+	}
+	
+	/**
+	 * @return the budget
+	 */
+	public static long getBudget()
+	{
+		return budget;
+	}
+	
+	/**
+	 * @param budget The amount of bytes that may be allocated before evicting
+	 */
+	public static void setBudget( long budget )
+	{
+		GPUResourceManager.budget = budget;
+		enforceBudget();
+	}
+	
+	/**
+	 * Add a callback that gets asked to free memory when the budget is exceeded
+	 * 
+	 * @param callback
+	 */
+	public static void addEvictionCallback( EvictionCallback callback )
+	{
+		evictionCallbacks.add(callback);
+	}
+	
+	/**
+	 * @param callback
+	 */
+	public static void removeEvictionCallback( EvictionCallback callback )
+	{
+		evictionCallbacks.remove(callback);
+	}
+	
+	/**
+	 * Print the amount of objects and the memory of each type
+	 */
+	public static void printReport()
+	{
+		int[] counts = new int[GPUResourceType.values().length];
+		for (GPUResource resource : resources.values())
+		{
+			counts[resource.getType().ordinal()]++;
+		}
+		
+		for (GPUResourceType type : GPUResourceType.values())
+		{
+			System.out.println(String.format("%-12s %5d objects, %10d bytes", type,
+					counts[type.ordinal()], allocatedBytes[type.ordinal()]));
+		}
+		System.out.println(String.format("GPU memory: %d bytes, budget %s", totalBytes,
+				budget == Long.MAX_VALUE ? "none" : budget + " bytes"));
+	}
+	
+	/**
+	 * Print every object that is still alive, call it after everything is cleaned up
+	 * 
+	 * @return the amount of leaked objects
+	 */
+	public static int reportLeaks()
+	{
+		for (GPUResource resource : resources.values())
+		{
+			System.err.println("Leaked " + resource);
+		}
+		if ( resources.isEmpty() == false )
+		{
+			System.err.println(String.format("%d GPU objects leaked, %d bytes", resources
+					.size(), totalBytes));
+		}
+		return resources.size();
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Start accounting a new object
+	 * 
+	 * @param type
+	 * @param id
+	 * @param owner
+	 * @return the id
+	 */
+	private static int register( GPUResourceType type, int id, String owner )
+	{
+		resources.put(key(type, id), new GPUResource(type, id, owner));
+		return id;
+	}
+	
+	/**
+	 * Let the eviction callbacks free memory until the budget is met
+	 */
+	private static void enforceBudget()
+	{
+		// Deleting from a callback doesn't start another round
+		if ( evicting == true )
+		{
+			return;
+		}
+		
+		evicting = true;
+		for (EvictionCallback callback : new ArrayList<>(evictionCallbacks))
+		{
+			if ( totalBytes <= budget )
+			{
+				break;
+			}
+			callback.evict(totalBytes - budget);
+		}
+		evicting = false;
+		
+		// Warn once each time the budget can't be met
+		if ( totalBytes > budget && overBudgetReported == false )
+		{
+			System.err.println(String.format("GPU memory %d bytes is over the budget of %d",
+					totalBytes, budget));
+		}
+		overBudgetReported = totalBytes > budget;
+	}
+	
+	/**
+	 * OpenGL names are only unique within their type
+	 * 
+	 * @param type
+	 * @param id
+	 * @return
+	 */
+	private static long key( GPUResourceType type, int id )
+	{
+		return ((long) type.ordinal() << 32) | (id & 0xFFFFFFFFL);
+	}
+	
+}
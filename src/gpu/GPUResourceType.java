@@ -0,0 +1,98 @@
+/**
+ * 
+ */
+package gpu;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * The kinds of OpenGL objects the GPU resource manager keeps track of, each knows how
+ * it is deleted
+ * 
+ * @author Bert
+ */
+public enum GPUResourceType {
+	
+	/**
+	 * Vertex, index, instance and pixel buffers
+	 */
+	BUFFER {
+		
+		@Override
+		void delete( int id )
+		{
+			GL15.glDeleteBuffers(id);
+		}
+	},
+	
+	/**
+	 * Vertex array objects, they only hold references to buffers
+	 */
+	VERTEX_ARRAY {
+		
+		@Override
+		void delete( int id )
+		{
+			GL30.glDeleteVertexArrays(id);
+		}
+	},
+	
+	/**
+	 * Textures
+	 */
+	TEXTURE {
+		
+		@Override
+		void delete( int id )
+		{
+			GL11.glDeleteTextures(id);
+		}
+	},
+	
+	/**
+	 * Framebuffer objects, they only hold references to textures
+	 */
+	FRAMEBUFFER {
+		
+		@Override
+		void delete( int id )
+		{
+			GL30.glDeleteFramebuffers(id);
+		}
+	},
+	
+	/**
+	 * Compiled shader stages
+	 */
+	SHADER {
+		
+		@Override
+		void delete( int id )
+		{
+			GL20.glDeleteShader(id);
+		}
+	},
+	
+	/**
+	 * Linked shader programs
+	 */
+	PROGRAM {
+		
+		@Override
+		void delete( int id )
+		{
+			GL20.glDeleteProgram(id);
+		}
+	};
+	
+	/**
+	 * Delete the OpenGL object
+	 * 
+	 * @param id
+	 */
+	abstract void delete( int id );
+	
+}
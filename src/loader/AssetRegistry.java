@@ -0,0 +1,322 @@
+/**
+ * 
+ */
+package loader;
+
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import entity.model.Model;
+import entity.texture.ModelTexture;
+
+/**
+ * Shares models and textures between everything that uses the same file. Each asset
+ * is loaded once, by the asset loader, and counts the users that acquired it. The
+ * OpenGL objects are deleted when the last user releases it.
+ * Assets that are released while they are still loading stay registered without
+ * users until their upload completes. An acquire before that picks them up again,
+ * otherwise they are deleted once they are uploaded.
+ * 
+ * @author Bert
+ */
+public class AssetRegistry {
+	
+	/**
+	 * Loads the assets that aren't registered yet
+	 */
+	private AsyncLoader assetLoader;
+	
+	/**
+	 * Deletes the assets that aren't used anymore
+	 */
+	private Loader loader;
+	
+	/**
+	 * The registered models, by normalized path
+	 */
+	private Map<String, Asset<Model>> models;
+	
+	/**
+	 * The registered textures, by normalized path
+	 */
+	private Map<String, Asset<ModelTexture>> textures;
+	
+	/**
+	 * The amount of acquires that found the asset registered
+	 */
+	private int hits;
+	
+	/**
+	 * The amount of acquires that had to load the asset
+	 */
+	private int misses;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param assetLoader
+	 * @param loader The loader behind the asset loader
+	 */
+	public AssetRegistry( AsyncLoader assetLoader, Loader loader )
+	{
+		this.assetLoader = assetLoader;
+		this.loader = loader;
+		this.models = new HashMap<>();
+		this.textures = new HashMap<>();
+	}
+	
+	/**
+	 * Get the model of an OBJ file, and count a new user
+	 * 
+	 * @param fileName
+	 * @return the shared model, a placeholder while it is loading
+	 */
+	public Model acquireModel( String fileName )
+	{
+		final String key = normalize(fileName);
+		Asset<Model> asset = models.get(key);
+		
+		if ( asset == null )
+		{
+			// First user, start loading
+			misses++;
+			asset = new Asset<>(assetLoader.loadObjModel(key, new Runnable() {
+				
+				@Override
+				public void run()
+				{
+					deleteUnusedModel(key);
+				}
+			}));
+			models.put(key, asset);
+		}
+		else
+		{
+			hits++;
+		}
+		
+		asset.references++;
+		return asset.value;
+	}
+	
+	/**
+	 * Get a texture, and count a new user. Every user gets its own material settings,
+	 * the image is shared.
+	 * 
+	 * @param fileName
+	 * @param numberOfTextureRows The amount of rows in the texture atlas
+	 * @return a texture using the shared image, which follows it while it is loading
+	 */
+	public ModelTexture acquireTexture( String fileName, int numberOfTextureRows )
+	{
+		final String key = normalize(fileName);
+		Asset<ModelTexture> asset = textures.get(key);
+		
+		if ( asset == null )
+		{
+			// First user, start loading
+			misses++;
+			asset = new Asset<>(assetLoader.loadTexture(key, 1, new Runnable() {
+				
+				@Override
+				public void run()
+				{
+					deleteUnusedTexture(key);
+				}
+			}));
+			textures.put(key, asset);
+		}
+		else
+		{
+			hits++;
+		}
+		
+		asset.references++;
+		return new ModelTexture(asset.value, numberOfTextureRows);
+	}
+	
+	/**
+	 * Remove a user of a model, the last one deletes it
+	 * 
+	 * @param fileName
+	 */
+	public void releaseModel( String fileName )
+	{
+		String key = normalize(fileName);
+		
+		// Delete it when it was the last user, or once it is uploaded
+		if ( release(models, key) != null )
+		{
+			deleteUnusedModel(key);
+		}
+	}
+	
+	/**
+	 * Remove a user of a texture, the last one deletes it
+	 * 
+	 * @param fileName
+	 */
+	public void releaseTexture( String fileName )
+	{
+		String key = normalize(fileName);
+		
+		// Delete it when it was the last user, or once it is uploaded
+		if ( release(textures, key) != null )
+		{
+			deleteUnusedTexture(key);
+		}
+	}
+	
+	/**
+	 * @param fileName
+	 * @return the amount of users of a model
+	 */
+	public int getModelReferences( String fileName )
+	{
+		Asset<Model> asset = models.get(normalize(fileName));
+		return asset != null ? asset.references : 0;
+	}
+	
+	/**
+	 * @param fileName
+	 * @return the amount of users of a texture
+	 */
+	public int getTextureReferences( String fileName )
+	{
+		Asset<ModelTexture> asset = textures.get(normalize(fileName));
+		return asset != null ? asset.references : 0;
+	}
+	
+	/**
+	 * @return the amount of acquires that found the asset registered
+	 */
+	public int getHits()
+	{
+		return this.hits;
+	}
+	
+	/**
+	 * @return the amount of acquires that had to load the asset
+	 */
+	public int getMisses()
+	{
+		return this.misses;
+	}
+	
+	/**
+	 * @return the part of the acquires that found the asset registered
+	 */
+	public float getHitRate()
+	{
+		int total = hits + misses;
+		return total > 0 ? (float) hits / total : 0;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return String.format("Assets: %d models, %d textures, %d hits, %d misses (%.0f%% hits)",
+				models.size(), textures.size(), hits, misses, getHitRate() * 100);
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Delete a model without users, models that are still loading are deleted by the
+	 * end of their upload
+	 * 
+	 * @param key
+	 */
+	private void deleteUnusedModel( String key )
+	{
+		Asset<Model> asset = models.get(key);
+		if ( asset != null && asset.references == 0 && asset.value.isLoaded() == true )
+		{
+			loader.unloadModel(asset.value);
+			models.remove(key);
+		}
+	}
+	
+	/**
+	 * Delete a texture without users, textures that are still loading are deleted by the
+	 * end of their upload
+	 * 
+	 * @param key
+	 */
+	private void deleteUnusedTexture( String key )
+	{
+		Asset<ModelTexture> asset = textures.get(key);
+		if ( asset != null && asset.references == 0 && asset.value.getTextureID() != 0 )
+		{
+			loader.unloadTexture(asset.value.getTextureID());
+			textures.remove(key);
+		}
+	}
+	
+	/**
+	 * Count down the users of an asset
+	 * 
+	 * @param assets
+	 * @param key
+	 * @return the asset, null when it wasn't acquired
+	 */
+	private static <T> Asset<T> release( Map<String, Asset<T>> assets, String key )
+	{
+		Asset<T> asset = assets.get(key);
+		if ( asset == null || asset.references == 0 )
+		{
+			System.err.println("Released " + key + " more often than it was acquired");
+			return null;
+		}
+		
+		asset.references--;
+		return asset;
+	}
+	
+	/**
+	 * Turn a path into the key of its asset, so different ways of writing the same
+	 * file share it
+	 * 
+	 * @param fileName
+	 * @return the path without "." and ".." parts, separated with forward slashes
+	 */
+	static String normalize( String fileName )
+	{
+		return Paths.get(fileName).normalize().toString().replace('\\', '/');
+	}
+	
+	/**
+	 * A registered asset and its users
+	 * 
+	 * @author Bert
+	 */
+	private static class Asset<T> {
+		
+		/**
+		 * The shared model or texture
+		 */
+		private T value;
+		
+		/**
+		 * The amount of users
+		 */
+		private int references;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param value
+		 */
+		private Asset( T value )
+		{
+			this.value = value;
+		}
+		
+	}
+	
+}
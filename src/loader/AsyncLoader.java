@@ -0,0 +1,309 @@
+/**
+ * 
+ */
+package loader;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import entity.model.Model;
+import entity.texture.ModelTexture;
+
+/**
+ * Loads models and textures in the background. Reading, parsing and decoding happens
+ * on worker threads, the resulting data waits in a bounded queue until the render
+ * thread uploads it to OpenGL. Every frame only uploads for a limited amount of time,
+ * so the window keeps responding while a scene loads.
+ * Models and textures are returned right away as placeholders, they are filled in as
+ * soon as their data is uploaded.
+ * 
+ * @author Bert
+ */
+public class AsyncLoader {
+	
+	/**
+	 * The maximum amount of loaded assets waiting for their upload, workers wait when
+	 * the queue is full so decoded data can't pile up in memory
+	 */
+	private final static int UPLOAD_QUEUE_CAPACITY = 16;
+	
+	/**
+	 * Creates the OpenGL objects, only used on the render thread
+	 */
+	private Loader loader;
+	
+	/**
+	 * The threads that read, parse and decode
+	 */
+	private ExecutorService workers;
+	
+	/**
+	 * OpenGL work waiting for the render thread
+	 */
+	private BlockingQueue<Runnable> uploads;
+	
+	/**
+	 * The amount of requested assets that aren't uploaded yet
+	 */
+	private AtomicInteger pendingAssets;
+	
+	/**
+	 * The time per frame that can be spent on uploads, in nanoseconds
+	 */
+	private long uploadBudget;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param loader
+	 * @param uploadBudgetMillis The time per frame that can be spent on uploads
+	 */
+	public AsyncLoader( Loader loader, float uploadBudgetMillis )
+	{
+		this.loader = loader;
+		this.uploads = new ArrayBlockingQueue<>(UPLOAD_QUEUE_CAPACITY);
+		this.pendingAssets = new AtomicInteger();
+		setUploadBudget(uploadBudgetMillis);
+		
+		// Daemon threads, a loading asset never keeps the application alive
+		final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+		this.workers = Executors.newFixedThreadPool(Runtime.getRuntime()
+				.availableProcessors(), new ThreadFactory() {
+			
+			@Override
+			public Thread newThread( Runnable r )
+			{
+				Thread thread = defaultFactory.newThread(r);
+				thread.setDaemon(true);
+				thread.setName("asset-loader-" + thread.getName());
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Start loading an OBJ model
+	 * 
+	 * @param fileName
+	 * @return a placeholder, which holds the model once it is uploaded
+	 */
+	public Model loadObjModel( String fileName )
+	{
+		return loadObjModel(fileName, null);
+	}
+	
+	/**
+	 * Start loading an OBJ model
+	 * 
+	 * @param fileName
+	 * @param uploaded Run on the render thread after the model is uploaded, can be null
+	 * @return a placeholder, which holds the model once it is uploaded
+	 */
+	public Model loadObjModel( final String fileName, final Runnable uploaded )
+	{
+		final Model placeholder = new Model(0, 0);
+		pendingAssets.incrementAndGet();
+		
+		workers.execute(new Runnable() {
+			
+			@Override
+			public void run()
+			{
+				try
+				{
+					// Use the binary version when the file was parsed before
+					long hash = OBJLoader.hashSource(fileName, loader);
+					final MappedMesh cached = OBJLoader.loadCachedMesh(fileName, hash);
+					if ( cached != null )
+					{
+						final List<MappedMesh> cachedLODs = OBJLoader.loadCachedLODs(
+								fileName, hash);
+						queueUpload(new Runnable() {
+							
+							@Override
+							public void run()
+							{
+								placeholder.setLoadedModel(OBJLoader.uploadModel(fileName,
+										cached, cachedLODs, loader));
+								notifyUploaded(uploaded);
+							}
+						});
+						return;
+					}
+					
+					// Parse and simplify the source, and cache the result
+					final MeshData mesh = OBJLoader.parseSource(fileName, loader);
+					final List<MeshData> lods = OBJLoader.createLODs(fileName, mesh);
+					OBJLoader.storeCachedLODs(fileName, hash, lods);
+					OBJLoader.storeCachedMesh(fileName, hash, mesh);
+					
+					queueUpload(new Runnable() {
+						
+						@Override
+						public void run()
+						{
+							placeholder.setLoadedModel(OBJLoader.uploadModel(fileName, mesh,
+									lods, loader));
+							notifyUploaded(uploaded);
+						}
+					});
+				}
+				catch (RuntimeException e)
+				{
+					// The placeholder stays empty
+					System.err.println("Couldn't load " + fileName);
+					e.printStackTrace();
+					pendingAssets.decrementAndGet();
+				}
+			}
+		});
+		
+		return placeholder;
+	}
+	
+	/**
+	 * Start loading a texture
+	 * 
+	 * @param fileName
+	 * @param numberOfTextureRows The amount of rows in the texture atlas
+	 * @return a placeholder, which holds the texture once it is uploaded
+	 */
+	public ModelTexture loadTexture( String fileName, int numberOfTextureRows )
+	{
+		return loadTexture(fileName, numberOfTextureRows, null);
+	}
+	
+	/**
+	 * Start loading a texture
+	 * 
+	 * @param fileName
+	 * @param numberOfTextureRows The amount of rows in the texture atlas
+	 * @param uploaded Run on the render thread after the texture is uploaded, can be
+	 *            null
+	 * @return a placeholder, which holds the texture once it is uploaded
+	 */
+	public ModelTexture loadTexture( final String fileName,
+			int numberOfTextureRows,
+			final Runnable uploaded )
+	{
+		final ModelTexture placeholder = new ModelTexture(0, numberOfTextureRows);
+		pendingAssets.incrementAndGet();
+		
+		workers.execute(new Runnable() {
+			
+			@Override
+			public void run()
+			{
+				try
+				{
+					// Decode the image into pixels
+					final TextureData data = new TextureLoader(loader.loadSource(fileName))
+							.decodeTexture();
+					
+					queueUpload(new Runnable() {
+						
+						@Override
+						public void run()
+						{
+							placeholder.setTextureID(loader.loadTexture(data));
+							notifyUploaded(uploaded);
+						}
+					});
+				}
+				catch (RuntimeException e)
+				{
+					// The placeholder stays empty
+					System.err.println("Couldn't load " + fileName);
+					e.printStackTrace();
+					pendingAssets.decrementAndGet();
+				}
+			}
+		});
+		
+		return placeholder;
+	}
+	
+	/**
+	 * Upload waiting assets until the budget of this frame is used up. Has to be called
+	 * on the render thread, once per frame.
+	 */
+	public void processUploads()
+	{
+		long start = System.nanoTime();
+		Runnable upload;
+		
+		// At least one upload per frame, so loading continues with any budget
+		while ((upload = uploads.poll()) != null)
+		{
+			upload.run();
+			pendingAssets.decrementAndGet();
+			
+			if ( System.nanoTime() - start >= uploadBudget )
+			{
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * @return true while requested assets aren't uploaded yet
+	 */
+	public boolean isLoading()
+	{
+		return pendingAssets.get() > 0;
+	}
+	
+	/**
+	 * @param uploadBudgetMillis The time per frame that can be spent on uploads
+	 */
+	public void setUploadBudget( float uploadBudgetMillis )
+	{
+		this.uploadBudget = (long) (uploadBudgetMillis * 1000000);
+	}
+	
+	/**
+	 * Stop the workers, assets that are still loading stay placeholders
+	 */
+	public void cleanUp()
+	{
+		workers.shutdownNow();
+		uploads.clear();
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * @param uploaded Run after an upload, can be null
+	 */
+	private static void notifyUploaded( Runnable uploaded )
+	{
+		if ( uploaded != null )
+		{
+			uploaded.run();
+		}
+	}
+	
+	/**
+	 * Hand OpenGL work to the render thread, waits while the queue is full
+	 * 
+	 * @param upload
+	 */
+	private void queueUpload( Runnable upload )
+	{
+		try
+		{
+			uploads.put(upload);
+		}
+		catch (InterruptedException e)
+		{
+			// Shutting down
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+}
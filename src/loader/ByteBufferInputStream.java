@@ -0,0 +1,61 @@
+/**
+ * 
+ */
+package loader;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the remaining bytes of a ByteBuffer, like a memory mapped part of a file
+ * 
+ * @author Bert
+ */
+class ByteBufferInputStream extends InputStream {
+	
+	/**
+	 * The source of the bytes
+	 */
+	private ByteBuffer buffer;
+	
+	/**
+	 * @param buffer
+	 */
+	ByteBufferInputStream( ByteBuffer buffer )
+	{
+		this.buffer = buffer;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#read()
+	 */
+	@Override
+	public int read()
+	{
+		if ( buffer.hasRemaining() == false )
+		{
+			return -1;
+		}
+		return buffer.get() & 0xFF;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	@Override
+	public int read( byte[] b, int off, int len )
+	{
+		if ( buffer.hasRemaining() == false )
+		{
+			return -1;
+		}
+		
+		// Copy as much as possible at once
+		int count = Math.min(len, buffer.remaining());
+		buffer.get(b, off, count);
+		return count;
+	}
+	
+}
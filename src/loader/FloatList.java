@@ -0,0 +1,97 @@
+/**
+ * 
+ */
+package loader;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of primitive floats, avoids boxing every value
+ * 
+ * @author Bert
+ */
+class FloatList {
+	
+	/**
+	 * The backing array, only the first size elements are used
+	 */
+	private float[] data;
+	
+	/**
+	 * The amount of used elements
+	 */
+	private int size;
+	
+	/**
+	 * @param capacity The initial capacity
+	 */
+	FloatList( int capacity )
+	{
+		this.data = new float[Math.max(capacity, 16)];
+		this.size = 0;
+	}
+	
+	/**
+	 * Append a value
+	 * 
+	 * @param value
+	 */
+	void add( float value )
+	{
+		if ( size == data.length )
+		{
+			data = Arrays.copyOf(data, data.length * 2);
+		}
+		data[size++] = value;
+	}
+	
+	/**
+	 * Append all values of the other list
+	 * 
+	 * @param other
+	 */
+	void addAll( FloatList other )
+	{
+		int newSize = size + other.size;
+		if ( newSize > data.length )
+		{
+			data = Arrays.copyOf(data, Math.max(newSize, data.length * 2));
+		}
+		System.arraycopy(other.data, 0, data, size, other.size);
+		size = newSize;
+	}
+	
+	/**
+	 * @param index
+	 * @return
+	 */
+	float get( int index )
+	{
+		return data[index];
+	}
+	
+	/**
+	 * @return the amount of used elements
+	 */
+	int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * Forget all values, keeps the backing array
+	 */
+	void clear()
+	{
+		size = 0;
+	}
+	
+	/**
+	 * @return a copy of the used elements
+	 */
+	float[] toArray()
+	{
+		return Arrays.copyOf(data, size);
+	}
+	
+}
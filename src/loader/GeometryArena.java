@@ -0,0 +1,293 @@
+/**
+ * 
+ */
+package loader;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL43;
+
+import gpu.GLStateCache;
+import gpu.GPUResourceManager;
+import gpu.GPUResourceType;
+import render.Render;
+
+/**
+ * Holds the meshes of many models in one large vertex buffer and one large index
+ * buffer, behind a single VAO. Every model is a range of vertices and a range of
+ * indices, drawn with a base vertex, so switching between models doesn't switch VAOs.
+ * The indices are unsigned shorts relative to the first vertex of their mesh. The
+ * per-instance attributes read from a binding the renderer points at the instance VBO
+ * of each model. The buffers double in size when a mesh doesn't fit anymore.
+ * 
+ * @author Bert
+ */
+class GeometryArena {
+	
+	/**
+	 * The most vertices a mesh in the arena can have, its indices have 16 bits
+	 */
+	final static int MAX_MESH_VERTICES = 65536;
+	
+	/**
+	 * Who creates the OpenGL objects, for the GPU resource reports
+	 */
+	private final static String OWNER = "GeometryArena";
+	
+	/**
+	 * The amount of vertices the vertex buffer starts with
+	 */
+	private final static int INITIAL_VERTEX_CAPACITY = 65536;
+	
+	/**
+	 * The amount of indices the index buffer starts with
+	 */
+	private final static int INITIAL_INDEX_CAPACITY = 3 * 65536;
+	
+	/**
+	 * The size of an unsigned short index
+	 */
+	private final static int INDEX_SIZE = 2;
+	
+	/**
+	 * How the vertices are stored
+	 */
+	private VertexFormat format;
+	
+	/**
+	 * The shared VAO
+	 */
+	private int vaoID;
+	
+	/**
+	 * The buffer holding the vertices of every mesh
+	 */
+	private int vertexVboID;
+	
+	/**
+	 * The buffer holding the indices of every mesh
+	 */
+	private int indexVboID;
+	
+	/**
+	 * The used and free ranges of the vertex buffer, in vertices
+	 */
+	private RangeAllocator vertices;
+	
+	/**
+	 * The used and free ranges of the index buffer, in indices
+	 */
+	private RangeAllocator indices;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param format Interleaved, the format every vertex is stored in
+	 */
+	GeometryArena( VertexFormat format )
+	{
+		this.format = format;
+		this.vertices = new RangeAllocator(INITIAL_VERTEX_CAPACITY);
+		this.indices = new RangeAllocator(INITIAL_INDEX_CAPACITY);
+		
+		// Create the buffers at their initial size
+		this.vaoID = GPUResourceManager.createVertexArray(OWNER);
+		this.vertexVboID = createBuffer((long) INITIAL_VERTEX_CAPACITY * format.getStride());
+		this.indexVboID = createBuffer((long) INITIAL_INDEX_CAPACITY * INDEX_SIZE);
+		
+		GLStateCache.bindVertexArray(vaoID);
+		
+		// The instance data of a model comes from one binding, advancing per instance
+		int binding = Render.INSTANCE_BUFFER_BINDING;
+		for (int column = 0; column < 4; column++)
+		{
+			int attrIndex = Render.INSTANCE_MATRIX_ATTR_INDEX + column;
+			GL43.glVertexAttribFormat(attrIndex, 4, GL11.GL_FLOAT, false, column * 4 * 4);
+			GL43.glVertexAttribBinding(attrIndex, binding);
+		}
+		GL43.glVertexAttribFormat(Render.INSTANCE_TEX_OFFSET_ATTR_INDEX, 2, GL11.GL_FLOAT,
+				false, 16 * 4);
+		GL43.glVertexAttribBinding(Render.INSTANCE_TEX_OFFSET_ATTR_INDEX, binding);
+		GL43.glVertexAttribIFormat(Render.INSTANCE_ID_ATTR_INDEX, 1, GL11.GL_INT,
+				(16 + 2) * 4);
+		GL43.glVertexAttribBinding(Render.INSTANCE_ID_ATTR_INDEX, binding);
+		GL43.glVertexBindingDivisor(binding, 1);
+		
+		// The indirect pass reads the index into its instance storage from its own binding
+		GL43.glVertexAttribIFormat(Render.INSTANCE_INDEX_ATTR_INDEX, 1, GL11.GL_INT, 0);
+		GL43.glVertexAttribBinding(Render.INSTANCE_INDEX_ATTR_INDEX,
+				Render.INSTANCE_INDEX_BINDING);
+		GL43.glVertexBindingDivisor(Render.INSTANCE_INDEX_BINDING, 1);
+		
+		GLStateCache.bindVertexArray(0);
+		
+		// Link the vertex and index buffer
+		linkBuffers();
+	}
+	
+	/**
+	 * @return the ID of the shared VAO
+	 */
+	int getVaoID()
+	{
+		return this.vaoID;
+	}
+	
+	/**
+	 * @return the format
+	 */
+	VertexFormat getFormat()
+	{
+		return this.format;
+	}
+	
+	/**
+	 * Copy the vertices of a mesh into the arena
+	 * 
+	 * @param data Interleaved vertices in the format of the arena
+	 * @return the base vertex of the mesh
+	 */
+	int storeVertices( ByteBuffer data )
+	{
+		int stride = format.getStride();
+		int count = data.remaining() / stride;
+		
+		int offset = vertices.allocate(count);
+		if ( offset < 0 )
+		{
+			vertexVboID = growBuffer(vertexVboID, vertices, count, stride);
+			linkBuffers();
+			offset = vertices.allocate(count);
+		}
+		
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, vertexVboID);
+		GL15.glBufferSubData(GL31.GL_COPY_WRITE_BUFFER, (long) offset * stride, data);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+		return offset;
+	}
+	
+	/**
+	 * Copy the indices of a mesh into the arena
+	 * 
+	 * @param data Indices relative to the base vertex of the mesh
+	 * @return the first index of the mesh
+	 */
+	int storeIndices( ShortBuffer data )
+	{
+		int count = data.remaining();
+		
+		int offset = indices.allocate(count);
+		if ( offset < 0 )
+		{
+			indexVboID = growBuffer(indexVboID, indices, count, INDEX_SIZE);
+			linkBuffers();
+			offset = indices.allocate(count);
+		}
+		
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, indexVboID);
+		GL15.glBufferSubData(GL31.GL_COPY_WRITE_BUFFER, (long) offset * INDEX_SIZE, data);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+		return offset;
+	}
+	
+	/**
+	 * Give the ranges of a mesh back, new meshes can use them
+	 * 
+	 * @param baseVertex
+	 * @param firstIndex
+	 */
+	void free( int baseVertex, int firstIndex )
+	{
+		vertices.free(baseVertex);
+		indices.free(firstIndex);
+	}
+	
+	/**
+	 * Print how full the buffers are
+	 */
+	void printUsage()
+	{
+		System.out.println(String.format("Geometry arena: %d/%d vertices, %d/%d indices",
+				vertices.getUsed(), vertices.getCapacity(), indices.getUsed(), indices
+						.getCapacity()));
+	}
+	
+	/**
+	 * Delete the VAO and the buffers
+	 */
+	void cleanUp()
+	{
+		GPUResourceManager.delete(GPUResourceType.VERTEX_ARRAY, vaoID);
+		GPUResourceManager.delete(GPUResourceType.BUFFER, vertexVboID);
+		GPUResourceManager.delete(GPUResourceType.BUFFER, indexVboID);
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Point the VAO at the current vertex and index buffer
+	 */
+	private void linkBuffers()
+	{
+		GLStateCache.bindVertexArray(vaoID);
+		
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vertexVboID);
+		Loader.linkInterleavedAttributes(format);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		
+		// The element buffer binding is part of the VAO
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indexVboID);
+		
+		GLStateCache.bindVertexArray(0);
+	}
+	
+	/**
+	 * @param bytes
+	 * @return a new buffer with room for the given amount of bytes
+	 */
+	private static int createBuffer( long bytes )
+	{
+		int vboID = GPUResourceManager.createBuffer(OWNER);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, vboID);
+		GL15.glBufferData(GL31.GL_COPY_WRITE_BUFFER, bytes, GL15.GL_STATIC_DRAW);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+		GPUResourceManager.setSize(GPUResourceType.BUFFER, vboID, bytes);
+		return vboID;
+	}
+	
+	/**
+	 * Replace a buffer with one that has room for at least the given amount of extra
+	 * elements, the content is copied on the GPU
+	 * 
+	 * @param vboID
+	 * @param allocator
+	 * @param needed
+	 * @param elementSize
+	 * @return the ID of the new buffer
+	 */
+	private static int growBuffer( int vboID,
+			RangeAllocator allocator,
+			int needed,
+			int elementSize )
+	{
+		int oldCapacity = allocator.getCapacity();
+		int newCapacity = Math.max(oldCapacity * 2, oldCapacity + needed);
+		int newVboID = createBuffer((long) newCapacity * elementSize);
+		
+		GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, vboID);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, newVboID);
+		GL31.glCopyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER, 0, 0,
+				(long) oldCapacity * elementSize);
+		GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, 0);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+		
+		GPUResourceManager.delete(GPUResourceType.BUFFER, vboID);
+		allocator.grow(newCapacity);
+		return newVboID;
+	}
+	
+}
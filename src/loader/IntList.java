@@ -0,0 +1,116 @@
+/**
+ * 
+ */
+package loader;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of primitive integers, avoids boxing every value
+ * 
+ * @author Bert
+ */
+class IntList {
+	
+	/**
+	 * The backing array, only the first size elements are used
+	 */
+	private int[] data;
+	
+	/**
+	 * The amount of used elements
+	 */
+	private int size;
+	
+	/**
+	 * @param capacity The initial capacity
+	 */
+	IntList( int capacity )
+	{
+		this.data = new int[Math.max(capacity, 16)];
+		this.size = 0;
+	}
+	
+	/**
+	 * Append a value
+	 * 
+	 * @param value
+	 */
+	void add( int value )
+	{
+		if ( size == data.length )
+		{
+			data = Arrays.copyOf(data, data.length * 2);
+		}
+		data[size++] = value;
+	}
+	
+	/**
+	 * Append all values of the other list
+	 * 
+	 * @param other
+	 */
+	void addAll( IntList other )
+	{
+		int newSize = size + other.size;
+		if ( newSize > data.length )
+		{
+			data = Arrays.copyOf(data, Math.max(newSize, data.length * 2));
+		}
+		System.arraycopy(other.data, 0, data, size, other.size);
+		size = newSize;
+	}
+	
+	/**
+	 * Overwrite the value at the given index
+	 * 
+	 * @param index
+	 * @param value
+	 */
+	void set( int index, int value )
+	{
+		data[index] = value;
+	}
+	
+	/**
+	 * @param index
+	 * @return
+	 */
+	int get( int index )
+	{
+		return data[index];
+	}
+	
+	/**
+	 * Forget the last value
+	 */
+	void removeLast()
+	{
+		size--;
+	}
+	
+	/**
+	 * @return the amount of used elements
+	 */
+	int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * Forget all values, keeps the backing array
+	 */
+	void clear()
+	{
+		size = 0;
+	}
+	
+	/**
+	 * @return a copy of the used elements
+	 */
+	int[] toArray()
+	{
+		return Arrays.copyOf(data, size);
+	}
+	
+}
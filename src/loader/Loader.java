@@ -4,18 +4,35 @@
 package loader;
 
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL33;
 
+import callbacks.MeshUnloadCallback;
+import entity.model.MeshEncoding;
 import entity.model.Model;
+import gpu.GLStateCache;
+import gpu.GPUResourceManager;
+import gpu.GPUResourceType;
+import math.vector.Vector3f;
 import render.Render;
 
 /**
@@ -24,29 +41,139 @@ import render.Render;
 public class Loader {
 	
 	/**
-	 * Contains all the ID's of the created VAO's
+	 * Who creates the OpenGL objects, for the GPU resource reports
 	 */
-	private List<Integer> vaoIDS;
+	private final static String OWNER = "Loader";
 	
 	/**
-	 * Contains all the ID's of the created VBO's
+	 * The ID's of the created VAO's, with the ID's of the VBO's belonging to each
 	 */
-	private List<Integer> vboIDS;
+	private Map<Integer, List<Integer>> vaoBuffers;
+	
+	/**
+	 * The VBO list of the VAO that is being filled
+	 */
+	private List<Integer> newVaoBuffers;
 	
 	/**
 	 * Contains all the DI's of the loaded textures
 	 */
 	private List<Integer> textureIDS;
 	
+	/**
+	 * How the vertex data of new models is stored
+	 */
+	private VertexFormat vertexFormat;
+	
+	/**
+	 * The shared VAO small interleaved meshes are stored in, null until the first one
+	 */
+	private GeometryArena arena;
+	
+	/**
+	 * The ID's of the instance VBO's of the meshes inside the geometry arena
+	 */
+	private List<Integer> arenaInstanceVBOs;
+	
+	/**
+	 * The GPU memory used by each loaded mesh, by the ID of its instance VBO
+	 */
+	private Map<Integer, MeshFootprint> footprints;
+	
+	/**
+	 * Told about every mesh that gets unloaded
+	 */
+	private List<MeshUnloadCallback> unloadCallbacks;
+	
+	/**
+	 * The highest vertex count that can be addressed with unsigned short indices
+	 */
+	private final static int MAX_SHORT_INDEXED_VERTICES = 65536;
+	
 	/**
 	 * Constructor
 	 */
 	public Loader()
 	{
 		// Init
-		vaoIDS = new ArrayList<>();
-		vboIDS = new ArrayList<>();
+		vaoBuffers = new LinkedHashMap<>();
+		arenaInstanceVBOs = new ArrayList<>();
 		textureIDS = new ArrayList<>();
+		vertexFormat = VertexFormat.SEPARATE;
+		footprints = new LinkedHashMap<>();
+		unloadCallbacks = new ArrayList<>();
+	}
+	
+	/**
+	 * @return the vertexFormat
+	 */
+	public VertexFormat getVertexFormat()
+	{
+		return this.vertexFormat;
+	}
+	
+	/**
+	 * Change how the vertex data of models loaded from now on is stored
+	 * 
+	 * @param vertexFormat the vertexFormat to set
+	 */
+	public void setVertexFormat( VertexFormat vertexFormat )
+	{
+		this.vertexFormat = vertexFormat;
+	}
+	
+	/**
+	 * @param model
+	 * @return the GPU memory used by the mesh of the model, null when the model wasn't
+	 *         loaded by this loader
+	 */
+	public MeshFootprint getFootprint( Model model )
+	{
+		return footprints.get(model.getInstanceVboID());
+	}
+	
+	/**
+	 * @return the GPU memory used by every loaded mesh, in loading order
+	 */
+	public Collection<MeshFootprint> getFootprints()
+	{
+		return footprints.values();
+	}
+	
+	/**
+	 * Give the footprint of a loaded model a readable name for the report
+	 * 
+	 * @param model
+	 * @param name
+	 */
+	void nameFootprint( Model model, String name )
+	{
+		MeshFootprint footprint = getFootprint(model);
+		if ( footprint != null )
+		{
+			footprint.setName(name);
+		}
+	}
+	
+	/**
+	 * Print the bytes saved by the vertex format and index size, per mesh and in total
+	 */
+	public void printFootprintReport()
+	{
+		long original = 0;
+		long stored = 0;
+		for (MeshFootprint footprint : footprints.values())
+		{
+			System.out.println(footprint);
+			original += footprint.getOriginalBytes();
+			stored += footprint.getStoredBytes();
+		}
+		System.out.println(String.format("Total: %d -> %d bytes, saved %d", original,
+				stored, original - stored));
+		if ( arena != null )
+		{
+			arena.printUsage();
+		}
 	}
 	
 	/**
@@ -54,25 +181,126 @@ public class Loader {
 	 */
 	public void cleanUp()
 	{
-		// Cleanup all created VAO's
-		for (int vao : vaoIDS)
+		// Cleanup all created VAO's, with their VBO's
+		for (int vao : new ArrayList<>(vaoBuffers.keySet()))
 		{
-			GL30.glDeleteVertexArrays(vao);
+			unloadVAO(vao);
 		}
 		
-		// Cleanup all created VBO's
-		for (int vbo : vboIDS)
+		// Cleanup the geometry arena
+		for (int vbo : arenaInstanceVBOs)
 		{
-			GL30.glDeleteVertexArrays(vbo);
+			GPUResourceManager.delete(GPUResourceType.BUFFER, vbo);
+		}
+		arenaInstanceVBOs.clear();
+		if ( arena != null )
+		{
+			arena.cleanUp();
+			arena = null;
 		}
 		
 		// Cleanup textures
 		for (int texture : textureIDS)
 		{
-			GL11.glDeleteTextures(texture);
+			GPUResourceManager.delete(GPUResourceType.TEXTURE, texture);
+		}
+		textureIDS.clear();
+	}
+	
+	/**
+	 * Deletes the VAO and VBO's of a model and its levels of detail, before the loader
+	 * is cleaned up. Models that weren't loaded by this loader are ignored.
+	 * 
+	 * @param model
+	 */
+	public void unloadModel( Model model )
+	{
+		for (int level = 1; level < model.getLODCount(); level++)
+		{
+			unloadMesh(model.getLOD(level));
+		}
+		unloadMesh(model);
+	}
+	
+	/**
+	 * Add a callback that is told when a mesh is unloaded
+	 * 
+	 * @param callback
+	 */
+	public void addMeshUnloadCallback( MeshUnloadCallback callback )
+	{
+		unloadCallbacks.add(callback);
+	}
+	
+	/**
+	 * @param callback
+	 */
+	public void removeMeshUnloadCallback( MeshUnloadCallback callback )
+	{
+		unloadCallbacks.remove(callback);
+	}
+	
+	/**
+	 * Deletes a texture before the loader is cleaned up
+	 * 
+	 * @param textureID
+	 */
+	public void unloadTexture( int textureID )
+	{
+		// Only delete textures this loader created, once
+		if ( textureIDS.remove(Integer.valueOf(textureID)) == true )
+		{
+			GPUResourceManager.delete(GPUResourceType.TEXTURE, textureID);
 		}
 	}
 	
+	/**
+	 * Deletes the GPU data of one mesh, its own VAO or its ranges in the geometry arena
+	 * 
+	 * @param mesh
+	 */
+	private void unloadMesh( Model mesh )
+	{
+		footprints.remove(mesh.getInstanceVboID());
+		
+		if ( mesh.isInGeometryArena() == false )
+		{
+			unloadVAO(mesh.getVoaID());
+		}
+		else if ( arenaInstanceVBOs.remove(Integer.valueOf(mesh.getInstanceVboID())) == true )
+		{
+			arena.free(mesh.getBaseVertex(), mesh.getFirstIndex());
+			GPUResourceManager.delete(GPUResourceType.BUFFER, mesh.getInstanceVboID());
+		}
+		
+		// The instance VBO ID can be reused from now on
+		for (MeshUnloadCallback callback : new ArrayList<>(unloadCallbacks))
+		{
+			callback.meshUnloaded(mesh.getInstanceVboID());
+		}
+	}
+	
+	/**
+	 * Deletes a VAO and the VBO's that belong to it
+	 * 
+	 * @param vaoID
+	 */
+	private void unloadVAO( int vaoID )
+	{
+		List<Integer> buffers = vaoBuffers.remove(vaoID);
+		if ( buffers == null )
+		{
+			return;
+		}
+		
+		// Delete the buffers, then the VAO itself
+		for (int vbo : buffers)
+		{
+			GPUResourceManager.delete(GPUResourceType.BUFFER, vbo);
+		}
+		GPUResourceManager.delete(GPUResourceType.VERTEX_ARRAY, vaoID);
+	}
+	
 	// ------------------------------------------------------------------------
 	
 	/**
@@ -86,31 +314,281 @@ public class Loader {
 			float[] normals,
 			int[] indices )
 	{
+		// Decide how the mesh is stored
+		int vertexCount = positions.length / 3;
+		MeshEncoding encoding = createEncoding(FloatBuffer.wrap(positions), vertexCount);
+		
+		// Small interleaved meshes share the VAO of the geometry arena
+		if ( fitsGeometryArena(vertexCount) == true )
+		{
+			return loadToArena(FloatBuffer.wrap(positions), FloatBuffer.wrap(textureCoords),
+					FloatBuffer.wrap(normals), IntBuffer.wrap(indices), encoding);
+		}
+		
 		// Create new VAO
 		int vaoID = createVAO();
 		
 		// Activate/Bind the new VAO
-		GL30.glBindVertexArray(vaoID);
+		GLStateCache.bindVertexArray(vaoID);
 		
-		// Store the positions inside the VAO, INDEX 0
-		storeDataInVAO(Render.POSITION_ATTR_INDEX, 3, positions);
-		// Store the texture coord mappings inside the VAO, INDEX 1
-		storeDataInVAO(Render.TEXTURE_COORD_ATTR_INDEX, 2, textureCoords);
-		// Store the texture coord mappings inside the VAO, INDEX 1
-		storeDataInVAO(Render.NORMALS_ATTR_INDEX, 3, normals);
+		if ( vertexFormat.isInterleaved() == true )
+		{
+			// Store all vertex data in one VBO, INDEX 0 to 2
+			storeInterleavedDataInVAO(FloatBuffer.wrap(positions),
+					FloatBuffer.wrap(textureCoords), FloatBuffer.wrap(normals), encoding);
+		}
+		else
+		{
+			// Store the positions inside the VAO, INDEX 0
+			storeDataInVAO(Render.POSITION_ATTR_INDEX, 3, positions);
+			// Store the texture coord mappings inside the VAO, INDEX 1
+			storeDataInVAO(Render.TEXTURE_COORD_ATTR_INDEX, 2, textureCoords);
+			// Store the texture coord mappings inside the VAO, INDEX 1
+			storeDataInVAO(Render.NORMALS_ATTR_INDEX, 3, normals);
+		}
 		
 		// Store the indices into the VAO
-		bindIndicesBuffer(indices);
+		bindIndicesBuffer(IntBuffer.wrap(indices), encoding.getIndexType());
+		
+		// Reserve the per-instance data inside the VAO, INDEX 3 to 8
+		int instanceVboID = createInstanceVBO();
 		
 		// Unbind the VAO
 		unbindVAO();
 		
-		/* The vertex count is replaced with indices.length */
-		// Count the amount of defined vertices
-		// int vertexCount = positions.length / 3;
+		// Remember how much memory the mesh takes
+		recordFootprint(instanceVboID, vertexCount, indices.length, encoding);
 		
+		/* The vertex count is replaced with indices.length */
 		// Generate a new Model
-		return new Model(vaoID, indices.length);
+		Model model = new Model(vaoID, indices.length, instanceVboID, encoding);
+		computeBounds(model, FloatBuffer.wrap(positions), vertexCount);
+		return model;
+	}
+	
+	/**
+	 * Generates a model containing the VAO for the given mesh data
+	 * 
+	 * @param mesh
+	 * @return
+	 */
+	public Model loadToVAO( MeshData mesh )
+	{
+		return loadToVAO(mesh.getPositions(), mesh.getTextureCoords(), mesh.getNormals(),
+				mesh.getIndices());
+	}
+	
+	/**
+	 * Generates a model containing the VAO for a mesh from the mesh cache. The mapped
+	 * buffers go to OpenGL as they are, without being copied first.
+	 * 
+	 * @param mesh
+	 * @return
+	 */
+	Model loadToVAO( MappedMesh mesh )
+	{
+		// Decide how the mesh is stored
+		MeshEncoding encoding = createEncoding(mesh.getPositions().asFloatBuffer(), mesh
+				.getVertexCount());
+		
+		// Small interleaved meshes share the VAO of the geometry arena
+		if ( fitsGeometryArena(mesh.getVertexCount()) == true )
+		{
+			return loadToArena(mesh.getPositions().asFloatBuffer(), mesh.getTextureCoords()
+					.asFloatBuffer(), mesh.getNormals().asFloatBuffer(), mesh.getIndices()
+					.asIntBuffer(), encoding);
+		}
+		
+		// Create new VAO
+		int vaoID = createVAO();
+		
+		// Activate/Bind the new VAO
+		GLStateCache.bindVertexArray(vaoID);
+		
+		// Store the vertex data inside the VAO, INDEX 0 to 2
+		if ( vertexFormat.isInterleaved() == true )
+		{
+			// Interleaving needs a copy, the mapped buffers are only read
+			storeInterleavedDataInVAO(mesh.getPositions().asFloatBuffer(), mesh
+					.getTextureCoords().asFloatBuffer(), mesh.getNormals().asFloatBuffer(),
+					encoding);
+		}
+		else
+		{
+			storeDataInVAO(Render.POSITION_ATTR_INDEX, 3, mesh.getPositions());
+			storeDataInVAO(Render.TEXTURE_COORD_ATTR_INDEX, 2, mesh.getTextureCoords());
+			storeDataInVAO(Render.NORMALS_ATTR_INDEX, 3, mesh.getNormals());
+		}
+		
+		// Store the indices into the VAO, the mapped ints are used as they are
+		if ( encoding.getIndexType() == GL11.GL_UNSIGNED_INT )
+		{
+			bindIndicesBuffer(mesh.getIndices());
+		}
+		else
+		{
+			bindIndicesBuffer(mesh.getIndices().asIntBuffer(), encoding.getIndexType());
+		}
+		
+		// Reserve the per-instance data inside the VAO, INDEX 3 to 8
+		int instanceVboID = createInstanceVBO();
+		
+		// Unbind the VAO
+		unbindVAO();
+		
+		// Remember how much memory the mesh takes
+		recordFootprint(instanceVboID, mesh.getVertexCount(), mesh.getIndexCount(),
+				encoding);
+		
+		Model model = new Model(vaoID, mesh.getIndexCount(), instanceVboID, encoding);
+		computeBounds(model, mesh.getPositions().asFloatBuffer(), mesh.getVertexCount());
+		return model;
+	}
+	
+	/**
+	 * @param vertexCount
+	 * @return true when a mesh can be stored in the geometry arena
+	 */
+	private boolean fitsGeometryArena( int vertexCount )
+	{
+		// The arena sets up its VAO with separate attribute formats, OpenGL 4.3
+		if ( GL.getCapabilities().OpenGL43 == false )
+		{
+			return false;
+		}
+		
+		// The arena keeps the format it was created with
+		return vertexFormat.isInterleaved() == true
+				&& vertexCount <= GeometryArena.MAX_MESH_VERTICES
+				&& (arena == null || arena.getFormat() == vertexFormat);
+	}
+	
+	/**
+	 * Store a mesh as a range of vertices and a range of indices inside the geometry
+	 * arena
+	 * 
+	 * @param positions
+	 * @param textureCoords
+	 * @param normals
+	 * @param indices
+	 * @param encoding
+	 * @return
+	 */
+	private Model loadToArena( FloatBuffer positions,
+			FloatBuffer textureCoords,
+			FloatBuffer normals,
+			IntBuffer indices,
+			MeshEncoding encoding )
+	{
+		if ( arena == null )
+		{
+			arena = new GeometryArena(vertexFormat);
+		}
+		
+		// Copy the mesh into the shared buffers
+		int vertexCount = positions.remaining() / 3;
+		int baseVertex = arena.storeVertices(createInterleavedData(positions,
+				textureCoords, normals, encoding));
+		int firstIndex = arena.storeIndices(storeDataInShortBuffer(indices));
+		
+		// The arena links the instance attributes, the model only needs the storage
+		int instanceVboID = GPUResourceManager.createBuffer(OWNER);
+		arenaInstanceVBOs.add(instanceVboID);
+		
+		// Remember how much memory the mesh takes
+		recordFootprint(instanceVboID, vertexCount, indices.remaining(), encoding);
+		
+		Model model = new Model(arena.getVaoID(), indices.remaining(), instanceVboID,
+				encoding);
+		model.setGeometryRange(baseVertex, firstIndex);
+		computeBounds(model, positions, vertexCount);
+		return model;
+	}
+	
+	/**
+	 * Decide how a mesh is stored with the current vertex format. Meshes with up to
+	 * 65536 vertices use unsigned short indices. Quantized positions need the bounds
+	 * of the mesh, which the shader uses to turn them back into positions.
+	 * 
+	 * @param positions
+	 * @param vertexCount
+	 * @return
+	 */
+	private MeshEncoding createEncoding( FloatBuffer positions, int vertexCount )
+	{
+		int indexType = vertexCount <= MAX_SHORT_INDEXED_VERTICES ? GL11.GL_UNSIGNED_SHORT
+				: GL11.GL_UNSIGNED_INT;
+		
+		Vector3f offset = MeshEncoding.DEFAULT.getPositionOffset();
+		Vector3f scale = MeshEncoding.DEFAULT.getPositionScale();
+		if ( vertexFormat.hasQuantizedPositions() == true && vertexCount > 0 )
+		{
+			// Find the bounds of the mesh
+			float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+			float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+			for (int i = 0; i < vertexCount * 3; i++)
+			{
+				float value = positions.get(positions.position() + i);
+				min[i % 3] = Math.min(min[i % 3], value);
+				max[i % 3] = Math.max(max[i % 3], value);
+			}
+			
+			offset = new Vector3f(min[0], min[1], min[2]);
+			scale = new Vector3f(max[0] - min[0], max[1] - min[1], max[2] - min[2]);
+		}
+		
+		return new MeshEncoding(indexType, offset, scale,
+				vertexFormat.hasOctahedralNormals());
+	}
+	
+	/**
+	 * Store the bounding sphere around the origin and the bounding box of a mesh in its
+	 * model, the culling tests use them
+	 * 
+	 * @param model
+	 * @param positions
+	 * @param vertexCount
+	 */
+	private void computeBounds( Model model, FloatBuffer positions, int vertexCount )
+	{
+		float maxSquared = 0;
+		Vector3f min = new Vector3f(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
+		Vector3f max = new Vector3f(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+		for (int i = 0; i < vertexCount; i++)
+		{
+			float x = positions.get(positions.position() + i * 3);
+			float y = positions.get(positions.position() + i * 3 + 1);
+			float z = positions.get(positions.position() + i * 3 + 2);
+			maxSquared = Math.max(maxSquared, x * x + y * y + z * z);
+			min.set(Math.min(min.x, x), Math.min(min.y, y), Math.min(min.z, z));
+			max.set(Math.max(max.x, x), Math.max(max.y, y), Math.max(max.z, z));
+		}
+		
+		model.setBoundingRadius((float) Math.sqrt(maxSquared));
+		if ( vertexCount > 0 )
+		{
+			model.setBoundingBox(min, max);
+		}
+	}
+	
+	/**
+	 * Store the GPU memory used by a new mesh
+	 * 
+	 * @param meshID The ID of the instance VBO of the mesh
+	 * @param vertexCount
+	 * @param indexCount
+	 * @param encoding
+	 */
+	private void recordFootprint( int meshID,
+			int vertexCount,
+			int indexCount,
+			MeshEncoding encoding )
+	{
+		// Separate VBOs always hold floats
+		int vertexSize = vertexFormat.isInterleaved() ? vertexFormat.getStride()
+				: (3 + 2 + 3) * 4;
+		footprints.put(meshID, new MeshFootprint(vertexCount, indexCount, vertexSize,
+				encoding.getIndexSize()));
 	}
 	
 	/**
@@ -122,20 +600,33 @@ public class Loader {
 	private int createVAO()
 	{
 		// Create an empty VAO
-		int vaoID = GL30.glGenVertexArrays();
-		// Store the id into the list
-		vaoIDS.add(vaoID);
+		int vaoID = GPUResourceManager.createVertexArray(OWNER);
+		// The VBO's created from now on belong to this VAO
+		newVaoBuffers = new ArrayList<>();
+		vaoBuffers.put(vaoID, newVaoBuffers);
 		// Return the ID
 		return vaoID;
 	}
 	
+	/**
+	 * Create a new VBO, as part of the VAO that is being filled
+	 * 
+	 * @return
+	 */
+	private int createVBO()
+	{
+		int vboID = GPUResourceManager.createBuffer(OWNER);
+		newVaoBuffers.add(vboID);
+		return vboID;
+	}
+	
 	/**
 	 * Releases the active VAO
 	 */
 	private void unbindVAO()
 	{
 		// 0 releases the currently bind VAO
-		GL30.glBindVertexArray(0);
+		GLStateCache.bindVertexArray(0);
 	}
 	
 	/**
@@ -151,9 +642,7 @@ public class Loader {
 		 * The VBO is a buffer that contains the given data
 		 * Only VBO's can be stored into a VAO
 		 */
-		int vboID = GL15.glGenBuffers();
-		// Save the VBO ID
-		vboIDS.add(vboID);
+		int vboID = createVBO();
 		
 		// Bind the VBO, as an ARRAY BUFFER
 		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
@@ -166,6 +655,7 @@ public class Loader {
 		 * STATIC_DRAW means the data won't change, just draw it
 		 */
 		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, dataBuffer, GL15.GL_STATIC_DRAW);
+		GPUResourceManager.setSize(GPUResourceType.BUFFER, vboID, data.length * 4L);
 		
 		/*
 		 * Store the VBO inside the VAO
@@ -181,23 +671,283 @@ public class Loader {
 		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
 	}
 	
+	/**
+	 * Stores raw float data into the propertieslist of the VAO at the given index
+	 * 
+	 * @param VAOIndex
+	 * @param coordSize
+	 * @param data Floats in native byte order
+	 */
+	private void storeDataInVAO( int VAOIndex, int coordSize, ByteBuffer data )
+	{
+		// Create and save the VBO
+		int vboID = createVBO();
+		
+		// Upload the data, and link it to the VAO
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, GL15.GL_STATIC_DRAW);
+		GPUResourceManager.setSize(GPUResourceType.BUFFER, vboID, data.remaining());
+		GL20.glVertexAttribPointer(VAOIndex, coordSize, GL11.GL_FLOAT, false, 0, 0);
+		
+		// Unbind the VBO
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+	
+	/**
+	 * Stores the positions, texture coords and normals of each vertex next to each
+	 * other in a single VBO, so a vertex is fetched from one place in memory. The
+	 * attributes keep their indices, they only read the shared buffer with a stride.
+	 * Depending on the vertex format the positions are quantized to 16 bits, the
+	 * texture coords are stored as half floats and the normals as 10-10-10-2 integers
+	 * or octahedral coordinates.
+	 * 
+	 * @param positions
+	 * @param textureCoords
+	 * @param normals
+	 * @param encoding Holds the bounds the positions are quantized against
+	 */
+	private void storeInterleavedDataInVAO( FloatBuffer positions,
+			FloatBuffer textureCoords,
+			FloatBuffer normals,
+			MeshEncoding encoding )
+	{
+		ByteBuffer data = createInterleavedData(positions, textureCoords, normals, encoding);
+		
+		// Create and save the VBO
+		int vboID = createVBO();
+		
+		// Upload the data
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, GL15.GL_STATIC_DRAW);
+		GPUResourceManager.setSize(GPUResourceType.BUFFER, vboID, data.remaining());
+		
+		// Link each attribute at its offset inside a vertex
+		linkInterleavedAttributes(vertexFormat);
+		
+		// Unbind the VBO
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+	
+	/**
+	 * Write the vertices one after the other, in the current vertex format
+	 * 
+	 * @param positions
+	 * @param textureCoords
+	 * @param normals
+	 * @param encoding Holds the bounds the positions are quantized against
+	 * @return
+	 */
+	private ByteBuffer createInterleavedData( FloatBuffer positions,
+			FloatBuffer textureCoords,
+			FloatBuffer normals,
+			MeshEncoding encoding )
+	{
+		int vertexCount = positions.remaining() / 3;
+		int stride = vertexFormat.getStride();
+		boolean quantizedPositions = vertexFormat.hasQuantizedPositions();
+		boolean halfFloatTexCoords = vertexFormat.hasHalfFloatTexCoords();
+		boolean packedNormals = vertexFormat.hasPackedNormals();
+		boolean octahedralNormals = vertexFormat.hasOctahedralNormals();
+		Vector3f min = encoding.getPositionOffset();
+		Vector3f extent = encoding.getPositionScale();
+		
+		// Write the vertices one after the other
+		ByteBuffer data = BufferUtils.createByteBuffer(vertexCount * stride);
+		for (int i = 0; i < vertexCount; i++)
+		{
+			// Position
+			float px = positions.get(i * 3);
+			float py = positions.get(i * 3 + 1);
+			float pz = positions.get(i * 3 + 2);
+			if ( quantizedPositions == true )
+			{
+				data.putShort(VertexPacker.quantize(px, min.getX(), extent.getX()));
+				data.putShort(VertexPacker.quantize(py, min.getY(), extent.getY()));
+				data.putShort(VertexPacker.quantize(pz, min.getZ(), extent.getZ()));
+				// Padding, keeps the next attribute aligned to 4 bytes
+				data.putShort((short) 0);
+			}
+			else
+			{
+				data.putFloat(px);
+				data.putFloat(py);
+				data.putFloat(pz);
+			}
+			
+			// Texture coords
+			float u = textureCoords.get(i * 2);
+			float v = textureCoords.get(i * 2 + 1);
+			if ( halfFloatTexCoords == true )
+			{
+				data.putShort(VertexPacker.toHalfFloat(u));
+				data.putShort(VertexPacker.toHalfFloat(v));
+			}
+			else
+			{
+				data.putFloat(u);
+				data.putFloat(v);
+			}
+			
+			// Normal
+			float x = normals.get(i * 3);
+			float y = normals.get(i * 3 + 1);
+			float z = normals.get(i * 3 + 2);
+			if ( octahedralNormals == true )
+			{
+				VertexPacker.putOctahedralNormal(data, x, y, z);
+			}
+			else if ( packedNormals == true )
+			{
+				data.putInt(VertexPacker.packNormal(x, y, z));
+			}
+			else
+			{
+				data.putFloat(x);
+				data.putFloat(y);
+				data.putFloat(z);
+			}
+		}
+		data.flip();
+		
+		return data;
+	}
+	
+	/**
+	 * Link the vertex attributes of the bound VAO to the interleaved vertices in the
+	 * bound array buffer
+	 * 
+	 * @param vertexFormat
+	 */
+	static void linkInterleavedAttributes( VertexFormat vertexFormat )
+	{
+		int stride = vertexFormat.getStride();
+		int offset = 0;
+		// Quantized positions become 0 .. 1, the shader scales them back
+		if ( vertexFormat.hasQuantizedPositions() == true )
+		{
+			GL20.glVertexAttribPointer(Render.POSITION_ATTR_INDEX, 3,
+					GL11.GL_UNSIGNED_SHORT, true, stride, offset);
+		}
+		else
+		{
+			GL20.glVertexAttribPointer(Render.POSITION_ATTR_INDEX, 3, GL11.GL_FLOAT, false,
+					stride, offset);
+		}
+		offset += vertexFormat.getPositionSize();
+		
+		GL20.glVertexAttribPointer(Render.TEXTURE_COORD_ATTR_INDEX, 2,
+				vertexFormat.hasHalfFloatTexCoords() ? GL30.GL_HALF_FLOAT : GL11.GL_FLOAT,
+				false, stride, offset);
+		offset += vertexFormat.getTexCoordSize();
+		
+		// Packed normals are normalized back to -1 .. 1 by OpenGL
+		if ( vertexFormat.hasOctahedralNormals() == true )
+		{
+			// The shader unfolds the 2 coordinates into a normal
+			GL20.glVertexAttribPointer(Render.NORMALS_ATTR_INDEX, 2, GL11.GL_SHORT, true,
+					stride, offset);
+		}
+		else if ( vertexFormat.hasPackedNormals() == true )
+		{
+			GL20.glVertexAttribPointer(Render.NORMALS_ATTR_INDEX, 4,
+					GL33.GL_INT_2_10_10_10_REV, true, stride, offset);
+		}
+		else
+		{
+			GL20.glVertexAttribPointer(Render.NORMALS_ATTR_INDEX, 3, GL11.GL_FLOAT, false,
+					stride, offset);
+		}
+	}
+	
+	/**
+	 * Creates an empty VBO for per-instance data and links it to the used VAO.
+	 * Each instance consists of a transformation matrix, stored as 4 column vectors,
+	 * followed by the texture offset and the picking ID. The renderer fills the buffer.
+	 * 
+	 * @return
+	 */
+	private int createInstanceVBO()
+	{
+		// Create and save the new VBO
+		int vboID = createVBO();
+		// Bind the created buffer as an array buffer
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		// Start empty, STREAM_DRAW because the content changes every frame
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, 0, GL15.GL_STREAM_DRAW);
+		
+		// The amount of bytes between two instances
+		int stride = Render.INSTANCE_DATA_LENGTH * 4;
+		
+		// Link each column of the matrix, they advance once per instance
+		for (int column = 0; column < 4; column++)
+		{
+			int attrIndex = Render.INSTANCE_MATRIX_ATTR_INDEX + column;
+			GL20.glVertexAttribPointer(attrIndex, 4, GL11.GL_FLOAT, false, stride,
+					column * 4 * 4);
+			GL33.glVertexAttribDivisor(attrIndex, 1);
+		}
+		
+		// Link the texture offset behind the matrix
+		GL20.glVertexAttribPointer(Render.INSTANCE_TEX_OFFSET_ATTR_INDEX, 2,
+				GL11.GL_FLOAT, false, stride, 16 * 4);
+		GL33.glVertexAttribDivisor(Render.INSTANCE_TEX_OFFSET_ATTR_INDEX, 1);
+		
+		// Link the picking ID behind the texture offset, read as an integer
+		GL30.glVertexAttribIPointer(Render.INSTANCE_ID_ATTR_INDEX, 1, GL11.GL_INT, stride,
+				(16 + 2) * 4);
+		GL33.glVertexAttribDivisor(Render.INSTANCE_ID_ATTR_INDEX, 1);
+		
+		// Unbind the VBO
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		
+		return vboID;
+	}
+	
 	/**
 	 * Put the given indices (Vertex iterate data) into the used VAO
 	 * 
 	 * @param indices
+	 * @param indexType GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+	 */
+	private void bindIndicesBuffer( IntBuffer indices, int indexType )
+	{
+		// Create and save the new VBO
+		int vboID = createVBO();
+		// Bind the created buffer as an element buffer
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, vboID);
+		
+		// Store the buffer data into the created VBO, in the chosen size
+		int indexSize;
+		if ( indexType == GL11.GL_UNSIGNED_SHORT )
+		{
+			GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER,
+					storeDataInShortBuffer(indices), GL15.GL_STATIC_DRAW);
+			indexSize = 2;
+		}
+		else
+		{
+			GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER,
+					storeDataInIntBuffer(indices), GL15.GL_STATIC_DRAW);
+			indexSize = 4;
+		}
+		GPUResourceManager.setSize(GPUResourceType.BUFFER, vboID, (long) indices
+				.remaining() * indexSize);
+	}
+	
+	/**
+	 * Put the given raw indices into the used VAO
+	 * 
+	 * @param indices Ints in native byte order
 	 */
-	private void bindIndicesBuffer( int[] indices )
+	private void bindIndicesBuffer( ByteBuffer indices )
 	{
-		// Create new VBO
-		int vboID = GL15.glGenBuffers();
-		// Save buffer id
-		vboIDS.add(vboID);
+		// Create and save the new VBO
+		int vboID = createVBO();
 		// Bind the created buffer as an element buffer
 		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, vboID);
-		// Get the intbuffer from the data
-		IntBuffer buffer = storeDataInIntBuffer(indices);
 		// Store the buffer data into the created VBO
-		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+		GPUResourceManager.setSize(GPUResourceType.BUFFER, vboID, indices.remaining());
 	}
 	
 	// ------------------------------------------------------------------------
@@ -222,6 +972,31 @@ public class Loader {
 		return input;
 	}
 	
+	/**
+	 * Finds the file behind a resource, which allows memory mapping it
+	 * 
+	 * @param file The path to the object, separated with forward slashes
+	 * @return null when the resource isn't a plain file, for example inside a jar
+	 */
+	public Path getSourceFile( String file )
+	{
+		URL url = Thread.currentThread().getContextClassLoader().getResource(file);
+		
+		if ( url == null || "file".equals(url.getProtocol()) == false )
+		{
+			return null;
+		}
+		
+		try
+		{
+			return Paths.get(url.toURI());
+		}
+		catch (URISyntaxException e)
+		{
+			return null;
+		}
+	}
+	
 	/**
 	 * Loads a specified texture into the memory
 	 * 
@@ -243,6 +1018,25 @@ public class Loader {
 		return textureID;
 	}
 	
+	/**
+	 * Uploads already decoded texture data
+	 * 
+	 * @param data
+	 * @return
+	 */
+	public int loadTexture( TextureData data )
+	{
+		// Create the texture
+		int textureID = TextureLoader.uploadTexture(data);
+		// Save the id
+		if ( textureID != 0 )
+		{
+			textureIDS.add(textureID);
+		}
+		
+		return textureID;
+	}
+	
 	// ------------------------------------------------------------------------
 	
 	/**
@@ -264,17 +1058,39 @@ public class Loader {
 	}
 	
 	/**
-	 * Transforms a regularly java intarray to a full fledged floatbuffer
+	 * Transforms ints to a full fledged direct intbuffer
 	 * 
 	 * @param data
 	 * @return
 	 */
-	private IntBuffer storeDataInIntBuffer( int[] data )
+	private IntBuffer storeDataInIntBuffer( IntBuffer data )
 	{
 		// Create new buffer
-		IntBuffer buffer = BufferUtils.createIntBuffer(data.length);
+		IntBuffer buffer = BufferUtils.createIntBuffer(data.remaining());
 		// Put the data
-		buffer.put(data);
+		buffer.put(data.duplicate());
+		// Flip the buffer to end it
+		buffer.flip();
+		// Return the buffer
+		return buffer;
+	}
+	
+	/**
+	 * Transforms ints below 65536 to a direct shortbuffer holding them as unsigned
+	 * shorts
+	 * 
+	 * @param data
+	 * @return
+	 */
+	private ShortBuffer storeDataInShortBuffer( IntBuffer data )
+	{
+		// Create new buffer
+		ShortBuffer buffer = BufferUtils.createShortBuffer(data.remaining());
+		// Put the lower 16 bits of each index
+		for (int i = data.position(); i < data.limit(); i++)
+		{
+			buffer.put((short) data.get(i));
+		}
 		// Flip the buffer to end it
 		buffer.flip();
 		// Return the buffer
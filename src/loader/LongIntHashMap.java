@@ -0,0 +1,184 @@
+/**
+ * 
+ */
+package loader;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive long keys to primitive int values. Uses
+ * linear probing in two parallel arrays, nothing is allocated per entry.
+ * Values have to be positive or 0.
+ * 
+ * @author Bert
+ */
+class LongIntHashMap {
+	
+	/**
+	 * Returned when a key isn't inside the map, marks the free slots as well
+	 */
+	final static int NO_VALUE = -1;
+	
+	/**
+	 * The table grows when it is filled for more than 1 / LOAD_FACTOR_DIVISOR
+	 */
+	private final static int LOAD_FACTOR_DIVISOR = 2;
+	
+	/**
+	 * The keys of the slots
+	 */
+	private long[] keys;
+	
+	/**
+	 * The values of the slots, NO_VALUE when the slot is free
+	 */
+	private int[] values;
+	
+	/**
+	 * Capacity - 1, the capacity is always a power of two
+	 */
+	private int mask;
+	
+	/**
+	 * The amount of stored entries
+	 */
+	private int size;
+	
+	/**
+	 * @param expectedSize The amount of entries that fit without growing
+	 */
+	LongIntHashMap( int expectedSize )
+	{
+		int capacity = Integer.highestOneBit(Math.max(expectedSize * LOAD_FACTOR_DIVISOR,
+				16) - 1) << 1;
+		allocate(capacity);
+	}
+	
+	/**
+	 * Returns the value of the key, or stores the given value when the key is new
+	 * 
+	 * @param key
+	 * @param value
+	 * @return the existing value, NO_VALUE when the given value got stored
+	 */
+	int putIfAbsent( long key, int value )
+	{
+		int slot = hash(key) & mask;
+		
+		// Probe until the key or a free slot is found
+		while (values[slot] != NO_VALUE)
+		{
+			if ( keys[slot] == key )
+			{
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		
+		// New entry
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+		
+		if ( size * LOAD_FACTOR_DIVISOR > keys.length )
+		{
+			rehash();
+		}
+		
+		return NO_VALUE;
+	}
+	
+	/**
+	 * @param key
+	 * @return the value of the key, NO_VALUE when the key isn't stored
+	 */
+	int get( long key )
+	{
+		int slot = hash(key) & mask;
+		
+		while (values[slot] != NO_VALUE)
+		{
+			if ( keys[slot] == key )
+			{
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		
+		return NO_VALUE;
+	}
+	
+	/**
+	 * @return the amount of stored entries
+	 */
+	int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * Remove all entries, keeps the table
+	 */
+	void clear()
+	{
+		Arrays.fill(values, NO_VALUE);
+		size = 0;
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Create empty tables with the given capacity
+	 * 
+	 * @param capacity
+	 */
+	private void allocate( int capacity )
+	{
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, NO_VALUE);
+		mask = capacity - 1;
+	}
+	
+	/**
+	 * Double the capacity and move every entry into its new slot
+	 */
+	private void rehash()
+	{
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(keys.length * 2);
+		
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if ( oldValues[i] != NO_VALUE )
+			{
+				int slot = hash(oldKeys[i]) & mask;
+				while (values[slot] != NO_VALUE)
+				{
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+	
+	/**
+	 * Spread the bits of the key, packed keys differ mostly in a few bits
+	 * 
+	 * @param key
+	 * @return
+	 */
+	private static int hash( long key )
+	{
+		// Finalizer of MurmurHash3
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+	
+}
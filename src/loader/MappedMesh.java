@@ -0,0 +1,133 @@
+/**
+ * 
+ */
+package loader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A mesh read from the mesh cache. The buffers are views on the memory mapped cache
+ * file and can be handed to OpenGL as they are.
+ * 
+ * @author Bert
+ */
+class MappedMesh {
+	
+	/**
+	 * 3 floats per vertex
+	 */
+	private ByteBuffer positions;
+	
+	/**
+	 * 2 floats per vertex
+	 */
+	private ByteBuffer textureCoords;
+	
+	/**
+	 * 3 floats per vertex
+	 */
+	private ByteBuffer normals;
+	
+	/**
+	 * 3 ints per triangle
+	 */
+	private ByteBuffer indices;
+	
+	/**
+	 * The amount of vertices
+	 */
+	private int vertexCount;
+	
+	/**
+	 * The amount of indices
+	 */
+	private int indexCount;
+	
+	/**
+	 * The amount of face vertices that were welded when the mesh got parsed
+	 */
+	private int weldedCount;
+	
+	/**
+	 * @param positions
+	 * @param textureCoords
+	 * @param normals
+	 * @param indices
+	 * @param vertexCount
+	 * @param indexCount
+	 * @param weldedCount
+	 */
+	MappedMesh( ByteBuffer positions,
+			ByteBuffer textureCoords,
+			ByteBuffer normals,
+			ByteBuffer indices,
+			int vertexCount,
+			int indexCount,
+			int weldedCount )
+	{
+		this.positions = positions;
+		this.textureCoords = textureCoords;
+		this.normals = normals;
+		this.indices = indices;
+		this.vertexCount = vertexCount;
+		this.indexCount = indexCount;
+		this.weldedCount = weldedCount;
+	}
+	
+	/**
+	 * @return the positions
+	 */
+	ByteBuffer getPositions()
+	{
+		return this.positions;
+	}
+	
+	/**
+	 * @return the textureCoords
+	 */
+	ByteBuffer getTextureCoords()
+	{
+		return this.textureCoords;
+	}
+	
+	/**
+	 * @return the normals
+	 */
+	ByteBuffer getNormals()
+	{
+		return this.normals;
+	}
+	
+	/**
+	 * @return the indices
+	 */
+	ByteBuffer getIndices()
+	{
+		return this.indices;
+	}
+	
+	/**
+	 * @return the vertexCount
+	 */
+	int getVertexCount()
+	{
+		return this.vertexCount;
+	}
+	
+	/**
+	 * @return the indexCount
+	 */
+	int getIndexCount()
+	{
+		return this.indexCount;
+	}
+	
+	/**
+	 * @return the weldedCount
+	 */
+	int getWeldedCount()
+	{
+		return this.weldedCount;
+	}
+	
+}
@@ -0,0 +1,278 @@
+/**
+ * 
+ */
+package loader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Stores parsed meshes in a binary file, so the next launch can memory map them
+ * instead of parsing the source again.
+ * A cache file is named after the source path and the CRC32 of the source content,
+ * a changed source gets a new file and the files of its old content are deleted. The
+ * file holds a header followed by the raw positions, texture coords, normals and
+ * indices in native byte order, exactly as they are handed to OpenGL.
+ * 
+ * @author Bert
+ */
+class MeshCache {
+	
+	/**
+	 * The directory holding the cache files, can be changed with -Dmesh.cache.dir
+	 */
+	private final static Path CACHE_DIRECTORY = Paths.get(System.getProperty(
+			"mesh.cache.dir", "cache"));
+	
+	/**
+	 * Identifies a mesh cache file, "MESH"
+	 */
+	private final static int MAGIC = 0x4D455348;
+	
+	/**
+	 * Increase when the layout of the file changes, or the stored meshes are processed
+	 * differently
+	 */
+	private final static int FORMAT_VERSION = 3;
+	
+	/**
+	 * Magic, version, vertex count, index count and welded count
+	 */
+	private final static int HEADER_SIZE = 5 * 4;
+	
+	/**
+	 * Calculate the content hash of a source, the stream gets closed
+	 * 
+	 * @param input
+	 * @return
+	 * @throws IOException
+	 */
+	static long hash( InputStream input ) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[64 * 1024];
+		
+		try
+		{
+			int read;
+			while ((read = input.read(buffer)) >= 0)
+			{
+				crc.update(buffer, 0, read);
+			}
+		}
+		finally
+		{
+			input.close();
+		}
+		
+		return crc.getValue();
+	}
+	
+	/**
+	 * Memory map the cached mesh of the given source
+	 * 
+	 * @param source The path of the source
+	 * @param hash The content hash of the source
+	 * @return null when there is no valid cache file
+	 * @throws IOException
+	 */
+	static MappedMesh load( String source, long hash ) throws IOException
+	{
+		Path file = getCacheFile(source, hash);
+		if ( Files.isRegularFile(file) == false )
+		{
+			return null;
+		}
+		
+		ByteBuffer mapped;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			// The mapping stays valid after closing the channel
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		mapped.order(ByteOrder.nativeOrder());
+		
+		// Check the header, a file of another machine or version gets rewritten
+		if ( mapped.capacity() < HEADER_SIZE || mapped.getInt(0) != MAGIC
+				|| mapped.getInt(4) != FORMAT_VERSION )
+		{
+			return null;
+		}
+		int vertexCount = mapped.getInt(8);
+		int indexCount = mapped.getInt(12);
+		int weldedCount = mapped.getInt(16);
+		if ( mapped.capacity() != getFileSize(vertexCount, indexCount) )
+		{
+			return null;
+		}
+		
+		// Cut the mapping into the separate arrays
+		int offset = HEADER_SIZE;
+		ByteBuffer positions = slice(mapped, offset, vertexCount * 3 * 4);
+		offset += vertexCount * 3 * 4;
+		ByteBuffer textureCoords = slice(mapped, offset, vertexCount * 2 * 4);
+		offset += vertexCount * 2 * 4;
+		ByteBuffer normals = slice(mapped, offset, vertexCount * 3 * 4);
+		offset += vertexCount * 3 * 4;
+		ByteBuffer indices = slice(mapped, offset, indexCount * 4);
+		
+		return new MappedMesh(positions, textureCoords, normals, indices, vertexCount,
+				indexCount, weldedCount);
+	}
+	
+	/**
+	 * Write the mesh into the cache file of the given source
+	 * 
+	 * @param source The path of the source
+	 * @param hash The content hash of the source
+	 * @param mesh
+	 * @throws IOException
+	 */
+	static void store( String source, long hash, MeshData mesh ) throws IOException
+	{
+		int vertexCount = mesh.getVertexCount();
+		int indexCount = mesh.getIndices().length;
+		
+		// Lay out the file in memory
+		ByteBuffer data = ByteBuffer.allocate((int) getFileSize(vertexCount, indexCount));
+		data.order(ByteOrder.nativeOrder());
+		data.putInt(MAGIC);
+		data.putInt(FORMAT_VERSION);
+		data.putInt(vertexCount);
+		data.putInt(indexCount);
+		data.putInt(mesh.getWeldedCount());
+		data.asFloatBuffer().put(mesh.getPositions());
+		data.position(data.position() + vertexCount * 3 * 4);
+		data.asFloatBuffer().put(mesh.getTextureCoords());
+		data.position(data.position() + vertexCount * 2 * 4);
+		data.asFloatBuffer().put(mesh.getNormals());
+		data.position(data.position() + vertexCount * 3 * 4);
+		data.asIntBuffer().put(mesh.getIndices());
+		data.rewind();
+		
+		// Write a temporary file first, a crash never leaves a half written cache file
+		Files.createDirectories(CACHE_DIRECTORY);
+		Path file = getCacheFile(source, hash);
+		Path temporary = Files.createTempFile(CACHE_DIRECTORY, "mesh", ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE))
+		{
+			while (data.hasRemaining())
+			{
+				channel.write(data);
+			}
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		
+		// The entries of the old content of the source can't be hit anymore
+		deleteEntries(source, file);
+	}
+	
+	/**
+	 * Delete every cache file of a source
+	 * 
+	 * @param source The path of the source
+	 * @throws IOException
+	 */
+	static void delete( String source ) throws IOException
+	{
+		deleteEntries(source, null);
+	}
+	
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Delete the cache files of a source, whatever content hash they were written for
+	 * 
+	 * @param source
+	 * @param keep The file to keep, null to delete all of them
+	 * @throws IOException
+	 */
+	private static void deleteEntries( String source, Path keep ) throws IOException
+	{
+		if ( Files.isDirectory(CACHE_DIRECTORY) == false )
+		{
+			return;
+		}
+		
+		// Only the hash may differ, other sources can share the start of the name
+		final String pattern = Pattern.quote(getCacheName(source))
+				+ "-[0-9a-f]+\\.mesh";
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(CACHE_DIRECTORY,
+				new DirectoryStream.Filter<Path>() {
+					
+					@Override
+					public boolean accept( Path file )
+					{
+						return file.getFileName().toString().matches(pattern);
+					}
+				}))
+		{
+			for (Path file : files)
+			{
+				if ( file.equals(keep) == false )
+				{
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param source
+	 * @param hash
+	 * @return the path of the cache file for the given source content
+	 */
+	private static Path getCacheFile( String source, long hash )
+	{
+		return CACHE_DIRECTORY.resolve(getCacheName(source) + "-" + Long.toHexString(hash)
+				+ ".mesh");
+	}
+	
+	/**
+	 * @param source
+	 * @return the start of the name of the cache files of a source
+	 */
+	private static String getCacheName( String source )
+	{
+		// Keep the name readable, but free of directory separators
+		return source.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+	
+	/**
+	 * @param vertexCount
+	 * @param indexCount
+	 * @return the size of a cache file in bytes
+	 */
+	private static long getFileSize( int vertexCount, int indexCount )
+	{
+		return HEADER_SIZE + (long) vertexCount * (3 + 2 + 3) * 4 + (long) indexCount * 4;
+	}
+	
+	/**
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return a view on a part of the buffer
+	 */
+	private static ByteBuffer slice( ByteBuffer buffer, int offset, int length )
+	{
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + length);
+		return duplicate.slice().order(ByteOrder.nativeOrder());
+	}
+	
+}
@@ -0,0 +1,120 @@
+/**
+ * 
+ */
+package loader;
+
+/**
+ * The CPU side data of a model, ready to be uploaded into a VAO
+ * 
+ * @author Bert
+ */
+public class MeshData {
+	
+	/**
+	 * 3 floats per vertex
+	 */
+	private float[] positions;
+	
+	/**
+	 * 2 floats per vertex
+	 */
+	private float[] textureCoords;
+	
+	/**
+	 * 3 floats per vertex
+	 */
+	private float[] normals;
+	
+	/**
+	 * 3 indices per triangle
+	 */
+	private int[] indices;
+	
+	/**
+	 * The amount of face vertices that reused an existing vertex while loading
+	 */
+	private int weldedCount;
+	
+	/**
+	 * @param positions
+	 * @param textureCoords
+	 * @param normals
+	 * @param indices
+	 */
+	public MeshData( float[] positions,
+			float[] textureCoords,
+			float[] normals,
+			int[] indices )
+	{
+		this(positions, textureCoords, normals, indices, 0);
+	}
+	
+	/**
+	 * @param positions
+	 * @param textureCoords
+	 * @param normals
+	 * @param indices
+	 * @param weldedCount
+	 */
+	public MeshData( float[] positions,
+			float[] textureCoords,
+			float[] normals,
+			int[] indices,
+			int weldedCount )
+	{
+		this.positions = positions;
+		this.textureCoords = textureCoords;
+		this.normals = normals;
+		this.indices = indices;
+		this.weldedCount = weldedCount;
+	}
+	
+	/**
+	 * @return the positions
+	 */
+	public float[] getPositions()
+	{
+		return this.positions;
+	}
+	
+	/**
+	 * @return the textureCoords
+	 */
+	public float[] getTextureCoords()
+	{
+		return this.textureCoords;
+	}
+	
+	/**
+	 * @return the normals
+	 */
+	public float[] getNormals()
+	{
+		return this.normals;
+	}
+	
+	/**
+	 * @return the indices
+	 */
+	public int[] getIndices()
+	{
+		return this.indices;
+	}
+	
+	/**
+	 * @return the weldedCount
+	 */
+	public int getWeldedCount()
+	{
+		return this.weldedCount;
+	}
+	
+	/**
+	 * @return the amount of vertices
+	 */
+	public int getVertexCount()
+	{
+		return this.positions.length / 3;
+	}
+	
+}
@@ -0,0 +1,135 @@
+/**
+ * 
+ */
+package loader;
+
+/**
+ * The GPU memory a mesh takes up, compared to storing every attribute as floats and
+ * every index as an unsigned int
+ * 
+ * @author Bert
+ */
+public class MeshFootprint {
+	
+	/**
+	 * The size of a vertex with float positions, texture coords and normals
+	 */
+	private final static int FLOAT_VERTEX_SIZE = (3 + 2 + 3) * 4;
+	
+	/**
+	 * The size of an unsigned int index
+	 */
+	private final static int INT_INDEX_SIZE = 4;
+	
+	/**
+	 * Where the mesh came from, null when unknown
+	 */
+	private String name;
+	
+	/**
+	 * The amount of vertices
+	 */
+	private int vertexCount;
+	
+	/**
+	 * The amount of indices
+	 */
+	private int indexCount;
+	
+	/**
+	 * The size of the vertex data on the GPU in bytes
+	 */
+	private long vertexBytes;
+	
+	/**
+	 * The size of the indices on the GPU in bytes
+	 */
+	private long indexBytes;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param vertexCount
+	 * @param indexCount
+	 * @param vertexSize The size of one vertex in bytes
+	 * @param indexSize The size of one index in bytes
+	 */
+	MeshFootprint( int vertexCount, int indexCount, int vertexSize, int indexSize )
+	{
+		this.vertexCount = vertexCount;
+		this.indexCount = indexCount;
+		this.vertexBytes = (long) vertexCount * vertexSize;
+		this.indexBytes = (long) indexCount * indexSize;
+	}
+	
+	/**
+	 * @return the name
+	 */
+	public String getName()
+	{
+		return this.name;
+	}
+	
+	/**
+	 * @param name the name to set
+	 */
+	void setName( String name )
+	{
+		this.name = name;
+	}
+	
+	/**
+	 * @return the vertexCount
+	 */
+	public int getVertexCount()
+	{
+		return this.vertexCount;
+	}
+	
+	/**
+	 * @return the indexCount
+	 */
+	public int getIndexCount()
+	{
+		return this.indexCount;
+	}
+	
+	/**
+	 * @return the size of the mesh with float attributes and unsigned int indices
+	 */
+	public long getOriginalBytes()
+	{
+		return (long) vertexCount * FLOAT_VERTEX_SIZE + (long) indexCount * INT_INDEX_SIZE;
+	}
+	
+	/**
+	 * @return the size of the mesh as it is stored on the GPU
+	 */
+	public long getStoredBytes()
+	{
+		return vertexBytes + indexBytes;
+	}
+	
+	/**
+	 * @return the amount of bytes the encoding saves
+	 */
+	public long getBytesSaved()
+	{
+		return getOriginalBytes() - getStoredBytes();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		long original = getOriginalBytes();
+		return String.format("%s: %d vertices, %d indices, %d -> %d bytes, saved %d (%.0f%%)",
+				name != null ? name : "mesh", vertexCount, indexCount, original,
+				getStoredBytes(), getBytesSaved(),
+				original > 0 ? 100.0 * getBytesSaved() / original : 0.0);
+	}
+	
+}
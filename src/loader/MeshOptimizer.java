@@ -0,0 +1,494 @@
+/**
+ * 
+ */
+package loader;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Reorders the triangles and vertices of a mesh so the GPU does less work drawing it,
+ * without changing how it looks.
+ * The triangles are sorted with the Tipsify algorithm (Sander, Nehab and Barczak,
+ * 2007), which keeps the vertices of consecutive triangles inside the post-transform
+ * vertex cache. Optionally the resulting clusters are sorted so outward facing parts
+ * are drawn first, which reduces overdraw. Finally the vertices are renumbered in the
+ * order they are used, so they are fetched from memory front to back.
+ * 
+ * @author Bert
+ */
+public class MeshOptimizer {
+	
+	/**
+	 * The amount of vertices the optimization assumes the vertex cache holds. Smaller
+	 * than most real caches, so the order works well on all of them.
+	 */
+	public final static int CACHE_SIZE = 16;
+	
+	/**
+	 * Optimize the given mesh
+	 * 
+	 * @param mesh
+	 * @param reduceOverdraw Sort the triangle clusters from the outside in
+	 * @return a new mesh with the same triangles in a different order
+	 */
+	public static MeshData optimize( MeshData mesh, boolean reduceOverdraw )
+	{
+		int vertexCount = mesh.getVertexCount();
+		int[] indices = mesh.getIndices();
+		
+		// Nothing to reorder
+		if ( indices.length < 3 * 2 )
+		{
+			return mesh;
+		}
+		
+		// Sort the triangles for the vertex cache
+		IntList clusterStarts = new IntList(64);
+		int[] sorted = tipsify(indices, vertexCount, CACHE_SIZE, clusterStarts);
+		
+		if ( reduceOverdraw == true )
+		{
+			sorted = sortClusters(sorted, clusterStarts, mesh.getPositions());
+		}
+		
+		// Sort the vertices by first use
+		return reorderVertices(mesh, sorted);
+	}
+	
+	/**
+	 * The average cache miss ratio: the amount of transformed vertices per triangle.
+	 * 3 is the worst, 0.5 is the best possible for a large regular grid.
+	 * 
+	 * @param indices
+	 * @param vertexCount
+	 * @param cacheSize The amount of vertices in the simulated FIFO cache
+	 * @return
+	 */
+	public static float computeACMR( int[] indices, int vertexCount, int cacheSize )
+	{
+		if ( indices.length == 0 )
+		{
+			return 0;
+		}
+		return (float) countCacheMisses(indices, vertexCount, cacheSize)
+				/ (indices.length / 3);
+	}
+	
+	/**
+	 * The average transform to vertex ratio: the amount of times each vertex is
+	 * transformed. 1 is the best possible.
+	 * 
+	 * @param indices
+	 * @param vertexCount
+	 * @param cacheSize The amount of vertices in the simulated FIFO cache
+	 * @return
+	 */
+	public static float computeATVR( int[] indices, int vertexCount, int cacheSize )
+	{
+		if ( vertexCount == 0 )
+		{
+			return 0;
+		}
+		return (float) countCacheMisses(indices, vertexCount, cacheSize) / vertexCount;
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Simulate a FIFO vertex cache
+	 * 
+	 * @param indices
+	 * @param vertexCount
+	 * @param cacheSize
+	 * @return the amount of vertices that had to be transformed
+	 */
+	private static int countCacheMisses( int[] indices, int vertexCount, int cacheSize )
+	{
+		// The miss count at the moment each vertex entered the cache
+		int[] entered = new int[vertexCount];
+		Arrays.fill(entered, -cacheSize - 1);
+		
+		int misses = 0;
+		for (int index : indices)
+		{
+			// Pushed out when cacheSize other vertices entered after it
+			if ( misses - entered[index] > cacheSize )
+			{
+				entered[index] = misses;
+				misses++;
+			}
+		}
+		
+		return misses;
+	}
+	
+	/**
+	 * Sort the triangles with Tipsify. The algorithm fans around one vertex at a time,
+	 * emitting all its remaining triangles, then moves to a neighbouring vertex that is
+	 * still in the cache. When there is none it continues with a recently used vertex,
+	 * or the next unfinished vertex in the mesh.
+	 * 
+	 * @param indices
+	 * @param vertexCount
+	 * @param cacheSize
+	 * @param clusterStarts Receives the first triangle after each cache break
+	 * @return the sorted indices
+	 */
+	private static int[] tipsify( int[] indices,
+			int vertexCount,
+			int cacheSize,
+			IntList clusterStarts )
+	{
+		int triangleCount = indices.length / 3;
+		
+		// The triangles using each vertex, stored back to back
+		int[] adjacencyStart = new int[vertexCount + 1];
+		for (int index : indices)
+		{
+			adjacencyStart[index + 1]++;
+		}
+		for (int v = 0; v < vertexCount; v++)
+		{
+			adjacencyStart[v + 1] += adjacencyStart[v];
+		}
+		int[] adjacency = new int[indices.length];
+		int[] fill = Arrays.copyOf(adjacencyStart, vertexCount);
+		for (int i = 0; i < indices.length; i++)
+		{
+			adjacency[fill[indices[i]]++] = i / 3;
+		}
+		
+		// The amount of triangles that still have to be emitted, per vertex
+		int[] liveTriangles = new int[vertexCount];
+		for (int v = 0; v < vertexCount; v++)
+		{
+			liveTriangles[v] = adjacencyStart[v + 1] - adjacencyStart[v];
+		}
+		
+		// The time each vertex entered the cache
+		int[] cacheTime = new int[vertexCount];
+		boolean[] emitted = new boolean[triangleCount];
+		// Recently used vertices, to continue from when the fan runs dry
+		IntList deadEnds = new IntList(indices.length);
+		
+		int[] sorted = new int[indices.length];
+		int sortedLength = 0;
+		int time = cacheSize + 1;
+		int cursor = 1;
+		int fanning = 0;
+		
+		while (fanning >= 0)
+		{
+			// The vertices of the emitted triangles are the candidates for the next fan
+			int candidatesStart = deadEnds.size();
+			
+			for (int a = adjacencyStart[fanning]; a < adjacencyStart[fanning + 1]; a++)
+			{
+				int triangle = adjacency[a];
+				if ( emitted[triangle] == true )
+				{
+					continue;
+				}
+				
+				// Emit the triangle, keeping its winding
+				for (int corner = 0; corner < 3; corner++)
+				{
+					int v = indices[triangle * 3 + corner];
+					sorted[sortedLength++] = v;
+					deadEnds.add(v);
+					liveTriangles[v]--;
+					
+					// Enters the cache when it wasn't in there anymore
+					if ( time - cacheTime[v] > cacheSize )
+					{
+						cacheTime[v] = time++;
+					}
+				}
+				emitted[triangle] = true;
+			}
+			
+			// Pick the next vertex to fan around
+			int next = -1;
+			int bestPriority = -1;
+			for (int c = candidatesStart; c < deadEnds.size(); c++)
+			{
+				int v = deadEnds.get(c);
+				if ( liveTriangles[v] <= 0 )
+				{
+					continue;
+				}
+				
+				// Prefer the oldest vertex that stays in the cache while it is fanned
+				int priority = 0;
+				if ( time - cacheTime[v] + 2 * liveTriangles[v] <= cacheSize )
+				{
+					priority = time - cacheTime[v];
+				}
+				if ( priority > bestPriority )
+				{
+					bestPriority = priority;
+					next = v;
+				}
+			}
+			
+			if ( next == -1 )
+			{
+				// The fan ran dry, this starts a new cluster
+				int triangle = sortedLength / 3;
+				if ( triangle > 0 && triangle < triangleCount
+						&& (clusterStarts.size() == 0 || clusterStarts.get(clusterStarts
+								.size() - 1) != triangle) )
+				{
+					clusterStarts.add(triangle);
+				}
+				next = skipDeadEnds(deadEnds, liveTriangles);
+				
+				// Otherwise the next vertex in the mesh with remaining triangles
+				while (next == -1 && cursor < vertexCount)
+				{
+					if ( liveTriangles[cursor] > 0 )
+					{
+						next = cursor;
+					}
+					cursor++;
+				}
+			}
+			
+			fanning = next;
+		}
+		
+		return sorted;
+	}
+	
+	/**
+	 * Pop the most recently used vertex that still has triangles left
+	 * 
+	 * @param deadEnds
+	 * @param liveTriangles
+	 * @return -1 when the stack ran empty
+	 */
+	private static int skipDeadEnds( IntList deadEnds, int[] liveTriangles )
+	{
+		while (deadEnds.size() > 0)
+		{
+			int v = deadEnds.get(deadEnds.size() - 1);
+			deadEnds.removeLast();
+			if ( liveTriangles[v] > 0 )
+			{
+				return v;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Sort the clusters so the ones facing away from the center of the mesh are drawn
+	 * first. They tend to cover the inner parts, which then fail the depth test instead
+	 * of being shaded and overwritten. The clusters start at cache breaks, so moving
+	 * them around barely affects the cache.
+	 * 
+	 * @param indices
+	 * @param clusterStarts The first triangle of every cluster except the first
+	 * @param positions
+	 * @return
+	 */
+	private static int[] sortClusters( int[] indices,
+			IntList clusterStarts,
+			float[] positions )
+	{
+		int triangleCount = indices.length / 3;
+		int clusterCount = clusterStarts.size() + 1;
+		if ( clusterCount < 2 )
+		{
+			return indices;
+		}
+		
+		// The centroid of the whole mesh, weighted by triangle area
+		float[] meshCentroid = new float[3];
+		float meshArea = 0;
+		float[] normal = new float[3];
+		for (int t = 0; t < triangleCount; t++)
+		{
+			float area = faceNormal(indices, t, positions, normal);
+			for (int axis = 0; axis < 3; axis++)
+			{
+				meshCentroid[axis] += area * triangleCenter(indices, t, positions, axis);
+			}
+			meshArea += area;
+		}
+		for (int axis = 0; axis < 3; axis++)
+		{
+			meshCentroid[axis] /= Math.max(meshArea, Float.MIN_NORMAL);
+		}
+		
+		// Score every cluster by how much it faces outward
+		final float[] scores = new float[clusterCount];
+		Integer[] order = new Integer[clusterCount];
+		for (int c = 0; c < clusterCount; c++)
+		{
+			int start = c == 0 ? 0 : clusterStarts.get(c - 1);
+			int end = c == clusterCount - 1 ? triangleCount : clusterStarts.get(c);
+			
+			float[] centroid = new float[3];
+			float[] averageNormal = new float[3];
+			float area = 0;
+			for (int t = start; t < end; t++)
+			{
+				// Larger triangles weigh more
+				float triangleArea = faceNormal(indices, t, positions, normal);
+				for (int axis = 0; axis < 3; axis++)
+				{
+					centroid[axis] += triangleArea
+							* triangleCenter(indices, t, positions, axis);
+					averageNormal[axis] += triangleArea * normal[axis];
+				}
+				area += triangleArea;
+			}
+			
+			float score = 0;
+			for (int axis = 0; axis < 3; axis++)
+			{
+				float toCluster = centroid[axis] / Math.max(area, Float.MIN_NORMAL)
+						- meshCentroid[axis];
+				score += toCluster * averageNormal[axis];
+			}
+			scores[c] = score;
+			order[c] = c;
+		}
+		
+		// Highest score first, equal scores keep their order
+		Arrays.sort(order, new Comparator<Integer>() {
+			
+			@Override
+			public int compare( Integer a, Integer b )
+			{
+				return Float.compare(scores[b], scores[a]);
+			}
+		});
+		
+		int[] result = new int[indices.length];
+		int length = 0;
+		for (int c : order)
+		{
+			int start = c == 0 ? 0 : clusterStarts.get(c - 1);
+			int end = c == clusterCount - 1 ? triangleCount : clusterStarts.get(c);
+			System.arraycopy(indices, start * 3, result, length, (end - start) * 3);
+			length += (end - start) * 3;
+		}
+		return result;
+	}
+	
+	/**
+	 * Calculate the unit normal of a triangle
+	 * 
+	 * @param indices
+	 * @param triangle
+	 * @param positions
+	 * @param normal Receives the normal
+	 * @return the area of the triangle
+	 */
+	private static float faceNormal( int[] indices,
+			int triangle,
+			float[] positions,
+			float[] normal )
+	{
+		int a = indices[triangle * 3] * 3;
+		int b = indices[triangle * 3 + 1] * 3;
+		int c = indices[triangle * 3 + 2] * 3;
+		
+		float abX = positions[b] - positions[a];
+		float abY = positions[b + 1] - positions[a + 1];
+		float abZ = positions[b + 2] - positions[a + 2];
+		float acX = positions[c] - positions[a];
+		float acY = positions[c + 1] - positions[a + 1];
+		float acZ = positions[c + 2] - positions[a + 2];
+		
+		// The cross product is as long as twice the area
+		normal[0] = abY * acZ - abZ * acY;
+		normal[1] = abZ * acX - abX * acZ;
+		normal[2] = abX * acY - abY * acX;
+		float length = (float) Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1]
+				+ normal[2] * normal[2]);
+		
+		if ( length > 0 )
+		{
+			normal[0] /= length;
+			normal[1] /= length;
+			normal[2] /= length;
+		}
+		return length / 2;
+	}
+	
+	/**
+	 * @param indices
+	 * @param triangle
+	 * @param positions
+	 * @param axis
+	 * @return one coordinate of the center of a triangle
+	 */
+	private static float triangleCenter( int[] indices,
+			int triangle,
+			float[] positions,
+			int axis )
+	{
+		return (positions[indices[triangle * 3] * 3 + axis]
+				+ positions[indices[triangle * 3 + 1] * 3 + axis] + positions[indices[triangle * 3 + 2]
+				* 3 + axis]) / 3;
+	}
+	
+	/**
+	 * Renumber the vertices in the order the indices first use them, and move their
+	 * data along. Vertices no triangle uses end up at the back.
+	 * 
+	 * @param mesh
+	 * @param indices The sorted indices of the mesh
+	 * @return
+	 */
+	private static MeshData reorderVertices( MeshData mesh, int[] indices )
+	{
+		int vertexCount = mesh.getVertexCount();
+		
+		// The new number of every old vertex
+		int[] remap = new int[vertexCount];
+		Arrays.fill(remap, -1);
+		int next = 0;
+		for (int i = 0; i < indices.length; i++)
+		{
+			int v = indices[i];
+			if ( remap[v] == -1 )
+			{
+				remap[v] = next++;
+			}
+			indices[i] = remap[v];
+		}
+		for (int v = 0; v < vertexCount; v++)
+		{
+			if ( remap[v] == -1 )
+			{
+				remap[v] = next++;
+			}
+		}
+		
+		return new MeshData(remapData(mesh.getPositions(), remap, 3), remapData(
+				mesh.getTextureCoords(), remap, 2), remapData(mesh.getNormals(), remap, 3),
+				indices, mesh.getWeldedCount());
+	}
+	
+	/**
+	 * @param data
+	 * @param remap
+	 * @param size The amount of floats per vertex
+	 * @return the data with every vertex moved to its new number
+	 */
+	private static float[] remapData( float[] data, int[] remap, int size )
+	{
+		float[] result = new float[data.length];
+		for (int v = 0; v < remap.length; v++)
+		{
+			System.arraycopy(data, v * size, result, remap[v] * size, size);
+		}
+		return result;
+	}
+	
+}
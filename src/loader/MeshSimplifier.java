@@ -0,0 +1,584 @@
+/**
+ * 
+ */
+package loader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Reduces the amount of triangles of a mesh with quadric error metrics (Garland and
+ * Heckbert, 1997). Every vertex keeps a quadric: the sum of the squared distances to
+ * the planes of its triangles. Edges are collapsed cheapest first, the removed vertex
+ * moves onto the vertex it collapses into, whose quadric takes over both.
+ * Vertices on the border of the mesh and on texture or normal seams never move, so
+ * the outline and the texture mapping stay intact.
+ * 
+ * @author Bert
+ */
+public class MeshSimplifier {
+	
+	/**
+	 * Every level of detail has at most this fraction of the triangles of the previous
+	 * level
+	 */
+	public final static float LOD_REDUCTION = 0.5f;
+	
+	/**
+	 * A level is only kept when it has at most this fraction of the triangles of the
+	 * previous level, otherwise the mesh can't be simplified any further
+	 */
+	private final static float MIN_USEFUL_REDUCTION = 0.8f;
+	
+	/**
+	 * A possible edge collapse
+	 */
+	private static class Collapse implements Comparable<Collapse> {
+		
+		/**
+		 * The error the collapse adds
+		 */
+		private double cost;
+		
+		/**
+		 * The vertex that is removed
+		 */
+		private int from;
+		
+		/**
+		 * The vertex that stays
+		 */
+		private int to;
+		
+		/**
+		 * @param cost
+		 * @param from
+		 * @param to
+		 */
+		Collapse( double cost, int from, int to )
+		{
+			this.cost = cost;
+			this.from = from;
+			this.to = to;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		@Override
+		public int compareTo( Collapse other )
+		{
+			return Double.compare(cost, other.cost);
+		}
+	}
+	
+	/**
+	 * Generate a chain of simplified meshes, each with about half the triangles of the
+	 * previous one. Stops early when the mesh can't be reduced any further.
+	 * 
+	 * @param mesh The full detail mesh, not part of the result
+	 * @param levels The maximum amount of simplified meshes
+	 * @return
+	 */
+	public static List<MeshData> generateLODs( MeshData mesh, int levels )
+	{
+		List<MeshData> lods = new ArrayList<>(levels);
+		MeshData previous = mesh;
+		
+		for (int level = 0; level < levels; level++)
+		{
+			int triangles = previous.getIndices().length / 3;
+			MeshData simplified = simplify(previous, (int) (triangles * LOD_REDUCTION));
+			
+			// Stop when the locked vertices leave nothing to collapse
+			if ( simplified.getIndices().length / 3 > triangles * MIN_USEFUL_REDUCTION )
+			{
+				break;
+			}
+			
+			// Sort the result for the vertex cache as well
+			simplified = MeshOptimizer.optimize(simplified, true);
+			lods.add(simplified);
+			previous = simplified;
+		}
+		
+		return lods;
+	}
+	
+	/**
+	 * Collapse edges until the mesh has the given amount of triangles, or no edge can
+	 * be collapsed anymore
+	 * 
+	 * @param mesh
+	 * @param targetTriangles
+	 * @return a new mesh, holding only the used vertices
+	 */
+	public static MeshData simplify( MeshData mesh, int targetTriangles )
+	{
+		float[] positions = mesh.getPositions();
+		int vertexCount = mesh.getVertexCount();
+		int[] indices = mesh.getIndices().clone();
+		int triangleCount = indices.length / 3;
+		
+		// The triangles of each vertex
+		IntList[] adjacency = new IntList[vertexCount];
+		for (int v = 0; v < vertexCount; v++)
+		{
+			adjacency[v] = new IntList(8);
+		}
+		for (int i = 0; i < indices.length; i++)
+		{
+			adjacency[indices[i]].add(i / 3);
+		}
+		
+		boolean[] locked = findLockedVertices(positions, vertexCount, indices);
+		double[] quadrics = computeQuadrics(positions, vertexCount, indices);
+		
+		// Queue the cheapest direction of every edge
+		PriorityQueue<Collapse> queue = new PriorityQueue<>(indices.length);
+		for (int t = 0; t < triangleCount; t++)
+		{
+			for (int corner = 0; corner < 3; corner++)
+			{
+				int a = indices[t * 3 + corner];
+				int b = indices[t * 3 + (corner + 1) % 3];
+				// Every inner edge appears twice, once in each direction
+				if ( a < b )
+				{
+					queueEdge(queue, a, b, positions, quadrics, locked);
+				}
+			}
+		}
+		
+		boolean[] removedVertex = new boolean[vertexCount];
+		boolean[] removedTriangle = new boolean[triangleCount];
+		int liveTriangles = triangleCount;
+		
+		while (liveTriangles > targetTriangles && queue.isEmpty() == false)
+		{
+			Collapse collapse = queue.poll();
+			int from = collapse.from;
+			int to = collapse.to;
+			if ( removedVertex[from] == true || removedVertex[to] == true )
+			{
+				continue;
+			}
+			
+			// The quadric of the kept vertex grows with every collapse, requeue when the
+			// queued cost is outdated
+			double cost = evaluate(quadrics, from, to, positions, to);
+			if ( cost > collapse.cost * (1 + 1e-6) + 1e-12 )
+			{
+				queue.add(new Collapse(cost, from, to));
+				continue;
+			}
+			
+			if ( canCollapse(from, to, indices, adjacency, removedTriangle, positions) == false )
+			{
+				continue;
+			}
+			
+			// Move every triangle of the removed vertex to the kept one
+			IntList triangles = adjacency[from];
+			for (int i = 0; i < triangles.size(); i++)
+			{
+				int t = triangles.get(i);
+				if ( removedTriangle[t] == true )
+				{
+					continue;
+				}
+				
+				// Triangles along the edge collapse to nothing
+				if ( contains(indices, t, to) == true )
+				{
+					removedTriangle[t] = true;
+					liveTriangles--;
+					continue;
+				}
+				
+				for (int corner = 0; corner < 3; corner++)
+				{
+					if ( indices[t * 3 + corner] == from )
+					{
+						indices[t * 3 + corner] = to;
+					}
+				}
+				adjacency[to].add(t);
+			}
+			removedVertex[from] = true;
+			
+			// The kept vertex is now responsible for the planes of both
+			for (int i = 0; i < 10; i++)
+			{
+				quadrics[to * 10 + i] += quadrics[from * 10 + i];
+			}
+			
+			// Queue the edges of the kept vertex with its new quadric
+			IntList keptTriangles = adjacency[to];
+			for (int i = 0; i < keptTriangles.size(); i++)
+			{
+				int t = keptTriangles.get(i);
+				if ( removedTriangle[t] == true )
+				{
+					continue;
+				}
+				for (int corner = 0; corner < 3; corner++)
+				{
+					int neighbour = indices[t * 3 + corner];
+					if ( neighbour != to )
+					{
+						queueEdge(queue, to, neighbour, positions, quadrics, locked);
+					}
+				}
+			}
+		}
+		
+		return compact(mesh, indices, removedTriangle);
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Find the vertices that may not move: the ones on an edge with only one triangle,
+	 * and the ones sharing their position with another vertex, which have a different
+	 * texture coord or normal on each side
+	 * 
+	 * @param positions
+	 * @param vertexCount
+	 * @param indices
+	 * @return
+	 */
+	private static boolean[] findLockedVertices( float[] positions,
+			int vertexCount,
+			int[] indices )
+	{
+		boolean[] locked = new boolean[vertexCount];
+		
+		// Seams, the hash of a position may collide which only locks a few more vertices
+		LongIntHashMap vertexByPosition = new LongIntHashMap(vertexCount);
+		for (int v = 0; v < vertexCount; v++)
+		{
+			long key = Float.floatToIntBits(positions[v * 3]) * 0x9E3779B97F4A7C15L
+					^ Float.floatToIntBits(positions[v * 3 + 1]) * 0xC2B2AE3D27D4EB4FL
+					^ Float.floatToIntBits(positions[v * 3 + 2]);
+			int other = vertexByPosition.putIfAbsent(key, v);
+			if ( other != LongIntHashMap.NO_VALUE )
+			{
+				locked[v] = true;
+				locked[other] = true;
+			}
+		}
+		
+		// Borders, remember which edges were seen twice
+		LongIntHashMap edges = new LongIntHashMap(indices.length);
+		LongIntHashMap sharedEdges = new LongIntHashMap(indices.length);
+		for (int i = 0; i < indices.length; i++)
+		{
+			long key = edgeKey(indices, i);
+			if ( edges.putIfAbsent(key, i) != LongIntHashMap.NO_VALUE )
+			{
+				sharedEdges.putIfAbsent(key, i);
+			}
+		}
+		for (int i = 0; i < indices.length; i++)
+		{
+			if ( sharedEdges.get(edgeKey(indices, i)) == LongIntHashMap.NO_VALUE )
+			{
+				locked[indices[i]] = true;
+				locked[indices[i - i % 3 + (i + 1) % 3]] = true;
+			}
+		}
+		
+		return locked;
+	}
+	
+	/**
+	 * @param indices
+	 * @param i The index of the first corner of the edge
+	 * @return a key for the edge from corner i to the next corner, the same in both
+	 *         directions
+	 */
+	private static long edgeKey( int[] indices, int i )
+	{
+		int a = indices[i];
+		int b = indices[i - i % 3 + (i + 1) % 3];
+		return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+	}
+	
+	/**
+	 * Sum the planes of the triangles of each vertex into a quadric, weighted by the
+	 * triangle area. A quadric is stored as the 10 unique values of the symmetric 4x4
+	 * matrix: aa, ab, ac, ad, bb, bc, bd, cc, cd, dd of the plane ax + by + cz + d = 0.
+	 * 
+	 * @param positions
+	 * @param vertexCount
+	 * @param indices
+	 * @return
+	 */
+	private static double[] computeQuadrics( float[] positions,
+			int vertexCount,
+			int[] indices )
+	{
+		double[] quadrics = new double[vertexCount * 10];
+		
+		for (int t = 0; t < indices.length / 3; t++)
+		{
+			int p0 = indices[t * 3] * 3;
+			int p1 = indices[t * 3 + 1] * 3;
+			int p2 = indices[t * 3 + 2] * 3;
+			
+			double abX = positions[p1] - positions[p0];
+			double abY = positions[p1 + 1] - positions[p0 + 1];
+			double abZ = positions[p1 + 2] - positions[p0 + 2];
+			double acX = positions[p2] - positions[p0];
+			double acY = positions[p2 + 1] - positions[p0 + 1];
+			double acZ = positions[p2 + 2] - positions[p0 + 2];
+			double nX = abY * acZ - abZ * acY;
+			double nY = abZ * acX - abX * acZ;
+			double nZ = abX * acY - abY * acX;
+			double length = Math.sqrt(nX * nX + nY * nY + nZ * nZ);
+			if ( length == 0 )
+			{
+				continue;
+			}
+			
+			double a = nX / length;
+			double b = nY / length;
+			double c = nZ / length;
+			double d = -(a * positions[p0] + b * positions[p0 + 1] + c * positions[p0 + 2]);
+			double area = length / 2;
+			
+			for (int corner = 0; corner < 3; corner++)
+			{
+				int q = indices[t * 3 + corner] * 10;
+				quadrics[q] += area * a * a;
+				quadrics[q + 1] += area * a * b;
+				quadrics[q + 2] += area * a * c;
+				quadrics[q + 3] += area * a * d;
+				quadrics[q + 4] += area * b * b;
+				quadrics[q + 5] += area * b * c;
+				quadrics[q + 6] += area * b * d;
+				quadrics[q + 7] += area * c * c;
+				quadrics[q + 8] += area * c * d;
+				quadrics[q + 9] += area * d * d;
+			}
+		}
+		
+		return quadrics;
+	}
+	
+	/**
+	 * The error of the combined quadric of two vertices at the position of a vertex
+	 * 
+	 * @param quadrics
+	 * @param a
+	 * @param b
+	 * @param positions
+	 * @param at
+	 * @return
+	 */
+	private static double evaluate( double[] quadrics,
+			int a,
+			int b,
+			float[] positions,
+			int at )
+	{
+		double x = positions[at * 3];
+		double y = positions[at * 3 + 1];
+		double z = positions[at * 3 + 2];
+		int qa = a * 10;
+		int qb = b * 10;
+		
+		double error = 0;
+		error += (quadrics[qa] + quadrics[qb]) * x * x;
+		error += 2 * (quadrics[qa + 1] + quadrics[qb + 1]) * x * y;
+		error += 2 * (quadrics[qa + 2] + quadrics[qb + 2]) * x * z;
+		error += 2 * (quadrics[qa + 3] + quadrics[qb + 3]) * x;
+		error += (quadrics[qa + 4] + quadrics[qb + 4]) * y * y;
+		error += 2 * (quadrics[qa + 5] + quadrics[qb + 5]) * y * z;
+		error += 2 * (quadrics[qa + 6] + quadrics[qb + 6]) * y;
+		error += (quadrics[qa + 7] + quadrics[qb + 7]) * z * z;
+		error += 2 * (quadrics[qa + 8] + quadrics[qb + 8]) * z;
+		error += quadrics[qa + 9] + quadrics[qb + 9];
+		
+		// Rounding can make a perfect fit slightly negative
+		return Math.max(error, 0);
+	}
+	
+	/**
+	 * Queue the cheapest allowed direction of an edge
+	 * 
+	 * @param queue
+	 * @param a
+	 * @param b
+	 * @param positions
+	 * @param quadrics
+	 * @param locked
+	 */
+	private static void queueEdge( PriorityQueue<Collapse> queue,
+			int a,
+			int b,
+			float[] positions,
+			double[] quadrics,
+			boolean[] locked )
+	{
+		// Collapsing a into b moves a onto b
+		double aIntoB = locked[a] ? Double.MAX_VALUE : evaluate(quadrics, a, b, positions,
+				b);
+		double bIntoA = locked[b] ? Double.MAX_VALUE : evaluate(quadrics, a, b, positions,
+				a);
+		
+		if ( aIntoB == Double.MAX_VALUE && bIntoA == Double.MAX_VALUE )
+		{
+			return;
+		}
+		if ( aIntoB <= bIntoA )
+		{
+			queue.add(new Collapse(aIntoB, a, b));
+		}
+		else
+		{
+			queue.add(new Collapse(bIntoA, b, a));
+		}
+	}
+	
+	/**
+	 * Check that the vertices still share a triangle, and that moving the removed
+	 * vertex doesn't flip any of its other triangles
+	 * 
+	 * @param from
+	 * @param to
+	 * @param indices
+	 * @param adjacency
+	 * @param removedTriangle
+	 * @param positions
+	 * @return
+	 */
+	private static boolean canCollapse( int from,
+			int to,
+			int[] indices,
+			IntList[] adjacency,
+			boolean[] removedTriangle,
+			float[] positions )
+	{
+		boolean connected = false;
+		IntList triangles = adjacency[from];
+		
+		for (int i = 0; i < triangles.size(); i++)
+		{
+			int t = triangles.get(i);
+			if ( removedTriangle[t] == true )
+			{
+				continue;
+			}
+			if ( contains(indices, t, to) == true )
+			{
+				connected = true;
+				continue;
+			}
+			
+			// Compare the normal before and after the move
+			double[] before = normal(indices, t, positions, -1, -1);
+			double[] after = normal(indices, t, positions, from, to);
+			if ( before[0] * after[0] + before[1] * after[1] + before[2] * after[2] <= 0 )
+			{
+				return false;
+			}
+		}
+		
+		return connected;
+	}
+	
+	/**
+	 * @param indices
+	 * @param t
+	 * @param positions
+	 * @param replaced A vertex to place at the position of another, -1 for none
+	 * @param replacement
+	 * @return the unnormalized normal of a triangle
+	 */
+	private static double[] normal( int[] indices,
+			int t,
+			float[] positions,
+			int replaced,
+			int replacement )
+	{
+		int[] p = new int[3];
+		for (int corner = 0; corner < 3; corner++)
+		{
+			int v = indices[t * 3 + corner];
+			p[corner] = (v == replaced ? replacement : v) * 3;
+		}
+		
+		double abX = positions[p[1]] - positions[p[0]];
+		double abY = positions[p[1] + 1] - positions[p[0] + 1];
+		double abZ = positions[p[1] + 2] - positions[p[0] + 2];
+		double acX = positions[p[2]] - positions[p[0]];
+		double acY = positions[p[2] + 1] - positions[p[0] + 1];
+		double acZ = positions[p[2] + 2] - positions[p[0] + 2];
+		return new double[] { abY * acZ - abZ * acY, abZ * acX - abX * acZ,
+				abX * acY - abY * acX };
+	}
+	
+	/**
+	 * @param indices
+	 * @param t
+	 * @param v
+	 * @return true when triangle t uses vertex v
+	 */
+	private static boolean contains( int[] indices, int t, int v )
+	{
+		return indices[t * 3] == v || indices[t * 3 + 1] == v || indices[t * 3 + 2] == v;
+	}
+	
+	/**
+	 * Build the mesh of the remaining triangles, with only the vertices they use
+	 * 
+	 * @param mesh
+	 * @param indices
+	 * @param removedTriangle
+	 * @return
+	 */
+	private static MeshData compact( MeshData mesh, int[] indices, boolean[] removedTriangle )
+	{
+		int[] remap = new int[mesh.getVertexCount()];
+		Arrays.fill(remap, -1);
+		FloatList positions = new FloatList(1024);
+		FloatList textureCoords = new FloatList(1024);
+		FloatList normals = new FloatList(1024);
+		IntList result = new IntList(indices.length);
+		
+		for (int t = 0; t < removedTriangle.length; t++)
+		{
+			if ( removedTriangle[t] == true )
+			{
+				continue;
+			}
+			
+			for (int corner = 0; corner < 3; corner++)
+			{
+				int v = indices[t * 3 + corner];
+				if ( remap[v] == -1 )
+				{
+					// First use, copy the vertex
+					remap[v] = positions.size() / 3;
+					for (int i = 0; i < 3; i++)
+					{
+						positions.add(mesh.getPositions()[v * 3 + i]);
+						normals.add(mesh.getNormals()[v * 3 + i]);
+					}
+					textureCoords.add(mesh.getTextureCoords()[v * 2]);
+					textureCoords.add(mesh.getTextureCoords()[v * 2 + 1]);
+				}
+				result.add(remap[v]);
+			}
+		}
+		
+		return new MeshData(positions.toArray(), textureCoords.toArray(),
+				normals.toArray(), result.toArray());
+	}
+	
+}
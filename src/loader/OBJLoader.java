@@ -1,172 +1,366 @@
 package loader;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import entity.model.Model;
-import math.vector.Vector2f;
-import math.vector.Vector3f;
 
 public class OBJLoader {
 	
+	/**
+	 * Files of at least this size, in bytes, are parsed on all cores
+	 */
+	private final static long PARALLEL_THRESHOLD = 8 * 1024 * 1024;
+	
+	/**
+	 * Returned by hashSource when the source couldn't be read, CRC32 values are never
+	 * negative
+	 */
+	final static long NO_HASH = -1;
+	
+	/**
+	 * The maximum amount of simplified versions generated for every model
+	 */
+	final static int LOD_LEVELS = 3;
+	
 	public static Model loadObjModel( String fileName, Loader loader )
 	{
-		/* Read the file from disk */
-		InputStreamReader inReader = new InputStreamReader(loader.loadSource(fileName));
-		
-		// Create a buffered reader for the file content
-		BufferedReader reader = new BufferedReader(inReader);
+		/* Use the binary version when the file was parsed before */
+		long hash = hashSource(fileName, loader);
+		MappedMesh cached = loadCachedMesh(fileName, hash);
+		if ( cached != null )
+		{
+			return uploadModel(fileName, cached, loadCachedLODs(fileName, hash), loader);
+		}
 		
 		/* Process the file content */
-		String line;
-		List<Vector3f> vertices = new ArrayList<Vector3f>();
-		List<Vector2f> textures = new ArrayList<Vector2f>();
-		List<Vector3f> normals = new ArrayList<Vector3f>();
-		List<Integer> indices = new ArrayList<Integer>();
-		float[] verticesArray = null;
-		float[] normalsArray = null;
-		float[] textureArray = null;
-		int[] indicesArray = null;
+		MeshData mesh = parseSource(fileName, loader);
+		List<MeshData> lods = createLODs(fileName, mesh);
+		
+		/* Save the binary version for the next launch */
+		storeCachedLODs(fileName, hash, lods);
+		storeCachedMesh(fileName, hash, mesh);
+		
+		return uploadModel(fileName, mesh, lods, loader);
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Upload a parsed mesh and its levels of detail
+	 * 
+	 * @param fileName
+	 * @param mesh
+	 * @param lods
+	 * @param loader
+	 * @return
+	 */
+	static Model uploadModel( String fileName,
+			MeshData mesh,
+			List<MeshData> lods,
+			Loader loader )
+	{
+		Model model = loader.loadToVAO(mesh);
+		loader.nameFootprint(model, fileName);
+		
+		for (MeshData lod : lods)
+		{
+			Model lodModel = loader.loadToVAO(lod);
+			loader.nameFootprint(lodModel, lodName(fileName, model.getLODCount()));
+			model.addLOD(lodModel);
+		}
+		
+		return model;
+	}
+	
+	/**
+	 * Upload a cached mesh and its levels of detail
+	 * 
+	 * @param fileName
+	 * @param mesh
+	 * @param lods
+	 * @param loader
+	 * @return
+	 */
+	static Model uploadModel( String fileName,
+			MappedMesh mesh,
+			List<MappedMesh> lods,
+			Loader loader )
+	{
+		Model model = loader.loadToVAO(mesh);
+		loader.nameFootprint(model, fileName);
+		
+		for (MappedMesh lod : lods)
+		{
+			Model lodModel = loader.loadToVAO(lod);
+			loader.nameFootprint(lodModel, lodName(fileName, model.getLODCount()));
+			model.addLOD(lodModel);
+		}
+		
+		return model;
+	}
+	
+	/**
+	 * Generate the simplified versions of a mesh
+	 * 
+	 * @param fileName
+	 * @param mesh
+	 * @return
+	 */
+	static List<MeshData> createLODs( String fileName, MeshData mesh )
+	{
+		List<MeshData> lods = MeshSimplifier.generateLODs(mesh, LOD_LEVELS);
+		
+		StringBuilder counts = new StringBuilder();
+		for (MeshData lod : lods)
+		{
+			counts.append(" -> ").append(lod.getIndices().length / 3);
+		}
+		System.out.println("Simplified " + fileName + ": " + mesh.getIndices().length / 3
+				+ counts + " triangles");
+		
+		return lods;
+	}
+	
+	/**
+	 * @param fileName
+	 * @param level
+	 * @return the name a level of detail of a source is cached under
+	 */
+	static String lodName( String fileName, int level )
+	{
+		return fileName + "#lod" + level;
+	}
+	
+	/**
+	 * Memory map the cached levels of detail of a source. They are stored before the
+	 * full mesh, so they are complete when the full mesh is cached.
+	 * 
+	 * @param fileName
+	 * @param hash
+	 * @return
+	 */
+	static List<MappedMesh> loadCachedLODs( String fileName, long hash )
+	{
+		List<MappedMesh> lods = new ArrayList<>(LOD_LEVELS);
+		
 		try
 		{
-			/*
-			 * Read every line of the content and parse it according to the first
-			 * character
-			 */
-			while (true)
+			// The chain ends at the first missing level
+			for (int level = 1; level <= LOD_LEVELS; level++)
 			{
-				line = reader.readLine();
-				String[] currentLine = line.split(" ");
-				if ( line.startsWith("v ") )
+				MappedMesh lod = MeshCache.load(lodName(fileName, level), hash);
+				if ( lod == null )
 				{
-					// Process the vertex
-					Vector3f vertex = new Vector3f(Float.parseFloat(currentLine[1]),
-							Float.parseFloat(currentLine[2]),
-							Float.parseFloat(currentLine[3]));
-					// Save it
-					vertices.add(vertex);
-				}
-				else if ( line.startsWith("vt ") )
-				{
-					// Process the texture coord
-					Vector2f texture = new Vector2f(Float.parseFloat(currentLine[1]),
-							Float.parseFloat(currentLine[2]));
-					// Save it
-					textures.add(texture);
-				}
-				else if ( line.startsWith("vn ") )
-				{
-					// Process the normal
-					Vector3f normal = new Vector3f(Float.parseFloat(currentLine[1]),
-							Float.parseFloat(currentLine[2]),
-							Float.parseFloat(currentLine[3]));
-					// Save it
-					normals.add(normal);
-				}
-				else if ( line.startsWith("f ") )
-				{
-					// Encountered the faces definition
-					// Generate appropriate buffers for the resulting data
-					textureArray = new float[vertices.size() * 2];
-					normalsArray = new float[vertices.size() * 3];
-					// Break from the loop
 					break;
 				}
+				lods.add(lod);
 			}
-			
-			// Link matching vertex, texture coord and normal together
-			while (line != null)
+		}
+		catch (IOException e)
+		{
+			// Use the levels that could be read
+			e.printStackTrace();
+		}
+		
+		return lods;
+	}
+	
+	/**
+	 * Save the binary versions of the levels of detail of a source
+	 * 
+	 * @param fileName
+	 * @param hash
+	 * @param lods
+	 */
+	static void storeCachedLODs( String fileName, long hash, List<MeshData> lods )
+	{
+		for (int level = 1; level <= lods.size(); level++)
+		{
+			storeCachedMesh(lodName(fileName, level), hash, lods.get(level - 1));
+		}
+		
+		// A shorter chain leaves the levels of the old content behind
+		for (int level = lods.size() + 1; level <= LOD_LEVELS; level++)
+		{
+			try
 			{
-				// Check for junk between the faces definition
-				if ( !line.startsWith("f ") )
-				{
-					line = reader.readLine();
-					continue;
-				}
-				// Get each data piece
-				String[] currentLine = line.split(" ");
-				String[] vertex1 = currentLine[1].split("/");
-				String[] vertex2 = currentLine[2].split("/");
-				String[] vertex3 = currentLine[3].split("/");
-				
-				// Process all the matching data
-				processVertex(vertex1, indices, textures, normals, textureArray,
-						normalsArray);
-				processVertex(vertex2, indices, textures, normals, textureArray,
-						normalsArray);
-				processVertex(vertex3, indices, textures, normals, textureArray,
-						normalsArray);
-				
-				// Read the next line
-				line = reader.readLine();
+				MeshCache.delete(lodName(fileName, level));
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
 			}
-			// Close the buffered reader
-			reader.close();
-			
 		}
-		catch (Exception e)
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Calculate the content hash of a source
+	 * 
+	 * @param fileName
+	 * @param loader
+	 * @return NO_HASH when the source couldn't be read
+	 */
+	static long hashSource( String fileName, Loader loader )
+	{
+		try
+		{
+			return MeshCache.hash(loader.loadSource(fileName));
+		}
+		catch (IOException e)
 		{
 			e.printStackTrace();
 		}
 		
-		// Generate the buffers to pass on
-		verticesArray = new float[vertices.size() * 3];
-		indicesArray = new int[indices.size()];
+		return NO_HASH;
+	}
+	
+	/**
+	 * Memory map the cached mesh of a source
+	 * 
+	 * @param fileName
+	 * @param hash
+	 * @return null when the source has no valid cache file
+	 */
+	static MappedMesh loadCachedMesh( String fileName, long hash )
+	{
+		if ( hash == NO_HASH )
+		{
+			return null;
+		}
 		
-		int vertexPointer = 0;
-		for (Vector3f vertex : vertices)
+		try
 		{
-			verticesArray[vertexPointer++] = vertex.x;
-			verticesArray[vertexPointer++] = vertex.y;
-			verticesArray[vertexPointer++] = vertex.z;
+			MappedMesh cached = MeshCache.load(fileName, hash);
+			if ( cached != null )
+			{
+				System.out.println("Loaded " + fileName + " from the mesh cache: "
+						+ cached.getVertexCount() + " vertices, "
+						+ cached.getWeldedCount() + " welded");
+			}
+			return cached;
+		}
+		catch (IOException e)
+		{
+			// Fall back to parsing the source
+			e.printStackTrace();
 		}
 		
-		for (int i = 0; i < indices.size(); i++)
+		return null;
+	}
+	
+	/**
+	 * Parse a source, large plain files are parsed on all cores
+	 * 
+	 * @param fileName
+	 * @param loader
+	 * @return
+	 */
+	static MeshData parseSource( String fileName, Loader loader )
+	{
+		MeshData mesh = null;
+		Path file = loader.getSourceFile(fileName);
+		try
+		{
+			if ( file != null && Files.size(file) >= PARALLEL_THRESHOLD )
+			{
+				mesh = parseObjModel(file, ForkJoinPool.commonPool());
+			}
+		}
+		catch (IOException e)
+		{
+			// Fall back to the sequential parser
+			e.printStackTrace();
+		}
+		if ( mesh == null )
 		{
-			indicesArray[i] = indices.get(i);
+			mesh = parseObjModel(loader.loadSource(fileName));
 		}
 		
-		return loader.loadToVAO(verticesArray, textureArray, normalsArray, indicesArray);
+		System.out.println("Loaded " + fileName + ": " + mesh.getVertexCount()
+				+ " vertices, " + mesh.getWeldedCount() + " welded");
+		
+		/* Reorder the triangles and vertices for the GPU */
+		float acmrBefore = MeshOptimizer.computeACMR(mesh.getIndices(), mesh
+				.getVertexCount(), MeshOptimizer.CACHE_SIZE);
+		float atvrBefore = MeshOptimizer.computeATVR(mesh.getIndices(), mesh
+				.getVertexCount(), MeshOptimizer.CACHE_SIZE);
+		mesh = MeshOptimizer.optimize(mesh, true);
+		System.out.println(String.format("Optimized %s: ACMR %.3f -> %.3f, ATVR %.3f -> %.3f",
+				fileName, acmrBefore, MeshOptimizer.computeACMR(mesh.getIndices(), mesh
+						.getVertexCount(), MeshOptimizer.CACHE_SIZE), atvrBefore,
+				MeshOptimizer.computeATVR(mesh.getIndices(), mesh.getVertexCount(),
+						MeshOptimizer.CACHE_SIZE)));
+		
+		return mesh;
 	}
 	
 	/**
-	 * Put each piece of data in the correct place inside the buffers
+	 * Save the binary version of a parsed source
 	 * 
-	 * @param vertexData
-	 * @param indices
-	 * @param textures
-	 * @param normals
-	 * @param textureArray
-	 * @param normalsArray
+	 * @param fileName
+	 * @param hash
+	 * @param mesh
 	 */
-	private static void processVertex( String[] vertexData,
-			List<Integer> indices,
-			List<Vector2f> textures,
-			List<Vector3f> normals,
-			float[] textureArray,
-			float[] normalsArray )
+	static void storeCachedMesh( String fileName, long hash, MeshData mesh )
 	{
+		if ( hash == NO_HASH )
+		{
+			return;
+		}
 		
-		int currentVertexPointer = Integer.parseInt(vertexData[0]) - 1;
-		indices.add(currentVertexPointer);
 		try
 		{
-			Vector2f currentTex = textures.get(Integer.parseInt(vertexData[1]) - 1);
-			textureArray[currentVertexPointer * 2] = currentTex.x;
-			textureArray[currentVertexPointer * 2 + 1] = 1 - currentTex.y;
+			MeshCache.store(fileName, hash, mesh);
 		}
-		catch (Exception e)
+		catch (IOException e)
 		{
-			
+			e.printStackTrace();
+		}
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Parse the content of an OBJ file, without touching OpenGL
+	 * 
+	 * @param input The file content, gets closed
+	 * @return
+	 */
+	public static MeshData parseObjModel( InputStream input )
+	{
+		try
+		{
+			return new OBJParser().parse(input);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
 		}
 		
-		Vector3f currentNorm = normals.get(Integer.parseInt(vertexData[2]) - 1);
-		normalsArray[currentVertexPointer * 3] = currentNorm.x;
-		normalsArray[currentVertexPointer * 3 + 1] = currentNorm.y;
-		normalsArray[currentVertexPointer * 3 + 2] = currentNorm.z;
-		
+		// Nothing could be read
+		return new MeshData(new float[0], new float[0], new float[0], new int[0]);
+	}
+	
+	/**
+	 * Parse an OBJ file on the threads of the given pool. The result is identical to
+	 * parsing the file sequentially.
+	 * 
+	 * @param file
+	 * @param pool
+	 * @return
+	 * @throws IOException
+	 */
+	public static MeshData parseObjModel( Path file, ForkJoinPool pool ) throws IOException
+	{
+		return ParallelOBJParser.parse(file, pool);
 	}
 	
 }
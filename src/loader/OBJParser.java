@@ -0,0 +1,503 @@
+/**
+ * 
+ */
+package loader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming OBJ parser. Scans the raw bytes of the file straight into primitive
+ * arrays, no strings or vector objects are created per line. The face vertices are
+ * welded into an indexed mesh by the VertexWelder afterwards.
+ * A parser can handle a part of a file as well, see ParallelOBJParser.
+ * 
+ * @author Bert
+ */
+class OBJParser {
+	
+	/**
+	 * The initial size of the read buffer, grows when a line doesn't fit
+	 */
+	private final static int BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * Exact powers of ten, used to scale the parsed mantissa
+	 */
+	private final static double[] POWERS_OF_TEN = new double[23];
+	
+	static
+	{
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+		{
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+	
+	/**
+	 * The read buffer
+	 */
+	private byte[] buffer;
+	
+	/**
+	 * The position of the next unread byte in the buffer
+	 */
+	private int position;
+	
+	/**
+	 * The amount of valid bytes in the buffer
+	 */
+	private int limit;
+	
+	/**
+	 * The end of the line that is being parsed
+	 */
+	private int lineEnd;
+	
+	/**
+	 * Parsed data, in file order
+	 */
+	private FloatList positions;
+	private FloatList textures;
+	private FloatList normals;
+	
+	/**
+	 * 0 based position, texture and normal index per face vertex, -1 when missing
+	 */
+	private IntList faceVertices;
+	
+	/**
+	 * The places in faceVertices holding a relative (negative) OBJ index. These are
+	 * resolved against the elements parsed by this parser only.
+	 */
+	private IntList relativeIndices;
+	
+	/**
+	 * Constructor
+	 */
+	OBJParser()
+	{
+		this.buffer = new byte[BUFFER_SIZE];
+		this.positions = new FloatList(1024);
+		this.textures = new FloatList(1024);
+		this.normals = new FloatList(1024);
+		this.faceVertices = new IntList(1024);
+		this.relativeIndices = new IntList(16);
+	}
+	
+	/**
+	 * Parse the given stream, the stream gets closed
+	 * 
+	 * @param input
+	 * @return
+	 * @throws IOException
+	 */
+	MeshData parse( InputStream input ) throws IOException
+	{
+		parseLines(input);
+		
+		// Build the indexed mesh
+		return VertexWelder.weld(positions, textures, normals, faceVertices);
+	}
+	
+	/**
+	 * Parse the lines of the given stream without building the mesh, the stream gets
+	 * closed
+	 * 
+	 * @param input
+	 * @throws IOException
+	 */
+	void parseLines( InputStream input ) throws IOException
+	{
+		// Start clean, the parser can be reused
+		reset();
+		
+		try
+		{
+			// Handle the file line by line
+			while (nextLine(input) == true)
+			{
+				parseLine();
+				// Skip past the line feed
+				position = lineEnd + 1;
+			}
+		}
+		finally
+		{
+			input.close();
+		}
+	}
+	
+	/**
+	 * Forget the previously parsed file
+	 */
+	private void reset()
+	{
+		position = 0;
+		limit = 0;
+		positions.clear();
+		textures.clear();
+		normals.clear();
+		faceVertices.clear();
+		relativeIndices.clear();
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Makes sure the next complete line is inside the buffer and sets lineEnd
+	 * 
+	 * @param input
+	 * @return false when the end of the stream is reached
+	 * @throws IOException
+	 */
+	private boolean nextLine( InputStream input ) throws IOException
+	{
+		int scan = position;
+		
+		while (true)
+		{
+			// Look for the line feed in the bytes we already have
+			while (scan < limit)
+			{
+				if ( buffer[scan] == '\n' )
+				{
+					lineEnd = scan;
+					return true;
+				}
+				scan++;
+			}
+			
+			// Move the unfinished line to the front of the buffer
+			int remaining = limit - position;
+			System.arraycopy(buffer, position, buffer, 0, remaining);
+			scan -= position;
+			position = 0;
+			limit = remaining;
+			
+			// The line doesn't fit, grow the buffer
+			if ( limit == buffer.length )
+			{
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+			
+			// Read more bytes
+			int read = input.read(buffer, limit, buffer.length - limit);
+			if ( read < 0 )
+			{
+				// The last line has no line feed
+				lineEnd = limit;
+				return limit > position;
+			}
+			limit += read;
+		}
+	}
+	
+	/**
+	 * Parse the current line according to its first characters
+	 */
+	private void parseLine()
+	{
+		skipWhitespace();
+		if ( position + 1 >= lineEnd )
+		{
+			// Empty line
+			return;
+		}
+		
+		byte first = buffer[position];
+		byte second = buffer[position + 1];
+		
+		if ( first == 'v' && isWhitespace(second) )
+		{
+			// Process the vertex
+			position++;
+			positions.add(parseFloat());
+			positions.add(parseFloat());
+			positions.add(parseFloat());
+		}
+		else if ( first == 'v' && second == 't' )
+		{
+			// Process the texture coord
+			position += 2;
+			textures.add(parseFloat());
+			textures.add(parseFloat());
+		}
+		else if ( first == 'v' && second == 'n' )
+		{
+			// Process the normal
+			position += 2;
+			normals.add(parseFloat());
+			normals.add(parseFloat());
+			normals.add(parseFloat());
+		}
+		else if ( first == 'f' && isWhitespace(second) )
+		{
+			// Link matching vertex, texture coord and normal together
+			position++;
+			parseFaceVertex();
+			parseFaceVertex();
+			parseFaceVertex();
+		}
+		
+		// Everything else (comments, groups, materials, ...) is ignored
+	}
+	
+	/**
+	 * Parse one position/texture/normal triplet of a face
+	 */
+	private void parseFaceVertex()
+	{
+		int positionIndex = parseIndex(positions.size() / 3, 0);
+		int textureIndex = -1;
+		int normalIndex = -1;
+		
+		// Without a slash the vertex only has a position
+		if ( position < lineEnd && buffer[position] == '/' )
+		{
+			position++;
+			
+			// The texture coord is optional, p//n
+			if ( position < lineEnd && buffer[position] != '/' )
+			{
+				textureIndex = parseIndex(textures.size() / 2, 1);
+			}
+			
+			// The normal
+			if ( position < lineEnd && buffer[position] == '/' )
+			{
+				position++;
+				normalIndex = parseIndex(normals.size() / 3, 2);
+			}
+		}
+		
+		// Save the triplet
+		faceVertices.add(positionIndex);
+		faceVertices.add(textureIndex);
+		faceVertices.add(normalIndex);
+	}
+	
+	/**
+	 * Parse an OBJ index and return it 0 based. Positive indices count from the start
+	 * of the file, negative ones count back from the last parsed element.
+	 * 
+	 * @param count The amount of parsed elements of the indexed kind
+	 * @param component 0 for a position, 1 for a texture and 2 for a normal index
+	 * @return
+	 */
+	private int parseIndex( int count, int component )
+	{
+		int index = parseInt();
+		
+		if ( index < 0 )
+		{
+			// Remember where it goes, a chunk of a file has to add its offset later
+			relativeIndices.add(faceVertices.size() + component);
+			return count + index;
+		}
+		
+		return index - 1;
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * @return the parsed positions, 3 floats each
+	 */
+	FloatList getPositions()
+	{
+		return positions;
+	}
+	
+	/**
+	 * @return the parsed texture coords, 2 floats each
+	 */
+	FloatList getTextures()
+	{
+		return textures;
+	}
+	
+	/**
+	 * @return the parsed normals, 3 floats each
+	 */
+	FloatList getNormals()
+	{
+		return normals;
+	}
+	
+	/**
+	 * @return the face vertices, 3 indices each
+	 */
+	IntList getFaceVertices()
+	{
+		return faceVertices;
+	}
+	
+	/**
+	 * @return the places in the face vertices holding a relative index
+	 */
+	IntList getRelativeIndices()
+	{
+		return relativeIndices;
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Parse a decimal integer, leading whitespace is skipped
+	 * 
+	 * @return
+	 */
+	private int parseInt()
+	{
+		skipWhitespace();
+		
+		boolean negative = false;
+		if ( position < lineEnd && buffer[position] == '-' )
+		{
+			negative = true;
+			position++;
+		}
+		
+		int value = 0;
+		while (position < lineEnd)
+		{
+			int digit = buffer[position] - '0';
+			if ( digit < 0 || digit > 9 )
+			{
+				break;
+			}
+			value = value * 10 + digit;
+			position++;
+		}
+		
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Parse a decimal float like 1, -0.25 or 3.5e-4, leading whitespace is skipped.
+	 * The digits are collected in a long and scaled with an exact power of ten, which
+	 * gives the same result as Float.parseFloat for the values found in OBJ files.
+	 * 
+	 * @return
+	 */
+	private float parseFloat()
+	{
+		skipWhitespace();
+		
+		// Sign
+		boolean negative = false;
+		if ( position < lineEnd && (buffer[position] == '-' || buffer[position] == '+') )
+		{
+			negative = buffer[position] == '-';
+			position++;
+		}
+		
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		
+		// Integer part, digits past the precision of a long only move the exponent
+		while (position < lineEnd)
+		{
+			int digit = buffer[position] - '0';
+			if ( digit < 0 || digit > 9 )
+			{
+				break;
+			}
+			if ( digits < 18 )
+			{
+				mantissa = mantissa * 10 + digit;
+				if ( mantissa != 0 )
+				{
+					digits++;
+				}
+			}
+			else
+			{
+				exponent++;
+			}
+			position++;
+		}
+		
+		// Fraction part
+		if ( position < lineEnd && buffer[position] == '.' )
+		{
+			position++;
+			while (position < lineEnd)
+			{
+				int digit = buffer[position] - '0';
+				if ( digit < 0 || digit > 9 )
+				{
+					break;
+				}
+				if ( digits < 18 )
+				{
+					mantissa = mantissa * 10 + digit;
+					exponent--;
+					if ( mantissa != 0 )
+					{
+						digits++;
+					}
+				}
+				position++;
+			}
+		}
+		
+		// Exponent part
+		if ( position < lineEnd && (buffer[position] == 'e' || buffer[position] == 'E') )
+		{
+			position++;
+			boolean negativeExponent = false;
+			if ( position < lineEnd && buffer[position] == '+' )
+			{
+				position++;
+			}
+			else if ( position < lineEnd && buffer[position] == '-' )
+			{
+				negativeExponent = true;
+				position++;
+			}
+			int value = parseInt();
+			exponent += negativeExponent ? -value : value;
+		}
+		
+		// Scale the mantissa
+		double result = mantissa;
+		if ( exponent < 0 )
+		{
+			result = -exponent < POWERS_OF_TEN.length ? result / POWERS_OF_TEN[-exponent]
+					: result / Math.pow(10, -exponent);
+		}
+		else if ( exponent > 0 )
+		{
+			result = exponent < POWERS_OF_TEN.length ? result * POWERS_OF_TEN[exponent]
+					: result * Math.pow(10, exponent);
+		}
+		
+		return (float) (negative ? -result : result);
+	}
+	
+	/**
+	 * Move past spaces, tabs and carriage returns
+	 */
+	private void skipWhitespace()
+	{
+		while (position < lineEnd && isWhitespace(buffer[position]) == true)
+		{
+			position++;
+		}
+	}
+	
+	/**
+	 * @param b
+	 * @return
+	 */
+	private static boolean isWhitespace( byte b )
+	{
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+	
+}
@@ -0,0 +1,230 @@
+/**
+ * 
+ */
+package loader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a large OBJ file on several cores. The file is memory mapped and split at
+ * line boundaries into chunks, every chunk is parsed by its own OBJParser on a
+ * ForkJoinPool. The chunks are merged in file order and welded afterwards, which
+ * gives exactly the same mesh as parsing the file sequentially.
+ * 
+ * @author Bert
+ */
+class ParallelOBJParser {
+	
+	/**
+	 * Chunks per thread of the pool, smaller chunks balance the work better
+	 */
+	private final static int CHUNKS_PER_THREAD = 4;
+	
+	/**
+	 * Chunks are never made smaller than this, in bytes
+	 */
+	private final static long MIN_CHUNK_SIZE = 1024 * 1024;
+	
+	/**
+	 * Chunks are never made larger than this, a mapping can't exceed 2 GB
+	 */
+	private final static long MAX_CHUNK_SIZE = 1024 * 1024 * 1024;
+	
+	/**
+	 * Parse the given file on the given pool
+	 * 
+	 * @param file
+	 * @param pool
+	 * @return
+	 * @throws IOException
+	 */
+	static MeshData parse( Path file, ForkJoinPool pool ) throws IOException
+	{
+		List<OBJParser> chunks;
+		
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			long[] boundaries = split(channel, pool.getParallelism());
+			chunks = parseChunks(channel, boundaries, pool);
+		}
+		
+		return merge(chunks);
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Divide the file into chunks which start at the beginning of a line
+	 * 
+	 * @param channel
+	 * @param parallelism
+	 * @return the start of every chunk, followed by the file size
+	 * @throws IOException
+	 */
+	private static long[] split( FileChannel channel, int parallelism ) throws IOException
+	{
+		long size = channel.size();
+		
+		// Decide on the amount of chunks
+		long chunkCount = (long) parallelism * CHUNKS_PER_THREAD;
+		chunkCount = Math.min(chunkCount, size / MIN_CHUNK_SIZE);
+		chunkCount = Math.max(chunkCount, size / MAX_CHUNK_SIZE + 1);
+		chunkCount = Math.max(chunkCount, 1);
+		
+		long[] boundaries = new long[(int) chunkCount + 1];
+		boundaries[boundaries.length - 1] = size;
+		
+		// Move every evenly spaced split point to the start of the next line
+		ByteBuffer scan = ByteBuffer.allocate(4096);
+		for (int i = 1; i < chunkCount; i++)
+		{
+			long target = Math.max(size * i / chunkCount, boundaries[i - 1]);
+			boundaries[i] = findNextLine(channel, target, scan);
+		}
+		
+		return boundaries;
+	}
+	
+	/**
+	 * @param channel
+	 * @param position
+	 * @param scan A buffer to read into
+	 * @return the position after the first line feed at or after position, the file
+	 *         size when there is none
+	 * @throws IOException
+	 */
+	private static long findNextLine( FileChannel channel, long position, ByteBuffer scan )
+			throws IOException
+	{
+		while (true)
+		{
+			scan.clear();
+			int read = channel.read(scan, position);
+			if ( read < 0 )
+			{
+				return channel.size();
+			}
+			
+			for (int i = 0; i < read; i++)
+			{
+				if ( scan.get(i) == '\n' )
+				{
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+	}
+	
+	/**
+	 * Parse every chunk on the pool
+	 * 
+	 * @param channel
+	 * @param boundaries
+	 * @param pool
+	 * @return the parsers holding the data of each chunk, in file order
+	 * @throws IOException
+	 */
+	private static List<OBJParser> parseChunks( FileChannel channel,
+			long[] boundaries,
+			ForkJoinPool pool ) throws IOException
+	{
+		List<Callable<OBJParser>> tasks = new ArrayList<>();
+		
+		for (int i = 0; i < boundaries.length - 1; i++)
+		{
+			// Map the chunk, the mapping stays valid after closing the channel
+			ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, boundaries[i],
+					boundaries[i + 1] - boundaries[i]);
+			
+			tasks.add(() -> {
+				OBJParser parser = new OBJParser();
+				parser.parseLines(new ByteBufferInputStream(chunk));
+				return parser;
+			});
+		}
+		
+		// Run them all and wait for the results
+		List<OBJParser> chunks = new ArrayList<>();
+		try
+		{
+			for (Future<OBJParser> result : pool.invokeAll(tasks))
+			{
+				chunks.add(result.get());
+			}
+		}
+		catch (ExecutionException e)
+		{
+			throw new IOException("Couldn't parse a chunk", e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing", e);
+		}
+		
+		return chunks;
+	}
+	
+	/**
+	 * Glue the chunks together and weld the result
+	 * 
+	 * @param chunks
+	 * @return
+	 */
+	private static MeshData merge( List<OBJParser> chunks )
+	{
+		// Count everything first, so the lists are allocated once
+		int positionCount = 0;
+		int textureCount = 0;
+		int normalCount = 0;
+		int faceVertexCount = 0;
+		for (OBJParser chunk : chunks)
+		{
+			positionCount += chunk.getPositions().size();
+			textureCount += chunk.getTextures().size();
+			normalCount += chunk.getNormals().size();
+			faceVertexCount += chunk.getFaceVertices().size();
+		}
+		
+		FloatList positions = new FloatList(positionCount);
+		FloatList textures = new FloatList(textureCount);
+		FloatList normals = new FloatList(normalCount);
+		IntList faceVertices = new IntList(faceVertexCount);
+		
+		for (OBJParser chunk : chunks)
+		{
+			// The elements parsed by the previous chunks
+			int[] offsets = { positions.size() / 3, textures.size() / 2,
+					normals.size() / 3 };
+			int faceStart = faceVertices.size();
+			
+			positions.addAll(chunk.getPositions());
+			textures.addAll(chunk.getTextures());
+			normals.addAll(chunk.getNormals());
+			faceVertices.addAll(chunk.getFaceVertices());
+			
+			// Relative indices only counted the elements of their own chunk
+			IntList relativeIndices = chunk.getRelativeIndices();
+			for (int i = 0; i < relativeIndices.size(); i++)
+			{
+				int place = relativeIndices.get(i);
+				int index = faceStart + place;
+				faceVertices.set(index, faceVertices.get(index) + offsets[place % 3]);
+			}
+		}
+		
+		return VertexWelder.weld(positions, textures, normals, faceVertices);
+	}
+	
+}
@@ -0,0 +1,158 @@
+/**
+ * 
+ */
+package loader;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Hands out ranges of a buffer, in elements. Free ranges are kept sorted by their
+ * offset, the first one that is large enough is used, and freed ranges merge with free
+ * neighbours so the space doesn't fall apart.
+ * 
+ * @author Bert
+ */
+class RangeAllocator {
+	
+	/**
+	 * The size of each free range, by offset
+	 */
+	private TreeMap<Integer, Integer> freeRanges;
+	
+	/**
+	 * The size of each allocated range, by offset
+	 */
+	private Map<Integer, Integer> allocatedRanges;
+	
+	/**
+	 * The amount of elements in the buffer
+	 */
+	private int capacity;
+	
+	/**
+	 * The amount of allocated elements
+	 */
+	private int used;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param capacity The amount of elements in the buffer
+	 */
+	RangeAllocator( int capacity )
+	{
+		this.freeRanges = new TreeMap<>();
+		this.allocatedRanges = new HashMap<>();
+		this.capacity = 0;
+		grow(capacity);
+	}
+	
+	/**
+	 * @return the capacity
+	 */
+	int getCapacity()
+	{
+		return this.capacity;
+	}
+	
+	/**
+	 * @return the used
+	 */
+	int getUsed()
+	{
+		return this.used;
+	}
+	
+	/**
+	 * Take a range out of the free space
+	 * 
+	 * @param size The amount of elements
+	 * @return the offset of the range, -1 when no free range is large enough
+	 */
+	int allocate( int size )
+	{
+		for (Map.Entry<Integer, Integer> range : freeRanges.entrySet())
+		{
+			int offset = range.getKey();
+			int rangeSize = range.getValue();
+			if ( rangeSize < size )
+			{
+				continue;
+			}
+			
+			// Use the start of the range, the rest stays free
+			freeRanges.remove(offset);
+			if ( rangeSize > size )
+			{
+				freeRanges.put(offset + size, rangeSize - size);
+			}
+			
+			allocatedRanges.put(offset, size);
+			used += size;
+			return offset;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Give an allocated range back
+	 * 
+	 * @param offset
+	 */
+	void free( int offset )
+	{
+		Integer size = allocatedRanges.remove(offset);
+		if ( size == null )
+		{
+			System.err.println("Freed range " + offset + " which isn't allocated");
+			return;
+		}
+		used -= size;
+		addFreeRange(offset, size);
+	}
+	
+	/**
+	 * Add room at the end of the buffer
+	 * 
+	 * @param newCapacity
+	 */
+	void grow( int newCapacity )
+	{
+		if ( newCapacity > capacity )
+		{
+			addFreeRange(capacity, newCapacity - capacity);
+			capacity = newCapacity;
+		}
+	}
+	
+	/**
+	 * Mark a range as free, merged with the free ranges right before and after it
+	 * 
+	 * @param offset
+	 * @param size
+	 */
+	private void addFreeRange( int offset, int size )
+	{
+		// Merge with the following range
+		Integer next = freeRanges.get(offset + size);
+		if ( next != null )
+		{
+			freeRanges.remove(offset + size);
+			size += next;
+		}
+		
+		// Merge with the preceding range
+		Map.Entry<Integer, Integer> previous = freeRanges.lowerEntry(offset);
+		if ( previous != null && previous.getKey() + previous.getValue() == offset )
+		{
+			offset = previous.getKey();
+			size += previous.getValue();
+		}
+		
+		freeRanges.put(offset, size);
+	}
+	
+}
@@ -0,0 +1,66 @@
+/**
+ * 
+ */
+package loader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoded pixels of a texture, ready to be uploaded to OpenGL
+ * 
+ * @author Bert
+ */
+public class TextureData {
+	
+	/**
+	 * 4 bytes per pixel, RGBA
+	 */
+	private ByteBuffer pixels;
+	
+	/**
+	 * Width in pixels
+	 */
+	private int width;
+	
+	/**
+	 * Height in pixels
+	 */
+	private int height;
+	
+	/**
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 */
+	public TextureData( ByteBuffer pixels, int width, int height )
+	{
+		this.pixels = pixels;
+		this.width = width;
+		this.height = height;
+	}
+	
+	/**
+	 * @return the pixels
+	 */
+	public ByteBuffer getPixels()
+	{
+		return this.pixels;
+	}
+	
+	/**
+	 * @return the width
+	 */
+	public int getWidth()
+	{
+		return this.width;
+	}
+	
+	/**
+	 * @return the height
+	 */
+	public int getHeight()
+	{
+		return this.height;
+	}
+	
+}
@@ -14,6 +14,10 @@ import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL12;
 
+import gpu.GLStateCache;
+import gpu.GPUResourceManager;
+import gpu.GPUResourceType;
+
 /**
  * @author Bert
  *         Source:
@@ -54,10 +58,21 @@ public class TextureLoader {
 	 * @return
 	 */
 	public int loadTexture()
+	{
+		return uploadTexture(decodeTexture());
+	}
+	
+	/**
+	 * Convert the image into RGBA pixels, doesn't need OpenGL so it can run on any
+	 * thread
+	 * 
+	 * @return null when the image can't be converted
+	 */
+	public TextureData decodeTexture()
 	{
 		if ( image == null )
 		{
-			return 0;
+			return null;
 		}
 		
 		// Get the amount of used bytes per pixel
@@ -103,11 +118,11 @@ public class TextureLoader {
 		{
 			// Don't know how to handle this image
 			System.err.println("Unknown buffer byte order type! -> " + byteSequence);
-			return 0;
+			return null;
 		}
 		
 		// Generate the texture buffer for RGBA mode
-		ByteBuffer buffer = BufferUtils.createByteBuffer(image.getHeight()
+		ByteBuffer buffer = BufferUtils.createByteBuffer(image.getWidth()
 				* image.getHeight() * BYTES_PER_PIXEL_RGBA);
 		
 		// Switch on the amount of bytes per pixel in the bytearray
@@ -143,7 +158,7 @@ public class TextureLoader {
 			System.err.println("Not the right amount of bytes per pixel!");
 			// Empty the buffer
 			buffer.clear();
-			return 0;
+			return null;
 		}
 		
 		// Flip the buffer, since we are done filling it
@@ -152,11 +167,27 @@ public class TextureLoader {
 		/* DEBUG */
 		// System.out.println("Filled " + buffer.remaining() + " bytes");
 		
+		return new TextureData(buffer, image.getWidth(), image.getHeight());
+	}
+	
+	/**
+	 * Create an OpenGL texture of decoded pixels
+	 * 
+	 * @param data
+	 * @return the texture ID, 0 when there is no data
+	 */
+	public static int uploadTexture( TextureData data )
+	{
+		if ( data == null )
+		{
+			return 0;
+		}
+		
 		/* Generate texture of the RGBA pixel buffer */
 		// Generate texture
-		int textureID = GL11.glGenTextures();
+		int textureID = GPUResourceManager.createTexture("TextureLoader");
 		// Bind the texture as a 2d texture
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+		GLStateCache.bindTexture(textureID);
 		
 		// Add some GL params
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
@@ -165,12 +196,15 @@ public class TextureLoader {
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
 		
-		GL11.glEnable(GL11.GL_BLEND);
+		GLStateCache.setEnabled(GL11.GL_BLEND, true);
 		GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
 		
 		// Send texel data to OpenGL
-		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, image.getWidth(),
-				image.getHeight(), 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, buffer);
+		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, data.getWidth(),
+				data.getHeight(), 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, data.getPixels());
+		// Four bytes per texel
+		GPUResourceManager.setSize(GPUResourceType.TEXTURE, textureID, (long) data.getWidth()
+				* data.getHeight() * 4);
 		
 		// Return the textureID
 		return textureID;
@@ -0,0 +1,174 @@
+/**
+ * 
+ */
+package loader;
+
+/**
+ * Describes how the vertex data of a model is stored on the GPU. The attribute
+ * indices stay the ones defined in Render, only the buffers behind them change.
+ * 
+ * @author Bert
+ */
+public class VertexFormat {
+	
+	/**
+	 * One float VBO per attribute
+	 */
+	public final static VertexFormat SEPARATE = new VertexFormat(false, false, false);
+	
+	/**
+	 * All attributes of a vertex next to each other in one float VBO, 32 bytes per
+	 * vertex
+	 */
+	public final static VertexFormat INTERLEAVED = new VertexFormat(true, false, false);
+	
+	/**
+	 * One interleaved VBO with half float texture coords and 10-10-10-2 normals, 20
+	 * bytes per vertex
+	 */
+	public final static VertexFormat INTERLEAVED_PACKED = new VertexFormat(true, true,
+			true);
+	
+	/**
+	 * One interleaved VBO with 16 bit positions quantized against the mesh bounds,
+	 * half float texture coords and octahedral normals, 16 bytes per vertex
+	 */
+	public final static VertexFormat INTERLEAVED_QUANTIZED = new VertexFormat(true,
+			true, false, true, true);
+	
+	/**
+	 * All attributes in one strided VBO
+	 */
+	private boolean interleaved;
+	
+	/**
+	 * Texture coords as 16 bit floats
+	 */
+	private boolean halfFloatTexCoords;
+	
+	/**
+	 * Normals as signed normalized 10-10-10-2 integers
+	 */
+	private boolean packedNormals;
+	
+	/**
+	 * Positions as unsigned normalized 16 bit integers inside the bounds of the mesh
+	 */
+	private boolean quantizedPositions;
+	
+	/**
+	 * Normals as 2 signed normalized 16 bit integers, octahedral encoded
+	 */
+	private boolean octahedralNormals;
+	
+	/**
+	 * Constructor, the packed formats are only available for interleaved data
+	 * 
+	 * @param interleaved
+	 * @param halfFloatTexCoords
+	 * @param packedNormals
+	 */
+	public VertexFormat( boolean interleaved,
+			boolean halfFloatTexCoords,
+			boolean packedNormals )
+	{
+		this(interleaved, halfFloatTexCoords, packedNormals, false, false);
+	}
+	
+	/**
+	 * Constructor, the packed formats are only available for interleaved data.
+	 * Octahedral normals take precedence over 10-10-10-2 normals.
+	 * 
+	 * @param interleaved
+	 * @param halfFloatTexCoords
+	 * @param packedNormals
+	 * @param quantizedPositions
+	 * @param octahedralNormals
+	 */
+	public VertexFormat( boolean interleaved,
+			boolean halfFloatTexCoords,
+			boolean packedNormals,
+			boolean quantizedPositions,
+			boolean octahedralNormals )
+	{
+		this.interleaved = interleaved;
+		this.halfFloatTexCoords = interleaved && halfFloatTexCoords;
+		this.octahedralNormals = interleaved && octahedralNormals;
+		this.packedNormals = interleaved && packedNormals && !this.octahedralNormals;
+		this.quantizedPositions = interleaved && quantizedPositions;
+	}
+	
+	/**
+	 * @return the interleaved
+	 */
+	public boolean isInterleaved()
+	{
+		return this.interleaved;
+	}
+	
+	/**
+	 * @return the halfFloatTexCoords
+	 */
+	public boolean hasHalfFloatTexCoords()
+	{
+		return this.halfFloatTexCoords;
+	}
+	
+	/**
+	 * @return the packedNormals
+	 */
+	public boolean hasPackedNormals()
+	{
+		return this.packedNormals;
+	}
+	
+	/**
+	 * @return the quantizedPositions
+	 */
+	public boolean hasQuantizedPositions()
+	{
+		return this.quantizedPositions;
+	}
+	
+	/**
+	 * @return the octahedralNormals
+	 */
+	public boolean hasOctahedralNormals()
+	{
+		return this.octahedralNormals;
+	}
+	
+	/**
+	 * @return the size of the position of one vertex in bytes, quantized positions are
+	 *         padded to 4 bytes
+	 */
+	int getPositionSize()
+	{
+		return quantizedPositions ? 4 * 2 : 3 * 4;
+	}
+	
+	/**
+	 * @return the size of the texture coords of one vertex in bytes
+	 */
+	int getTexCoordSize()
+	{
+		return halfFloatTexCoords ? 2 * 2 : 2 * 4;
+	}
+	
+	/**
+	 * @return the size of the normal of one vertex in bytes
+	 */
+	int getNormalSize()
+	{
+		return packedNormals || octahedralNormals ? 4 : 3 * 4;
+	}
+	
+	/**
+	 * @return the size of one interleaved vertex in bytes
+	 */
+	int getStride()
+	{
+		return getPositionSize() + getTexCoordSize() + getNormalSize();
+	}
+	
+}
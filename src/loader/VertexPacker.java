@@ -0,0 +1,164 @@
+/**
+ * 
+ */
+package loader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts vertex attributes into the packed formats OpenGL can read directly
+ * 
+ * @author Bert
+ */
+class VertexPacker {
+	
+	/**
+	 * Convert a float into an IEEE 754 half float (GL_HALF_FLOAT), rounded to the
+	 * nearest value
+	 * 
+	 * @param value
+	 * @return the 16 bits of the half float
+	 */
+	static short toHalfFloat( float value )
+	{
+		int bits = Float.floatToIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = (bits >>> 23) & 0xFF;
+		int mantissa = bits & 0x7FFFFF;
+		
+		// NaN and infinity
+		if ( exponent == 0xFF )
+		{
+			return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+		}
+		
+		// Re-bias the exponent from 127 to 15
+		int halfExponent = exponent - 127 + 15;
+		
+		// Too large, becomes infinity
+		if ( halfExponent >= 0x1F )
+		{
+			return (short) (sign | 0x7C00);
+		}
+		
+		// Too small for a normal half float
+		if ( halfExponent <= 0 )
+		{
+			// Below the smallest subnormal, becomes zero
+			if ( halfExponent < -10 )
+			{
+				return (short) sign;
+			}
+			
+			// Subnormal, shift the mantissa including its hidden bit
+			mantissa |= 0x800000;
+			int shift = 14 - halfExponent;
+			int half = mantissa >> shift;
+			// Round to nearest, ties to even
+			int remainder = mantissa & ((1 << shift) - 1);
+			int halfway = 1 << (shift - 1);
+			if ( remainder > halfway || (remainder == halfway && (half & 1) != 0) )
+			{
+				half++;
+			}
+			return (short) (sign | half);
+		}
+		
+		// Normal, drop 13 bits of the mantissa
+		int half = (halfExponent << 10) | (mantissa >> 13);
+		// Round to nearest, ties to even, a carry moves into the exponent correctly
+		int remainder = mantissa & 0x1FFF;
+		if ( remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0) )
+		{
+			half++;
+		}
+		return (short) (sign | half);
+	}
+	
+	/**
+	 * Pack a normal into the signed normalized GL_INT_2_10_10_10_REV format, x in the
+	 * lowest bits. The 2 bits of w stay 0.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	static int packNormal( float x, float y, float z )
+	{
+		return toSignedNormalized10(x) | (toSignedNormalized10(y) << 10)
+				| (toSignedNormalized10(z) << 20);
+	}
+	
+	/**
+	 * Quantize a coordinate to an unsigned normalized 16 bit integer, 0 is the minimum
+	 * and 65535 the maximum of the mesh bounds
+	 * 
+	 * @param value
+	 * @param min The minimum of the bounds
+	 * @param extent The size of the bounds
+	 * @return the 16 bits of the integer
+	 */
+	static short quantize( float value, float min, float extent )
+	{
+		// A flat mesh has no extent on this axis
+		if ( extent <= 0 )
+		{
+			return 0;
+		}
+		
+		float normalized = Math.max(0, Math.min(1, (value - min) / extent));
+		return (short) Math.round(normalized * 65535);
+	}
+	
+	/**
+	 * Write a normal as 2 signed normalized 16 bit integers, using the octahedral
+	 * encoding. The normal is projected onto an octahedron, whose lower half is folded
+	 * over the upper half, which leaves 2 coordinates between -1 and 1.
+	 * 
+	 * @param data
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	static void putOctahedralNormal( ByteBuffer data, float x, float y, float z )
+	{
+		// Project onto the octahedron |x| + |y| + |z| = 1
+		float length = Math.abs(x) + Math.abs(y) + Math.abs(z);
+		float u = length > 0 ? x / length : 0;
+		float v = length > 0 ? y / length : 0;
+		
+		// Fold the lower half over the diagonals
+		if ( z < 0 )
+		{
+			float foldedU = (1 - Math.abs(v)) * (u >= 0 ? 1 : -1);
+			float foldedV = (1 - Math.abs(u)) * (v >= 0 ? 1 : -1);
+			u = foldedU;
+			v = foldedV;
+		}
+		
+		data.putShort(toSignedNormalized16(u));
+		data.putShort(toSignedNormalized16(v));
+	}
+	
+	/**
+	 * @param value
+	 * @return value * 32767 as a 16 bit integer
+	 */
+	private static short toSignedNormalized16( float value )
+	{
+		float clamped = Math.max(-1, Math.min(1, value));
+		return (short) Math.round(clamped * 32767);
+	}
+	
+	/**
+	 * @param value
+	 * @return the 10 bits two's complement representation of value * 511
+	 */
+	private static int toSignedNormalized10( float value )
+	{
+		float clamped = Math.max(-1, Math.min(1, value));
+		return Math.round(clamped * 511) & 0x3FF;
+	}
+	
+}
@@ -0,0 +1,104 @@
+/**
+ * 
+ */
+package loader;
+
+/**
+ * Turns the position/texture/normal triplets of the faces into an indexed mesh.
+ * Every unique triplet becomes one vertex, faces sharing a triplet share (weld) the
+ * vertex. The vertices are numbered in the order their triplet first appears.
+ * 
+ * @author Bert
+ */
+class VertexWelder {
+	
+	/**
+	 * Build the mesh for the given face vertices
+	 * 
+	 * @param positions 3 floats per position
+	 * @param textures 2 floats per texture coord
+	 * @param normals 3 floats per normal
+	 * @param faceVertices 0 based position, texture and normal index per face vertex,
+	 *            -1 for a missing texture or normal
+	 * @return
+	 */
+	static MeshData weld( FloatList positions,
+			FloatList textures,
+			FloatList normals,
+			IntList faceVertices )
+	{
+		int faceVertexCount = faceVertices.size() / 3;
+		
+		// Output data, one entry per unique vertex
+		FloatList vertexPositions = new FloatList(positions.size());
+		FloatList vertexTextures = new FloatList(positions.size() / 3 * 2);
+		FloatList vertexNormals = new FloatList(positions.size());
+		int[] indices = new int[faceVertexCount];
+		
+		// Maps a texture and normal index pair to a sequential attribute ID
+		LongIntHashMap attributeIDs = new LongIntHashMap(1024);
+		// Maps a position index and attribute ID pair to the output vertex
+		LongIntHashMap vertexIDs = new LongIntHashMap(positions.size() / 3);
+		
+		int weldedCount = 0;
+		
+		for (int i = 0; i < faceVertexCount; i++)
+		{
+			int positionIndex = faceVertices.get(i * 3);
+			int textureIndex = faceVertices.get(i * 3 + 1);
+			int normalIndex = faceVertices.get(i * 3 + 2);
+			
+			// Number the texture/normal pair, so the vertex key fits in a long
+			long attributeKey = ((long) textureIndex << 32) | (normalIndex & 0xFFFFFFFFL);
+			int attributeID = attributeIDs.putIfAbsent(attributeKey, attributeIDs.size());
+			if ( attributeID == LongIntHashMap.NO_VALUE )
+			{
+				attributeID = attributeIDs.size() - 1;
+			}
+			
+			// Reuse the vertex when the triplet was seen before
+			long vertexKey = ((long) positionIndex << 32) | attributeID;
+			int vertex = vertexIDs.putIfAbsent(vertexKey, vertexIDs.size());
+			if ( vertex != LongIntHashMap.NO_VALUE )
+			{
+				indices[i] = vertex;
+				weldedCount++;
+				continue;
+			}
+			indices[i] = vertexIDs.size() - 1;
+			
+			// New vertex, copy its data
+			vertexPositions.add(positions.get(positionIndex * 3));
+			vertexPositions.add(positions.get(positionIndex * 3 + 1));
+			vertexPositions.add(positions.get(positionIndex * 3 + 2));
+			
+			if ( textureIndex >= 0 )
+			{
+				vertexTextures.add(textures.get(textureIndex * 2));
+				vertexTextures.add(1 - textures.get(textureIndex * 2 + 1));
+			}
+			else
+			{
+				vertexTextures.add(0);
+				vertexTextures.add(0);
+			}
+			
+			if ( normalIndex >= 0 )
+			{
+				vertexNormals.add(normals.get(normalIndex * 3));
+				vertexNormals.add(normals.get(normalIndex * 3 + 1));
+				vertexNormals.add(normals.get(normalIndex * 3 + 2));
+			}
+			else
+			{
+				vertexNormals.add(0);
+				vertexNormals.add(0);
+				vertexNormals.add(0);
+			}
+		}
+		
+		return new MeshData(vertexPositions.toArray(), vertexTextures.toArray(),
+				vertexNormals.toArray(), indices, weldedCount);
+	}
+	
+}
@@ -28,22 +28,97 @@ public class Maths {
 			float rz,
 			float scale )
 	{
-		// Create the matrix
-		Matrix4f matrix = new Matrix4f();
-		// Set the matrix to identity
-		matrix.setIdentity();
+		// Fill a new matrix
+		return createTransformationMatrix(translation, rx, ry, rz, scale, new Matrix4f());
+	}
+	
+	/**
+	 * Create a matrix that combines all given transformations and store it into the
+	 * given matrix. No objects are allocated.
+	 * The result equals translate(translation) * rotateX(rx) * rotateY(ry) * rotateZ(rz)
+	 * * scale(scale), but the rotations are written out with the sine and cosine of each
+	 * angle instead of being multiplied one by one.
+	 * 
+	 * @param translation
+	 * @param rx Rotation (deg) around the X-axis
+	 * @param ry Rotation (deg) around the Y-axis
+	 * @param rz Rotation (deg) around the Z-axis
+	 * @param scale
+	 * @param dest The matrix that receives the result
+	 * @return dest
+	 */
+	public static Matrix4f createTransformationMatrix( Vector3f translation,
+			float rx,
+			float ry,
+			float rz,
+			float scale,
+			Matrix4f dest )
+	{
+		return createTransformationMatrix(translation.x, translation.y, translation.z, rx,
+				ry, rz, scale, dest);
+	}
+	
+	/**
+	 * Create a matrix that combines all given transformations and store it into the
+	 * given matrix. No objects are allocated.
+	 * 
+	 * @param x Translation over the X-axis
+	 * @param y Translation over the Y-axis
+	 * @param z Translation over the Z-axis
+	 * @param rx Rotation (deg) around the X-axis
+	 * @param ry Rotation (deg) around the Y-axis
+	 * @param rz Rotation (deg) around the Z-axis
+	 * @param scale
+	 * @param dest The matrix that receives the result
+	 * @return dest
+	 */
+	public static Matrix4f createTransformationMatrix( float x,
+			float y,
+			float z,
+			float rx,
+			float ry,
+			float rz,
+			float scale,
+			Matrix4f dest )
+	{
+		// Sine and cosine of every angle
+		double radX = Math.toRadians(rx);
+		double radY = Math.toRadians(ry);
+		double radZ = Math.toRadians(rz);
+		float sx = (float) Math.sin(radX);
+		float cx = (float) Math.cos(radX);
+		float sy = (float) Math.sin(radY);
+		float cy = (float) Math.cos(radY);
+		float sz = (float) Math.sin(radZ);
+		float cz = (float) Math.cos(radZ);
 		
-		// Translate the matrix
-		matrix.translate(translation);
-		// Rotate the matrix in each plane
-		matrix.rotate((float) Math.toRadians(rx), new Vector3f(1, 0, 0));
-		matrix.rotate((float) Math.toRadians(ry), new Vector3f(0, 1, 0));
-		matrix.rotate((float) Math.toRadians(rz), new Vector3f(0, 0, 1));
-		// Scale the matrix
-		matrix.scale(new Vector3f(scale, scale, scale));
+		/*
+		 * Rx * Ry * Rz, multiplied by the scale
+		 * The matrix is in column major order, so m01 is the first column, second row
+		 */
+		// First column
+		dest.m00 = cy * cz * scale;
+		dest.m01 = (sx * sy * cz + cx * sz) * scale;
+		dest.m02 = (-cx * sy * cz + sx * sz) * scale;
+		dest.m03 = 0;
+		// Second column
+		dest.m10 = -cy * sz * scale;
+		dest.m11 = (-sx * sy * sz + cx * cz) * scale;
+		dest.m12 = (cx * sy * sz + sx * cz) * scale;
+		dest.m13 = 0;
+		// Third column
+		dest.m20 = sy * scale;
+		dest.m21 = -sx * cy * scale;
+		dest.m22 = cx * cy * scale;
+		dest.m23 = 0;
+		// Translation column
+		dest.m30 = x;
+		dest.m31 = y;
+		dest.m32 = z;
+		dest.m33 = 1;
 		
 		// Return the transformation matrix
-		return matrix;
+		return dest;
 	}
 	
 	/**
@@ -0,0 +1,151 @@
+/**
+ * 
+ */
+package occlusion;
+
+/**
+ * A chain of depth buffers, each half the size of the previous one, holding the
+ * farthest depth of the 2x2 pixels below it. A rectangle on the screen is tested on
+ * the level where it covers at most 2x2 pixels: when its nearest depth is behind the
+ * farthest depth of all of them, everything inside it is hidden.
+ * 
+ * @author Bert
+ */
+class HierarchicalZBuffer {
+	
+	/**
+	 * The depth of every pixel of every level, level 0 is the rasterized buffer
+	 */
+	private float[][] levels;
+	
+	/**
+	 * The width of every level
+	 */
+	private int[] widths;
+	
+	/**
+	 * The height of every level
+	 */
+	private int[] heights;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	HierarchicalZBuffer( int width, int height )
+	{
+		// Halve until a single pixel is left
+		int levelCount = 1;
+		for (int size = Math.max(width, height); size > 1; size = (size + 1) / 2)
+		{
+			levelCount++;
+		}
+		
+		this.levels = new float[levelCount][];
+		this.widths = new int[levelCount];
+		this.heights = new int[levelCount];
+		for (int level = 0; level < levelCount; level++)
+		{
+			widths[level] = width;
+			heights[level] = height;
+			levels[level] = new float[width * height];
+			width = (width + 1) / 2;
+			height = (height + 1) / 2;
+		}
+	}
+	
+	/**
+	 * @return the rasterized buffer the other levels are built from
+	 */
+	float[] getDepthBuffer()
+	{
+		return this.levels[0];
+	}
+	
+	/**
+	 * @return the width of the rasterized buffer
+	 */
+	int getWidth()
+	{
+		return this.widths[0];
+	}
+	
+	/**
+	 * @return the height of the rasterized buffer
+	 */
+	int getHeight()
+	{
+		return this.heights[0];
+	}
+	
+	/**
+	 * Build every level from the one before it
+	 */
+	void build()
+	{
+		for (int level = 1; level < levels.length; level++)
+		{
+			float[] source = levels[level - 1];
+			int sourceWidth = widths[level - 1];
+			int sourceHeight = heights[level - 1];
+			float[] target = levels[level];
+			int width = widths[level];
+			
+			for (int y = 0; y < heights[level]; y++)
+			{
+				// An odd last row or column only has itself below it
+				int row0 = y * 2 * sourceWidth;
+				int row1 = Math.min(y * 2 + 1, sourceHeight - 1) * sourceWidth;
+				for (int x = 0; x < width; x++)
+				{
+					int x0 = x * 2;
+					int x1 = Math.min(x0 + 1, sourceWidth - 1);
+					float farthest = Math.max(Math.max(source[row0 + x0], source[row0 + x1]),
+							Math.max(source[row1 + x0], source[row1 + x1]));
+					target[y * width + x] = farthest;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Check if a rectangle is hidden behind the rasterized depth
+	 * 
+	 * @param minX The first pixel column, inside the buffer
+	 * @param minY The first pixel row, inside the buffer
+	 * @param maxX The last pixel column, inside the buffer
+	 * @param maxY The last pixel row, inside the buffer
+	 * @param nearestDepth The depth of the nearest point inside the rectangle
+	 * @return true when every covered pixel has something in front of the depth
+	 */
+	boolean isOccluded( int minX, int minY, int maxX, int maxY, float nearestDepth )
+	{
+		// Go up until the rectangle covers at most 2x2 pixels
+		int level = 0;
+		while (level < levels.length - 1 && (maxX - minX > 1 || maxY - minY > 1))
+		{
+			minX >>= 1;
+			minY >>= 1;
+			maxX >>= 1;
+			maxY >>= 1;
+			level++;
+		}
+		
+		float[] depth = levels[level];
+		int width = widths[level];
+		for (int y = minY; y <= maxY; y++)
+		{
+			for (int x = minX; x <= maxX; x++)
+			{
+				if ( nearestDepth <= depth[y * width + x] )
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+}
@@ -0,0 +1,94 @@
+/**
+ * 
+ */
+package occlusion;
+
+import math.matrix.Matrix4f;
+
+/**
+ * A mesh that hides what is behind it, rasterized into the depth buffer of the
+ * occlusion culler. Occluders should be simple and lie inside the object they stand
+ * for, a few large triangles are worth more than a detailed mesh.
+ * 
+ * @author Bert
+ */
+public class Occluder {
+	
+	/**
+	 * The x, y and z of every vertex after each other, in model space
+	 */
+	private float[] positions;
+	
+	/**
+	 * Three vertex indices for every triangle
+	 */
+	private int[] indices;
+	
+	/**
+	 * Places the occluder in the world
+	 */
+	private Matrix4f transformation;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param positions The x, y and z of every vertex after each other
+	 * @param indices Three vertex indices for every triangle
+	 * @param transformation Places the occluder in the world
+	 */
+	public Occluder( float[] positions, int[] indices, Matrix4f transformation )
+	{
+		this.positions = positions;
+		this.indices = indices;
+		this.transformation = transformation;
+	}
+	
+	/**
+	 * @return the positions
+	 */
+	public float[] getPositions()
+	{
+		return this.positions;
+	}
+	
+	/**
+	 * @return the indices
+	 */
+	public int[] getIndices()
+	{
+		return this.indices;
+	}
+	
+	/**
+	 * @return the transformation
+	 */
+	public Matrix4f getTransformation()
+	{
+		return this.transformation;
+	}
+	
+	/**
+	 * @param transformation the transformation to set
+	 */
+	public void setTransformation( Matrix4f transformation )
+	{
+		this.transformation = transformation;
+	}
+	
+	/**
+	 * @return the amount of vertices
+	 */
+	public int getVertexCount()
+	{
+		return this.positions.length / 3;
+	}
+	
+	/**
+	 * @return the amount of triangles
+	 */
+	public int getTriangleCount()
+	{
+		return this.indices.length / 3;
+	}
+	
+}
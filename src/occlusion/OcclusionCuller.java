@@ -0,0 +1,331 @@
+/**
+ * 
+ */
+package occlusion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import math.matrix.Matrix4f;
+
+/**
+ * Culls objects that are hidden behind occluders, without a GPU. Once per frame the
+ * occluders are rasterized into a low resolution depth buffer, by worker threads that
+ * each fill a band of rows, and a hierarchical depth buffer is built from it. After
+ * that the bounding spheres of the objects are projected onto the screen and tested
+ * against it. The culling is conservative, an object is only culled when it is behind
+ * the occluders on every pixel it covers.
+ * Counts what was occluded and what was drawn in the current frame.
+ * 
+ * @author Bert
+ */
+public class OcclusionCuller {
+	
+	/**
+	 * The smallest clip w of a bounding box corner, objects closer to the camera are
+	 * always visible
+	 */
+	private final static float MIN_W = 1e-3f;
+	
+	/**
+	 * The meshes that hide what is behind them
+	 */
+	private List<Occluder> occluders;
+	
+	/**
+	 * Rasterizes the occluders into the lowest level of the hierarchical depth buffer
+	 */
+	private OcclusionRasterizer rasterizer;
+	
+	/**
+	 * The depth of the occluders
+	 */
+	private HierarchicalZBuffer depthBuffer;
+	
+	/**
+	 * Every frame each task rasterizes its band of rows, on the workers
+	 */
+	private List<Callable<Void>> bandTasks;
+	
+	/**
+	 * Runs the band tasks, null when the bands are rasterized on the calling thread
+	 */
+	private ExecutorService workers;
+	
+	/**
+	 * The view projection matrix of the current frame
+	 */
+	private Matrix4f viewProjection;
+	
+	/**
+	 * True when the depth buffer holds occluders for the current frame
+	 */
+	private boolean active;
+	
+	/**
+	 * The amount of objects that were occluded this frame
+	 */
+	private int occludedCount;
+	
+	/**
+	 * The amount of objects that passed the test this frame
+	 */
+	private int visibleCount;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param width The width of the depth buffer in pixels
+	 * @param height The height of the depth buffer in pixels
+	 * @param threads The amount of threads rasterizing, 1 uses the calling thread
+	 */
+	public OcclusionCuller( int width, int height, int threads )
+	{
+		this.occluders = new ArrayList<>();
+		this.depthBuffer = new HierarchicalZBuffer(width, height);
+		this.rasterizer = new OcclusionRasterizer(width, height, depthBuffer
+				.getDepthBuffer());
+		this.viewProjection = new Matrix4f();
+		
+		// Split the rows into one band for every thread
+		threads = Math.max(1, Math.min(threads, height));
+		this.bandTasks = new ArrayList<>();
+		for (int band = 0; band < threads; band++)
+		{
+			final int firstRow = height * band / threads;
+			final int endRow = height * (band + 1) / threads;
+			bandTasks.add(new Callable<Void>() {
+				
+				@Override
+				public Void call()
+				{
+					rasterizer.rasterize(firstRow, endRow);
+					return null;
+				}
+			});
+		}
+		
+		if ( threads > 1 )
+		{
+			// Daemon threads, the culler never keeps the application alive
+			final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+			this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				
+				@Override
+				public Thread newThread( Runnable r )
+				{
+					Thread thread = defaultFactory.newThread(r);
+					thread.setDaemon(true);
+					thread.setName("occlusion-" + thread.getName());
+					return thread;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * @param occluder
+	 */
+	public void addOccluder( Occluder occluder )
+	{
+		occluders.add(occluder);
+	}
+	
+	/**
+	 * @param occluder
+	 */
+	public void removeOccluder( Occluder occluder )
+	{
+		occluders.remove(occluder);
+	}
+	
+	/**
+	 * @return the occluders
+	 */
+	public List<Occluder> getOccluders()
+	{
+		return Collections.unmodifiableList(occluders);
+	}
+	
+	/**
+	 * Rasterize the occluders for a new frame, build the hierarchical depth buffer and
+	 * reset the counts
+	 * 
+	 * @param viewProjection The projection matrix multiplied by the view matrix
+	 */
+	public void renderOccluders( Matrix4f viewProjection )
+	{
+		this.viewProjection.load(viewProjection);
+		occludedCount = 0;
+		visibleCount = 0;
+		
+		// Transform the occluders and set up their triangles
+		rasterizer.begin();
+		for (Occluder occluder : occluders)
+		{
+			rasterizer.addOccluder(occluder, viewProjection);
+		}
+		active = rasterizer.getTriangleCount() > 0;
+		if ( active == false )
+		{
+			return;
+		}
+		
+		// Fill the bands of rows, on the workers when there are any
+		if ( workers == null )
+		{
+			rasterizer.rasterize(0, depthBuffer.getHeight());
+		}
+		else
+		{
+			try
+			{
+				for (Future<Void> band : workers.invokeAll(bandTasks))
+				{
+					band.get();
+				}
+			}
+			catch (ExecutionException e)
+			{
+				throw new IllegalStateException("Couldn't rasterize the occluders", e
+						.getCause());
+			}
+			catch (InterruptedException e)
+			{
+				// Without a finished depth buffer nothing can be culled
+				Thread.currentThread().interrupt();
+				active = false;
+				return;
+			}
+		}
+		
+		depthBuffer.build();
+	}
+	
+	/**
+	 * Test a bounding sphere against the occluders of this frame, and count the result
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param radius
+	 * @return false when the sphere is hidden behind the occluders
+	 */
+	public boolean isSphereVisible( float x, float y, float z, float radius )
+	{
+		boolean visible = active == false || isOccluded(x, y, z, radius) == false;
+		if ( visible == true )
+		{
+			visibleCount++;
+		}
+		else
+		{
+			occludedCount++;
+		}
+		return visible;
+	}
+	
+	/**
+	 * @return the amount of objects that were occluded this frame
+	 */
+	public int getOccludedCount()
+	{
+		return this.occludedCount;
+	}
+	
+	/**
+	 * @return the amount of objects that passed the test this frame
+	 */
+	public int getVisibleCount()
+	{
+		return this.visibleCount;
+	}
+	
+	/**
+	 * @return the amount of occluder triangles rasterized this frame
+	 */
+	public int getRasterizedTriangles()
+	{
+		return rasterizer.getTriangleCount();
+	}
+	
+	/**
+	 * Stop the worker threads
+	 */
+	public void cleanUp()
+	{
+		if ( workers != null )
+		{
+			workers.shutdownNow();
+		}
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Project the box around a sphere onto the screen and test its rectangle with its
+	 * nearest depth
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param radius
+	 * @return true when the sphere is hidden
+	 */
+	private boolean isOccluded( float x, float y, float z, float radius )
+	{
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		float nearest = Float.MAX_VALUE;
+		
+		// mCR is column C and row R
+		Matrix4f m = viewProjection;
+		for (int corner = 0; corner < 8; corner++)
+		{
+			float cornerX = (corner & 1) == 0 ? x - radius : x + radius;
+			float cornerY = (corner & 2) == 0 ? y - radius : y + radius;
+			float cornerZ = (corner & 4) == 0 ? z - radius : z + radius;
+			float cw = m.m03 * cornerX + m.m13 * cornerY + m.m23 * cornerZ + m.m33;
+			if ( cw < MIN_W )
+			{
+				// Crosses the camera plane, the projection can't be trusted
+				return false;
+			}
+			
+			float cx = m.m00 * cornerX + m.m10 * cornerY + m.m20 * cornerZ + m.m30;
+			float cy = m.m01 * cornerX + m.m11 * cornerY + m.m21 * cornerZ + m.m31;
+			float cz = m.m02 * cornerX + m.m12 * cornerY + m.m22 * cornerZ + m.m32;
+			float ndcX = cx / cw;
+			float ndcY = cy / cw;
+			float ndcZ = cz / cw;
+			minX = Math.min(minX, ndcX);
+			maxX = Math.max(maxX, ndcX);
+			minY = Math.min(minY, ndcY);
+			maxY = Math.max(maxY, ndcY);
+			nearest = Math.min(nearest, ndcZ);
+		}
+		
+		// The covered pixels, clamped to the buffer
+		int width = depthBuffer.getWidth();
+		int height = depthBuffer.getHeight();
+		int left = Math.max((int) Math.floor((minX + 1) * 0.5f * width), 0);
+		int right = Math.min((int) Math.floor((maxX + 1) * 0.5f * width), width - 1);
+		int bottom = Math.max((int) Math.floor((minY + 1) * 0.5f * height), 0);
+		int top = Math.min((int) Math.floor((maxY + 1) * 0.5f * height), height - 1);
+		if ( left > right || bottom > top )
+		{
+			// Off the screen, that is up to the frustum culling
+			return false;
+		}
+		
+		return depthBuffer.isOccluded(left, bottom, right, top, nearest);
+	}
+	
+}
@@ -0,0 +1,392 @@
+/**
+ * 
+ */
+package occlusion;
+
+import java.util.Arrays;
+
+import math.matrix.Matrix4f;
+
+/**
+ * Rasterizes the triangles of the occluders into a small depth buffer. The vertices
+ * are transformed and the triangles set up once per frame, into flat arrays with one
+ * value per vertex or triangle, after which the rows of the buffer can be filled by
+ * several threads at the same time: every band of rows walks every triangle, but only
+ * writes its own rows. The depth is the normalized device z, the nearest occluder
+ * wins.
+ * Triangles with a corner behind the camera are skipped instead of clipped, that only
+ * makes the culling less aggressive.
+ * 
+ * @author Bert
+ */
+class OcclusionRasterizer {
+	
+	/**
+	 * The smallest clip w a vertex can have to be rasterized
+	 */
+	private final static float MIN_W = 1e-3f;
+	
+	/**
+	 * The depth of a pixel without occluders, the far plane
+	 */
+	final static float FAR_DEPTH = 1;
+	
+	/**
+	 * The width of the depth buffer
+	 */
+	private int width;
+	
+	/**
+	 * The height of the depth buffer
+	 */
+	private int height;
+	
+	/**
+	 * The depth of every pixel, row after row
+	 */
+	private float[] depth;
+	
+	/**
+	 * The model view projection matrix of the occluder being set up
+	 */
+	private Matrix4f transformation;
+	
+	/**
+	 * The x of every vertex, in pixels
+	 */
+	private float[] screenX;
+	
+	/**
+	 * The y of every vertex, in pixels
+	 */
+	private float[] screenY;
+	
+	/**
+	 * The normalized device z of every vertex
+	 */
+	private float[] screenZ;
+	
+	/**
+	 * The clip w of every vertex
+	 */
+	private float[] clipW;
+	
+	/**
+	 * The bounding rectangle of every triangle, in pixels, inclusive
+	 */
+	private int[] minX, maxX, minY, maxY;
+	
+	/**
+	 * The A, B and C of the three edge functions A * x + B * y + C of every triangle,
+	 * positive inside the triangle
+	 */
+	private float[] edgeA, edgeB, edgeC;
+	
+	/**
+	 * The depth plane of every triangle, depth = A * x + B * y + C
+	 */
+	private float[] depthA, depthB, depthC;
+	
+	/**
+	 * The amount of set up triangles
+	 */
+	private int triangleCount;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param width
+	 * @param height
+	 * @param depth The depth buffer to fill, width * height values
+	 */
+	OcclusionRasterizer( int width, int height, float[] depth )
+	{
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.transformation = new Matrix4f();
+		
+		this.screenX = new float[0];
+		this.screenY = new float[0];
+		this.screenZ = new float[0];
+		this.clipW = new float[0];
+		this.minX = new int[0];
+		this.maxX = new int[0];
+		this.minY = new int[0];
+		this.maxY = new int[0];
+		this.edgeA = new float[0];
+		this.edgeB = new float[0];
+		this.edgeC = new float[0];
+		this.depthA = new float[0];
+		this.depthB = new float[0];
+		this.depthC = new float[0];
+		growTriangles(256);
+	}
+	
+	/**
+	 * Forget the triangles of the previous frame
+	 */
+	void begin()
+	{
+		triangleCount = 0;
+	}
+	
+	/**
+	 * @return the amount of triangles that will be rasterized
+	 */
+	int getTriangleCount()
+	{
+		return this.triangleCount;
+	}
+	
+	/**
+	 * Transform the vertices of an occluder and set up its triangles
+	 * 
+	 * @param occluder
+	 * @param viewProjection
+	 */
+	void addOccluder( Occluder occluder, Matrix4f viewProjection )
+	{
+		Matrix4f.mul(viewProjection, occluder.getTransformation(), transformation);
+		transformVertices(occluder.getPositions(), occluder.getVertexCount());
+		
+		int[] indices = occluder.getIndices();
+		if ( triangleCount + occluder.getTriangleCount() > minX.length )
+		{
+			growTriangles((triangleCount + occluder.getTriangleCount()) * 2);
+		}
+		for (int i = 0; i < indices.length; i += 3)
+		{
+			setupTriangle(indices[i], indices[i + 1], indices[i + 2]);
+		}
+	}
+	
+	/**
+	 * Clear a band of rows and rasterize every triangle into it
+	 * 
+	 * @param firstRow
+	 * @param endRow The row after the last one
+	 */
+	void rasterize( int firstRow, int endRow )
+	{
+		for (int i = firstRow * width; i < endRow * width; i++)
+		{
+			depth[i] = FAR_DEPTH;
+		}
+		
+		for (int t = 0; t < triangleCount; t++)
+		{
+			int y0 = Math.max(minY[t], firstRow);
+			int y1 = Math.min(maxY[t], endRow - 1);
+			if ( y0 > y1 )
+			{
+				continue;
+			}
+			rasterizeTriangle(t, y0, y1);
+		}
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Fill the rows of one triangle, sampling at the pixel centers
+	 * 
+	 * @param t
+	 * @param y0
+	 * @param y1
+	 */
+	private void rasterizeTriangle( int t, int y0, int y1 )
+	{
+		int x0 = minX[t];
+		int x1 = maxX[t];
+		float a0 = edgeA[t * 3], a1 = edgeA[t * 3 + 1], a2 = edgeA[t * 3 + 2];
+		float b0 = edgeB[t * 3], b1 = edgeB[t * 3 + 1], b2 = edgeB[t * 3 + 2];
+		float c0 = edgeC[t * 3], c1 = edgeC[t * 3 + 1], c2 = edgeC[t * 3 + 2];
+		float za = depthA[t], zb = depthB[t], zc = depthC[t];
+		
+		for (int y = y0; y <= y1; y++)
+		{
+			float py = y + 0.5f;
+			float px = x0 + 0.5f;
+			// The functions at the first pixel of the row, stepped by A along the row
+			float e0 = a0 * px + b0 * py + c0;
+			float e1 = a1 * px + b1 * py + c1;
+			float e2 = a2 * px + b2 * py + c2;
+			float z = za * px + zb * py + zc;
+			int row = y * width;
+			
+			for (int x = x0; x <= x1; x++)
+			{
+				if ( e0 >= 0 && e1 >= 0 && e2 >= 0 && z < depth[row + x] )
+				{
+					depth[row + x] = z;
+				}
+				e0 += a0;
+				e1 += a1;
+				e2 += a2;
+				z += za;
+			}
+		}
+	}
+	
+	/**
+	 * Transform the vertices of the current occluder into pixels and depths
+	 * 
+	 * @param positions
+	 * @param vertexCount
+	 */
+	private void transformVertices( float[] positions, int vertexCount )
+	{
+		if ( screenX.length < vertexCount )
+		{
+			screenX = new float[vertexCount];
+			screenY = new float[vertexCount];
+			screenZ = new float[vertexCount];
+			clipW = new float[vertexCount];
+		}
+		
+		// mCR is column C and row R
+		Matrix4f m = transformation;
+		float halfWidth = width * 0.5f;
+		float halfHeight = height * 0.5f;
+		for (int v = 0; v < vertexCount; v++)
+		{
+			float x = positions[v * 3];
+			float y = positions[v * 3 + 1];
+			float z = positions[v * 3 + 2];
+			float cx = m.m00 * x + m.m10 * y + m.m20 * z + m.m30;
+			float cy = m.m01 * x + m.m11 * y + m.m21 * z + m.m31;
+			float cz = m.m02 * x + m.m12 * y + m.m22 * z + m.m32;
+			float cw = m.m03 * x + m.m13 * y + m.m23 * z + m.m33;
+			
+			// The division is only meaningful in front of the camera
+			float inverseW = 1 / Math.max(cw, MIN_W);
+			screenX[v] = (cx * inverseW + 1) * halfWidth;
+			screenY[v] = (cy * inverseW + 1) * halfHeight;
+			screenZ[v] = cz * inverseW;
+			clipW[v] = cw;
+		}
+	}
+	
+	/**
+	 * Compute the bounds, edge functions and depth plane of a triangle
+	 * 
+	 * @param i0
+	 * @param i1
+	 * @param i2
+	 */
+	private void setupTriangle( int i0, int i1, int i2 )
+	{
+		if ( clipW[i0] < MIN_W || clipW[i1] < MIN_W || clipW[i2] < MIN_W )
+		{
+			return;
+		}
+		
+		float x0 = screenX[i0], y0 = screenY[i0], z0 = screenZ[i0];
+		float x1 = screenX[i1], y1 = screenY[i1], z1 = screenZ[i1];
+		float x2 = screenX[i2], y2 = screenY[i2], z2 = screenZ[i2];
+		
+		// Both sides are rasterized, turn the triangle so its area is positive
+		float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+		if ( area == 0 )
+		{
+			return;
+		}
+		if ( area < 0 )
+		{
+			float swap = x1;
+			x1 = x2;
+			x2 = swap;
+			swap = y1;
+			y1 = y2;
+			y2 = swap;
+			swap = z1;
+			z1 = z2;
+			z2 = swap;
+			area = -area;
+		}
+		
+		// The pixels whose centers can be inside, clamped to the buffer
+		int left = Math.max((int) Math.floor(Math.min(x0, Math.min(x1, x2))), 0);
+		int right = Math.min((int) Math.ceil(Math.max(x0, Math.max(x1, x2))), width - 1);
+		int bottom = Math.max((int) Math.floor(Math.min(y0, Math.min(y1, y2))), 0);
+		int top = Math.min((int) Math.ceil(Math.max(y0, Math.max(y1, y2))), height - 1);
+		if ( left > right || bottom > top )
+		{
+			return;
+		}
+		
+		int t = triangleCount++;
+		minX[t] = left;
+		maxX[t] = right;
+		minY[t] = bottom;
+		maxY[t] = top;
+		
+		// Edge i is opposite of corner i, so it weighs the depth of that corner
+		setEdge(t * 3, x1, y1, x2, y2);
+		setEdge(t * 3 + 1, x2, y2, x0, y0);
+		setEdge(t * 3 + 2, x0, y0, x1, y1);
+		depthA[t] = interpolate(edgeA, t * 3, z0, z1, z2, area);
+		depthB[t] = interpolate(edgeB, t * 3, z0, z1, z2, area);
+		depthC[t] = interpolate(edgeC, t * 3, z0, z1, z2, area);
+	}
+	
+	/**
+	 * Weigh the depth of each corner with the coefficient of its opposite edge, the
+	 * edge functions divided by the area are the barycentric coordinates
+	 * 
+	 * @param coefficients
+	 * @param first The coefficient of the first edge of the triangle
+	 * @param z0
+	 * @param z1
+	 * @param z2
+	 * @param area
+	 * @return the coefficient of the depth plane
+	 */
+	private static float interpolate( float[] coefficients,
+			int first,
+			float z0,
+			float z1,
+			float z2,
+			float area )
+	{
+		return (coefficients[first] * z0 + coefficients[first + 1] * z1
+				+ coefficients[first + 2] * z2) / area;
+	}
+	
+	/**
+	 * Store the function of the edge from a to b, positive on the left side
+	 * 
+	 * @param edge
+	 * @param ax
+	 * @param ay
+	 * @param bx
+	 * @param by
+	 */
+	private void setEdge( int edge, float ax, float ay, float bx, float by )
+	{
+		edgeA[edge] = ay - by;
+		edgeB[edge] = bx - ax;
+		edgeC[edge] = ax * by - ay * bx;
+	}
+	
+	/**
+	 * Make room for more triangles, keeping the ones that are set up
+	 * 
+	 * @param capacity
+	 */
+	private void growTriangles( int capacity )
+	{
+		minX = Arrays.copyOf(minX, capacity);
+		maxX = Arrays.copyOf(maxX, capacity);
+		minY = Arrays.copyOf(minY, capacity);
+		maxY = Arrays.copyOf(maxY, capacity);
+		edgeA = Arrays.copyOf(edgeA, capacity * 3);
+		edgeB = Arrays.copyOf(edgeB, capacity * 3);
+		edgeC = Arrays.copyOf(edgeC, capacity * 3);
+		depthA = Arrays.copyOf(depthA, capacity);
+		depthB = Arrays.copyOf(depthB, capacity);
+		depthC = Arrays.copyOf(depthC, capacity);
+	}
+	
+}
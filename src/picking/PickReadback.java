@@ -0,0 +1,176 @@
+/**
+ * 
+ */
+package picking;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+
+import gpu.GPUResourceManager;
+import gpu.GPUResourceType;
+
+/**
+ * One slot of the readback ring. Holds a pixel pack buffer that receives the pixels of
+ * one picking pass, and the fence that tells when the GPU has written them.
+ * 
+ * @author Bert
+ */
+class PickReadback {
+	
+	/**
+	 * The amount of bytes needed for one pixel of the picking texture
+	 */
+	final static int BYTES_PER_PIXEL = 2 * 4;
+	
+	/**
+	 * ID of the pixel pack buffer
+	 */
+	private int pboID;
+	
+	/**
+	 * The fence placed after the reads, 0 if the slot is free
+	 */
+	private long fence;
+	
+	/**
+	 * The requests read into this slot, in buffer order
+	 */
+	private List<PickRequest> requests;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param maxPixels The maximum amount of pixels read in one pass
+	 */
+	PickReadback( int maxPixels )
+	{
+		this.requests = new ArrayList<>();
+		this.fence = 0;
+		
+		// Create the buffer, STREAM_READ because the GPU writes and we read once
+		pboID = GPUResourceManager.createBuffer("PickReadback");
+		GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, pboID);
+		GL15.glBufferData(GL21.GL_PIXEL_PACK_BUFFER, maxPixels * BYTES_PER_PIXEL,
+				GL15.GL_STREAM_READ);
+		GPUResourceManager.setSize(GPUResourceType.BUFFER, pboID, maxPixels
+				* BYTES_PER_PIXEL);
+		GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, 0);
+	}
+	
+	/**
+	 * Check if this slot can take a new pass
+	 * 
+	 * @return
+	 */
+	boolean isFree()
+	{
+		return fence == 0;
+	}
+	
+	/**
+	 * Queue the reads of the given requests from the bound read framebuffer.
+	 * The call returns immediately, the GPU copies the pixels when it gets there.
+	 * 
+	 * @param picks
+	 * @param width The width of the picking texture
+	 * @param height The height of the picking texture
+	 */
+	void startReading( List<PickRequest> picks, int width, int height )
+	{
+		requests.addAll(picks);
+		
+		// Let the reads go into the buffer instead of client memory
+		GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, pboID);
+		for (int i = 0; i < requests.size(); i++)
+		{
+			PickRequest request = requests.get(i);
+			// The same pixel the picking pass cleared and drew
+			int x = request.getTextureX(width);
+			int y = request.getTextureY(height);
+			// The last argument is the offset inside the buffer
+			GL11.glReadPixels(x, y, 1, 1, GL30.GL_RG_INTEGER, GL11.GL_UNSIGNED_INT, i
+					* BYTES_PER_PIXEL);
+		}
+		GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, 0);
+		
+		// Mark the end of the reads
+		fence = GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+	}
+	
+	/**
+	 * Check, without waiting, if the GPU has written the pixels. When it has, every
+	 * request gets its result and the slot becomes free.
+	 * 
+	 * @return true if the pixels were available
+	 */
+	boolean tryResolve()
+	{
+		// Timeout 0, only look at the current state
+		int status = GL32.glClientWaitSync(fence, GL32.GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+		if ( status != GL32.GL_ALREADY_SIGNALED && status != GL32.GL_CONDITION_SATISFIED )
+		{
+			return false;
+		}
+		
+		// The copy is done, mapping won't stall
+		GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, pboID);
+		ByteBuffer mapped = GL30.glMapBufferRange(GL21.GL_PIXEL_PACK_BUFFER, 0,
+				requests.size() * BYTES_PER_PIXEL, GL30.GL_MAP_READ_BIT);
+		IntBuffer pixels = mapped.order(ByteOrder.nativeOrder()).asIntBuffer();
+		
+		// Read the pixels before completing, the callbacks might issue GL calls
+		PickedPixel[] results = new PickedPixel[requests.size()];
+		for (int i = 0; i < results.length; i++)
+		{
+			results[i] = new PickedPixel(pixels, i * 2);
+		}
+		
+		GL15.glUnmapBuffer(GL21.GL_PIXEL_PACK_BUFFER);
+		GL15.glBindBuffer(GL21.GL_PIXEL_PACK_BUFFER, 0);
+		
+		// Free the slot
+		GL32.glDeleteSync(fence);
+		fence = 0;
+		
+		// Hand over the results
+		List<PickRequest> resolved = new ArrayList<>(requests);
+		requests.clear();
+		for (int i = 0; i < results.length; i++)
+		{
+			resolved.get(i).resolve(results[i]);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Release the buffer and the fence
+	 */
+	void cleanup()
+	{
+		if ( fence != 0 )
+		{
+			GL32.glDeleteSync(fence);
+			fence = 0;
+		}
+		
+		// Nobody will receive these pixels anymore
+		for (PickRequest request : requests)
+		{
+			request.resolve(null);
+		}
+		requests.clear();
+		
+		GPUResourceManager.delete(GPUResourceType.BUFFER, pboID);
+	}
+	
+}
@@ -0,0 +1,119 @@
+/**
+ * 
+ */
+package picking;
+
+import java.util.concurrent.CompletableFuture;
+
+import callbacks.PickCallback;
+
+/**
+ * A request to read one pixel of the picking texture
+ * 
+ * @author Bert
+ */
+public class PickRequest {
+	
+	/**
+	 * The X coordinate inside the viewport, the origin is in the top left corner
+	 */
+	private int viewPortX;
+	
+	/**
+	 * The Y coordinate inside the viewport, the origin is in the top left corner
+	 */
+	private int viewPortY;
+	
+	/**
+	 * The object that receives the result
+	 */
+	private PickCallback callback;
+	
+	/**
+	 * The future that receives the result
+	 */
+	private CompletableFuture<PickedPixel> result;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param viewPortX
+	 * @param viewPortY
+	 * @param callback
+	 */
+	public PickRequest( int viewPortX, int viewPortY, PickCallback callback )
+	{
+		this.viewPortX = viewPortX;
+		this.viewPortY = viewPortY;
+		this.callback = callback;
+		this.result = new CompletableFuture<>();
+	}
+	
+	/**
+	 * @return the viewPortX
+	 */
+	public int getViewPortX()
+	{
+		return this.viewPortX;
+	}
+	
+	/**
+	 * @return the viewPortY
+	 */
+	public int getViewPortY()
+	{
+		return this.viewPortY;
+	}
+	
+	/**
+	 * @param width The width of the picking texture
+	 * @return the column of the requested pixel inside the picking texture
+	 */
+	int getTextureX( int width )
+	{
+		return Math.max(0, Math.min(viewPortX, width - 1));
+	}
+	
+	/**
+	 * @param height The height of the picking texture
+	 * @return the row of the requested pixel inside the picking texture, counted from
+	 *         the bottom
+	 */
+	int getTextureY( int height )
+	{
+		// Invert Y because origin is bottom left, row 0 of the viewport is the top row
+		return Math.max(0, Math.min(height - 1 - viewPortY, height - 1));
+	}
+	
+	/**
+	 * @return the callback, can be null
+	 */
+	public PickCallback getCallback()
+	{
+		return this.callback;
+	}
+	
+	/**
+	 * @return the future that receives the picked pixel
+	 */
+	public CompletableFuture<PickedPixel> getResult()
+	{
+		return this.result;
+	}
+	
+	/**
+	 * Hand the picked pixel to the callback and complete the future
+	 * 
+	 * @param pixel
+	 */
+	void resolve( PickedPixel pixel )
+	{
+		if ( callback != null )
+		{
+			callback.pickResolved(pixel);
+		}
+		
+		result.complete(pixel);
+	}
+	
+}
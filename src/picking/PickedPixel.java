@@ -3,8 +3,7 @@
  */
 package picking;
 
-import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 
 /**
  * @author Bert
@@ -12,31 +11,35 @@ import java.nio.FloatBuffer;
 public class PickedPixel {
 	
 	/**
-	 * The n-th entity drawn on the scene
+	 * The picking ID of the entity, 0 if no entity was drawn on the pixel
 	 */
 	private int objectID;
 	
 	/**
-	 * The n-th vertex of the n-th object
+	 * The n-th primitive of the entity, plus one
 	 */
-	private int drawID;
-	
+	private int primID;
 	
 	/**
-	 * The n-th primitive of the n-th vertex
+	 * Constructor
+	 * 
+	 * @param pixelBuffer
 	 */
-	private int primID;
+	public PickedPixel( IntBuffer pixelBuffer )
+	{
+		this(pixelBuffer, 0);
+	}
 	
 	/**
-	 * Constructor
+	 * Constructor for a pixel stored somewhere inside the buffer
 	 * 
 	 * @param pixelBuffer
+	 * @param offset The index of the first integer of the pixel
 	 */
-	public PickedPixel( FloatBuffer pixelBuffer )
+	public PickedPixel( IntBuffer pixelBuffer, int offset )
 	{
-		objectID = (int)pixelBuffer.get(0);		
-		drawID = (int)pixelBuffer.get(1);
-		primID = (int)pixelBuffer.get(2);
+		objectID = pixelBuffer.get(offset);
+		primID = pixelBuffer.get(offset + 1);
 		
 		//System.out.println(Float.toString(objectID) + ":" + Float.toString(drawID) + ":" + Float.toString(primID));
 	}
@@ -49,14 +52,6 @@ public class PickedPixel {
 		return this.objectID;
 	}
 	
-	/**
-	 * @return the drawID
-	 */
-	public int getDrawID()
-	{
-		return this.drawID;
-	}
-	
 	/**
 	 * @return the primID
 	 */
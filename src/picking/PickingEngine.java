@@ -6,16 +6,42 @@ package picking;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL30;
 
+import callbacks.PickCallback;
+import gpu.GLStateCache;
+import gpu.GPUResourceManager;
+import gpu.GPUResourceType;
+
 /**
  * @author Bert
  */
 public class PickingEngine {
 	
+	/**
+	 * The amount of picking passes that can be read back at the same time
+	 */
+	public final static int READBACK_RING_SIZE = 3;
+	
+	/**
+	 * The maximum amount of pixels read in one picking pass, other requests wait for the
+	 * next pass
+	 */
+	public final static int MAX_PICKS_PER_PASS = 16;
+	
+	/**
+	 * Who creates the OpenGL objects, for the GPU resource reports
+	 */
+	private final static String OWNER = "PickingEngine";
+	
 	/**
 	 * ID of the framebuffer
 	 */
@@ -35,6 +61,31 @@ public class PickingEngine {
 	
 	private static int HEIGHT;
 	
+	/**
+	 * The value the picking texture gets cleared to, no entity and no primitive
+	 */
+	private final static IntBuffer CLEAR_VALUE = BufferUtils.createIntBuffer(4);
+	
+	/**
+	 * Pick requests waiting for the next picking pass
+	 */
+	private static Deque<PickRequest> pendingRequests = new ArrayDeque<>();
+	
+	/**
+	 * Pick requests whose pixels have been drawn by the last picking pass
+	 */
+	private static List<PickRequest> renderedRequests = new ArrayList<>();
+	
+	/**
+	 * Readback slots that can take a new picking pass
+	 */
+	private static Deque<PickReadback> freeReadbacks = new ArrayDeque<>();
+	
+	/**
+	 * Readback slots waiting for the GPU, oldest first
+	 */
+	private static Deque<PickReadback> busyReadbacks = new ArrayDeque<>();
+	
 	/**
 	 * Constructor
 	 * 
@@ -47,6 +98,12 @@ public class PickingEngine {
 		HEIGHT = windowHeight;
 		
 		init(windowWidth, windowHeight);
+		
+		// Create the readback ring
+		for (int i = 0; i < READBACK_RING_SIZE; i++)
+		{
+			freeReadbacks.add(new PickReadback(MAX_PICKS_PER_PASS));
+		}
 	}
 	
 	/**
@@ -59,7 +116,7 @@ public class PickingEngine {
 	private boolean init( int windowWidth, int windowHeight )
 	{
 		// Create the FBO
-		fboID = GL30.glGenFramebuffers();
+		fboID = GPUResourceManager.createFramebuffer(OWNER);
 		// Bind the FBO
 		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, fboID);
 		
@@ -73,7 +130,7 @@ public class PickingEngine {
 		GL11.glDrawBuffer(GL30.GL_COLOR_ATTACHMENT0);
 		
 		// Unbind the texture
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+		GLStateCache.bindTexture(0);
 		
 		// Verify the FBO status
 		int bufferStatus = GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER);
@@ -97,15 +154,21 @@ public class PickingEngine {
 	private void generatePrimitiveTexture( int windowWidth, int windowHeight )
 	{
 		// Create the texture object for primitives
-		pickingTextureID = GL11.glGenTextures();
+		pickingTextureID = GPUResourceManager.createTexture(OWNER);
 		
-		FloatBuffer primBuffer = BufferUtils.createFloatBuffer(windowWidth * windowHeight
-				* 3);
+		/*
+		 * Two unsigned integers per pixel
+		 * The picking ID of the entity
+		 * The primitive index inside the draw call, plus one
+		 */
+		IntBuffer primBuffer = BufferUtils.createIntBuffer(windowWidth * windowHeight * 2);
 		
 		// Bind the primitives texture
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, pickingTextureID);
-		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL30.GL_RGB32F, windowWidth,
-				windowHeight, 0, GL11.GL_RGB, GL11.GL_FLOAT, primBuffer);
+		GLStateCache.bindTexture(pickingTextureID);
+		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL30.GL_RG32UI, windowWidth,
+				windowHeight, 0, GL30.GL_RG_INTEGER, GL11.GL_UNSIGNED_INT, primBuffer);
+		GPUResourceManager.setSize(GPUResourceType.TEXTURE, pickingTextureID,
+				(long) windowWidth * windowHeight * 2 * 4);
 		
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER,
 				GL11.GL_NEAREST);
@@ -124,15 +187,17 @@ public class PickingEngine {
 	private void generateDepthTexture( int windowWidth, int windowHeight )
 	{
 		// Create the texture object for depth buffer
-		depthTextureID = GL11.glGenTextures();
+		depthTextureID = GPUResourceManager.createTexture(OWNER);
 		
 		FloatBuffer depthBuffer = BufferUtils.createFloatBuffer(windowWidth
 				* windowHeight * 3);
 		
 		// Bind the depth texture
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, depthTextureID);
+		GLStateCache.bindTexture(depthTextureID);
 		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_DEPTH_COMPONENT, windowWidth,
 				windowHeight, 0, GL11.GL_DEPTH_COMPONENT, GL11.GL_FLOAT, depthBuffer);
+		GPUResourceManager.setSize(GPUResourceType.TEXTURE, depthTextureID,
+				(long) windowWidth * windowHeight * 4);
 		
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER,
 				GL11.GL_LINEAR);
@@ -155,8 +220,8 @@ public class PickingEngine {
 		HEIGHT = windowHeight;
 		
 		// delete all existing textures
-		GL11.glDeleteTextures(pickingTextureID);
-		GL11.glDeleteTextures(depthTextureID);
+		GPUResourceManager.delete(GPUResourceType.TEXTURE, pickingTextureID);
+		GPUResourceManager.delete(GPUResourceType.TEXTURE, depthTextureID);
 		
 		// Bind the frame buffer again
 		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, fboID);
@@ -171,7 +236,7 @@ public class PickingEngine {
 		GL11.glDrawBuffer(GL30.GL_COLOR_ATTACHMENT0);
 		
 		// Unbind the texture
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+		GLStateCache.bindTexture(0);
 		
 		// Verify the FBO status
 		int bufferStatus = GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER);
@@ -193,10 +258,22 @@ public class PickingEngine {
 	public boolean cleanup()
 	{
 		// delete all existing textures
-		GL11.glDeleteTextures(pickingTextureID);
-		GL11.glDeleteTextures(depthTextureID);
+		GPUResourceManager.delete(GPUResourceType.TEXTURE, pickingTextureID);
+		GPUResourceManager.delete(GPUResourceType.TEXTURE, depthTextureID);
 		
-		GL30.glDeleteFramebuffers(fboID);
+		GPUResourceManager.delete(GPUResourceType.FRAMEBUFFER, fboID);
+		
+		// Release the readback ring
+		for (PickReadback readback : busyReadbacks)
+		{
+			readback.cleanup();
+		}
+		for (PickReadback readback : freeReadbacks)
+		{
+			readback.cleanup();
+		}
+		busyReadbacks.clear();
+		freeReadbacks.clear();
 		
 		return true;
 	}
@@ -218,7 +295,128 @@ public class PickingEngine {
 	}
 	
 	/**
-	 * Pick a pixel from the viewport and return a wrapper object
+	 * Queue a request to pick a pixel from the viewport.
+	 * The picking pass only runs on frames with pending requests. The pixel is copied
+	 * into a pixel pack buffer without stalling, and is handed to the callback and the
+	 * returned future one or two frames later, once the GPU has finished the copy.
+	 * 
+	 * @param viewPortX
+	 * @param viewPortY
+	 * @param callback Receives the result, can be null
+	 * @return the future that receives the picked pixel
+	 */
+	public static CompletableFuture<PickedPixel> requestPick( int viewPortX,
+			int viewPortY,
+			PickCallback callback )
+	{
+		PickRequest request = new PickRequest(viewPortX, viewPortY, callback);
+		pendingRequests.add(request);
+		
+		return request.getResult();
+	}
+	
+	/**
+	 * Check if there are requests waiting for a picking pass
+	 * 
+	 * @return
+	 */
+	public static boolean hasPendingRequests()
+	{
+		return !pendingRequests.isEmpty();
+	}
+	
+	/**
+	 * Check if a picking pass has to run this frame. Requests wait while every readback
+	 * slot is still in use.
+	 * 
+	 * @return
+	 */
+	public static boolean isPickingPassNeeded()
+	{
+		return !pendingRequests.isEmpty() && !freeReadbacks.isEmpty();
+	}
+	
+	/**
+	 * Bind the FBO for a picking pass and restrict drawing to the requested pixels.
+	 * All pending requests will be resolved by the next resolvePickRequests call.
+	 */
+	public static void beginPickingPass()
+	{
+		enableWriting();
+		
+		// Take the requests drawn in this pass
+		while (!pendingRequests.isEmpty() && renderedRequests.size() < MAX_PICKS_PER_PASS)
+		{
+			renderedRequests.add(pendingRequests.poll());
+		}
+		
+		// Find the rectangle around all requested pixels
+		int minX = WIDTH;
+		int minY = HEIGHT;
+		int maxX = 0;
+		int maxY = 0;
+		for (PickRequest request : renderedRequests)
+		{
+			// The pixel inside the texture, the readback reads the same one
+			int x = request.getTextureX(WIDTH);
+			int y = request.getTextureY(HEIGHT);
+			
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+		}
+		
+		// Only clear and draw the pixels inside the rectangle
+		GLStateCache.setEnabled(GL11.GL_SCISSOR_TEST, true);
+		GL11.glScissor(minX, minY, maxX - minX + 1, maxY - minY + 1);
+		
+		// Integer textures can't be cleared with the clear colour, clear them to 0
+		GL30.glClearBufferuiv(GL11.GL_COLOR, 0, CLEAR_VALUE);
+		GL11.glClear(GL11.GL_DEPTH_BUFFER_BIT);
+	}
+	
+	/**
+	 * Restore the default framebuffer after a picking pass and start copying the requested
+	 * pixels into a free readback slot
+	 */
+	public static void endPickingPass()
+	{
+		GLStateCache.setEnabled(GL11.GL_SCISSOR_TEST, false);
+		
+		disableWriting();
+		
+		// Read from the picking texture
+		GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, fboID);
+		GL11.glReadBuffer(GL30.GL_COLOR_ATTACHMENT0);
+		
+		// Queue the copy, this doesn't wait for the GPU
+		PickReadback readback = freeReadbacks.poll();
+		readback.startReading(renderedRequests, WIDTH, HEIGHT);
+		busyReadbacks.add(readback);
+		renderedRequests.clear();
+		
+		// Unbind the buffer
+		GL11.glReadBuffer(GL11.GL_NONE);
+		GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, 0);
+	}
+	
+	/**
+	 * Hand the pixels of every finished readback to their requests.
+	 * Never waits for the GPU, unfinished readbacks are checked again on the next call.
+	 */
+	public static void resolvePickRequests()
+	{
+		// Readbacks finish in order, stop at the first unfinished one
+		while (!busyReadbacks.isEmpty() && busyReadbacks.peek().tryResolve())
+		{
+			freeReadbacks.add(busyReadbacks.poll());
+		}
+	}
+	
+	/**
+	 * Pick a pixel from the viewport and return a wrapper object.
+	 * This waits until the GPU has finished drawing, requestPick doesn't.
 	 * 
 	 * @param viewPortX
 	 * @param viewPortY
@@ -245,16 +443,15 @@ public class PickingEngine {
 		// System.out.println("Picking pixel: " + viewPortX + ":" + viewPortY);
 		
 		/*
-		 * Generate floatbuffer, We get back the following items
-		 * ObjectID Index of the object = n-th entity
-		 * DrawID Index of the draw call within the object = n-th vertex of the object
-		 * PrimID Primitive index inside the draw call
+		 * Generate intbuffer, We get back the following items
+		 * ObjectID Picking ID of the entity
+		 * PrimID Primitive index inside the draw call, plus one
 		 */
-		FloatBuffer pixelBuffer = BufferUtils.createFloatBuffer(3);
+		IntBuffer pixelBuffer = BufferUtils.createIntBuffer(2);
 		
 		// Read one pixel, at vwX - vwY
-		GL11.glReadPixels(viewPortX, viewPortY, 1, 1, GL11.GL_RGB, GL11.GL_FLOAT,
-				pixelBuffer);
+		GL11.glReadPixels(viewPortX, viewPortY, 1, 1, GL30.GL_RG_INTEGER,
+				GL11.GL_UNSIGNED_INT, pixelBuffer);
 		
 		/* DEBUG */
 		// debugTexture();
@@ -284,15 +481,15 @@ public class PickingEngine {
 	private static void debugTexture()
 	{
 		/*
-		 * Generate floatbuffer, We get back the following items
-		 * ObjectID Index of the object = n-th entity
-		 * DrawID Index of the draw call within the object = n-th vertex of the object
-		 * PrimID Primitive index inside the draw call
+		 * Generate intbuffer, We get back the following items
+		 * ObjectID Picking ID of the entity
+		 * PrimID Primitive index inside the draw call, plus one
 		 */
-		FloatBuffer pixelBuffer = BufferUtils.createFloatBuffer(WIDTH * HEIGHT * 3);
+		IntBuffer pixelBuffer = BufferUtils.createIntBuffer(WIDTH * HEIGHT * 2);
 		
-		// Read one pixel, at vwX - vwY
-		GL11.glReadPixels(0, 0, WIDTH, HEIGHT, GL11.GL_RGB, GL11.GL_FLOAT, pixelBuffer);
+		// Read every pixel
+		GL11.glReadPixels(0, 0, WIDTH, HEIGHT, GL30.GL_RG_INTEGER, GL11.GL_UNSIGNED_INT,
+				pixelBuffer);
 		// Loop row
 		for (int i = 0; i < WIDTH; i++)
 		{
@@ -300,11 +497,9 @@ public class PickingEngine {
 			for (int j = 0; j < HEIGHT; j++)
 			{
 				System.out.println(i + ":" + j + " ->"
-						+ pixelBuffer.get((j + i * WIDTH) * 3));
-				System.out.println(i + ":" + j + " ->"
-						+ pixelBuffer.get((j + i * WIDTH) * 3 + 1));
+						+ pixelBuffer.get((j + i * WIDTH) * 2));
 				System.out.println(i + ":" + j + " ->"
-						+ pixelBuffer.get((j + i * WIDTH) * 3 + 2));
+						+ pixelBuffer.get((j + i * WIDTH) * 2 + 1));
 			}
 		}
 	}
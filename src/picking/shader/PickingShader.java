@@ -3,7 +3,6 @@
  */
 package picking.shader;
 
-import camera.Camera;
 import loader.Loader;
 import math.matrix.Matrix4f;
 import render.Render;
@@ -30,19 +29,14 @@ public class PickingShader extends ShaderProgram {
 	private int location_transformationMatrix;
 	
 	/**
-	 * The location of the shader variable projectionmatrix
+	 * The location of the shader variable useInstancing
 	 */
-	private int location_projectionMatrix;
+	private int location_useInstancing;
 	
 	/**
-	 * The location of the shader variable viewmatrix
+	 * The location of the object ID shader variable
 	 */
-	private int location_viewMatrix;
-	
-	/**
-	 * The location of the objectindex shader variable
-	 */
-	private int location_gObjectIndex;
+	private int location_gObjectID;
 	
 	/**
 	 * Constructor
@@ -67,6 +61,10 @@ public class PickingShader extends ShaderProgram {
 		//super.bindAttribute(Render.TEXTURE_COORD_ATTR_INDEX, "textureCoords");
 		// Connect the normals VBO to the VAO
 		//super.bindAttribute(Render.NORMALS_ATTR_INDEX, "normal");
+		// Connect the per-instance transformation matrix, uses 4 indices
+		super.bindAttribute(Render.INSTANCE_MATRIX_ATTR_INDEX, "instanceTransformationMatrix");
+		// Connect the per-instance picking ID
+		super.bindAttribute(Render.INSTANCE_ID_ATTR_INDEX, "instanceObjectID");
 		
 		//System.out.println("Pickshader binded attributes");
 		
@@ -80,9 +78,8 @@ public class PickingShader extends ShaderProgram {
 	protected void getAllUniformVarLocations()
 	{
 		location_transformationMatrix = super.getUniformVarLocation("transformationMatrix");
-		location_projectionMatrix = super.getUniformVarLocation("projectionMatrix");
-		location_viewMatrix = super.getUniformVarLocation("viewMatrix");
-		location_gObjectIndex = super.getUniformVarLocation("gObjectIndex");
+		location_useInstancing = super.getUniformVarLocation("useInstancing");
+		location_gObjectID = super.getUniformVarLocation("gObjectID");
 		
 		//System.out.println("Shader vars loaded");
 	}
@@ -100,40 +97,24 @@ public class PickingShader extends ShaderProgram {
 	}
 	
 	/**
-	 * Load a projection matrix into the shader
+	 * Tell the shader to read the transformation from the per-instance attributes instead
+	 * of the transformationMatrix variable
 	 * 
-	 * @param matrix
+	 * @param useInstancing
 	 */
-	public void loadProjectionMatrix( Matrix4f matrix )
+	public void loadInstancingVariable( boolean useInstancing )
 	{
-		super.loadMatrix(location_projectionMatrix, matrix);
-		
-		//System.out.println("Projection Matrix loaded");
-	}
-	
-	/**
-	 * Load a view matrix into the shader
-	 * 
-	 * @param matrix
-	 */
-	public void loadviewMatrix( Camera camera )
-	{
-		// Generate the viewmatrix based on the camera
-		//Matrix4f matrix = Maths.createViewMatrix(camera);
-		// Store the viewmatrix
-		super.loadMatrix(location_viewMatrix, camera.getViewMatrix());
-		
-		//System.out.println("View Matrix loaded");
+		super.loadBoolean(location_useInstancing, useInstancing);
 	}
 	
 	/**
-	 * Load the object index float
-	 * @param index
+	 * Load the picking ID of the drawn entity
+	 * @param id
 	 */
-	public void loadObjectIndex(float index) {
-		super.loadFloat(location_gObjectIndex, index);
+	public void loadObjectID(int id) {
+		super.loadInteger(location_gObjectID, id);
 		
-		//System.out.println("Object index loaded");
+		//System.out.println("Object ID loaded");
 	}
 	
 }
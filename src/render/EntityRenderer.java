@@ -3,16 +3,20 @@
  */
 package render;
 
+import java.nio.FloatBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-import math.Maths;
 import math.matrix.Matrix4f;
 
+import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL20;
-import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GL43;
 
 import picking.shader.PickingShader;
 import shader.FlatShader;
@@ -21,6 +25,9 @@ import entity.Entity;
 import entity.model.TexturedModel;
 import entity.texture.ModelTexture;
 import glStart.DisplayHelper;
+import gpu.GLStateCache;
+import gpu.GPUResourceManager;
+import gpu.GPUResourceType;
 
 /**
  * @author Bert
@@ -42,6 +49,11 @@ public class EntityRenderer {
 	 */
 	private StaticShader stShader;
 	
+	/**
+	 * The variant of the static shader drawing the current model
+	 */
+	private StaticShader activeShader;
+	
 	/**
 	 * The shader for flat shading
 	 */
@@ -52,6 +64,23 @@ public class EntityRenderer {
 	 */
 	private PickingShader pickShader;
 	
+	/**
+	 * The reusable buffer holding the per-instance data of one model
+	 */
+	private FloatBuffer instanceBuffer;
+	
+	/**
+	 * The last uploaded instance data, by the ID of the instance VBO. Textured models
+	 * that share a mesh share its instance VBO, and with it this state. In access
+	 * order, the least recently drawn first.
+	 */
+	private Map<Integer, InstanceBufferState> instanceStates;
+	
+	/**
+	 * The instance VBO being uploaded, which can't be evicted
+	 */
+	private int uploadingVboID;
+	
 	/**
 	 * 
 	 */
@@ -64,24 +93,64 @@ public class EntityRenderer {
 		this.stShader = stShader;
 		this.flatShader = flatShader;
 		this.pickShader = pickShader;
+		// Start with room for 64 instances, the buffer grows when needed
+		this.instanceBuffer = BufferUtils.createFloatBuffer(64 * Render.INSTANCE_DATA_LENGTH);
+		this.instanceStates = new LinkedHashMap<>(16, 0.75f, true);
 	}
 	
 	/**
 	 * Render every entity, grouped by model
 	 * 
 	 * @param entities
+	 * @param flat
+	 * @param wireframe
+	 * @param instanced Draw all entities of a model with one instanced draw call
+	 * @param lightCount The amount of lights in the scene
 	 */
 	public void render( Map<TexturedModel, List<Entity>> entities,
 			boolean flat,
-			boolean wireframe )
+			boolean wireframe,
+			boolean instanced,
+			int lightCount )
 	{
 		// Loop the map
 		for (TexturedModel model : entities.keySet())
 		{
+			// Models that are still loading have nothing to draw yet
+			if ( model.isLoaded() == false )
+			{
+				continue;
+			}
+			
 			// Prepare the model
-			prepareTexturedModel(model, wireframe);
+			prepareTexturedModel(model);
+			// Tell the active shader how the model data is stored
+			if ( flat != true )
+			{
+				prepareStaticShader(model, wireframe, lightCount);
+				activeShader.loadMeshEncoding(model.getEncoding());
+			}
+			else
+			{
+				flatShader.loadMeshEncoding(model.getEncoding());
+			}
 			// Fetch all related entities
 			List<Entity> ent = entities.get(model);
+			
+			// Check if the model can be drawn instanced
+			if ( instanced == true && model.getInstanceVboID() != 0 )
+			{
+				// Tell the active shader to use the instance data
+				loadInstancingVariable(flat, true);
+				// Draw all entities at once
+				renderInstanced(model, ent);
+				// Unbind the model
+				unbindTexturedModel();
+				continue;
+			}
+			
+			// Tell the active shader to use the transformationMatrix
+			loadInstancingVariable(flat, false);
 			// Loop all these entities
 			for (Entity entity : ent)
 			{
@@ -99,11 +168,12 @@ public class EntityRenderer {
 				 * Draw the model to the scene
 				 * Draw Triangles
 				 * Draw amount of vertices
-				 * We are referring to the indices, so look for Unsigned Ints
-				 * 0 offset
+				 * We are referring to the indices, in the size chosen by the loader
+				 * Starting at the range of the model, relative to its first vertex
 				 */
-				GL11.glDrawElements(GL11.GL_TRIANGLES, model.getVertexCount(),
-						GL11.GL_UNSIGNED_INT, 0);
+				GL32.glDrawElementsBaseVertex(GL11.GL_TRIANGLES, model.getVertexCount(),
+						model.getEncoding().getIndexType(), model.getIndexOffset(), model
+								.getBaseVertex());
 			}
 			
 			// Unbind the model
@@ -111,27 +181,95 @@ public class EntityRenderer {
 		}
 	}
 	
-	public void renderForPicking( Map<TexturedModel, List<Entity>> entities )
+	/**
+	 * Forget what was uploaded into an instance VBO, when its mesh is unloaded
+	 * 
+	 * @param instanceVboID
+	 */
+	public void forgetInstanceBuffer( int instanceVboID )
+	{
+		instanceStates.remove(instanceVboID);
+	}
+	
+	/**
+	 * Free the storage of the instance VBO's that were drawn the least recently. Their
+	 * data is uploaded again the next time they are drawn.
+	 * 
+	 * @param bytes The amount of bytes to free
+	 * @return the amount of bytes freed
+	 */
+	public long evictInstanceBuffers( long bytes )
+	{
+		long freed = 0;
+		Iterator<Map.Entry<Integer, InstanceBufferState>> states = instanceStates
+				.entrySet().iterator();
+		while (freed < bytes && states.hasNext())
+		{
+			Map.Entry<Integer, InstanceBufferState> entry = states.next();
+			int vboID = entry.getKey();
+			long size = entry.getValue().getCount() * Render.INSTANCE_DATA_LENGTH * 4L;
+			if ( vboID == uploadingVboID || size == 0 )
+			{
+				continue;
+			}
+			
+			// Keep the buffer without storage, on a target no VAO is being linked to
+			GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, vboID);
+			GL15.glBufferData(GL31.GL_COPY_WRITE_BUFFER, 0L, GL15.GL_STREAM_DRAW);
+			GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+			GPUResourceManager.setSize(GPUResourceType.BUFFER, vboID, 0);
+			
+			states.remove();
+			freed += size;
+		}
+		return freed;
+	}
+	
+	/**
+	 * Render every entity with its object index, grouped by model
+	 * 
+	 * @param entities
+	 * @param instanced Draw all entities of a model with one instanced draw call
+	 */
+	public void renderForPicking( Map<TexturedModel, List<Entity>> entities,
+			boolean instanced )
 	{
-		// The object counter
-		float i = 1;
-		
-		// Preload object index 0
-		this.pickShader.loadObjectIndex(0);
-		
 		// Loop the map
 		for (TexturedModel model : entities.keySet())
 		{
+			// Models that are still loading have nothing to draw yet
+			if ( model.isLoaded() == false )
+			{
+				continue;
+			}
+			
 			// Prepare the model
-			prepareTexturedModel(model, false);
+			prepareTexturedModel(model);
+			// Tell the picking shader how the model data is stored
+			this.pickShader.loadMeshEncoding(model.getEncoding());
 			
 			// Fetch all related entities
 			List<Entity> ent = entities.get(model);
+			
+			// Check if the model can be drawn instanced
+			if ( instanced == true && model.getInstanceVboID() != 0 )
+			{
+				// The picking IDs are part of the instance data
+				this.pickShader.loadInstancingVariable(true);
+				// Draw all entities at once
+				renderInstanced(model, ent);
+				// Unbind the model
+				unbindTexturedModel();
+				continue;
+			}
+			
+			// Use the transformationMatrix
+			this.pickShader.loadInstancingVariable(false);
 			// Loop all these entities
 			for (Entity entity : ent)
 			{
-				// Load the object counter, and increase it afterwards
-				this.pickShader.loadObjectIndex(i++);
+				// Load the picking ID of the entity
+				this.pickShader.loadObjectID(entity.getPickingID());
 				
 				// Prepare the entity
 				preparePickingInstance(entity);
@@ -140,11 +278,12 @@ public class EntityRenderer {
 				 * Draw the model to the scene
 				 * Draw Triangles
 				 * Draw amount of vertices
-				 * We are referring to the indices, so look for Unsigned Ints
-				 * 0 offset
+				 * We are referring to the indices, in the size chosen by the loader
+				 * Starting at the range of the model, relative to its first vertex
 				 */
-				GL11.glDrawElements(GL11.GL_TRIANGLES, model.getVertexCount(),
-						GL11.GL_UNSIGNED_INT, 0);
+				GL32.glDrawElementsBaseVertex(GL11.GL_TRIANGLES, model.getVertexCount(),
+						model.getEncoding().getIndexType(), model.getIndexOffset(), model
+								.getBaseVertex());
 			}
 			
 			// Unbind the model
@@ -152,27 +291,132 @@ public class EntityRenderer {
 		}
 	}
 	
+	/**
+	 * Upload the per-instance data of all given entities and draw them with one call
+	 * 
+	 * @param model
+	 * @param ent
+	 */
+	private void renderInstanced( TexturedModel model, List<Entity> ent )
+	{
+		// Only upload when an entity was added, removed or changed since the last upload
+		InstanceBufferState state = instanceStates.get(model.getInstanceVboID());
+		if ( state == null )
+		{
+			state = new InstanceBufferState();
+			instanceStates.put(model.getInstanceVboID(), state);
+		}
+		if ( state.matches(ent) != true )
+		{
+			uploadingVboID = model.getInstanceVboID();
+			uploadInstanceData(model, ent);
+			uploadingVboID = 0;
+			state.update(ent);
+		}
+		
+		// Enable the instance attributes
+		for (int column = 0; column < 4; column++)
+		{
+			GLStateCache.enableVertexAttribArray(Render.INSTANCE_MATRIX_ATTR_INDEX + column);
+		}
+		GLStateCache.enableVertexAttribArray(Render.INSTANCE_TEX_OFFSET_ATTR_INDEX);
+		GLStateCache.enableVertexAttribArray(Render.INSTANCE_ID_ATTR_INDEX);
+		
+		// The geometry arena reads the instances of every model from the same binding
+		if ( model.isInGeometryArena() == true )
+		{
+			GL43.glBindVertexBuffer(Render.INSTANCE_BUFFER_BINDING, model
+					.getInstanceVboID(), 0, Render.INSTANCE_DATA_LENGTH * 4);
+		}
+		
+		// Draw the model once for every entity
+		GL32.glDrawElementsInstancedBaseVertex(GL11.GL_TRIANGLES, model.getVertexCount(),
+				model.getEncoding().getIndexType(), model.getIndexOffset(), ent.size(),
+				model.getBaseVertex());
+		
+		// Disable the instance attributes
+		for (int column = 0; column < 4; column++)
+		{
+			GLStateCache.disableVertexAttribArray(Render.INSTANCE_MATRIX_ATTR_INDEX + column);
+		}
+		GLStateCache.disableVertexAttribArray(Render.INSTANCE_TEX_OFFSET_ATTR_INDEX);
+		GLStateCache.disableVertexAttribArray(Render.INSTANCE_ID_ATTR_INDEX);
+	}
+	
+	/**
+	 * Fill the instance VBO of the model with the matrix, texture offset and picking ID of
+	 * each entity
+	 * 
+	 * @param model
+	 * @param ent
+	 */
+	private void uploadInstanceData( TexturedModel model, List<Entity> ent )
+	{
+		// Make sure every instance fits inside the buffer
+		int dataLength = ent.size() * Render.INSTANCE_DATA_LENGTH;
+		if ( instanceBuffer.capacity() < dataLength )
+		{
+			instanceBuffer = BufferUtils.createFloatBuffer(dataLength * 2);
+		}
+		
+		// Fill the buffer with the matrix and texture offset of each entity
+		instanceBuffer.clear();
+		for (Entity entity : ent)
+		{
+			// Store the matrix column by column
+			entity.getTransformationMatrix().store(instanceBuffer);
+			instanceBuffer.put(entity.getTextureXOffset());
+			instanceBuffer.put(entity.getTextureYOffset());
+			// The shader reads the ID as an integer, store its raw bits
+			instanceBuffer.put(Float.intBitsToFloat(entity.getPickingID()));
+		}
+		instanceBuffer.flip();
+		
+		// Replace the content of the instance VBO, the old storage gets orphaned
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, model.getInstanceVboID());
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, instanceBuffer, GL15.GL_STREAM_DRAW);
+		GPUResourceManager.setSize(GPUResourceType.BUFFER, model.getInstanceVboID(),
+				instanceBuffer.remaining() * 4L);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+	
+	/**
+	 * Tell the shader of the active pass where the entity data comes from
+	 * 
+	 * @param flat
+	 * @param useInstancing
+	 */
+	private void loadInstancingVariable( boolean flat, boolean useInstancing )
+	{
+		if ( flat != true )
+		{
+			activeShader.loadInstancingVariable(useInstancing);
+		}
+		else
+		{
+			flatShader.loadInstancingVariable(useInstancing);
+		}
+	}
+	
 	/**
 	 * Bind all model data
 	 * 
 	 * @param model
 	 */
-	private void prepareTexturedModel( TexturedModel model, boolean wireframe )
+	private void prepareTexturedModel( TexturedModel model )
 	{
 		/* Bind all resources */
-		// Bind the VAO attached to this model
-		GL30.glBindVertexArray(model.getVoaID());
-		// Enable the list with INDEX 0 from the VAO
-		GL20.glEnableVertexAttribArray(Render.POSITION_ATTR_INDEX);
+		// Bind the VAO attached to this model, the models in the geometry arena share one
+		GLStateCache.bindVertexArray(model.getVoaID());
+		// Enable the list with INDEX 0 from the VAO, the arrays stay enabled in the VAO
+		GLStateCache.enableVertexAttribArray(Render.POSITION_ATTR_INDEX);
 		// Enable texture coords
-		GL20.glEnableVertexAttribArray(Render.TEXTURE_COORD_ATTR_INDEX);
+		GLStateCache.enableVertexAttribArray(Render.TEXTURE_COORD_ATTR_INDEX);
 		// Enable normals
-		GL20.glEnableVertexAttribArray(Render.NORMALS_ATTR_INDEX);
+		GLStateCache.enableVertexAttribArray(Render.NORMALS_ATTR_INDEX);
 		
 		// Get the texture
 		ModelTexture texture = model.getTexture();
-		// Load targetting texture stuff
-		stShader.loadNumberOfTextureRows(texture.getNumberOfTextureRows());
 		
 		// Check for transparent texture
 		if ( texture.isHasTransparency() )
@@ -181,36 +425,43 @@ public class EntityRenderer {
 			Render.disableCulling();
 		}
 		
-		// Wireframe mode
-		stShader.loadWireframeVariable(wireframe);
-		// Fake lighting
-		stShader.loadFakeLightingVariable(texture.isUseFakeLighting());
+		// Set the texture of the first texture bank, the 2DSampler (Shader) uses this one
+		GLStateCache.bindTexture(0, texture.getTextureID());
+	}
+	
+	/**
+	 * Start the variant of the static shader that has the features of the model, and
+	 * load the texture data into it. Models with the same features share a variant, so
+	 * the program only changes between models that differ.
+	 * 
+	 * @param model
+	 * @param wireframe
+	 * @param lightCount
+	 */
+	private void prepareStaticShader( TexturedModel model,
+			boolean wireframe,
+			int lightCount )
+	{
+		ModelTexture texture = model.getTexture();
+		
+		// Wireframe mode, fake lighting and transparency are compiled into the variant
+		activeShader = stShader.getVariant(wireframe, texture.isUseFakeLighting(),
+				lightCount, texture.isHasTransparency());
+		activeShader.start();
+		
+		// Load targetting texture stuff
+		activeShader.loadNumberOfTextureRows(texture.getNumberOfTextureRows());
 		// Reflectivity
-		stShader.loadShineVariables(texture.getShineDamper(), texture.getReflectivity());
-		// Activate the first texture bank, the 2DSampler (Shader) uses this one
-		GL13.glActiveTexture(GL13.GL_TEXTURE0);
-		// Set the active texture for the following draw
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture.getTextureID());
+		activeShader.loadShineVariables(texture.getShineDamper(), texture.getReflectivity());
 	}
 	
 	/**
-	 * Unbind all model data
+	 * Unbind all model data, the VAO and texture stay bound for the next model
 	 */
 	private void unbindTexturedModel()
 	{
-		// Reenable culling
+		// Reenable culling, only issued after a transparent texture
 		Render.enableCulling();
-		
-		/* Unbind all used resources */
-		// Unbind the position VBO
-		GL20.glDisableVertexAttribArray(Render.POSITION_ATTR_INDEX);
-		// Unbind texture coords
-		GL20.glDisableVertexAttribArray(Render.TEXTURE_COORD_ATTR_INDEX);
-		// Unbind the normals
-		GL20.glDisableVertexAttribArray(Render.NORMALS_ATTR_INDEX);
-		
-		// Unbind the chosen VAO
-		GL30.glBindVertexArray(0);
 	}
 	
 	/**
@@ -221,17 +472,15 @@ public class EntityRenderer {
 	private void prepareNormalInstance( Entity entity )
 	{
 		/* POSITION MANIPULATION */
-		// Create transformation matrix for the object
-		Matrix4f transformationMatrix = Maths.createTransformationMatrix(
-				entity.getPosition(), entity.getRotationX(), entity.getRotationY(),
-				entity.getRotationZ(), entity.getScale());
+		// Fetch the cached transformation matrix of the object
+		Matrix4f transformationMatrix = entity.getTransformationMatrix();
 		// Load that matrix into the shader
-		stShader.loadTransformationMatrix(transformationMatrix);
+		activeShader.loadTransformationMatrix(transformationMatrix);
 		
 		// Load the picked texture coord offsets
 		float x = entity.getTextureXOffset();
 		float y = entity.getTextureYOffset();
-		stShader.loadTextureOffset(x, y);
+		activeShader.loadTextureOffset(x, y);
 	}
 	
 	/**
@@ -242,10 +491,8 @@ public class EntityRenderer {
 	private void prepareFlatShadingInstance( Entity entity )
 	{
 		/* POSITION MANIPULATION */
-		// Create transformation matrix for the object
-		Matrix4f transformationMatrix = Maths.createTransformationMatrix(
-				entity.getPosition(), entity.getRotationX(), entity.getRotationY(),
-				entity.getRotationZ(), entity.getScale());
+		// Fetch the cached transformation matrix of the object
+		Matrix4f transformationMatrix = entity.getTransformationMatrix();
 		// Load that matrix into the shader
 		flatShader.loadTransformationMatrix(transformationMatrix);
 	}
@@ -258,10 +505,8 @@ public class EntityRenderer {
 	private void preparePickingInstance( Entity entity )
 	{
 		/* POSITION MANIPULATION */
-		// Create transformation matrix for the object
-		Matrix4f transformationMatrix = Maths.createTransformationMatrix(
-				entity.getPosition(), entity.getRotationX(), entity.getRotationY(),
-				entity.getRotationZ(), entity.getScale());
+		// Fetch the cached transformation matrix of the object
+		Matrix4f transformationMatrix = entity.getTransformationMatrix();
 		// Load that matrix into the shader
 		pickShader.loadTransformationMatrix(transformationMatrix);
 	}
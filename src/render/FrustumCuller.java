@@ -0,0 +1,255 @@
+/**
+ * 
+ */
+package render;
+
+import entity.Entity;
+import entity.model.Model;
+import math.matrix.Matrix4f;
+import math.vector.Vector3f;
+import terrain.Terrain;
+
+/**
+ * Tests entities and terrain tiles against the view frustum of the camera. The six
+ * planes are extracted from the projection matrix multiplied by the view matrix, each
+ * as a normalized (a, b, c, d) with the inside where ax + by + cz + d >= 0. Entities
+ * are tested with the bounding sphere of their model, terrain tiles with the bounding
+ * box of their model. Counts what was visible and what was culled in the current frame.
+ * 
+ * @author Bert
+ */
+class FrustumCuller {
+	
+	/**
+	 * The amount of frustum planes: left, right, bottom, top, near and far
+	 */
+	private final static int PLANE_COUNT = 6;
+	
+	/**
+	 * The view matrix multiplied into the projection matrix
+	 */
+	private Matrix4f viewProjection;
+	
+	/**
+	 * The a, b, c and d of every plane after each other
+	 */
+	private float[] planes;
+	
+	/**
+	 * The amount of entities that passed the test this frame
+	 */
+	private int visibleEntities;
+	
+	/**
+	 * The amount of entities that were culled this frame
+	 */
+	private int culledEntities;
+	
+	/**
+	 * The amount of terrain tiles that passed the test this frame
+	 */
+	private int visibleTerrains;
+	
+	/**
+	 * The amount of terrain tiles that were culled this frame
+	 */
+	private int culledTerrains;
+	
+	/**
+	 * Constructor
+	 */
+	FrustumCuller()
+	{
+		this.viewProjection = new Matrix4f();
+		this.planes = new float[PLANE_COUNT * 4];
+	}
+	
+	/**
+	 * Extract the planes of a new frame and reset the counts
+	 * 
+	 * @param projectionMatrix
+	 * @param viewMatrix
+	 */
+	void update( Matrix4f projectionMatrix, Matrix4f viewMatrix )
+	{
+		Matrix4f.mul(projectionMatrix, viewMatrix, viewProjection);
+		Matrix4f m = viewProjection;
+		
+		// Each plane is the last row plus or minus one of the other rows, mCR is column C
+		// and row R
+		setPlane(0, m.m03 + m.m00, m.m13 + m.m10, m.m23 + m.m20, m.m33 + m.m30);
+		setPlane(1, m.m03 - m.m00, m.m13 - m.m10, m.m23 - m.m20, m.m33 - m.m30);
+		setPlane(2, m.m03 + m.m01, m.m13 + m.m11, m.m23 + m.m21, m.m33 + m.m31);
+		setPlane(3, m.m03 - m.m01, m.m13 - m.m11, m.m23 - m.m21, m.m33 - m.m31);
+		setPlane(4, m.m03 + m.m02, m.m13 + m.m12, m.m23 + m.m22, m.m33 + m.m32);
+		setPlane(5, m.m03 - m.m02, m.m13 - m.m12, m.m23 - m.m22, m.m33 - m.m32);
+		
+		visibleEntities = 0;
+		culledEntities = 0;
+		visibleTerrains = 0;
+		culledTerrains = 0;
+	}
+	
+	/**
+	 * @return the projection matrix multiplied by the view matrix of this frame
+	 */
+	Matrix4f getViewProjection()
+	{
+		return this.viewProjection;
+	}
+	
+	/**
+	 * Test the bounding sphere of an entity, and count the result
+	 * 
+	 * @param entity
+	 * @return false when the entity is completely outside of the frustum
+	 */
+	boolean isVisible( Entity entity )
+	{
+		Vector3f position = entity.getPosition();
+		float radius = entity.getModel().getBoundingRadius() * entity.getScale();
+		
+		boolean visible = intersectsSphere(position.x, position.y, position.z, radius);
+		if ( visible == true )
+		{
+			visibleEntities++;
+		}
+		else
+		{
+			culledEntities++;
+		}
+		return visible;
+	}
+	
+	/**
+	 * Test the bounding box of a terrain tile, and count the result
+	 * 
+	 * @param terrain
+	 * @return false when the tile is completely outside of the frustum
+	 */
+	boolean isVisible( Terrain terrain )
+	{
+		// Tiles without bounds are never culled
+		Model model = terrain.getModel();
+		boolean visible = true;
+		if ( model.getBoundsMin() != null )
+		{
+			Vector3f min = model.getBoundsMin();
+			Vector3f max = model.getBoundsMax();
+			visible = intersectsBox(terrain.getX() + min.x, min.y, terrain.getZ() + min.z,
+					terrain.getX() + max.x, max.y, terrain.getZ() + max.z);
+		}
+		
+		if ( visible == true )
+		{
+			visibleTerrains++;
+		}
+		else
+		{
+			culledTerrains++;
+		}
+		return visible;
+	}
+	
+	/**
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param radius
+	 * @return false when the sphere is completely outside of one of the planes
+	 */
+	boolean intersectsSphere( float x, float y, float z, float radius )
+	{
+		for (int i = 0; i < PLANE_COUNT * 4; i += 4)
+		{
+			float distance = planes[i] * x + planes[i + 1] * y + planes[i + 2] * z
+					+ planes[i + 3];
+			if ( distance < -radius )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @param minX
+	 * @param minY
+	 * @param minZ
+	 * @param maxX
+	 * @param maxY
+	 * @param maxZ
+	 * @return false when the box is completely outside of one of the planes
+	 */
+	boolean intersectsBox( float minX,
+			float minY,
+			float minZ,
+			float maxX,
+			float maxY,
+			float maxZ )
+	{
+		for (int i = 0; i < PLANE_COUNT * 4; i += 4)
+		{
+			// The corner furthest along the normal of the plane
+			float x = planes[i] >= 0 ? maxX : minX;
+			float y = planes[i + 1] >= 0 ? maxY : minY;
+			float z = planes[i + 2] >= 0 ? maxZ : minZ;
+			if ( planes[i] * x + planes[i + 1] * y + planes[i + 2] * z + planes[i + 3] < 0 )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the visibleEntities
+	 */
+	int getVisibleEntities()
+	{
+		return this.visibleEntities;
+	}
+	
+	/**
+	 * @return the culledEntities
+	 */
+	int getCulledEntities()
+	{
+		return this.culledEntities;
+	}
+	
+	/**
+	 * @return the visibleTerrains
+	 */
+	int getVisibleTerrains()
+	{
+		return this.visibleTerrains;
+	}
+	
+	/**
+	 * @return the culledTerrains
+	 */
+	int getCulledTerrains()
+	{
+		return this.culledTerrains;
+	}
+	
+	/**
+	 * Store a plane, scaled so its normal has length 1
+	 * 
+	 * @param plane
+	 * @param a
+	 * @param b
+	 * @param c
+	 * @param d
+	 */
+	private void setPlane( int plane, float a, float b, float c, float d )
+	{
+		float length = (float) Math.sqrt(a * a + b * b + c * c);
+		planes[plane * 4] = a / length;
+		planes[plane * 4 + 1] = b / length;
+		planes[plane * 4 + 2] = c / length;
+		planes[plane * 4 + 3] = d / length;
+	}
+	
+}
@@ -0,0 +1,425 @@
+/**
+ * 
+ */
+package render;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL40;
+import org.lwjgl.opengl.GL43;
+
+import entity.Entity;
+import entity.model.MeshEncoding;
+import entity.model.TexturedModel;
+import entity.texture.ModelTexture;
+import gpu.GLStateCache;
+import gpu.GPUResourceManager;
+import gpu.GPUResourceType;
+
+/**
+ * Draws the opaque entities of the geometry arena with multi-draw indirect calls. Every
+ * frame one draw command is built per model, the transformation and texture offset of
+ * every entity go into an instance storage buffer and the mesh decoding and material of
+ * every model into a draw storage buffer, which the shader reads instead of uniform
+ * variables.
+ * Without bindless textures the commands are grouped by texture, each group is
+ * submitted with one call, so the amount of calls only grows with the amount of
+ * textures. Models outside the arena and transparent models are left to the
+ * EntityRenderer.
+ * 
+ * @author Bert
+ */
+public class IndirectRenderer {
+	
+	/**
+	 * Who creates the OpenGL objects, for the GPU resource reports
+	 */
+	private final static String OWNER = "IndirectRenderer";
+	
+	/**
+	 * The amount of 4 byte values in a draw command: count, instance count, first
+	 * index, base vertex and base instance
+	 */
+	private final static int COMMAND_LENGTH = 5;
+	
+	/**
+	 * The amount of 4 byte values stored for each entity, a 4x4 matrix, a 2D texture
+	 * offset, the draw index and padding to the std430 alignment of the struct
+	 */
+	private final static int INSTANCE_LENGTH = 16 + 2 + 1 + 1;
+	
+	/**
+	 * The amount of 4 byte values stored for each draw, the position scale, the
+	 * position offset and the material, each padded to a vec4
+	 */
+	private final static int DRAW_LENGTH = 4 + 4 + 4;
+	
+	/**
+	 * The shader storage binding the shader reads the instance data from
+	 */
+	private final static int INSTANCE_STORAGE_BINDING = 0;
+	
+	/**
+	 * The shader storage binding the shader reads the draw data from
+	 */
+	private final static int DRAW_STORAGE_BINDING = 1;
+	
+	/**
+	 * The buffer holding the draw commands
+	 */
+	private int commandBufferID;
+	
+	/**
+	 * The shader storage buffer holding the data of every entity
+	 */
+	private int instanceStorageID;
+	
+	/**
+	 * The shader storage buffer holding the data of every draw
+	 */
+	private int drawStorageID;
+	
+	/**
+	 * The buffer holding 0, 1, 2, ... for the instance index attribute, the base
+	 * instance of a command makes it point at the first entity of the draw
+	 */
+	private int instanceIndexVboID;
+	
+	/**
+	 * The amount of indices in the instance index buffer
+	 */
+	private int instanceIndexCapacity;
+	
+	/**
+	 * The reusable buffer for the draw commands
+	 */
+	private IntBuffer commands;
+	
+	/**
+	 * The reusable buffer for the instance data
+	 */
+	private FloatBuffer instances;
+	
+	/**
+	 * The reusable buffer for the draw data
+	 */
+	private FloatBuffer draws;
+	
+	/**
+	 * The models of this frame, grouped by texture ID
+	 */
+	private Map<Integer, List<TexturedModel>> batches;
+	
+	/**
+	 * The amount of multi-draw calls in the last frame
+	 */
+	private int submittedCalls;
+	
+	/**
+	 * The amount of draw commands in the last frame
+	 */
+	private int submittedCommands;
+	
+	/**
+	 * Constructor
+	 */
+	public IndirectRenderer()
+	{
+		this.commandBufferID = GPUResourceManager.createBuffer(OWNER);
+		this.instanceStorageID = GPUResourceManager.createBuffer(OWNER);
+		this.drawStorageID = GPUResourceManager.createBuffer(OWNER);
+		this.instanceIndexVboID = GPUResourceManager.createBuffer(OWNER);
+		this.instanceIndexCapacity = 0;
+		
+		// Start with room for 64 draws and 1024 entities, the buffers grow when needed
+		this.commands = BufferUtils.createIntBuffer(64 * COMMAND_LENGTH);
+		this.draws = BufferUtils.createFloatBuffer(64 * DRAW_LENGTH);
+		this.instances = BufferUtils.createFloatBuffer(1024 * INSTANCE_LENGTH);
+		this.batches = new HashMap<>();
+	}
+	
+	/**
+	 * @return the amount of multi-draw calls in the last frame
+	 */
+	public int getSubmittedCalls()
+	{
+		return this.submittedCalls;
+	}
+	
+	/**
+	 * @return the amount of draw commands in the last frame
+	 */
+	public int getSubmittedCommands()
+	{
+		return this.submittedCommands;
+	}
+	
+	/**
+	 * Check if a model can be drawn by this renderer
+	 * 
+	 * @param model
+	 * @return true for opaque models inside the geometry arena
+	 */
+	public static boolean canDraw( TexturedModel model )
+	{
+		return model.isLoaded() == true && model.isInGeometryArena() == true
+				&& model.getTexture().isHasTransparency() == false;
+	}
+	
+	/**
+	 * Draw every model this renderer can draw, the indirect shader has to be started
+	 * 
+	 * @param entities The entities of this frame, grouped by model
+	 * @param remaining Filled with the models that have to be drawn by the
+	 *        EntityRenderer
+	 */
+	public void render( Map<TexturedModel, List<Entity>> entities,
+			Map<TexturedModel, List<Entity>> remaining )
+	{
+		submittedCalls = 0;
+		submittedCommands = 0;
+		remaining.clear();
+		for (List<TexturedModel> batch : batches.values())
+		{
+			batch.clear();
+		}
+		
+		// Sort the models into the texture batches
+		int drawCount = 0;
+		int instanceCount = 0;
+		int vaoID = 0;
+		for (Map.Entry<TexturedModel, List<Entity>> entry : entities.entrySet())
+		{
+			TexturedModel model = entry.getKey();
+			if ( canDraw(model) == false )
+			{
+				remaining.put(model, entry.getValue());
+				continue;
+			}
+			
+			Integer textureID = model.getTexture().getTextureID();
+			List<TexturedModel> batch = batches.get(textureID);
+			if ( batch == null )
+			{
+				batch = new ArrayList<>();
+				batches.put(textureID, batch);
+			}
+			batch.add(model);
+			
+			drawCount++;
+			instanceCount += entry.getValue().size();
+			// Every model in the arena shares the VAO
+			vaoID = model.getVoaID();
+		}
+		
+		if ( drawCount == 0 )
+		{
+			return;
+		}
+		
+		// Build and upload the commands and the data they read
+		fillBuffers(entities, drawCount, instanceCount);
+		upload(commandBufferID, commands);
+		upload(instanceStorageID, instances);
+		upload(drawStorageID, draws);
+		growInstanceIndices(instanceCount);
+		
+		// Bind the shared VAO, with the instance indices as the only instance attribute
+		GLStateCache.bindVertexArray(vaoID);
+		GLStateCache.enableVertexAttribArray(Render.POSITION_ATTR_INDEX);
+		GLStateCache.enableVertexAttribArray(Render.TEXTURE_COORD_ATTR_INDEX);
+		GLStateCache.enableVertexAttribArray(Render.NORMALS_ATTR_INDEX);
+		GLStateCache.enableVertexAttribArray(Render.INSTANCE_INDEX_ATTR_INDEX);
+		GL43.glBindVertexBuffer(Render.INSTANCE_INDEX_BINDING, instanceIndexVboID, 0, 4);
+		
+		// Bind the data of this frame
+		GL30.glBindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, INSTANCE_STORAGE_BINDING,
+				instanceStorageID);
+		GL30.glBindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, DRAW_STORAGE_BINDING,
+				drawStorageID);
+		GL15.glBindBuffer(GL40.GL_DRAW_INDIRECT_BUFFER, commandBufferID);
+		
+		// Submit every batch with one call, the commands are stored batch after batch
+		int firstCommand = 0;
+		for (Map.Entry<Integer, List<TexturedModel>> batch : batches.entrySet())
+		{
+			int batchSize = batch.getValue().size();
+			if ( batchSize == 0 )
+			{
+				continue;
+			}
+			
+			GLStateCache.bindTexture(0, batch.getKey());
+			GL43.glMultiDrawElementsIndirect(GL11.GL_TRIANGLES, GL11.GL_UNSIGNED_SHORT,
+					(long) firstCommand * COMMAND_LENGTH * 4, batchSize, 0);
+			
+			firstCommand += batchSize;
+			submittedCalls++;
+		}
+		submittedCommands = drawCount;
+		
+		// Unbind everything again, the instance indices are too few for the other passes
+		GL15.glBindBuffer(GL40.GL_DRAW_INDIRECT_BUFFER, 0);
+		GLStateCache.disableVertexAttribArray(Render.INSTANCE_INDEX_ATTR_INDEX);
+	}
+	
+	/**
+	 * Delete the buffers
+	 */
+	public void cleanUp()
+	{
+		GPUResourceManager.delete(GPUResourceType.BUFFER, commandBufferID);
+		GPUResourceManager.delete(GPUResourceType.BUFFER, instanceStorageID);
+		GPUResourceManager.delete(GPUResourceType.BUFFER, drawStorageID);
+		GPUResourceManager.delete(GPUResourceType.BUFFER, instanceIndexVboID);
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Write a command and the draw data for every batched model, and the instance data
+	 * of their entities
+	 * 
+	 * @param entities
+	 * @param drawCount
+	 * @param instanceCount
+	 */
+	private void fillBuffers( Map<TexturedModel, List<Entity>> entities,
+			int drawCount,
+			int instanceCount )
+	{
+		// Make sure everything fits inside the buffers
+		if ( commands.capacity() < drawCount * COMMAND_LENGTH )
+		{
+			commands = BufferUtils.createIntBuffer(drawCount * COMMAND_LENGTH * 2);
+			draws = BufferUtils.createFloatBuffer(drawCount * DRAW_LENGTH * 2);
+		}
+		if ( instances.capacity() < instanceCount * INSTANCE_LENGTH )
+		{
+			instances = BufferUtils.createFloatBuffer(instanceCount * INSTANCE_LENGTH * 2);
+		}
+		
+		commands.clear();
+		draws.clear();
+		instances.clear();
+		
+		int drawIndex = 0;
+		int baseInstance = 0;
+		for (List<TexturedModel> batch : batches.values())
+		{
+			for (TexturedModel model : batch)
+			{
+				List<Entity> ent = entities.get(model);
+				
+				// The command draws the range of the model once for every entity
+				commands.put(model.getVertexCount());
+				commands.put(ent.size());
+				commands.put(model.getFirstIndex());
+				commands.put(model.getBaseVertex());
+				commands.put(baseInstance);
+				
+				// How the mesh is decoded and lit
+				MeshEncoding encoding = model.getEncoding();
+				ModelTexture texture = model.getTexture();
+				draws.put(encoding.getPositionScale().getX());
+				draws.put(encoding.getPositionScale().getY());
+				draws.put(encoding.getPositionScale().getZ());
+				draws.put(encoding.isOctahedralNormals() == true ? 1 : 0);
+				draws.put(encoding.getPositionOffset().getX());
+				draws.put(encoding.getPositionOffset().getY());
+				draws.put(encoding.getPositionOffset().getZ());
+				draws.put(0);
+				draws.put(texture.getShineDamper());
+				draws.put(texture.getReflectivity());
+				draws.put(texture.isUseFakeLighting() == true ? 1 : 0);
+				draws.put(texture.getNumberOfTextureRows());
+				
+				// The data of every entity, pointing back at its draw
+				for (Entity entity : ent)
+				{
+					// Store the matrix column by column
+					entity.getTransformationMatrix().store(instances);
+					instances.put(entity.getTextureXOffset());
+					instances.put(entity.getTextureYOffset());
+					// The shader reads the index as an integer, store its raw bits
+					instances.put(Float.intBitsToFloat(drawIndex));
+					instances.put(0);
+				}
+				
+				drawIndex++;
+				baseInstance += ent.size();
+			}
+		}
+		
+		commands.flip();
+		draws.flip();
+		instances.flip();
+	}
+	
+	/**
+	 * Make sure the instance index buffer counts up to at least the given amount
+	 * 
+	 * @param instanceCount
+	 */
+	private void growInstanceIndices( int instanceCount )
+	{
+		if ( instanceIndexCapacity >= instanceCount )
+		{
+			return;
+		}
+		
+		// Double to avoid growing every frame while the scene grows
+		instanceIndexCapacity = Math.max(instanceCount, instanceIndexCapacity * 2);
+		IntBuffer indices = BufferUtils.createIntBuffer(instanceIndexCapacity);
+		for (int i = 0; i < instanceIndexCapacity; i++)
+		{
+			indices.put(i);
+		}
+		indices.flip();
+		
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, instanceIndexVboID);
+		GL15.glBufferData(GL31.GL_COPY_WRITE_BUFFER, indices, GL15.GL_STATIC_DRAW);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+		GPUResourceManager.setSize(GPUResourceType.BUFFER, instanceIndexVboID,
+				instanceIndexCapacity * 4L);
+	}
+	
+	/**
+	 * Replace the content of a buffer, the old storage gets orphaned
+	 * 
+	 * @param bufferID
+	 * @param data
+	 */
+	private static void upload( int bufferID, IntBuffer data )
+	{
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, bufferID);
+		GL15.glBufferData(GL31.GL_COPY_WRITE_BUFFER, data, GL15.GL_STREAM_DRAW);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+		GPUResourceManager.setSize(GPUResourceType.BUFFER, bufferID, data.remaining() * 4L);
+	}
+	
+	/**
+	 * Replace the content of a buffer, the old storage gets orphaned
+	 * 
+	 * @param bufferID
+	 * @param data
+	 */
+	private static void upload( int bufferID, FloatBuffer data )
+	{
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, bufferID);
+		GL15.glBufferData(GL31.GL_COPY_WRITE_BUFFER, data, GL15.GL_STREAM_DRAW);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+		GPUResourceManager.setSize(GPUResourceType.BUFFER, bufferID, data.remaining() * 4L);
+	}
+	
+}
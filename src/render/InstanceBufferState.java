@@ -0,0 +1,107 @@
+/**
+ * 
+ */
+package render;
+
+import java.util.List;
+
+import entity.Entity;
+
+/**
+ * Remembers which entities, and which version of them, were last uploaded into the
+ * instance VBO of a model
+ * 
+ * @author Bert
+ */
+class InstanceBufferState {
+	
+	/**
+	 * The uploaded entities, in upload order
+	 */
+	private Entity[] entities;
+	
+	/**
+	 * The version of each uploaded entity at upload time
+	 */
+	private int[] versions;
+	
+	/**
+	 * The amount of uploaded entities
+	 */
+	private int count;
+	
+	/**
+	 * Constructor
+	 */
+	InstanceBufferState()
+	{
+		this.entities = new Entity[0];
+		this.versions = new int[0];
+		this.count = 0;
+	}
+	
+	/**
+	 * Check if the instance VBO already holds the data of the given entities
+	 * 
+	 * @param ent
+	 * @return
+	 */
+	boolean matches( List<Entity> ent )
+	{
+		if ( ent.size() != count )
+		{
+			return false;
+		}
+		
+		// Every entity has to be on the same place, with the same version
+		for (int i = 0; i < count; i++)
+		{
+			Entity entity = ent.get(i);
+			if ( entity != entities[i] || entity.getVersion() != versions[i] )
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @return the amount of uploaded entities
+	 */
+	int getCount()
+	{
+		return this.count;
+	}
+	
+	/**
+	 * Remember the given entities as uploaded
+	 * 
+	 * @param ent
+	 */
+	void update( List<Entity> ent )
+	{
+		count = ent.size();
+		
+		// Grow the arrays when needed
+		if ( entities.length < count )
+		{
+			entities = new Entity[count * 2];
+			versions = new int[count * 2];
+		}
+		
+		for (int i = 0; i < count; i++)
+		{
+			Entity entity = ent.get(i);
+			entities[i] = entity;
+			versions[i] = entity.getVersion();
+		}
+		
+		// Drop references to entities that are no longer uploaded
+		for (int i = count; i < entities.length && entities[i] != null; i++)
+		{
+			entities[i] = null;
+		}
+	}
+	
+}
@@ -0,0 +1,84 @@
+/**
+ * 
+ */
+package render;
+
+import entity.Entity;
+import entity.model.TexturedModel;
+import math.vector.Vector3f;
+
+/**
+ * Picks the level of detail of an entity from the part of the screen height its
+ * bounding sphere covers. An entity only changes level once its size is a margin past
+ * the threshold, so it doesn't flicker between two levels at the boundary.
+ * 
+ * @author Bert
+ */
+class LODSelector {
+	
+	/**
+	 * The screen height fraction below which level i + 1 is used instead of level i
+	 */
+	private final static float[] LOD_SCREEN_SIZES = { 0.25f, 0.1f, 0.04f };
+	
+	/**
+	 * The relative margin around each threshold before the level changes
+	 */
+	private final static float HYSTERESIS = 0.2f;
+	
+	/**
+	 * Converts a size at distance 1 to the fraction of the screen height it covers
+	 */
+	private float projectionScale;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param fov The vertical field of view in degrees
+	 */
+	LODSelector( float fov )
+	{
+		this.projectionScale = (float) (1 / Math.tan(Math.toRadians(fov / 2)));
+	}
+	
+	/**
+	 * Select the level of detail of an entity, and remember it for the next frame
+	 * 
+	 * @param entity
+	 * @param cameraPosition
+	 * @return the model to draw the entity with
+	 */
+	TexturedModel select( Entity entity, Vector3f cameraPosition )
+	{
+		TexturedModel model = entity.getModel();
+		int maxLevel = Math.min(model.getLODCount(), LOD_SCREEN_SIZES.length + 1) - 1;
+		if ( maxLevel == 0 )
+		{
+			return model;
+		}
+		
+		// The part of the screen height covered by the bounding sphere
+		Vector3f position = entity.getPosition();
+		float dx = position.x - cameraPosition.x;
+		float dy = position.y - cameraPosition.y;
+		float dz = position.z - cameraPosition.z;
+		float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+		float radius = model.getBoundingRadius() * entity.getScale();
+		float screenSize = distance > radius ? radius * projectionScale / distance : 1;
+		
+		// Move from the last level, past the margin of each threshold
+		int level = Math.min(entity.getLodLevel(), maxLevel);
+		while (level < maxLevel && screenSize < LOD_SCREEN_SIZES[level] * (1 - HYSTERESIS))
+		{
+			level++;
+		}
+		while (level > 0 && screenSize > LOD_SCREEN_SIZES[level - 1] * (1 + HYSTERESIS))
+		{
+			level--;
+		}
+		
+		entity.setLodLevel(level);
+		return model.getLOD(level);
+	}
+	
+}
@@ -9,10 +9,12 @@ import static org.lwjgl.opengl.GL11.glClear;
 
 import java.awt.Dimension;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.lwjgl.glfw.GLFW;
+import org.lwjgl.opengl.GL;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL32;
@@ -20,16 +22,24 @@ import org.lwjgl.opengl.GL33;
 
 import picking.PickingEngine;
 import picking.shader.PickingShader;
+import callbacks.EvictionCallback;
+import callbacks.MeshUnloadCallback;
 import camera.Camera;
 import entity.Entity;
 import entity.light.Light;
 import entity.model.TexturedModel;
 import glStart.DisplayHelper;
 import glStart.RenderResources;
+import gpu.GLStateCache;
+import gpu.GPUResourceManager;
 import loader.Loader;
 import math.matrix.Matrix4f;
 import math.vector.Vector3f;
+import occlusion.Occluder;
+import occlusion.OcclusionCuller;
 import shader.FlatShader;
+import shader.FrameUniformBuffer;
+import shader.IndirectShader;
 import shader.StaticShader;
 import shader.TerrainShader;
 import terrain.Terrain;
@@ -57,6 +67,48 @@ public class Render {
 	 */
 	public final static int POSITION_ATTR_INDEX = 0;
 	
+	/**
+	 * This variable declares that the per-instance transformation matrix will be stored
+	 * inside the VAO starting at index 3. A matrix takes 4 indices, one for each column
+	 */
+	public final static int INSTANCE_MATRIX_ATTR_INDEX = 3;
+	
+	/**
+	 * This variable declares that the per-instance texture offset will be stored inside
+	 * the VAO at index 7
+	 */
+	public final static int INSTANCE_TEX_OFFSET_ATTR_INDEX = 7;
+	
+	/**
+	 * This variable declares that the per-instance picking ID will be stored inside the
+	 * VAO at index 8
+	 */
+	public final static int INSTANCE_ID_ATTR_INDEX = 8;
+	
+	/**
+	 * The amount of 4 byte values stored for each instance, a 4x4 matrix, a 2D texture
+	 * offset and the picking ID
+	 */
+	public final static int INSTANCE_DATA_LENGTH = 16 + 2 + 1;
+	
+	/**
+	 * The vertex buffer binding the per-instance attributes of the geometry arena read
+	 * from, the renderer binds the instance VBO of each model to it
+	 */
+	public final static int INSTANCE_BUFFER_BINDING = INSTANCE_MATRIX_ATTR_INDEX;
+	
+	/**
+	 * This variable declares that the index into the instance storage of the indirect
+	 * pass will be stored inside the VAO at index 9
+	 */
+	public final static int INSTANCE_INDEX_ATTR_INDEX = 9;
+	
+	/**
+	 * The vertex buffer binding the instance index attribute of the geometry arena reads
+	 * from
+	 */
+	public final static int INSTANCE_INDEX_BINDING = INSTANCE_INDEX_ATTR_INDEX;
+	
 	/**
 	 * The field of view angle used for the camera
 	 */
@@ -72,6 +124,12 @@ public class Render {
 	 */
 	public final static float FAR_PLANE_DISTANCE = 1000;
 	
+	/**
+	 * The width of the depth buffer the occluders are rasterized into, the height
+	 * follows from the aspect ratio of the window
+	 */
+	public final static int OCCLUSION_BUFFER_WIDTH = 256;
+	
 	/**
 	 * The helper object for the current window
 	 */
@@ -94,11 +152,21 @@ public class Render {
 	 */
 	private EntityRenderer entityRenderer;
 	
+	/**
+	 * Frees the instance data of the entity renderer when the GPU memory is over budget
+	 */
+	private EvictionCallback instanceEvictor;
+	
 	/**
 	 * The terrain renderer instance
 	 */
 	private TerrainRenderer terrainRenderer;
 	
+	/**
+	 * The multi-draw indirect renderer, null when OpenGL 4.3 isn't supported
+	 */
+	private IndirectRenderer indirectRenderer;
+	
 	/* SHADERS */
 	
 	/**
@@ -121,6 +189,16 @@ public class Render {
 	 */
 	private TerrainShader terrainShader;
 	
+	/**
+	 * The shader of the multi-draw indirect pass
+	 */
+	private IndirectShader indirectShader;
+	
+	/**
+	 * The per-frame data every shader reads, filled once per frame
+	 */
+	private FrameUniformBuffer frameUniforms;
+	
 	/* ENTITY LISTS */
 	
 	/**
@@ -133,6 +211,11 @@ public class Render {
 	 */
 	private List<Terrain> terrainList;
 	
+	/**
+	 * The models the indirect pass leaves to the entity renderer
+	 */
+	private Map<TexturedModel, List<Entity>> remainingBuffer;
+	
 	/**
 	 * Flag indicating that there has to be drawn in wireframe mode
 	 */
@@ -144,6 +227,37 @@ public class Render {
 	 */
 	private static boolean flatShadeModeEnabled;
 	
+	/**
+	 * Flag indicating that entities sharing a model are drawn with one instanced draw call
+	 */
+	private static boolean instancingEnabled = true;
+	
+	/**
+	 * Flag indicating that the opaque entities are drawn with multi-draw indirect calls
+	 */
+	private static boolean indirectEnabled = true;
+	
+	/**
+	 * Chooses the level of detail of every entity
+	 */
+	private LODSelector lodSelector;
+	
+	/**
+	 * Skips the entities and terrain tiles outside of the view of the camera
+	 */
+	private FrustumCuller frustumCuller;
+	
+	/**
+	 * Skips the entities hidden behind occluders
+	 */
+	private OcclusionCuller occlusionCuller;
+	
+	/**
+	 * True once the first object of the current frame has been processed, the frustum
+	 * of the frame is ready
+	 */
+	private boolean frameStarted;
+	
 	/**
 	 * Constructor
 	 */
@@ -157,10 +271,20 @@ public class Render {
 		this.displayHelper = displayHelper;
 		// this.entityMap = new HashMap<>();
 		this.terrainList = new ArrayList<>();
+		this.remainingBuffer = new HashMap<>();
+		this.lodSelector = new LODSelector(FOV);
+		this.frustumCuller = new FrustumCuller();
 		
 		// Generate the projetion matrix
 		createProjectionMatrix();
 		
+		// The occlusion depth buffer has the aspect ratio of the window
+		Dimension d = displayHelper.getWindowDimensions();
+		int occlusionHeight = Math.max(1, (int) Math.round(OCCLUSION_BUFFER_WIDTH
+				* d.getHeight() / d.getWidth()));
+		this.occlusionCuller = new OcclusionCuller(OCCLUSION_BUFFER_WIDTH, occlusionHeight,
+				Runtime.getRuntime().availableProcessors());
+		
 		// Generate a new static shaderprogram
 		this.entityShader = new StaticShader(loader);
 		// Generate a new shader for flat shading
@@ -169,47 +293,48 @@ public class Render {
 		this.pickingShader = new PickingShader(loader);
 		// Generate a new terrain shader
 		this.terrainShader = new TerrainShader(loader);
+		// Shader storage and indirect draws need OpenGL 4.3
+		if ( GL.getCapabilities().OpenGL43 == true )
+		{
+			this.indirectShader = new IndirectShader(loader);
+			this.indirectRenderer = new IndirectRenderer();
+		}
 		
-		initShaders();
+		// The shaders read the camera, the lights and the sky from one uniform buffer
+		this.frameUniforms = new FrameUniformBuffer();
 		
 		// Generate a new renderer
 		this.entityRenderer = new EntityRenderer(displayHelper, this.entityShader,
 				this.pickingShader, this.flatShader);
+		// Unloaded instance VBO's can come back with the same ID for another mesh
+		loader.addMeshUnloadCallback(new MeshUnloadCallback() {
+			
+			@Override
+			public void meshUnloaded( int instanceVboID )
+			{
+				entityRenderer.forgetInstanceBuffer(instanceVboID);
+			}
+		});
+		// Instance data can be uploaded again, give it up when the GPU memory runs out
+		this.instanceEvictor = new EvictionCallback() {
+			
+			@Override
+			public void evict( long bytesOverBudget )
+			{
+				entityRenderer.evictInstanceBuffers(bytesOverBudget);
+			}
+		};
+		GPUResourceManager.addEvictionCallback(instanceEvictor);
 		
 		// Generate a new terrain renderer
 		this.terrainRenderer = new TerrainRenderer(displayHelper, this.terrainShader,
 				this.flatShader);
 		
-		GL11.glEnable(GL11.GL_DEPTH_TEST);
+		GLStateCache.setEnabled(GL11.GL_DEPTH_TEST, true);
 		// Don't draw backwards facing primitives
 		enableCulling();
 	}
 	
-	/**
-	 * Setup some shader variables
-	 */
-	private void initShaders()
-	{
-		// Load the projectionMatrix straight into the shader
-		
-		this.entityShader.start();
-		this.entityShader.loadProjectionMatrix(projectionMatrix);
-		this.entityShader.stop();
-		
-		this.pickingShader.start();
-		this.pickingShader.loadProjectionMatrix(projectionMatrix);
-		this.pickingShader.stop();
-		
-		this.flatShader.start();
-		this.flatShader.loadProjectionMatrix(projectionMatrix);
-		this.flatShader.stop();
-		
-		this.terrainShader.start();
-		this.terrainShader.loadProjectionMatrix(projectionMatrix);
-		this.terrainShader.stop();
-		
-	}
-	
 	/**
 	 * Render the frame given the camera and sun object
 	 * 
@@ -223,12 +348,20 @@ public class Render {
 		List<Light> lights = resources.getLightList();
 		Vector3f skyColour = resources.getSkyColour();
 		
-		/* Picking phase */
-		pickingPhase(cam, skyColour, lights, mapBuffer);
+		// Upload the data shared by every shader once, for both phases
+		frameUniforms.update(projectionMatrix, cam.getViewMatrix(), lights, skyColour);
+		
+		/* Picking phase, only when somebody asked for a pixel */
+		if ( PickingEngine.isPickingPassNeeded() )
+		{
+			pickingPhase(cam, skyColour, lights, mapBuffer);
+		}
 		
 		/* Render phase */
 		renderPhase(cam, lights, skyColour, mapBuffer);
 		
+		// The next processed object starts a new frame
+		frameStarted = false;
 	}
 	
 	private void pickingPhase( Camera cam,
@@ -236,21 +369,17 @@ public class Render {
 			List<Light> lights,
 			Map<TexturedModel, List<Entity>> mapBuffer )
 	{
-		// Enable the picking texture
-		PickingEngine.enableWriting();
-		// Clear the color and depth buffers
-		glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+		// Enable and clear the picking texture, limited to the requested pixels
+		PickingEngine.beginPickingPass();
 		
 		pickingShader.start();
-		// Load the camera
-		pickingShader.loadviewMatrix(cam);
 		// Render
-		entityRenderer.renderForPicking(mapBuffer);
+		entityRenderer.renderForPicking(mapBuffer, instancingEnabled);
 		// Stop the shader program
 		pickingShader.stop();
 		
 		// Disable the picking texture
-		PickingEngine.disableWriting();
+		PickingEngine.endPickingPass();
 		
 	}
 	
@@ -292,17 +421,22 @@ public class Render {
 			Vector3f skyColour,
 			Map<TexturedModel, List<Entity>> mapBuffer )
 	{
-		// Start shader programs
-		entityShader.start();
-		// Load sky
-		entityShader.loadSkyColour(skyColour);
-		// Load lights into the shader
-		entityShader.loadLights(lights);
-		// Load the camera
-		entityShader.loadviewMatrix(cam);
-		// Render
-		entityRenderer.render(mapBuffer, false, wireframeEnabled);
-		// Stop the shader program
+		// Draw the opaque models of the geometry arena with multi-draw indirect calls
+		if ( indirectEnabled == true && indirectRenderer != null )
+		{
+			indirectShader.start();
+			indirectShader.loadWireframeVariable(wireframeEnabled);
+			// The models it can't draw are left in the remaining buffer
+			indirectRenderer.render(mapBuffer, remainingBuffer);
+			indirectShader.stop();
+			
+			mapBuffer = remainingBuffer;
+		}
+		
+		// Render, every model starts the variant of the entity shader it needs
+		entityRenderer.render(mapBuffer, false, wireframeEnabled, instancingEnabled,
+				lights.size());
+		// Stop the last variant
 		entityShader.stop();
 		
 		/* TERRAIN */
@@ -310,9 +444,6 @@ public class Render {
 		// Do the same as the entity render cycle
 		
 		terrainShader.start();
-		terrainShader.loadSkyColour(skyColour);
-		terrainShader.loadLights(lights);
-		terrainShader.loadviewMatrix(cam);
 		terrainRenderer.render(terrainList, false);
 		terrainShader.stop();
 	}
@@ -323,14 +454,9 @@ public class Render {
 			Map<TexturedModel, List<Entity>> mapBuffer )
 	{
 		flatShader.start();
-		// Load sky
-		// entityShader.loadSkyColour(skyColour);
-		// Load lights into the shader
-		flatShader.loadLights(lights);
-		// Load the camera
-		flatShader.loadviewMatrix(cam);
 		// Render
-		entityRenderer.render(mapBuffer, true, wireframeEnabled);
+		entityRenderer.render(mapBuffer, true, wireframeEnabled, instancingEnabled,
+				lights.size());
 		// Stop the shader program
 		
 		/* TERRAIN */
@@ -352,8 +478,8 @@ public class Render {
 	public static void enableCulling()
 	{
 		// Don't render backwards facing vertices
-		GL11.glEnable(GL11.GL_CULL_FACE);
-		GL11.glCullFace(GL11.GL_BACK);
+		GLStateCache.setEnabled(GL11.GL_CULL_FACE, true);
+		GLStateCache.cullFace(GL11.GL_BACK);
 	}
 	
 	/**
@@ -363,7 +489,7 @@ public class Render {
 	 */
 	public static void disableCulling()
 	{
-		GL11.glDisable(GL11.GL_CULL_FACE);
+		GLStateCache.setEnabled(GL11.GL_CULL_FACE, false);
 	}
 	
 	/**
@@ -372,9 +498,9 @@ public class Render {
 	public static void enableWireFrame( boolean shaderWireframe )
 	{
 		// Draw outline only
-		GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, GL11.GL_LINE);
+		GLStateCache.polygonMode(GL11.GL_LINE);
 		// Disable textures
-		GL11.glDisable(GL11.GL_TEXTURE_2D);
+		GLStateCache.setEnabled(GL11.GL_TEXTURE_2D, false);
 		
 		if ( shaderWireframe == true )
 		{
@@ -388,9 +514,9 @@ public class Render {
 	public static void disableWireFrame()
 	{
 		// Draw full triangles
-		GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, GL11.GL_FILL);
+		GLStateCache.polygonMode(GL11.GL_FILL);
 		// Enable textures
-		GL11.glEnable(GL11.GL_TEXTURE_2D);
+		GLStateCache.setEnabled(GL11.GL_TEXTURE_2D, true);
 		
 		wireframeEnabled = false;
 	}
@@ -414,6 +540,39 @@ public class Render {
 		flatShadeModeEnabled = false;
 	}
 	
+	/**
+	 * Draw all entities of the same model with a single instanced draw call
+	 */
+	public static void enableInstancing()
+	{
+		instancingEnabled = true;
+	}
+	
+	/**
+	 * Draw every entity with its own draw call
+	 */
+	public static void disableInstancing()
+	{
+		instancingEnabled = false;
+	}
+	
+	/**
+	 * Draw the opaque entities with multi-draw indirect calls, when OpenGL 4.3 is
+	 * supported
+	 */
+	public static void enableIndirectDrawing()
+	{
+		indirectEnabled = true;
+	}
+	
+	/**
+	 * Draw every model with its own draw calls
+	 */
+	public static void disableIndirectDrawing()
+	{
+		indirectEnabled = false;
+	}
+	
 	/**
 	 * Prepares the OpenGL context
 	 */
@@ -440,8 +599,27 @@ public class Render {
 	 */
 	public void processEntity( Entity entity, Map<TexturedModel, List<Entity>> mapBuffer )
 	{
-		// Get the model from the entity
-		TexturedModel model = entity.getModel();
+		// Make sure the entity has a picking ID
+		resources.getEntityRegistry().register(entity);
+		
+		// Entities outside of the view are left out of every pass
+		startFrame();
+		if ( frustumCuller.isVisible(entity) == false )
+		{
+			return;
+		}
+		
+		// Just like the entities hidden behind occluders
+		Vector3f position = entity.getPosition();
+		if ( occlusionCuller.isSphereVisible(position.x, position.y, position.z, entity
+				.getModel().getBoundingRadius() * entity.getScale()) == false )
+		{
+			return;
+		}
+		
+		// Get the model from the entity, in the detail fitting its size on screen
+		TexturedModel model = lodSelector.select(entity, resources.getActiveCamera()
+				.getPosition());
 		// Get the list of the entities matched to this model
 		List<Entity> entList = mapBuffer.get(model);
 		// Check if there was a list
@@ -465,9 +643,84 @@ public class Render {
 	 */
 	public void processTerrain( Terrain terrain )
 	{
+		// Tiles outside of the view aren't drawn
+		startFrame();
+		if ( frustumCuller.isVisible(terrain) == false )
+		{
+			return;
+		}
+		
 		this.terrainList.add(terrain);
 	}
 	
+	/**
+	 * @return the amount of entities inside the view in the last frame
+	 */
+	public int getVisibleEntityCount()
+	{
+		return frustumCuller.getVisibleEntities();
+	}
+	
+	/**
+	 * @return the amount of entities culled in the last frame
+	 */
+	public int getCulledEntityCount()
+	{
+		return frustumCuller.getCulledEntities();
+	}
+	
+	/**
+	 * @return the amount of entities inside the view hidden behind occluders in the last
+	 *         frame
+	 */
+	public int getOccludedEntityCount()
+	{
+		return occlusionCuller.getOccludedCount();
+	}
+	
+	/**
+	 * Add a mesh that hides the entities behind it
+	 * 
+	 * @param occluder
+	 */
+	public void addOccluder( Occluder occluder )
+	{
+		occlusionCuller.addOccluder(occluder);
+	}
+	
+	/**
+	 * @return the amount of terrain tiles inside the view in the last frame
+	 */
+	public int getVisibleTerrainCount()
+	{
+		return frustumCuller.getVisibleTerrains();
+	}
+	
+	/**
+	 * @return the amount of terrain tiles culled in the last frame
+	 */
+	public int getCulledTerrainCount()
+	{
+		return frustumCuller.getCulledTerrains();
+	}
+	
+	/**
+	 * Extract the frustum of the active camera when the first object of a frame is
+	 * processed
+	 */
+	private void startFrame()
+	{
+		if ( frameStarted == true )
+		{
+			return;
+		}
+		
+		frustumCuller.update(projectionMatrix, resources.getActiveCamera().getViewMatrix());
+		// Rasterize the occluders before the first entity is tested
+		occlusionCuller.renderOccluders(frustumCuller.getViewProjection());
+		frameStarted = true;
+	}
+	
 	/**
 	 * Generate a projectionMatrix.
 	 * The projectionMatrix makes the objects onscreen more realistic looking
@@ -505,9 +758,18 @@ public class Render {
 	 */
 	public void cleanUp()
 	{
+		GPUResourceManager.removeEvictionCallback(instanceEvictor);
 		entityShader.cleanUp();
+		flatShader.cleanUp();
 		terrainShader.cleanUp();
 		pickingShader.cleanUp();
+		occlusionCuller.cleanUp();
+		frameUniforms.cleanUp();
+		if ( indirectRenderer != null )
+		{
+			indirectShader.cleanUp();
+			indirectRenderer.cleanUp();
+		}
 	}
 	
 	/**
@@ -6,16 +6,14 @@ package render;
 import java.util.List;
 
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL20;
-import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
 
 import entity.model.Model;
 import entity.texture.ModelTexture;
 import glStart.DisplayHelper;
+import gpu.GLStateCache;
 import math.Maths;
 import math.matrix.Matrix4f;
-import math.vector.Vector3f;
 import shader.FlatShader;
 import shader.TerrainShader;
 import terrain.Terrain;
@@ -40,6 +38,11 @@ public class TerrainRenderer {
 	 */
 	private FlatShader flatShader;
 	
+	/**
+	 * The reusable matrix that receives the transformation of the current terrain
+	 */
+	private Matrix4f transformationMatrix;
+	
 	/**
 	 * Constructor
 	 * 
@@ -53,6 +56,7 @@ public class TerrainRenderer {
 		this.displayHelper = displayHelper;
 		this.shader = shader;
 		this.flatShader = flatShader;
+		this.transformationMatrix = new Matrix4f();
 	}
 	
 	public void render( List<Terrain> terrains, boolean flat )
@@ -62,6 +66,15 @@ public class TerrainRenderer {
 		{
 			// Prepare the model/texture
 			prepareTerrainModel(terrain);
+			// Tell the active shader how the model data is stored
+			if ( flat != true )
+			{
+				shader.loadMeshEncoding(terrain.getModel().getEncoding());
+			}
+			else
+			{
+				flatShader.loadMeshEncoding(terrain.getModel().getEncoding());
+			}
 			
 			// Load entity specific data
 			if ( flat != true )
@@ -72,11 +85,11 @@ public class TerrainRenderer {
 			{
 				prepareFlatTerrainEntity(terrain);
 			}
-			// Render the terrain
-			GL11.glDrawElements(GL11.GL_TRIANGLES, terrain.getModel().getVertexCount(),
-					GL11.GL_UNSIGNED_INT, 0);
-			// Cleanup all data
-			unbindModelData();
+			// Render the terrain, from its range in the buffers of the VAO
+			Model model = terrain.getModel();
+			GL32.glDrawElementsBaseVertex(GL11.GL_TRIANGLES, model.getVertexCount(), model
+					.getEncoding().getIndexType(), model.getIndexOffset(), model
+					.getBaseVertex());
 		}
 		
 	}
@@ -93,39 +106,20 @@ public class TerrainRenderer {
 		
 		/* Bind all resources */
 		// Bind the VAO attached to this model
-		GL30.glBindVertexArray(model.getVoaID());
-		// Enable the list with INDEX 0 from the VAO
-		GL20.glEnableVertexAttribArray(Render.POSITION_ATTR_INDEX);
+		GLStateCache.bindVertexArray(model.getVoaID());
+		// Enable the list with INDEX 0 from the VAO, the arrays stay enabled in the VAO
+		GLStateCache.enableVertexAttribArray(Render.POSITION_ATTR_INDEX);
 		// Enable texture coords
-		GL20.glEnableVertexAttribArray(Render.TEXTURE_COORD_ATTR_INDEX);
+		GLStateCache.enableVertexAttribArray(Render.TEXTURE_COORD_ATTR_INDEX);
 		// Enable normals
-		GL20.glEnableVertexAttribArray(Render.NORMALS_ATTR_INDEX);
+		GLStateCache.enableVertexAttribArray(Render.NORMALS_ATTR_INDEX);
 		
 		// Get the texture
 		ModelTexture texture = terrain.getTexture();
 		// Reflectivity
 		shader.loadShineVariables(texture.getShineDamper(), texture.getReflectivity());
-		// Activate the first texture bank, the 2DSampler (Shader) uses this one
-		GL13.glActiveTexture(GL13.GL_TEXTURE0);
-		// Set the active texture for the following draw
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture.getTextureID());
-	}
-	
-	/**
-	 * Unbind all model data
-	 */
-	private void unbindModelData()
-	{
-		/* Unbind all used resources */
-		// Unbind the position VBO
-		GL20.glDisableVertexAttribArray(Render.POSITION_ATTR_INDEX);
-		// Unbind texture coords
-		GL20.glDisableVertexAttribArray(Render.TEXTURE_COORD_ATTR_INDEX);
-		// Unbind the normals
-		GL20.glDisableVertexAttribArray(Render.NORMALS_ATTR_INDEX);
-		
-		// Unbind the chosen VAO
-		GL30.glBindVertexArray(0);
+		// Set the texture of the first texture bank, the 2DSampler (Shader) uses this one
+		GLStateCache.bindTexture(0, texture.getTextureID());
 	}
 	
 	/**
@@ -137,8 +131,8 @@ public class TerrainRenderer {
 	{
 		/* POSITION MANIPULATION */
 		// Create transformation matrix for the object
-		Matrix4f transformationMatrix = Maths.createTransformationMatrix(new Vector3f(
-				entity.getX(), 0, entity.getZ()), 0, 0, 0, 1);
+		Maths.createTransformationMatrix(entity.getX(), 0, entity.getZ(), 0, 0, 0, 1,
+				transformationMatrix);
 		// Load that matrix into the shader
 		shader.loadTransformationMatrix(transformationMatrix);
 	}
@@ -152,8 +146,10 @@ public class TerrainRenderer {
 	{
 		/* POSITION MANIPULATION */
 		// Create transformation matrix for the object
-		Matrix4f transformationMatrix = Maths.createTransformationMatrix(new Vector3f(
-				entity.getX(), 0, entity.getZ()), 0, 0, 0, 1);
+		Maths.createTransformationMatrix(entity.getX(), 0, entity.getZ(), 0, 0, 0, 1,
+				transformationMatrix);
+		// Terrain is never drawn instanced
+		flatShader.loadInstancingVariable(false);
 		// Load that matrix into the shader
 		flatShader.loadTransformationMatrix(transformationMatrix);
 	}
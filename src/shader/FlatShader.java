@@ -3,25 +3,15 @@
  */
 package shader;
 
-import java.util.List;
-
 import render.Render;
-import camera.Camera;
-import entity.light.Light;
 import loader.Loader;
 import math.matrix.Matrix4f;
-import math.vector.Vector3f;
 
 /**
  * @author Bert
  *
  */
 public class FlatShader extends ShaderProgram {
-	/**
-	 * Maximum number of allowed lights
-	 */
-	private static final int MAX_LIGHTS = 2;
-	
 	/**
 	 * Location of the vertex shader file
 	 */
@@ -38,24 +28,9 @@ public class FlatShader extends ShaderProgram {
 	private int location_transformationMatrix;
 	
 	/**
-	 * The location of the shader variable projectionmatrix
-	 */
-	private int location_projectionMatrix;
-	
-	/**
-	 * The location of the shader variable viewmatrix
+	 * The location of the shader variable useInstancing
 	 */
-	private int location_viewMatrix;
-	
-	/**
-	 * The locations of the shader variable lightPosition[2]
-	 */
-	private int location_lightPosition[];
-	
-	/**
-	 * The locations of the shader variable lightColour[2]
-	 */
-	private int location_lightColour[];
+	private int location_useInstancing;
 	
 	/**
 	 * Constructor
@@ -79,6 +54,8 @@ public class FlatShader extends ShaderProgram {
 		super.bindAttribute(Render.TEXTURE_COORD_ATTR_INDEX, "textureCoords");
 		// Connect the normals VBO to the VAO
 		super.bindAttribute(Render.NORMALS_ATTR_INDEX, "normal");
+		// Connect the per-instance transformation matrix, uses 4 indices
+		super.bindAttribute(Render.INSTANCE_MATRIX_ATTR_INDEX, "instanceTransformationMatrix");
 		
 	}
 	
@@ -90,16 +67,7 @@ public class FlatShader extends ShaderProgram {
 	protected void getAllUniformVarLocations()
 	{
 		location_transformationMatrix = super.getUniformVarLocation("transformationMatrix");
-		location_projectionMatrix = super.getUniformVarLocation("projectionMatrix");
-		location_viewMatrix = super.getUniformVarLocation("viewMatrix");
-		
-		// initialise arrays of lightPosition and lightColour
-				location_lightPosition = new int[MAX_LIGHTS];
-				location_lightColour = new int[MAX_LIGHTS];
-				for(int i=0; i<MAX_LIGHTS; i++){
-					location_lightPosition[i] = super.getUniformVarLocation("lightPosition[" + i +"]");
-					location_lightColour[i] = super.getUniformVarLocation("lightColour[" + i +"]");
-				}
+		location_useInstancing = super.getUniformVarLocation("useInstancing");
 	}
 	
 	/**
@@ -113,48 +81,14 @@ public class FlatShader extends ShaderProgram {
 	}
 	
 	/**
-	 * Load a projection matrix into the shader
+	 * Tell the shader to read the transformation from the per-instance attributes instead
+	 * of the transformationMatrix variable
 	 * 
-	 * @param matrix
+	 * @param useInstancing
 	 */
-	public void loadProjectionMatrix( Matrix4f matrix )
+	public void loadInstancingVariable( boolean useInstancing )
 	{
-		super.loadMatrix(location_projectionMatrix, matrix);
+		super.loadBoolean(location_useInstancing, useInstancing);
 	}
 	
-	/**
-	 * Load a view matrix into the shader
-	 * 
-	 * @param matrix
-	 */
-	public void loadviewMatrix( Camera camera )
-	{
-		// Generate the viewmatrix based on the camera
-		//Matrix4f matrix = Maths.createViewMatrix(camera);
-		// Store the viewmatrix
-		super.loadMatrix(location_viewMatrix, camera.getViewMatrix());
-	}
-	
-	/**
-	 * Loads a light object into the shader
-	 * 
-	 * @param light
-	 */
-	public void loadLights( List<Light> lights )
-	{
-		for(int i=0; i<MAX_LIGHTS; i++){
-			if(i<lights.size()){
-				// load light position in
-				super.load3DVector(location_lightPosition[i], lights.get(i).getPosition());
-				// load light colour in
-				super.load3DVector(location_lightColour[i], lights.get(i).getColor());
-			}
-			else{ // if there are less lights than available light posions
-				// load 'empty' lights in
-				super.load3DVector(location_lightPosition[i], new Vector3f(0,0,0));
-				super.load3DVector(location_lightColour[i], new Vector3f(0,0,0));
-			}
-		}
-
-	}	
 }
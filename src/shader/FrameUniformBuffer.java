@@ -0,0 +1,199 @@
+/**
+ * 
+ */
+package shader;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+
+import entity.light.Light;
+import gpu.GPUResourceManager;
+import gpu.GPUResourceType;
+import math.matrix.Matrix4f;
+import math.vector.Vector3f;
+
+/**
+ * The uniform buffer holding the data every shader needs once per frame: the
+ * projection and view matrix, the position of the camera in the world, the sky colour
+ * and the lights. It is filled once per frame and read by every program through the
+ * FrameData uniform block, in the std140 layout:
+ * 
+ * <pre>
+ * layout(std140) uniform FrameData {
+ * 	mat4 projectionMatrix;
+ * 	mat4 viewMatrix;
+ * 	vec4 cameraPosition;
+ * 	vec4 skyColour;
+ * 	vec4 lightPosition[4];
+ * 	vec4 lightColour[4];
+ * 	vec4 attenuation[4];
+ * };
+ * </pre>
+ * 
+ * Every vector takes 4 floats, std140 pads a vec3 and every array element to that
+ * anyway.
+ * 
+ * @author Bert
+ */
+public class FrameUniformBuffer {
+	
+	/**
+	 * The name of the uniform block in the shaders
+	 */
+	public final static String BLOCK_NAME = "FrameData";
+	
+	/**
+	 * The uniform buffer binding the block is read from
+	 */
+	public final static int BINDING = 0;
+	
+	/**
+	 * Who creates the OpenGL objects, for the GPU resource reports
+	 */
+	private final static String OWNER = "FrameUniformBuffer";
+	
+	/**
+	 * The offset of the members of the block, in floats
+	 */
+	private final static int PROJECTION_OFFSET = 0;
+	private final static int VIEW_OFFSET = PROJECTION_OFFSET + 16;
+	private final static int CAMERA_POSITION_OFFSET = VIEW_OFFSET + 16;
+	private final static int SKY_COLOUR_OFFSET = CAMERA_POSITION_OFFSET + 4;
+	private final static int LIGHT_POSITION_OFFSET = SKY_COLOUR_OFFSET + 4;
+	private final static int LIGHT_COLOUR_OFFSET = LIGHT_POSITION_OFFSET
+			+ ShaderProgram.MAX_LIGHTS_IN_SHADERS * 4;
+	private final static int ATTENUATION_OFFSET = LIGHT_COLOUR_OFFSET
+			+ ShaderProgram.MAX_LIGHTS_IN_SHADERS * 4;
+	
+	/**
+	 * The size of the block, in floats
+	 */
+	private final static int LENGTH = ATTENUATION_OFFSET
+			+ ShaderProgram.MAX_LIGHTS_IN_SHADERS * 4;
+	
+	/**
+	 * The uniform buffer
+	 */
+	private int bufferID;
+	
+	/**
+	 * The reusable buffer the block is filled in
+	 */
+	private FloatBuffer data;
+	
+	/**
+	 * The inverse of the view matrix, its translation is the camera position
+	 */
+	private Matrix4f inverseView;
+	
+	/**
+	 * Constructor, creates the buffer and binds it to its binding
+	 */
+	public FrameUniformBuffer()
+	{
+		this.data = BufferUtils.createFloatBuffer(LENGTH);
+		this.inverseView = new Matrix4f();
+		
+		this.bufferID = GPUResourceManager.createBuffer(OWNER);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, bufferID);
+		GL15.glBufferData(GL31.GL_COPY_WRITE_BUFFER, LENGTH * 4L, GL15.GL_DYNAMIC_DRAW);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+		GPUResourceManager.setSize(GPUResourceType.BUFFER, bufferID, LENGTH * 4L);
+		
+		// The binding belongs to the context, the programs only point their block at it
+		GL30.glBindBufferBase(GL31.GL_UNIFORM_BUFFER, BINDING, bufferID);
+	}
+	
+	/**
+	 * Fill the block with the data of a new frame and upload it
+	 * 
+	 * @param projectionMatrix
+	 * @param viewMatrix
+	 * @param lights The first lights are used, missing ones are black
+	 * @param skyColour
+	 */
+	public void update( Matrix4f projectionMatrix,
+			Matrix4f viewMatrix,
+			List<Light> lights,
+			Vector3f skyColour )
+	{
+		data.clear();
+		
+		data.position(PROJECTION_OFFSET);
+		projectionMatrix.store(data);
+		data.position(VIEW_OFFSET);
+		viewMatrix.store(data);
+		
+		// The camera sits at the origin of the view space, mCR is column C and row R
+		Matrix4f.invert(viewMatrix, inverseView);
+		putVector(CAMERA_POSITION_OFFSET, inverseView.m30, inverseView.m31,
+				inverseView.m32);
+		putVector(SKY_COLOUR_OFFSET, skyColour.x, skyColour.y, skyColour.z);
+		
+		for (int i = 0; i < ShaderProgram.MAX_LIGHTS_IN_SHADERS; i++)
+		{
+			int offset = i * 4;
+			if ( i < lights.size() )
+			{
+				Light light = lights.get(i);
+				putVector(LIGHT_POSITION_OFFSET + offset, light.getPosition());
+				putVector(LIGHT_COLOUR_OFFSET + offset, light.getColor());
+				putVector(ATTENUATION_OFFSET + offset, light.getAttenuation());
+			}
+			else
+			{
+				// 'Empty' lights in the unused places
+				putVector(LIGHT_POSITION_OFFSET + offset, 0, 0, 0);
+				putVector(LIGHT_COLOUR_OFFSET + offset, 0, 0, 0);
+				putVector(ATTENUATION_OFFSET + offset, 1, 0, 0);
+			}
+		}
+		
+		// Upload the whole block at once
+		data.clear();
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, bufferID);
+		GL15.glBufferSubData(GL31.GL_COPY_WRITE_BUFFER, 0, data);
+		GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+	}
+	
+	/**
+	 * Delete the buffer
+	 */
+	public void cleanUp()
+	{
+		GPUResourceManager.delete(GPUResourceType.BUFFER, bufferID);
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * @param offset
+	 * @param vector
+	 */
+	private void putVector( int offset, Vector3f vector )
+	{
+		putVector(offset, vector.x, vector.y, vector.z);
+	}
+	
+	/**
+	 * Store a vec3 padded to a vec4
+	 * 
+	 * @param offset
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	private void putVector( int offset, float x, float y, float z )
+	{
+		data.put(offset, x);
+		data.put(offset + 1, y);
+		data.put(offset + 2, z);
+		data.put(offset + 3, 0);
+	}
+	
+}
@@ -0,0 +1,79 @@
+/**
+ * 
+ */
+package shader;
+
+import loader.Loader;
+import render.Render;
+
+/**
+ * The shader of the multi-draw indirect pass. The transformation, texture offset and
+ * material of every entity are read from shader storage buffers, the per-frame data
+ * from the frame uniform block.
+ * 
+ * @author Bert
+ */
+public class IndirectShader extends ShaderProgram {
+	
+	/**
+	 * Location of the vertex shader file
+	 */
+	private static final String VERTEX_SHADER_FILE = "shader/files/indirectVertexShader.txt";
+	
+	/**
+	 * Location of the fragment shader file
+	 */
+	private static final String FRAGMENT_SHADER_FILE = "shader/files/indirectFragmentShader.txt";
+	
+	/**
+	 * The location of the shader variable wireframe
+	 */
+	private int location_wireframe;
+	
+	/**
+	 * Constructor
+	 */
+	public IndirectShader( Loader loader )
+	{
+		// Let the super class handle the shader files
+		super(VERTEX_SHADER_FILE, FRAGMENT_SHADER_FILE, loader);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see shader.ShaderProgram#bindAttributes()
+	 */
+	@Override
+	protected void bindAttributes()
+	{
+		// Connect the position VBO (from the VAO at INDEX 0) to the variable position
+		super.bindAttribute(Render.POSITION_ATTR_INDEX, "position");
+		// Connect the texture coords VBO
+		super.bindAttribute(Render.TEXTURE_COORD_ATTR_INDEX, "textureCoords");
+		// Connect the normals VBO to the VAO
+		super.bindAttribute(Render.NORMALS_ATTR_INDEX, "normal");
+		// Connect the index into the instance storage
+		super.bindAttribute(Render.INSTANCE_INDEX_ATTR_INDEX, "instanceIndex");
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see shader.ShaderProgram#getAllUniformVarLocations()
+	 */
+	@Override
+	protected void getAllUniformVarLocations()
+	{
+		location_wireframe = super.getUniformVarLocation("wireframe");
+	}
+	
+	/**
+	 * Tell the shader to render in wireframe mode
+	 * 
+	 * @param wireframe
+	 */
+	public void loadWireframeVariable( boolean wireframe )
+	{
+		super.loadBoolean(location_wireframe, wireframe);
+	}
+	
+}
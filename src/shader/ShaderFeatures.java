@@ -0,0 +1,166 @@
+/**
+ * 
+ */
+package shader;
+
+/**
+ * The features a variant of a shader program is compiled with. Every feature becomes a
+ * #define at the top of the shader sources, so the shaders leave out what they don't
+ * need at compile time instead of branching on a uniform variable for every vertex and
+ * fragment. A combination is identified by a small key, which is all a renderer needs
+ * to look up the variant of a model without creating objects.
+ * 
+ * @author Bert
+ */
+public class ShaderFeatures {
+	
+	/**
+	 * Draw the outline in the wireframe colour, defines WIREFRAME
+	 */
+	private final static int WIREFRAME = 1;
+	
+	/**
+	 * Light the model as if every normal points up, defines FAKE_LIGHTING
+	 */
+	private final static int FAKE_LIGHTING = 2;
+	
+	/**
+	 * Discard the transparent texels of the texture, defines ALPHA_DISCARD
+	 */
+	private final static int ALPHA_DISCARD = 4;
+	
+	/**
+	 * The amount of lights is stored above the flags, defines LIGHT_COUNT
+	 */
+	private final static int LIGHT_COUNT_SHIFT = 3;
+	
+	/**
+	 * The features of a program without variants: every light and transparency, like
+	 * the shaders were before they had variants
+	 */
+	public final static ShaderFeatures DEFAULT = new ShaderFeatures(getKey(false, false,
+			ShaderProgram.MAX_LIGHTS_IN_SHADERS, true));
+	
+	/**
+	 * The flags and the amount of lights
+	 */
+	private int key;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param key A key made by getKey
+	 */
+	ShaderFeatures( int key )
+	{
+		this.key = key;
+	}
+	
+	/**
+	 * Combine features into a key, the keys are small enough for the boxed integers Java
+	 * caches
+	 * 
+	 * @param wireframe
+	 * @param fakeLighting
+	 * @param lightCount The amount of lights, at most MAX_LIGHTS_IN_SHADERS are lit
+	 * @param alphaDiscard
+	 * @return the key
+	 */
+	public static int getKey( boolean wireframe,
+			boolean fakeLighting,
+			int lightCount,
+			boolean alphaDiscard )
+	{
+		int clampedLights = Math.max(0, Math.min(lightCount,
+				ShaderProgram.MAX_LIGHTS_IN_SHADERS));
+		int key = clampedLights << LIGHT_COUNT_SHIFT;
+		if ( wireframe == true )
+		{
+			key |= WIREFRAME;
+		}
+		if ( fakeLighting == true )
+		{
+			key |= FAKE_LIGHTING;
+		}
+		if ( alphaDiscard == true )
+		{
+			key |= ALPHA_DISCARD;
+		}
+		return key;
+	}
+	
+	/**
+	 * @return the key
+	 */
+	public int getKey()
+	{
+		return this.key;
+	}
+	
+	/**
+	 * @return true when the outline is drawn in the wireframe colour
+	 */
+	public boolean isWireframe()
+	{
+		return (key & WIREFRAME) != 0;
+	}
+	
+	/**
+	 * @return true when every normal points up
+	 */
+	public boolean isFakeLighting()
+	{
+		return (key & FAKE_LIGHTING) != 0;
+	}
+	
+	/**
+	 * @return true when transparent texels are discarded
+	 */
+	public boolean isAlphaDiscard()
+	{
+		return (key & ALPHA_DISCARD) != 0;
+	}
+	
+	/**
+	 * @return the amount of lights that are lit
+	 */
+	public int getLightCount()
+	{
+		return key >>> LIGHT_COUNT_SHIFT;
+	}
+	
+	/**
+	 * @return the #define lines to put after the #version line of the sources
+	 */
+	public String getDefines()
+	{
+		StringBuilder defines = new StringBuilder();
+		defines.append("#define LIGHT_COUNT ").append(getLightCount()).append('\n');
+		if ( isWireframe() == true )
+		{
+			defines.append("#define WIREFRAME\n");
+		}
+		if ( isFakeLighting() == true )
+		{
+			defines.append("#define FAKE_LIGHTING\n");
+		}
+		if ( isAlphaDiscard() == true )
+		{
+			defines.append("#define ALPHA_DISCARD\n");
+		}
+		return defines.toString();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return "lights " + getLightCount() + (isWireframe() ? ", wireframe" : "")
+				+ (isFakeLighting() ? ", fake lighting" : "")
+				+ (isAlphaDiscard() ? ", alpha discard" : "");
+	}
+	
+}
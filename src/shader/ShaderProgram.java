@@ -8,8 +8,15 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import entity.model.MeshEncoding;
+import gpu.GLStateCache;
+import gpu.GPUResourceManager;
+import gpu.GPUResourceType;
 import loader.Loader;
 import math.matrix.Matrix4f;
 import math.vector.Vector2f;
@@ -18,6 +25,7 @@ import math.vector.Vector3f;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL31;
 
 /**
  * @author Bert
@@ -34,6 +42,17 @@ public abstract class ShaderProgram {
 	 */
 	private static FloatBuffer MAT4FBuffer = BufferUtils.createFloatBuffer(Matrix4f.SIZE);
 	
+	/**
+	 * The amount of uniform uploads that went to OpenGL, over every shader
+	 */
+	private static long issuedUniformUploads;
+	
+	/**
+	 * The amount of uniform uploads that were skipped because the value didn't change,
+	 * over every shader
+	 */
+	private static long skippedUniformUploads;
+	
 	/**
 	 * The ID of the compiled Shader
 	 */
@@ -50,21 +69,82 @@ public abstract class ShaderProgram {
 	private int fragmentShaderID;
 	
 	/**
-	 * Constructor
+	 * The location of the shader variable positionScale, -1 when the shader doesn't
+	 * decode positions
+	 */
+	private int location_positionScale;
+	
+	/**
+	 * The location of the shader variable positionOffset
+	 */
+	private int location_positionOffset;
+	
+	/**
+	 * The location of the shader variable useOctahedralNormals
+	 */
+	private int location_useOctahedralNormals;
+	
+	/**
+	 * The last uploaded value of every uniform location, as the raw bits of its floats
+	 * or ints, null until something is uploaded to the location
+	 */
+	private int[][] uniformValues = new int[0][];
+	
+	/**
+	 * The features this program was compiled with
+	 */
+	private ShaderFeatures features;
+	
+	/**
+	 * Loads the sources of new variants
+	 */
+	private Loader loader;
+	
+	/**
+	 * The variants of this program compiled so far by the key of their features, this
+	 * program included
+	 */
+	private Map<Integer, ShaderProgram> variants;
+	
+	/**
+	 * Constructor, compiles the shaders with the default features
 	 * 
 	 * @param vertexFile
 	 * @param fragmentFile
 	 */
 	public ShaderProgram( String vertexFile, String fragmentFile, Loader loader )
 	{
+		this(vertexFile, fragmentFile, loader, ShaderFeatures.DEFAULT);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param vertexFile
+	 * @param fragmentFile
+	 * @param loader
+	 * @param features Defined at the top of both shaders
+	 */
+	public ShaderProgram( String vertexFile,
+			String fragmentFile,
+			Loader loader,
+			ShaderFeatures features )
+	{
+		this.features = features;
+		this.loader = loader;
+		this.variants = new HashMap<>();
+		variants.put(features.getKey(), this);
+		
 		try
 		{
 			// Compile the shaders
-			vertexShaderID = loadShader(vertexFile, GL20.GL_VERTEX_SHADER, loader);
-			fragmentShaderID = loadShader(fragmentFile, GL20.GL_FRAGMENT_SHADER, loader);
+			String defines = features.getDefines();
+			vertexShaderID = loadShader(vertexFile, GL20.GL_VERTEX_SHADER, loader, defines);
+			fragmentShaderID = loadShader(fragmentFile, GL20.GL_FRAGMENT_SHADER, loader,
+					defines);
 			
 			// Create the shader program
-			programID = GL20.glCreateProgram();
+			programID = GPUResourceManager.createProgram(getClass().getSimpleName());
 			// Attach both shaders to the program
 			GL20.glAttachShader(programID, vertexShaderID);
 			GL20.glAttachShader(programID, fragmentShaderID);
@@ -77,8 +157,14 @@ public abstract class ShaderProgram {
 			// Validate the shader program
 			GL20.glValidateProgram(programID);
 			
+			// Read the per-frame data from the shared uniform buffer
+			bindFrameUniformBlock();
 			// Load up all the uniform var locations
 			getAllUniformVarLocations();
+			// The mesh decoding variables are shared by the shaders
+			location_positionScale = getUniformVarLocation("positionScale");
+			location_positionOffset = getUniformVarLocation("positionOffset");
+			location_useOctahedralNormals = getUniformVarLocation("useOctahedralNormals");
 			
 		}
 		catch (IOException e)
@@ -105,6 +191,60 @@ public abstract class ShaderProgram {
 		return GL20.glGetUniformLocation(programID, uniformName);
 	}
 	
+	/**
+	 * Point the FrameData uniform block at the binding of the frame uniform buffer, when
+	 * the shader uses it
+	 */
+	private void bindFrameUniformBlock()
+	{
+		int blockIndex = GL31.glGetUniformBlockIndex(programID,
+				FrameUniformBuffer.BLOCK_NAME);
+		if ( blockIndex != GL31.GL_INVALID_INDEX )
+		{
+			GL31.glUniformBlockBinding(programID, blockIndex, FrameUniformBuffer.BINDING);
+		}
+	}
+	
+	/**
+	 * @return the features this program was compiled with
+	 */
+	public ShaderFeatures getFeatures()
+	{
+		return this.features;
+	}
+	
+	/**
+	 * Get the variant of this program with other features, it is compiled the first time
+	 * it is asked for
+	 * 
+	 * @param featureKey A key made by ShaderFeatures.getKey
+	 * @return the variant
+	 */
+	protected ShaderProgram getVariant( int featureKey )
+	{
+		ShaderProgram variant = variants.get(featureKey);
+		if ( variant == null )
+		{
+			variant = createVariant(new ShaderFeatures(featureKey), loader);
+			variants.put(featureKey, variant);
+		}
+		return variant;
+	}
+	
+	/**
+	 * Create a program of the same shaders with other features, programs with variants
+	 * override this
+	 * 
+	 * @param features
+	 * @param loader
+	 * @return the new program
+	 */
+	protected ShaderProgram createVariant( ShaderFeatures features, Loader loader )
+	{
+		throw new IllegalStateException(getClass().getSimpleName()
+				+ " can't be compiled with other features");
+	}
+	
 	/**
 	 * Link VAO attributes to the input vars of the shaders
 	 */
@@ -122,12 +262,24 @@ public abstract class ShaderProgram {
 		GL20.glBindAttribLocation(programID, attribute, variableName);
 	}
 	
+	/**
+	 * Tell the shader how to decode the positions and normals of the next model
+	 * 
+	 * @param encoding
+	 */
+	public void loadMeshEncoding( MeshEncoding encoding )
+	{
+		load3DVector(location_positionScale, encoding.getPositionScale());
+		load3DVector(location_positionOffset, encoding.getPositionOffset());
+		loadBoolean(location_useOctahedralNormals, encoding.isOctahedralNormals());
+	}
+	
 	/**
 	 * Start the shaderprogram, every draw call will no run this shader
 	 */
 	public void start()
 	{
-		GL20.glUseProgram(programID);
+		GLStateCache.useProgram(programID);
 	}
 	
 	/**
@@ -135,7 +287,7 @@ public abstract class ShaderProgram {
 	 */
 	public void stop()
 	{
-		GL20.glUseProgram(0);
+		GLStateCache.useProgram(0);
 	}
 	
 	/**
@@ -146,16 +298,26 @@ public abstract class ShaderProgram {
 		// Stop just in case
 		stop();
 		
+		// Release the variants compiled from this program
+		for (ShaderProgram variant : variants.values())
+		{
+			if ( variant != this )
+			{
+				variant.cleanUp();
+			}
+		}
+		variants.clear();
+		
 		// Detach the shaders
 		GL20.glDetachShader(programID, vertexShaderID);
 		GL20.glDetachShader(programID, fragmentShaderID);
 		
 		// Delete the shaders
-		GL20.glDeleteShader(vertexShaderID);
-		GL20.glDeleteShader(fragmentShaderID);
+		GPUResourceManager.delete(GPUResourceType.SHADER, vertexShaderID);
+		GPUResourceManager.delete(GPUResourceType.SHADER, fragmentShaderID);
 		
 		// Remove the program
-		GL20.glDeleteProgram(programID);
+		GPUResourceManager.delete(GPUResourceType.PROGRAM, programID);
 	}
 	
 	/**
@@ -163,10 +325,11 @@ public abstract class ShaderProgram {
 	 * 
 	 * @param file
 	 * @param type
+	 * @param defines The #define lines to put after the #version line
 	 * @return
 	 * @throws IOException
 	 */
-	private static int loadShader( String file, int type, Loader loader )
+	private static int loadShader( String file, int type, Loader loader, String defines )
 			throws IOException
 	{
 		// Read the file
@@ -182,11 +345,22 @@ public abstract class ShaderProgram {
 			lines.add(line);
 		}
 		
+		// The defines go after the #version line, which has to come first
+		if ( lines.isEmpty() == false && lines.get(0).trim().startsWith("#version") )
+		{
+			// Keep the line numbers of the compile errors those of the file
+			lines.add(1, defines + "#line 2");
+		}
+		else
+		{
+			lines.add(0, defines + "#line 1");
+		}
+		
 		// Concat everything
 		String collectedLines = String.join("\n", lines);
 		
 		// Create a shader program
-		int shaderID = GL20.glCreateShader(type);
+		int shaderID = GPUResourceManager.createShader(type, file);
 		// Set the shader source
 		GL20.glShaderSource(shaderID, collectedLines);
 		// Compile the shader
@@ -212,7 +386,10 @@ public abstract class ShaderProgram {
 	 */
 	protected void loadFloat( int location, float value )
 	{
-		GL20.glUniform1f(location, value);
+		if ( isUploaded(location, Float.floatToRawIntBits(value), 0, 0) == false )
+		{
+			GL20.glUniform1f(location, value);
+		}
 	}
 	
 	/**
@@ -223,7 +400,12 @@ public abstract class ShaderProgram {
 	 */
 	protected void load3DVector( int location, Vector3f vector )
 	{
-		GL20.glUniform3f(location, vector.getX(), vector.getY(), vector.getZ());
+		if ( isUploaded(location, Float.floatToRawIntBits(vector.getX()), Float
+				.floatToRawIntBits(vector.getY()), Float.floatToRawIntBits(vector
+				.getZ())) == false )
+		{
+			GL20.glUniform3f(location, vector.getX(), vector.getY(), vector.getZ());
+		}
 	}
 	
 	/**
@@ -234,7 +416,23 @@ public abstract class ShaderProgram {
 	 */
 	protected void load2DVector( int location, Vector2f vector )
 	{
-		GL20.glUniform2f(location, vector.getX(), vector.getY());
+		load2DVector(location, vector.getX(), vector.getY());
+	}
+	
+	/**
+	 * Load a 2D vector, given by its components, into a uniform variable
+	 * 
+	 * @param location
+	 * @param x
+	 * @param y
+	 */
+	protected void load2DVector( int location, float x, float y )
+	{
+		if ( isUploaded(location, Float.floatToRawIntBits(x), Float.floatToRawIntBits(y),
+				0) == false )
+		{
+			GL20.glUniform2f(location, x, y);
+		}
 	}
 	
 	/**
@@ -252,7 +450,7 @@ public abstract class ShaderProgram {
 			loadValue = 1;
 		}
 		
-		GL20.glUniform1f(location, loadValue);
+		loadFloat(location, loadValue);
 	}
 	
 	/**
@@ -263,6 +461,11 @@ public abstract class ShaderProgram {
 	 */
 	protected void loadMatrix( int location, Matrix4f matrix )
 	{
+		if ( isMatrixUploaded(location, matrix) == true )
+		{
+			return;
+		}
+		
 		// Store the matrix into the buffer
 		matrix.store(MAT4FBuffer);
 		// Flip the buffer
@@ -284,7 +487,167 @@ public abstract class ShaderProgram {
 	 */
 	protected void loadInteger( int location, int value )
 	{
-		GL20.glUniform1i(location, value);
+		if ( isUploaded(location, value, 0, 0) == false )
+		{
+			GL20.glUniform1i(location, value);
+		}
+	}
+	
+	/**
+	 * @return the amount of uniform uploads that went to OpenGL since the last reset
+	 */
+	public static long getIssuedUniformUploads()
+	{
+		return issuedUniformUploads;
+	}
+	
+	/**
+	 * @return the amount of unchanged uniform uploads that were skipped since the last
+	 *         reset
+	 */
+	public static long getSkippedUniformUploads()
+	{
+		return skippedUniformUploads;
+	}
+	
+	/**
+	 * Start counting from 0, at the start of every frame
+	 */
+	public static void resetUniformCounters()
+	{
+		issuedUniformUploads = 0;
+		skippedUniformUploads = 0;
+	}
+	
+	// ------------------------------------------------------------------------
+	
+	/**
+	 * Check the shadow copy of a location against a value of up to three components,
+	 * and remember the value when it differs. Unused components are 0.
+	 * 
+	 * @param location
+	 * @param x The raw bits of the first component
+	 * @param y The raw bits of the second component
+	 * @param z The raw bits of the third component
+	 * @return true when the location already holds the value, or doesn't exist
+	 */
+	private boolean isUploaded( int location, int x, int y, int z )
+	{
+		if ( location < 0 )
+		{
+			// OpenGL ignores uploads to variables the shader doesn't use
+			skippedUniformUploads++;
+			return true;
+		}
+		
+		int[] value = getUniformValue(location, 3);
+		if ( value != null && value[0] == x && value[1] == y && value[2] == z )
+		{
+			skippedUniformUploads++;
+			return true;
+		}
+		
+		value = setUniformValue(location, 3);
+		value[0] = x;
+		value[1] = y;
+		value[2] = z;
+		issuedUniformUploads++;
+		return false;
+	}
+	
+	/**
+	 * Check the shadow copy of a location against a matrix, element by element without
+	 * storing it anywhere first, and remember the matrix when it differs
+	 * 
+	 * @param location
+	 * @param matrix
+	 * @return true when the location already holds the matrix, or doesn't exist
+	 */
+	private boolean isMatrixUploaded( int location, Matrix4f matrix )
+	{
+		if ( location < 0 )
+		{
+			// OpenGL ignores uploads to variables the shader doesn't use
+			skippedUniformUploads++;
+			return true;
+		}
+		
+		// The same column major order the matrix is stored in
+		int[] value = getUniformValue(location, Matrix4f.SIZE);
+		if ( value != null && value[0] == Float.floatToRawIntBits(matrix.m00)
+				&& value[1] == Float.floatToRawIntBits(matrix.m01)
+				&& value[2] == Float.floatToRawIntBits(matrix.m02)
+				&& value[3] == Float.floatToRawIntBits(matrix.m03)
+				&& value[4] == Float.floatToRawIntBits(matrix.m10)
+				&& value[5] == Float.floatToRawIntBits(matrix.m11)
+				&& value[6] == Float.floatToRawIntBits(matrix.m12)
+				&& value[7] == Float.floatToRawIntBits(matrix.m13)
+				&& value[8] == Float.floatToRawIntBits(matrix.m20)
+				&& value[9] == Float.floatToRawIntBits(matrix.m21)
+				&& value[10] == Float.floatToRawIntBits(matrix.m22)
+				&& value[11] == Float.floatToRawIntBits(matrix.m23)
+				&& value[12] == Float.floatToRawIntBits(matrix.m30)
+				&& value[13] == Float.floatToRawIntBits(matrix.m31)
+				&& value[14] == Float.floatToRawIntBits(matrix.m32)
+				&& value[15] == Float.floatToRawIntBits(matrix.m33) )
+		{
+			skippedUniformUploads++;
+			return true;
+		}
+		
+		value = setUniformValue(location, Matrix4f.SIZE);
+		value[0] = Float.floatToRawIntBits(matrix.m00);
+		value[1] = Float.floatToRawIntBits(matrix.m01);
+		value[2] = Float.floatToRawIntBits(matrix.m02);
+		value[3] = Float.floatToRawIntBits(matrix.m03);
+		value[4] = Float.floatToRawIntBits(matrix.m10);
+		value[5] = Float.floatToRawIntBits(matrix.m11);
+		value[6] = Float.floatToRawIntBits(matrix.m12);
+		value[7] = Float.floatToRawIntBits(matrix.m13);
+		value[8] = Float.floatToRawIntBits(matrix.m20);
+		value[9] = Float.floatToRawIntBits(matrix.m21);
+		value[10] = Float.floatToRawIntBits(matrix.m22);
+		value[11] = Float.floatToRawIntBits(matrix.m23);
+		value[12] = Float.floatToRawIntBits(matrix.m30);
+		value[13] = Float.floatToRawIntBits(matrix.m31);
+		value[14] = Float.floatToRawIntBits(matrix.m32);
+		value[15] = Float.floatToRawIntBits(matrix.m33);
+		issuedUniformUploads++;
+		return false;
+	}
+	
+	/**
+	 * @param location
+	 * @param size The amount of components of the value
+	 * @return the shadow copy of a location, null when nothing of that size was uploaded
+	 */
+	private int[] getUniformValue( int location, int size )
+	{
+		if ( location >= uniformValues.length )
+		{
+			return null;
+		}
+		int[] value = uniformValues[location];
+		return value != null && value.length == size ? value : null;
+	}
+	
+	/**
+	 * @param location
+	 * @param size The amount of components of the value
+	 * @return the shadow copy of a location to overwrite, created when needed
+	 */
+	private int[] setUniformValue( int location, int size )
+	{
+		if ( location >= uniformValues.length )
+		{
+			uniformValues = Arrays.copyOf(uniformValues, Math.max(location + 1,
+					uniformValues.length * 2));
+		}
+		if ( uniformValues[location] == null || uniformValues[location].length != size )
+		{
+			uniformValues[location] = new int[size];
+		}
+		return uniformValues[location];
 	}
 	
 }
@@ -3,15 +3,8 @@
  */
 package shader;
 
-import java.util.List;
-
-import camera.Camera;
-import entity.light.Light;
 import loader.Loader;
-import math.Maths;
 import math.matrix.Matrix4f;
-import math.vector.Vector2f;
-import math.vector.Vector3f;
 import render.Render;
 
 /**
@@ -35,29 +28,9 @@ public class StaticShader extends ShaderProgram {
 	private int location_transformationMatrix;
 	
 	/**
-	 * The location of the shader variable projectionmatrix
-	 */
-	private int location_projectionMatrix;
-	
-	/**
-	 * The location of the shader variable viewmatrix
-	 */
-	private int location_viewMatrix;
-	
-	/**
-	 * The locations of the shader variables lightPosition[2]
-	 */
-	private int location_lightPosition[];
-	
-	/**
-	 * The locations of the shader variables lightColour[2]
+	 * The location of the shader variable useInstancing
 	 */
-	private int location_lightColour[];
-	
-	/**
-	 * The locations of the shader variables attenuation[2]
-	 */
-	private int location_attenuation[];
+	private int location_useInstancing;
 	
 	/**
 	 * The location of the shader variable shineDamper
@@ -69,21 +42,6 @@ public class StaticShader extends ShaderProgram {
 	 */
 	private int location_reflectivity;
 	
-	/**
-	 * The location of the shader variable useFakeLighting
-	 */
-	private int location_useFakeLighting;
-	
-	/**
-	 * The location of the shader variable wireframe
-	 */
-	private int location_wireframe;
-	
-	/**
-	 * The location of the shader variable skycolour
-	 */
-	private int location_skyColour;
-	
 	/**
 	 * The location of the shader variable wireframe
 	 */
@@ -103,6 +61,46 @@ public class StaticShader extends ShaderProgram {
 		super(VERTEX_SHADER_FILE, FRAGMENT_SHADER_FILE, loader);
 	}
 	
+	/**
+	 * Constructor of a variant
+	 * 
+	 * @param loader
+	 * @param features
+	 */
+	private StaticShader( Loader loader, ShaderFeatures features )
+	{
+		super(VERTEX_SHADER_FILE, FRAGMENT_SHADER_FILE, loader, features);
+	}
+	
+	/**
+	 * Get the variant that draws a model with the given features, compiled the first
+	 * time it is asked for
+	 * 
+	 * @param wireframe Draw the outline in the wireframe colour
+	 * @param fakeLighting Light the model as if every normal points up
+	 * @param lightCount The amount of lights in the scene
+	 * @param transparency Discard the transparent texels of the texture
+	 * @return the variant
+	 */
+	public StaticShader getVariant( boolean wireframe,
+			boolean fakeLighting,
+			int lightCount,
+			boolean transparency )
+	{
+		return (StaticShader) super.getVariant(ShaderFeatures.getKey(wireframe,
+				fakeLighting, lightCount, transparency));
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see shader.ShaderProgram#createVariant(shader.ShaderFeatures, loader.Loader)
+	 */
+	@Override
+	protected ShaderProgram createVariant( ShaderFeatures features, Loader loader )
+	{
+		return new StaticShader(loader, features);
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see shader.ShaderProgram#bindAttributes()
@@ -116,6 +114,10 @@ public class StaticShader extends ShaderProgram {
 		super.bindAttribute(Render.TEXTURE_COORD_ATTR_INDEX, "textureCoords");
 		// Connect the normals VBO to the VAO
 		super.bindAttribute(Render.NORMALS_ATTR_INDEX, "normal");
+		// Connect the per-instance transformation matrix, uses 4 indices
+		super.bindAttribute(Render.INSTANCE_MATRIX_ATTR_INDEX, "instanceTransformationMatrix");
+		// Connect the per-instance texture offset
+		super.bindAttribute(Render.INSTANCE_TEX_OFFSET_ATTR_INDEX, "instanceTexOffset");
 		
 	}
 	
@@ -127,25 +129,9 @@ public class StaticShader extends ShaderProgram {
 	protected void getAllUniformVarLocations()
 	{
 		location_transformationMatrix = super.getUniformVarLocation("transformationMatrix");
-		location_projectionMatrix = super.getUniformVarLocation("projectionMatrix");
-		location_viewMatrix = super.getUniformVarLocation("viewMatrix");
+		location_useInstancing = super.getUniformVarLocation("useInstancing");
 		location_shineDamper = super.getUniformVarLocation("shineDamper");
 		location_reflectivity = super.getUniformVarLocation("reflectivity");
-		location_useFakeLighting = super.getUniformVarLocation("useFakeLighting");
-		location_wireframe = super.getUniformVarLocation("wireframe");
-		location_skyColour = super.getUniformVarLocation("skyColour");
-		
-		// initialise arrays of lightPosition and lightColour
-		location_lightPosition = new int[MAX_LIGHTS_IN_SHADERS];
-		location_lightColour = new int[MAX_LIGHTS_IN_SHADERS];
-		location_attenuation = new int[MAX_LIGHTS_IN_SHADERS];
-		
-		for(int i=0; i<MAX_LIGHTS_IN_SHADERS; i++){
-			location_lightPosition[i] = super.getUniformVarLocation("lightPosition[" + i +"]");
-			location_lightColour[i] = super.getUniformVarLocation("lightColour[" + i +"]");
-			location_attenuation[i] = super.getUniformVarLocation("attenuation[" + i + "]");
-		}
-		
 		location_numberOfTextureRows = super.getUniformVarLocation("numberOfTextureRows");
 		location_texOffset = super.getUniformVarLocation("texOffset");
 	}
@@ -161,51 +147,14 @@ public class StaticShader extends ShaderProgram {
 	}
 	
 	/**
-	 * Load a projection matrix into the shader
-	 * 
-	 * @param matrix
-	 */
-	public void loadProjectionMatrix( Matrix4f matrix )
-	{
-		super.loadMatrix(location_projectionMatrix, matrix);
-	}
-	
-	/**
-	 * Load a view matrix into the shader
-	 * 
-	 * @param matrix
-	 */
-	public void loadviewMatrix( Camera camera )
-	{
-		// Generate the viewmatrix based on the camera
-		// Matrix4f matrix = Maths.createViewMatrix(camera);
-		// Store the viewmatrix
-		super.loadMatrix(location_viewMatrix, camera.getViewMatrix());
-	}
-	
-	/**
-	 * Loads multiple light objects into the shader
+	 * Tell the shader to read the transformation from the per-instance attributes instead
+	 * of the transformationMatrix variable
 	 * 
-	 * @param light
+	 * @param useInstancing
 	 */
-	public void loadLights( List<Light> lights )
+	public void loadInstancingVariable( boolean useInstancing )
 	{
-		for(int i=0; i<MAX_LIGHTS_IN_SHADERS; i++){
-			if(i<lights.size()){
-				// load light position in
-				super.load3DVector(location_lightPosition[i], lights.get(i).getPosition());
-				// load light colour in
-				super.load3DVector(location_lightColour[i], lights.get(i).getColor());
-				// load light attenuation in
-				super.load3DVector(location_attenuation[i], lights.get(i).getAttenuation());
-			}
-			else{ // if there are less lights than available light posions
-				// load 'empty' lights in
-				super.load3DVector(location_lightPosition[i], new Vector3f(0,0,0));
-				super.load3DVector(location_lightColour[i], new Vector3f(0,0,0));
-				super.load3DVector(location_attenuation[i], new Vector3f(1,0,0));
-			}
-		}
+		super.loadBoolean(location_useInstancing, useInstancing);
 	}
 	
 	/**
@@ -222,39 +171,6 @@ public class StaticShader extends ShaderProgram {
 		super.loadFloat(location_reflectivity, reflectivity);
 	}
 	
-	/**
-	 * Tell the shader to apply a fake light
-	 * 
-	 * @param useFakeLighting
-	 */
-	public void loadFakeLightingVariable( boolean useFakeLighting )
-	{
-		// Load the variable into the shade
-		super.loadBoolean(location_useFakeLighting, useFakeLighting);
-	}
-	
-	/**
-	 * Tell the shader to render in wireframe mode
-	 * 
-	 * @param wireframe
-	 */
-	public void loadWireframeVariable( boolean wireframe )
-	{
-		// Load the var
-		super.loadBoolean(location_wireframe, wireframe);
-	}
-	
-	/**
-	 * Add a sky colour to the shader
-	 * 
-	 * @param sky
-	 */
-	public void loadSkyColour( Vector3f sky )
-	{
-		// Load the var
-		super.load3DVector(location_skyColour, sky);
-	}
-	
 	/**
 	 * Load the number of texture rows present in the texture
 	 * 
@@ -274,7 +190,7 @@ public class StaticShader extends ShaderProgram {
 	 */
 	public void loadTextureOffset( float x, float y )
 	{
-		super.load2DVector(location_texOffset, new Vector2f(x, y));
+		super.load2DVector(location_texOffset, x, y);
 		
 		//System.out.println("Loading texture offset: " + x + "x" + y);
 	}
@@ -4,6 +4,9 @@
 package terrain;
 
 import loader.Loader;
+import math.matrix.Matrix4f;
+import math.vector.Vector3f;
+import occlusion.Occluder;
 import entity.model.Model;
 import entity.texture.ModelTexture;
 
@@ -125,6 +128,22 @@ public class Terrain {
 		return loader.loadToVAO(vertices, textureCoords, normals, indices);
 	}
 	
+	/**
+	 * Create the occluder of this terrain, the surface is flat so two triangles cover it
+	 * 
+	 * @return
+	 */
+	public Occluder createOccluder()
+	{
+		float[] positions = { 0, 0, 0, SIZE, 0, 0, 0, 0, SIZE, SIZE, 0, SIZE };
+		int[] indices = { 0, 2, 1, 1, 2, 3 };
+		
+		// Place it on the position of the terrain
+		Matrix4f transformation = new Matrix4f();
+		transformation.translate(new Vector3f(x, 0, z));
+		return new Occluder(positions, indices, transformation);
+	}
+	
 	/**
 	 * @return
 	 */